@@ -0,0 +1,123 @@
+package checkers.inference;
+
+import checkers.inference.model.Slot;
+import checkers.inference.model.VariableSlot;
+import checkers.inference.quals.VarAnnot;
+import org.checkerframework.framework.util.AnnotationBuilder;
+
+import java.lang.annotation.Annotation;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.TypeElement;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.ToolProvider;
+
+/**
+ * Compares DefaultSlotManager.getSlot with looking the variable up by parsing the string form of the VarAnnot
+ * value, which is how getSlot used to decode ids.  The VarAnnots are real javac annotations built with
+ * AnnotationBuilder, so the benchmark runs in an annotation processor of a javac instance that compiles nothing
+ * (see ConcurrentGenerationTest).  Not run as part of the tests; compile the benchmarks source set and run:
+ *
+ *   java -cp <classpath> checkers.inference.VarAnnotIdDecodingBenchmark [ids] [rounds]
+ */
+public class VarAnnotIdDecodingBenchmark {
+
+    public static void main(String [] args) {
+        final int numIds = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        final BenchmarkProcessor processor = new BenchmarkProcessor(numIds, rounds);
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final JavaCompiler.CompilationTask task = compiler.getTask(null, null, null,
+                Arrays.asList("-proc:only", "-classpath", System.getProperty("java.class.path")),
+                Collections.singletonList("java.lang.Object"), Collections.<JavaFileObject>emptyList());
+        task.setProcessors(Collections.singletonList(processor));
+        task.call();
+        if (processor.failure != null) {
+            throw processor.failure;
+        }
+    }
+
+    private static void run(ProcessingEnvironment processingEnvironment, int numIds, int rounds) {
+        final DefaultSlotManager slotManager = new DefaultSlotManager(processingEnvironment,
+                Collections.<Class<? extends Annotation>>emptySet());
+
+        final AnnotationMirror [] varAnnots = new AnnotationMirror[numIds];
+        for (int i = 0; i < numIds; i++) {
+            final VariableSlot variable = new VariableSlot(null, slotManager.nextId());
+            slotManager.addVariable(variable);
+
+            final AnnotationBuilder builder = new AnnotationBuilder(processingEnvironment, VarAnnot.class);
+            builder.setValue("value", variable.getId());
+            varAnnots[i] = builder.build();
+        }
+
+        long checksum = 0;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            for (AnnotationMirror varAnnot : varAnnots) {
+                final AnnotationValue annoValue = varAnnot.getElementValues().values().iterator().next();
+                checksum += slotManager.getVariable(Integer.valueOf(annoValue.toString())).getId();
+            }
+            final long parseNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (AnnotationMirror varAnnot : varAnnots) {
+                final Slot slot = slotManager.getSlot(varAnnot);
+                checksum += ((VariableSlot) slot).getId();
+            }
+            final long getSlotNanos = System.nanoTime() - start;
+
+            System.out.println(String.format("round %d: toString/valueOf %.1f ns/slot, getSlot %.1f ns/slot",
+                    round, (double) parseNanos / numIds, (double) getSlotNanos / numIds));
+        }
+
+        // Keep the loops from being optimized away
+        System.out.println("checksum " + checksum);
+    }
+
+    private static class BenchmarkProcessor extends AbstractProcessor {
+        private final int numIds;
+        private final int rounds;
+
+        private boolean done = false;
+        private RuntimeException failure;
+
+        BenchmarkProcessor(int numIds, int rounds) {
+            this.numIds = numIds;
+            this.rounds = rounds;
+        }
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return Collections.singleton("*");
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return SourceVersion.latestSupported();
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            if (!done && !roundEnv.processingOver()) {
+                done = true;
+                try {
+                    run(processingEnv, numIds, rounds);
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+            }
+            return false;
+        }
+    }
+}
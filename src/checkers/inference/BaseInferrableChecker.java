@@ -8,6 +8,7 @@ import org.checkerframework.framework.flow.CFValue;
 import org.checkerframework.framework.type.GenericAnnotatedTypeFactory;
 import org.checkerframework.javacutil.Pair;
 
+import java.util.Collections;
 import java.util.List;
 
 import javax.lang.model.element.VariableElement;
@@ -76,4 +77,9 @@ public abstract class BaseInferrableChecker extends InferenceChecker implements
     public boolean isConstant(Tree node) {
         return false;
     }
+
+    @Override
+    public List<Normalizer> createNormalizers() {
+        return Collections.emptyList();
+    }
 }
@@ -2,8 +2,12 @@ package checkers.inference;
 
 import java.io.PrintWriter;
 
+import javax.tools.JavaFileManager;
+
+import com.sun.tools.javac.file.JavacFileManager;
 import com.sun.tools.javac.main.Main;
 import com.sun.tools.javac.main.Main.Result;
+import com.sun.tools.javac.util.Context;
 
 public class CheckerFrameworkUtil {
 
@@ -12,4 +16,31 @@ public class CheckerFrameworkUtil {
         Result compilerResult = compiler.compile(args);
         return compilerResult == Result.OK;
     }
+
+    /**
+     * Like invokeCheckerFramework(String[], PrintWriter) but the compilation uses the given file manager
+     * rather than creating its own.  Passing the same file manager to consecutive compilations in one JVM
+     * lets them share its cache of opened jars and directory listings (e.g. of the annotated JDK), which
+     * javac would otherwise rebuild for every compilation.
+     *
+     * Each compilation still gets its own Context and therefore its own symbol table; javac fills the symbol
+     * table while compiling, so it cannot be safely reused by a later compilation.
+     */
+    public static boolean invokeCheckerFramework(String[] args, PrintWriter outputCapture,
+                                                 JavacFileManager sharedFileManager) {
+        Context context = new Context();
+        context.put(JavaFileManager.class, sharedFileManager);
+        sharedFileManager.setContext(context);
+
+        Main compiler = new Main("javac", outputCapture);
+        Result compilerResult = compiler.compile(args, context);
+        return compilerResult == Result.OK;
+    }
+
+    /**
+     * @return a file manager that can be passed to invokeCheckerFramework for multiple compilations
+     */
+    public static JavacFileManager createSharedFileManager() {
+        return new JavacFileManager(new Context(), false, null);
+    }
 }
@@ -0,0 +1,473 @@
+package checkers.inference;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import checkers.inference.model.CombineConstraint;
+import checkers.inference.model.ComparableConstraint;
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.InequalityConstraint;
+import checkers.inference.model.PreferenceConstraint;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SubtypeConstraint;
+import checkers.inference.model.VariableSlot;
+
+/**
+ * A ConstraintManager that keeps binary constraints in parallel primitive arrays rather than as one object
+ * each (see InferenceOptions.compactConstraints).  Each constraint is a row: a kind code, the codes of its
+ * first and second slot and an extra column that holds the result slot of CombineConstraints and the weight
+ * of PreferenceConstraints.  The extra column is only allocated once such a constraint is added.
+ *
+ * The code of a VariableSlot is its id and the code of a ConstantSlot is -(i + 1) where i is its index in a
+ * table of the distinct constants.  The slots themselves are kept once per slot, not per constraint.
+ * ExistentialConstraints, and constraints of other classes, are kept as objects in a side table.
+ *
+ * Rows are deduplicated with an open-addressing table of row numbers.  getConstraints creates a Constraint
+ * for each row only as it is iterated: its size and contains are answered from the rows.
+ *
+ * Solvers can read the rows directly instead of the constraints: getKind, getFirst, getSecond and getExtra
+ * return the columns of a row, getSlot decodes a slot code and getRowsOf finds the rows a variable occurs in.
+ * CompactConstraintManager.of gives a solver the rows of the constraints it is passed (see PropagationSolver).
+ */
+public class CompactConstraintManager extends ConstraintManager {
+
+    public static final byte SUBTYPE = 0;
+    public static final byte EQUALITY = 1;
+    public static final byte INEQUALITY = 2;
+    public static final byte COMPARABLE = 3;
+    public static final byte COMBINE = 4;
+    public static final byte PREFERENCE = 5;
+
+    private byte [] kinds = new byte[1024];
+    private int [] firsts = new int[1024];
+    private int [] seconds = new int[1024];
+    private int [] extras;
+    private int rowCount = 0;
+
+    // Row number + 1 of each row, or 0 for an empty entry.  The length is a power of two.
+    private int [] rowTable = new int[2048];
+
+    private final SlotStore variables = new SlotStore();
+    private final List<ConstantSlot> constants = new ArrayList<>();
+    private final Map<ConstantSlot, Integer> constantCodes = new HashMap<>();
+
+    private final Set<Constraint> otherConstraints = new LinkedHashSet<>();
+
+    // (variable id << 32 | row) for each variable of each row, sorted, or null if rows were added since it
+    // was built, see getRowsOf
+    private long [] slotRows;
+
+    public CompactConstraintManager() {
+        super(null);
+    }
+
+    /**
+     * @return the manager whose getConstraints constraints is, otherwise a new manager with constraints added
+     */
+    public static CompactConstraintManager of(Collection<Constraint> constraints) {
+        if (constraints instanceof Rows) {
+            return ((Rows) constraints).getManager();
+        }
+
+        final CompactConstraintManager manager = new CompactConstraintManager();
+        for (Constraint constraint : constraints) {
+            manager.add(constraint);
+        }
+        return manager;
+    }
+
+    @Override
+    protected void store(Constraint constraint) {
+        final Class<?> constraintClass = constraint.getClass();
+        if (constraintClass.equals(SubtypeConstraint.class)) {
+            final SubtypeConstraint subtype = (SubtypeConstraint) constraint;
+            addRow(SUBTYPE, subtype.getSubtype(), subtype.getSupertype(), 0);
+        } else if (constraintClass.equals(EqualityConstraint.class)) {
+            final EqualityConstraint equality = (EqualityConstraint) constraint;
+            addRow(EQUALITY, equality.getFirst(), equality.getSecond(), 0);
+        } else if (constraintClass.equals(InequalityConstraint.class)) {
+            final InequalityConstraint inequality = (InequalityConstraint) constraint;
+            addRow(INEQUALITY, inequality.getFirst(), inequality.getSecond(), 0);
+        } else if (constraintClass.equals(ComparableConstraint.class)) {
+            final ComparableConstraint comparable = (ComparableConstraint) constraint;
+            addRow(COMPARABLE, comparable.getFirst(), comparable.getSecond(), 0);
+        } else if (constraintClass.equals(CombineConstraint.class)) {
+            final CombineConstraint combine = (CombineConstraint) constraint;
+            addRow(COMBINE, combine.getTarget(), combine.getDeclared(), encode(combine.getResult()));
+        } else if (constraintClass.equals(PreferenceConstraint.class)) {
+            final PreferenceConstraint preference = (PreferenceConstraint) constraint;
+            addRow(PREFERENCE, preference.getVariable(), preference.getGoal(), preference.getWeight());
+        } else {
+            otherConstraints.add(constraint);
+        }
+    }
+
+    /**
+     * Rows are compared by their codes, so there is nothing to intern.
+     */
+    @Override
+    protected Constraint find(ConstraintKey key) {
+        return null;
+    }
+
+    private void addRow(byte kind, Slot first, Slot second, int extra) {
+        final int firstCode = encode(first);
+        final int secondCode = encode(second);
+
+        final int entry = probe(kind, firstCode, secondCode, extra);
+        if (rowTable[entry] != 0) {
+            return;
+        }
+
+        if (rowCount == kinds.length) {
+            final int capacity = kinds.length * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            firsts = Arrays.copyOf(firsts, capacity);
+            seconds = Arrays.copyOf(seconds, capacity);
+            if (extras != null) {
+                extras = Arrays.copyOf(extras, capacity);
+            }
+        }
+        if (extra != 0 && extras == null) {
+            extras = new int[kinds.length];
+        }
+
+        final int row = rowCount++;
+        kinds[row] = kind;
+        firsts[row] = firstCode;
+        seconds[row] = secondCode;
+        if (extras != null) {
+            extras[row] = extra;
+        }
+        rowTable[entry] = row + 1;
+        slotRows = null;
+
+        if (rowCount * 2 > rowTable.length) {
+            rehash();
+        }
+    }
+
+    /**
+     * @return the entry of rowTable that holds the row with the given codes, or the empty entry where it
+     *         would be added
+     */
+    private int probe(byte kind, int firstCode, int secondCode, int extra) {
+        final int mask = rowTable.length - 1;
+        int entry = hash(kind, firstCode, secondCode, extra) & mask;
+        while (rowTable[entry] != 0 && !rowEquals(rowTable[entry] - 1, kind, firstCode, secondCode, extra)) {
+            entry = (entry + 1) & mask;
+        }
+        return entry;
+    }
+
+    private static boolean isSymmetric(byte kind) {
+        return kind == EQUALITY || kind == INEQUALITY || kind == COMPARABLE;
+    }
+
+    private static int hash(byte kind, int firstCode, int secondCode, int extra) {
+        // Symmetric constraints hash the same in either order, as their equals methods require
+        final int slots = isSymmetric(kind) ? mix(firstCode) + mix(secondCode) : mix(firstCode) * 31 + secondCode;
+        return mix(slots * 31 + kind * 17 + extra);
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private boolean rowEquals(int row, byte kind, int firstCode, int secondCode, int extra) {
+        if (kinds[row] != kind || getExtra(row) != extra) {
+            return false;
+        }
+        if (firsts[row] == firstCode && seconds[row] == secondCode) {
+            return true;
+        }
+        return isSymmetric(kind) && firsts[row] == secondCode && seconds[row] == firstCode;
+    }
+
+    private void rehash() {
+        rowTable = new int[rowTable.length * 2];
+        final int mask = rowTable.length - 1;
+        for (int row = 0; row < rowCount; row++) {
+            int entry = hash(kinds[row], firsts[row], seconds[row], getExtra(row)) & mask;
+            while (rowTable[entry] != 0) {
+                entry = (entry + 1) & mask;
+            }
+            rowTable[entry] = row + 1;
+        }
+    }
+
+    private int encode(Slot slot) {
+        if (slot instanceof VariableSlot) {
+            final VariableSlot variable = (VariableSlot) slot;
+            if (variables.get(variable.getId()) != variable) {
+                variables.put(variable);
+            }
+            return variable.getId();
+        }
+
+        final ConstantSlot constant = (ConstantSlot) slot;
+        Integer code = constantCodes.get(constant);
+        if (code == null) {
+            constants.add(constant);
+            code = -constants.size();
+            constantCodes.put(constant, code);
+        }
+        return code;
+    }
+
+    /**
+     * @return the code of slot, or null if no row refers to the constant slot
+     */
+    private Integer codeOf(Slot slot) {
+        if (slot instanceof VariableSlot) {
+            return ((VariableSlot) slot).getId();
+        }
+        return constantCodes.get(slot);
+    }
+
+    /**
+     * @return the slot with the given code
+     */
+    public Slot getSlot(int code) {
+        return code < 0 ? constants.get(-code - 1) : variables.get(code);
+    }
+
+    /**
+     * @return true if code is the code of a ConstantSlot rather than the id of a VariableSlot
+     */
+    public static boolean isConstant(int code) {
+        return code < 0;
+    }
+
+    /**
+     * @return the number of rows, which are numbered from 0 in the order they were added
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the kind of row: SUBTYPE, EQUALITY, INEQUALITY, COMPARABLE, COMBINE or PREFERENCE
+     */
+    public byte getKind(int row) {
+        return kinds[row];
+    }
+
+    /**
+     * @return the code of the first slot of row: the subtype, the target of a combine or the variable of
+     *         a preference
+     */
+    public int getFirst(int row) {
+        return firsts[row];
+    }
+
+    /**
+     * @return the code of the second slot of row: the supertype, the declared slot of a combine or the goal
+     *         of a preference
+     */
+    public int getSecond(int row) {
+        return seconds[row];
+    }
+
+    /**
+     * @return the code of the result slot of a combine, the weight of a preference, otherwise 0
+     */
+    public int getExtra(int row) {
+        return extras != null ? extras[row] : 0;
+    }
+
+    /**
+     * @return the rows that variable id occurs in, in increasing order.  Constraints that are not kept as
+     *         rows are not included.
+     */
+    public int [] getRowsOf(int id) {
+        if (slotRows == null) {
+            slotRows = indexRows();
+        }
+
+        final long key = (long) id << 32;
+        int from = Arrays.binarySearch(slotRows, key);
+        if (from < 0) {
+            from = -from - 1;
+        }
+        int to = from;
+        while (to < slotRows.length && (slotRows[to] >>> 32) == id) {
+            ++to;
+        }
+
+        final int [] rows = new int[to - from];
+        for (int i = from; i < to; i++) {
+            rows[i - from] = (int) slotRows[i];
+        }
+        return rows;
+    }
+
+    private long [] indexRows() {
+        long [] index = new long[rowCount * 2];
+        int size = 0;
+        for (int row = 0; row < rowCount; row++) {
+            final int first = firsts[row];
+            final int second = seconds[row];
+            final int result = kinds[row] == COMBINE ? getExtra(row) : -1;
+            if (size + 3 > index.length) {
+                index = Arrays.copyOf(index, index.length * 2 + 3);
+            }
+            if (first >= 0) {
+                index[size++] = (long) first << 32 | row;
+            }
+            if (second >= 0 && second != first) {
+                index[size++] = (long) second << 32 | row;
+            }
+            if (result >= 0 && result != first && result != second) {
+                index[size++] = (long) result << 32 | row;
+            }
+        }
+        index = Arrays.copyOf(index, size);
+        Arrays.sort(index);
+        return index;
+    }
+
+    /**
+     * @return the constraint of row, created on each call
+     */
+    public Constraint getConstraint(int row) {
+        return createConstraint(row);
+    }
+
+    /**
+     * @return the row kind of constraints of the class of constraint, or -1 if they are kept as objects
+     */
+    private static byte kindOf(Constraint constraint) {
+        final Class<?> constraintClass = constraint.getClass();
+        if (constraintClass.equals(SubtypeConstraint.class)) {
+            return SUBTYPE;
+        } else if (constraintClass.equals(EqualityConstraint.class)) {
+            return EQUALITY;
+        } else if (constraintClass.equals(InequalityConstraint.class)) {
+            return INEQUALITY;
+        } else if (constraintClass.equals(ComparableConstraint.class)) {
+            return COMPARABLE;
+        } else if (constraintClass.equals(CombineConstraint.class)) {
+            return COMBINE;
+        } else if (constraintClass.equals(PreferenceConstraint.class)) {
+            return PREFERENCE;
+        }
+        return -1;
+    }
+
+    /**
+     * @return whether constraint was added, found by its codes without creating the constraints of the rows
+     */
+    private boolean containsConstraint(Constraint constraint) {
+        final byte kind = kindOf(constraint);
+        if (kind < 0) {
+            return otherConstraints.contains(constraint);
+        }
+
+        final List<Slot> slots = constraint.getSlots();
+        final Integer firstCode = codeOf(slots.get(0));
+        final Integer secondCode = codeOf(slots.get(1));
+        final Integer extra = kind == COMBINE ? codeOf(slots.get(2))
+                            : kind == PREFERENCE ? ((PreferenceConstraint) constraint).getWeight()
+                            : 0;
+        if (firstCode == null || secondCode == null || extra == null) {
+            return false;
+        }
+        return rowTable[probe(kind, firstCode, secondCode, extra)] != 0;
+    }
+
+    /**
+     * @return a new Constraint for row
+     */
+    private Constraint createConstraint(int row) {
+        final Slot first = getSlot(firsts[row]);
+        final Slot second = getSlot(seconds[row]);
+        switch (kinds[row]) {
+            case SUBTYPE:
+                return new SubtypeConstraint(first, second);
+            case EQUALITY:
+                return new EqualityConstraint(first, second);
+            case INEQUALITY:
+                return new InequalityConstraint(first, second);
+            case COMPARABLE:
+                return new ComparableConstraint(first, second);
+            case COMBINE:
+                return new CombineConstraint(first, second, getSlot(getExtra(row)));
+            case PREFERENCE:
+                return new PreferenceConstraint((VariableSlot) first, (ConstantSlot) second, getExtra(row));
+            default:
+                throw new IllegalStateException("Unknown constraint kind " + kinds[row] + " in row " + row);
+        }
+    }
+
+    /**
+     * @return the constraints, created from the rows as they are iterated, followed by the constraints
+     *         kept as objects.  contains and size do not create any constraints.
+     */
+    @Override
+    public Collection<Constraint> getConstraints() {
+        return new Rows();
+    }
+
+    /**
+     * The collection returned by getConstraints, which CompactConstraintManager.of recognizes.
+     */
+    private class Rows extends AbstractCollection<Constraint> {
+
+        CompactConstraintManager getManager() {
+            return CompactConstraintManager.this;
+        }
+
+        @Override
+        public Iterator<Constraint> iterator() {
+            final int rows = rowCount;
+            final Iterator<Constraint> others = otherConstraints.iterator();
+            return new Iterator<Constraint>() {
+                private int row = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return row < rows || others.hasNext();
+                }
+
+                @Override
+                public Constraint next() {
+                    if (row < rows) {
+                        return createConstraint(row++);
+                    }
+                    if (!others.hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return others.next();
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof Constraint && containsConstraint((Constraint) o);
+        }
+
+        @Override
+        public int size() {
+            return rowCount + otherConstraints.size();
+        }
+    }
+}
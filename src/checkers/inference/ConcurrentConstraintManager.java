@@ -0,0 +1,68 @@
+package checkers.inference;
+
+import checkers.inference.model.Constraint;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A ConstraintManager that can be used by several threads at once (see InferenceOptions.concurrentManagers).
+ * Constraints are deduplicated in a concurrent map from each constraint to itself, so each distinct constraint
+ * is kept once no matter how many threads add it, and the create methods look constraints up in the same map
+ * to hash-cons them.
+ *
+ * Recording (see ConstraintCache) is per thread: stopRecording returns the constraints the calling thread
+ * added since it called startRecording.
+ */
+public class ConcurrentConstraintManager extends ConstraintManager {
+
+    private final ConcurrentHashMap<Constraint, Constraint> constraints = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<List<Constraint>> recordings = new ThreadLocal<>();
+
+    private final ThreadLocal<ConstraintKey> keys = new ThreadLocal<ConstraintKey>() {
+        @Override
+        protected ConstraintKey initialValue() {
+            return new ConstraintKey();
+        }
+    };
+
+    public ConcurrentConstraintManager() {
+        super(null);
+    }
+
+    @Override
+    public Collection<Constraint> getConstraints() {
+        return constraints.keySet();
+    }
+
+    @Override
+    protected void store(Constraint constraint) {
+        constraints.putIfAbsent(constraint, constraint);
+    }
+
+    @Override
+    protected ConstraintKey getKey() {
+        return keys.get();
+    }
+
+    @Override
+    protected Constraint find(ConstraintKey key) {
+        return constraints.get(key);
+    }
+
+    @Override
+    protected List<Constraint> getRecording() {
+        return recordings.get();
+    }
+
+    @Override
+    protected void setRecording(List<Constraint> recording) {
+        if (recording != null) {
+            recordings.set(recording);
+        } else {
+            recordings.remove();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package checkers.inference;
+
+import java.lang.annotation.Annotation;
+import java.util.Set;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+
+import checkers.inference.model.VariableSlot;
+
+/**
+ * A SlotManager that can be used by several threads at once (see InferenceOptions.concurrentManagers).
+ * Ids are allocated by DefaultSlotManager's atomic counter, variables are kept in a ConcurrentSlotStore and
+ * constants are interned by the (thread-safe) ConstantSlotPool.
+ *
+ * Building an AnnotationMirror uses javac's Elements, which are not thread-safe, so the VarAnnots of
+ * variables are built under a lock.  Once built, a variable's VarAnnot is returned without locking.
+ */
+public class ConcurrentSlotManager extends DefaultSlotManager {
+
+    public ConcurrentSlotManager( final ProcessingEnvironment processingEnvironment,
+                                  final Set<Class<? extends Annotation>> realQualifiers ) {
+        this(processingEnvironment, realQualifiers, 1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @see DefaultSlotManager#DefaultSlotManager(ProcessingEnvironment, Set, int, int)
+     */
+    public ConcurrentSlotManager( final ProcessingEnvironment processingEnvironment,
+                                  final Set<Class<? extends Annotation>> realQualifiers,
+                                  final int firstId, final int idLimit ) {
+        super(processingEnvironment, realQualifiers, firstId, idLimit, new ConcurrentSlotStore());
+    }
+
+    /**
+     * Build the annotation under a lock, see DefaultSlotManager.buildAnnotation.
+     */
+    @Override
+    protected synchronized AnnotationMirror buildAnnotation( final VariableSlot variable ) {
+        return super.buildAnnotation( variable );
+    }
+}
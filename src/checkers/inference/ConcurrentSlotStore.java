@@ -0,0 +1,205 @@
+package checkers.inference;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.lang.model.element.AnnotationMirror;
+
+import checkers.inference.model.VariableSlot;
+
+/**
+ * A SlotStore that can be used by several threads at once without locking.  Pages are kept in a
+ * concurrent sorted map and are created with putIfAbsent, the slots, annotations and kind bits of a page are
+ * atomic arrays and the sizes are atomic counters.
+ *
+ * Slots with different ids may be put concurrently.  Putting two slots with the same id concurrently is not
+ * supported; ids come from SlotManager.nextId, which never hands out an id twice.  The lists returned by
+ * getAll and the views returned by view contain the slots that were put before they are read and may or
+ * may not contain slots that are put while they are read.
+ */
+public class ConcurrentSlotStore extends SlotStore {
+
+    private static class Page {
+        final AtomicReferenceArray<VariableSlot> slots = new AtomicReferenceArray<>(PAGE_SIZE);
+        final AtomicReferenceArray<AnnotationMirror> annotations = new AtomicReferenceArray<>(PAGE_SIZE);
+
+        // The bits of kind k are the words [k * WORDS_PER_PAGE, (k + 1) * WORDS_PER_PAGE)
+        final AtomicLongArray kindBits = new AtomicLongArray(KINDS.length * WORDS_PER_PAGE);
+
+        void setKindBit(Kind kind, int offset) {
+            final int word = kind.ordinal() * WORDS_PER_PAGE + (offset >>> 6);
+            long bits;
+            do {
+                bits = kindBits.get(word);
+            } while (!kindBits.compareAndSet(word, bits, bits | (1L << offset)));
+        }
+
+        void clearKindBit(Kind kind, int offset) {
+            final int word = kind.ordinal() * WORDS_PER_PAGE + (offset >>> 6);
+            long bits;
+            do {
+                bits = kindBits.get(word);
+            } while (!kindBits.compareAndSet(word, bits, bits & ~(1L << offset)));
+        }
+    }
+
+    private final ConcurrentSkipListMap<Integer, Page> pages = new ConcurrentSkipListMap<>();
+    private final AtomicIntegerArray kindCounts = new AtomicIntegerArray(KINDS.length);
+    private final AtomicInteger size = new AtomicInteger();
+
+    @Override
+    public void put(VariableSlot slot) {
+        final int id = slot.getId();
+        if (id < 0) {
+            throw new IllegalArgumentException("Negative slot id: " + slot);
+        }
+
+        final Page page = getOrCreatePage(id);
+        final int offset = id & PAGE_MASK;
+        final Kind kind = Kind.of(slot);
+
+        // Publish the slot before its kind bit so that getAll(kind) never sees a bit without a slot
+        final VariableSlot previous = page.slots.getAndSet(offset, slot);
+        if (previous != null) {
+            final Kind previousKind = Kind.of(previous);
+            page.clearKindBit(previousKind, offset);
+            kindCounts.decrementAndGet(previousKind.ordinal());
+        } else {
+            size.incrementAndGet();
+        }
+
+        page.setKindBit(kind, offset);
+        kindCounts.incrementAndGet(kind.ordinal());
+    }
+
+    private Page getOrCreatePage(int id) {
+        final Integer pageIndex = id >>> PAGE_BITS;
+        final Page page = pages.get(pageIndex);
+        if (page != null) {
+            return page;
+        }
+
+        final Page created = new Page();
+        final Page existing = pages.putIfAbsent(pageIndex, created);
+        return existing != null ? existing : created;
+    }
+
+    @Override
+    public AnnotationMirror getAnnotation(int id) {
+        if (id < 0) {
+            return null;
+        }
+
+        final Page page = pages.get(id >>> PAGE_BITS);
+        return page != null ? page.annotations.get(id & PAGE_MASK) : null;
+    }
+
+    @Override
+    public void putAnnotation(int id, AnnotationMirror annotation) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Negative slot id: " + id);
+        }
+
+        getOrCreatePage(id).annotations.set(id & PAGE_MASK, annotation);
+    }
+
+    @Override
+    public void clearAnnotations() {
+        for (Page page : pages.values()) {
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                page.annotations.set(i, null);
+            }
+        }
+    }
+
+    @Override
+    public VariableSlot get(int id) {
+        if (id < 0) {
+            return null;
+        }
+
+        final Page page = pages.get(id >>> PAGE_BITS);
+        return page != null ? page.slots.get(id & PAGE_MASK) : null;
+    }
+
+    @Override
+    int nextOccupiedId(int fromId, Kind kind) {
+        final int from = Math.max(fromId, 0);
+        for (Map.Entry<Integer, Page> entry : pages.tailMap(from >>> PAGE_BITS, true).entrySet()) {
+            final int pageIndex = entry.getKey();
+            final Page page = entry.getValue();
+
+            final int start = pageIndex == from >>> PAGE_BITS ? from & PAGE_MASK : 0;
+            for (int word = start >>> 6; word < WORDS_PER_PAGE; word++) {
+                long bits = 0;
+                if (kind != null) {
+                    bits = page.kindBits.get(kind.ordinal() * WORDS_PER_PAGE + word);
+                } else {
+                    for (int k = 0; k < KINDS.length; k++) {
+                        bits |= page.kindBits.get(k * WORDS_PER_PAGE + word);
+                    }
+                }
+
+                if (word == start >>> 6) {
+                    bits &= -1L << start;
+                }
+                if (bits != 0) {
+                    return (pageIndex << PAGE_BITS) + (word << 6) + Long.numberOfTrailingZeros(bits);
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public int size(Kind kind) {
+        return kindCounts.get(kind.ordinal());
+    }
+
+    @Override
+    public List<VariableSlot> getAll() {
+        final List<VariableSlot> result = new ArrayList<>(size.get());
+        for (Page page : pages.values()) {
+            for (int offset = 0; offset < PAGE_SIZE; offset++) {
+                final VariableSlot slot = page.slots.get(offset);
+                if (slot != null) {
+                    result.add(slot);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<VariableSlot> getAll(Kind kind) {
+        final List<VariableSlot> result = new ArrayList<>(kindCounts.get(kind.ordinal()));
+        for (Page page : pages.values()) {
+            final int firstWord = kind.ordinal() * WORDS_PER_PAGE;
+            for (int word = 0; word < WORDS_PER_PAGE; word++) {
+                long remaining = page.kindBits.get(firstWord + word);
+                while (remaining != 0) {
+                    final int bit = Long.numberOfTrailingZeros(remaining);
+                    final VariableSlot slot = page.slots.get((word << 6) + bit);
+
+                    // A slot that is being replaced by one of another kind may already be gone
+                    if (slot != null && Kind.of(slot) == kind) {
+                        result.add(slot);
+                    }
+                    remaining &= remaining - 1;
+                }
+            }
+        }
+        return result;
+    }
+}
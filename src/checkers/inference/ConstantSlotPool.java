@@ -0,0 +1,118 @@
+package checkers.inference;
+
+import java.lang.annotation.Annotation;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+
+import checkers.inference.model.ConstantSlot;
+
+/**
+ * Interns ConstantSlots so that there is one ConstantSlot per distinct qualifier value.  ConstantSlots are
+ * compared by their AnnotationMirror, and javac's AnnotationMirrors are only equal to themselves, so equal
+ * qualifiers from different mirrors would otherwise lead to distinct (and duplicate) constraints.
+ *
+ * Qualifiers without element values are keyed by their annotation type element and qualifiers with element
+ * values by their string form.  Whether an annotation type is one of the real qualifiers is decided by name
+ * once per annotation type element rather than by comparing it with each real qualifier.
+ *
+ * The annotation type elements belong to one javac instance.  When the pool is kept for the next javac
+ * instance (see InferenceOptions.batchSize), forgetElements drops them and the ConstantSlots without element
+ * values are found by the name of their annotation type instead, so each value keeps its ConstantSlot.
+ *
+ * The locations of interned ConstantSlots are those of the first ConstantSlot for each value; ConstantSlot
+ * locations are only used for debugging.
+ *
+ * ConstantSlotPool is thread-safe.
+ */
+public class ConstantSlotPool {
+
+    private final Set<String> qualifierNames = new HashSet<>();
+
+    // Whether each annotation type seen so far is a real qualifier
+    private final ConcurrentHashMap<Element, Boolean> isQualifierType = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<Element, ConstantSlot> constants = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ConstantSlot> constantsWithValues = new ConcurrentHashMap<>();
+
+    // The ConstantSlots without element values by annotation type name, filled by forgetElements
+    private final ConcurrentHashMap<String, ConstantSlot> constantsByName = new ConcurrentHashMap<>();
+
+    public ConstantSlotPool(Set<Class<? extends Annotation>> realQualifiers) {
+        for (Class<? extends Annotation> realQualifier : realQualifiers) {
+            qualifierNames.add(realQualifier.getCanonicalName());
+        }
+    }
+
+    /**
+     * @return true if annotation is one of the real qualifiers this pool was created with
+     */
+    public boolean isQualifier(AnnotationMirror annotation) {
+        final Element annotationType = annotation.getAnnotationType().asElement();
+        Boolean isQualifier = isQualifierType.get(annotationType);
+        if (isQualifier == null) {
+            isQualifier = qualifierNames.contains(getName(annotationType));
+            isQualifierType.put(annotationType, isQualifier);
+        }
+        return isQualifier;
+    }
+
+    /**
+     * @return the ConstantSlot for annotation or null if it is not one of the real qualifiers
+     */
+    public ConstantSlot get(AnnotationMirror annotation) {
+        return isQualifier(annotation) ? intern(annotation) : null;
+    }
+
+    /**
+     * @return the ConstantSlot for annotation, which need not be one of the real qualifiers
+     */
+    public ConstantSlot intern(AnnotationMirror annotation) {
+        if (annotation.getElementValues().isEmpty()) {
+            final ConstantSlot constant = constants.get(annotation.getAnnotationType().asElement());
+            return constant != null ? constant : intern(new ConstantSlot(annotation));
+        }
+
+        final ConstantSlot constant = constantsWithValues.get(annotation.toString());
+        return constant != null ? constant : intern(new ConstantSlot(annotation));
+    }
+
+    /**
+     * @return the interned ConstantSlot with the same value as constant, which is constant itself if
+     *         its value has not been seen before
+     */
+    public ConstantSlot intern(ConstantSlot constant) {
+        final AnnotationMirror annotation = constant.getValue();
+        if (!annotation.getElementValues().isEmpty()) {
+            final ConstantSlot existing = constantsWithValues.putIfAbsent(annotation.toString(), constant);
+            return existing != null ? existing : constant;
+        }
+
+        final Element annotationType = annotation.getAnnotationType().asElement();
+        final ConstantSlot earlier = constantsByName.isEmpty() ? null : constantsByName.get(getName(annotationType));
+        final ConstantSlot interned = earlier != null ? earlier : constant;
+        final ConstantSlot existing = constants.putIfAbsent(annotationType, interned);
+        return existing != null ? existing : interned;
+    }
+
+    /**
+     * Forget the annotation type elements seen so far, keeping their ConstantSlots for the annotation
+     * types of the same name.  Called before the pool is used with another javac instance.
+     */
+    public void forgetElements() {
+        for (Map.Entry<Element, ConstantSlot> entry : constants.entrySet()) {
+            constantsByName.put(getName(entry.getKey()), entry.getValue());
+        }
+        constants.clear();
+        isQualifierType.clear();
+    }
+
+    private static String getName(Element annotationType) {
+        return ((TypeElement) annotationType).getQualifiedName().toString();
+    }
+}
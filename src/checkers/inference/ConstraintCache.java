@@ -0,0 +1,672 @@
+package checkers.inference;
+
+import annotations.io.ASTRecord;
+import checkers.inference.model.AnnotationLocation;
+import checkers.inference.model.AnnotationLocation.AstPathLocation;
+import checkers.inference.model.AnnotationLocation.ClassDeclLocation;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.Slot;
+import checkers.inference.model.VariableSlot;
+import checkers.inference.model.serialization.BinaryDeserializer;
+import checkers.inference.model.serialization.BinarySerializer;
+import checkers.inference.model.serialization.QualifierNameSerializer;
+import checkers.inference.model.serialization.QualifierNameSerializer.UnserializableConstantException;
+import org.checkerframework.framework.util.PluginUtil;
+import org.checkerframework.javacutil.AnnotationUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.JavacTask;
+
+/**
+ * ConstraintCache stores the constraints generated for each compilation unit in a directory so that a later
+ * run of inference only has to generate constraints for the files that changed (see
+ * InferenceOptions.constraintCacheDir).
+ *
+ * There is one cache entry per source file.  An entry is reused if the content hash of the source file and
+ * the fingerprint of the inference configuration (checker, javac options, stub files and jars) match those
+ * the entry was written with.  Files whose entries cannot be reused, and files whose cached constraints
+ * refer to classes declared in such files, before or after the change, are visited as usual, as are the
+ * files that refer to the classes of those, transitively.  All other files are compiled but not visited;
+ * their constraints are loaded from the cache after javac completes.
+ *
+ * An entry contains the slots whose locations are in the compilation unit and every constraint generated
+ * while visiting it.  When an entry is loaded, slots are mapped onto the slots of the current run:
+ *   - slots with a source location are shared with any slot of the current run (or of another entry) at
+ *     the same location
+ *   - the variables the InferenceAnnotatedTypeFactory created for constants map to the current run's ones
+ *   - constants are recreated from their qualifier name
+ *   - all other slots get fresh ids
+ *
+ * Compilation units whose constraints contain a constant with annotation values (e.g. @Source({"A"})) are
+ * not cached since such a constant cannot be recreated from the qualifier name alone.
+ */
+public class ConstraintCache {
+
+    private static final Logger logger = Logger.getLogger(ConstraintCache.class.getName());
+
+    private static final int FORMAT_VERSION = 1;
+    private static final String ENTRY_SUFFIX = ".constraints";
+
+    private final File cacheDir;
+    private final String fingerprint;
+
+    // Absolute path of each source file to the hash of its content
+    private final Map<String, String> contentHashes = new LinkedHashMap<>();
+
+    // Source files whose constraints are loaded from the cache, in the order they were given to inference
+    private final Map<String, EntryHeader> cachedSources = new LinkedHashMap<>();
+
+    // The compilation units visited in this run
+    private final Map<String, VisitedUnit> visitedUnits = new ConcurrentHashMap<>();
+
+    public ConstraintCache(File cacheDir, List<String> javaFiles, String fingerprint) {
+        this.cacheDir = cacheDir;
+        this.fingerprint = fingerprint;
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            throw new RuntimeException("Could not create constraint cache directory " + cacheDir);
+        }
+
+        final Map<String, EntryHeader> candidates = new LinkedHashMap<>();
+        final Set<String> changedClasses = new HashSet<>();
+        final List<File> changedFiles = new ArrayList<>();
+
+        for (String javaFile : javaFiles) {
+            final String sourcePath = new File(javaFile).getAbsolutePath();
+            final String contentHash = hashFile(new File(sourcePath));
+            contentHashes.put(sourcePath, contentHash);
+
+            final EntryHeader header = readHeader(getEntryFile(sourcePath));
+            if (header != null && header.contentHash.equals(contentHash)) {
+                candidates.put(sourcePath, header);
+            } else {
+                if (header != null) {
+                    changedClasses.addAll(header.declaredClasses);
+                }
+                changedFiles.add(new File(sourcePath));
+            }
+        }
+
+        // A changed or new file may now declare classes that other files refer to
+        if (!candidates.isEmpty() && !changedFiles.isEmpty()) {
+            changedClasses.addAll(parseDeclaredClasses(changedFiles));
+        }
+
+        // Entries of files that are no longer part of the program
+        final File [] entryFiles = cacheDir.listFiles();
+        for (File entryFile : entryFiles != null ? entryFiles : new File[0]) {
+            if (entryFile.getName().endsWith(ENTRY_SUFFIX)) {
+                final EntryHeader header = readHeader(entryFile);
+                if (header != null && !contentHashes.containsKey(header.sourcePath)) {
+                    changedClasses.addAll(header.declaredClasses);
+                    if (!entryFile.delete()) {
+                        logger.warning("Could not delete stale constraint cache entry " + entryFile);
+                    }
+                }
+            }
+        }
+
+        final Set<String> invalidated = findInvalidated(candidates, changedClasses);
+        for (Map.Entry<String, EntryHeader> candidate : candidates.entrySet()) {
+            if (!invalidated.contains(candidate.getKey())) {
+                cachedSources.put(candidate.getKey(), candidate.getValue());
+            }
+        }
+
+        logger.info(String.format("Constraint cache: loading %d of %d files from %s",
+                cachedSources.size(), javaFiles.size(), cacheDir));
+    }
+
+    /**
+     * Files whose constraints refer to a changed class must be regenerated along with the changed files, and so
+     * must the files that refer to a class of such a file, transitively.
+     * @param candidates the entries of the unchanged files, by source path
+     * @param changedClasses the classes declared by the changed, new, and removed files, before and after the change
+     * @return the source paths of the candidates that must be regenerated
+     */
+    static Set<String> findInvalidated(Map<String, EntryHeader> candidates, Set<String> changedClasses) {
+        // The candidates that refer to each class
+        final Map<String, List<String>> referrers = new HashMap<>();
+        for (Map.Entry<String, EntryHeader> candidate : candidates.entrySet()) {
+            for (String referencedClass : candidate.getValue().referencedClasses) {
+                List<String> classReferrers = referrers.get(referencedClass);
+                if (classReferrers == null) {
+                    classReferrers = new ArrayList<>();
+                    referrers.put(referencedClass, classReferrers);
+                }
+                classReferrers.add(candidate.getKey());
+            }
+        }
+
+        final Set<String> invalidated = new HashSet<>();
+        final Set<String> visitedClasses = new HashSet<>(changedClasses);
+        final Deque<String> worklist = new ArrayDeque<>(changedClasses);
+        while (!worklist.isEmpty()) {
+            final List<String> classReferrers = referrers.get(worklist.remove());
+            if (classReferrers == null) {
+                continue;
+            }
+
+            for (String sourcePath : classReferrers) {
+                if (invalidated.add(sourcePath)) {
+                    for (String declaredClass : candidates.get(sourcePath).declaredClasses) {
+                        if (visitedClasses.add(declaredClass)) {
+                            worklist.add(declaredClass);
+                        }
+                    }
+                }
+            }
+        }
+        return invalidated;
+    }
+
+    /**
+     * @return the qualified names of the top-level classes declared in sourceFiles, which are only parsed
+     */
+    static Set<String> parseDeclaredClasses(List<File> sourceFiles) {
+        final Set<String> declaredClasses = new LinkedHashSet<>();
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null)) {
+            final JavacTask task = (JavacTask) compiler.getTask(null, fileManager, diagnostics, null, null,
+                                                                 fileManager.getJavaFileObjectsFromFiles(sourceFiles));
+            for (CompilationUnitTree compilationUnit : task.parse()) {
+                final String packagePrefix = compilationUnit.getPackageName() != null
+                                           ? compilationUnit.getPackageName() + "."
+                                           : "";
+                for (Tree typeDecl : compilationUnit.getTypeDecls()) {
+                    if (typeDecl instanceof ClassTree) {
+                        declaredClasses.add(packagePrefix + ((ClassTree) typeDecl).getSimpleName());
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException exc) {
+            // The old declarations of the changed files are still used
+            logger.log(Level.FINE, "Could not parse the changed files for their classes", exc);
+        }
+        return declaredClasses;
+    }
+
+    /**
+     * @return true if the constraints of compilationUnit will be loaded from the cache, i.e. it need not be visited
+     */
+    public boolean isCached(CompilationUnitTree compilationUnit) {
+        return cachedSources.containsKey(getSourcePath(compilationUnit));
+    }
+
+    /**
+     * Start recording the constraints generated for a class of compilationUnit.
+     * @param constantVars the variables used for constants by the type factory that generates the constraints
+     */
+    public void beginVisit(CompilationUnitTree compilationUnit, TypeElement classElement,
+                           Map<Class<? extends Annotation>, VariableSlot> constantVars,
+                           ConstraintManager constraintManager) {
+        final String sourcePath = getSourcePath(compilationUnit);
+        VisitedUnit visitedUnit = visitedUnits.get(sourcePath);
+        if (visitedUnit == null) {
+            visitedUnit = new VisitedUnit(compilationUnit, constantVars);
+            visitedUnits.put(sourcePath, visitedUnit);
+        }
+
+        visitedUnit.declaredClasses.add(classElement.getQualifiedName().toString());
+        constraintManager.startRecording();
+    }
+
+    /**
+     * Stop recording the constraints of the class for which beginVisit was last called.
+     */
+    public void endVisit(CompilationUnitTree compilationUnit, ConstraintManager constraintManager) {
+        final List<Constraint> constraints = constraintManager.stopRecording();
+        visitedUnits.get(getSourcePath(compilationUnit)).constraints.addAll(constraints);
+    }
+
+    //================================================================================
+    // Writing
+    //================================================================================
+
+    /**
+     * Write an entry for every compilation unit visited in this run.
+     * @param variableSlots all variables of this run, the variables with a location in a visited
+     *                      compilation unit are written to its entry
+     */
+    public void writeEntries(Collection<VariableSlot> variableSlots) {
+        final Map<CompilationUnitTree, VisitedUnit> unitsByTree = new IdentityHashMap<>();
+        for (VisitedUnit visitedUnit : visitedUnits.values()) {
+            unitsByTree.put(visitedUnit.compilationUnit, visitedUnit);
+        }
+
+        for (VariableSlot slot : variableSlots) {
+            final CompilationUnitTree compilationUnit = getCompilationUnit(slot.getLocation());
+            if (compilationUnit != null && unitsByTree.containsKey(compilationUnit)) {
+                unitsByTree.get(compilationUnit).slots.add(slot);
+            }
+        }
+
+        int written = 0;
+        for (Map.Entry<String, VisitedUnit> entry : visitedUnits.entrySet()) {
+            if (writeEntry(entry.getKey(), entry.getValue())) {
+                ++written;
+            }
+        }
+        logger.fine(String.format("Constraint cache: wrote %d of %d visited files", written, visitedUnits.size()));
+    }
+
+    private boolean writeEntry(String sourcePath, VisitedUnit visitedUnit) {
+        final File entryFile = getEntryFile(sourcePath);
+        final File tempFile = new File(entryFile.getPath() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(fingerprint);
+            out.writeUTF(sourcePath);
+            out.writeUTF(contentHashes.get(sourcePath));
+            writeStrings(visitedUnit.declaredClasses, out);
+            writeStrings(getReferencedClasses(visitedUnit), out);
+
+            out.writeInt(visitedUnit.constantVars.size());
+            for (Map.Entry<Class<? extends Annotation>, VariableSlot> constantVar : visitedUnit.constantVars.entrySet()) {
+                out.writeUTF(constantVar.getKey().getCanonicalName());
+                out.writeInt(constantVar.getValue().getId());
+            }
+
+            final BinarySerializer serializer = new BinarySerializer(out, new QualifierNameSerializer(null));
+            for (VariableSlot slot : visitedUnit.slots) {
+                serializer.writeSlot(slot);
+            }
+            for (Constraint constraint : visitedUnit.constraints) {
+                serializer.writeConstraint(constraint);
+            }
+            serializer.writeEnd();
+
+        } catch (UnserializableConstantException exc) {
+            logger.fine("Not caching constraints of " + sourcePath + ": " + exc.getMessage());
+            tempFile.delete();
+            entryFile.delete();
+            return false;
+
+        } catch (IOException | RuntimeException exc) {
+            logger.log(Level.WARNING, "Could not write constraint cache entry for " + sourcePath, exc);
+            tempFile.delete();
+            entryFile.delete();
+            return false;
+        }
+
+        if (entryFile.exists() && !entryFile.delete() || !tempFile.renameTo(entryFile)) {
+            logger.warning("Could not replace constraint cache entry " + entryFile);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the top-level classes, other than its own, whose declarations the constraints of visitedUnit refer to
+     */
+    private Set<String> getReferencedClasses(VisitedUnit visitedUnit) {
+        final Set<String> referenced = new LinkedHashSet<>();
+        for (Constraint constraint : visitedUnit.constraints) {
+            for (Slot slot : constraint.getSlots()) {
+                if (slot == null || !(slot.getLocation() instanceof AstPathLocation)) {
+                    continue;
+                }
+
+                final ASTRecord record = ((AstPathLocation) slot.getLocation()).getAstRecord();
+                if (record.ast != visitedUnit.compilationUnit && record.className != null) {
+                    final int nestedStart = record.className.indexOf('$');
+                    referenced.add(nestedStart == -1 ? record.className : record.className.substring(0, nestedStart));
+                }
+            }
+        }
+
+        referenced.removeAll(visitedUnit.declaredClasses);
+        return referenced;
+    }
+
+    //================================================================================
+    // Loading
+    //================================================================================
+
+    /**
+     * Load the slots and constraints of every cached compilation unit into the given managers.
+     * @param constantVars the variables used for constants by the current run's type factory
+     */
+    public void loadEntries(SlotManager slotManager, ConstraintManager constraintManager,
+                            Map<Class<? extends Annotation>, VariableSlot> constantVars, Elements elements) {
+        // Slots with a location, shared by the current run and all entries
+        final Map<String, VariableSlot> locationSlots = new HashMap<>();
+        for (VariableSlot slot : slotManager.getVariableSlots()) {
+            final String key = getLocationKey(slot);
+            if (key != null && !locationSlots.containsKey(key)) {
+                locationSlots.put(key, slot);
+            }
+        }
+
+        final Map<String, VariableSlot> constantVarsByName = new HashMap<>();
+        for (Map.Entry<Class<? extends Annotation>, VariableSlot> constantVar : constantVars.entrySet()) {
+            constantVarsByName.put(constantVar.getKey().getCanonicalName(), constantVar.getValue());
+        }
+
+        int numConstraints = 0;
+        for (String sourcePath : cachedSources.keySet()) {
+            final File entryFile = getEntryFile(sourcePath);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(entryFile)))) {
+                readHeader(in);
+
+                // The ids the constant variables had when the entry was written
+                final Map<Integer, VariableSlot> entryConstantVars = new HashMap<>();
+                final int numConstantVars = in.readInt();
+                for (int i = 0; i < numConstantVars; i++) {
+                    final String qualifierName = in.readUTF();
+                    final int id = in.readInt();
+                    if (constantVarsByName.containsKey(qualifierName)) {
+                        entryConstantVars.put(id, constantVarsByName.get(qualifierName));
+                    }
+                }
+
+                final List<Slot> slots = new ArrayList<>();
+                final List<Constraint> constraints = new ArrayList<>();
+                new EntryDeserializer(in, elements, slotManager, locationSlots, entryConstantVars)
+                        .readAll(slots, constraints);
+
+                for (Constraint constraint : constraints) {
+                    constraintManager.add(constraint);
+                }
+                numConstraints += constraints.size();
+
+            } catch (IOException | RuntimeException exc) {
+                throw new RuntimeException("Could not load constraint cache entry " + entryFile + " for " + sourcePath
+                                         + ". Delete " + cacheDir + " and rerun inference.", exc);
+            }
+        }
+
+        logger.fine(String.format("Constraint cache: loaded %d constraints for %d files",
+                numConstraints, cachedSources.size()));
+    }
+
+    /**
+     * Maps the slots of an entry onto the slots of the current run, see the class comment.
+     */
+    private static class EntryDeserializer extends BinaryDeserializer {
+        private final SlotManager slotManager;
+        private final Map<String, VariableSlot> locationSlots;
+        private final Map<Integer, VariableSlot> entryConstantVars;
+        private final Elements elements;
+
+        private EntryDeserializer(DataInputStream in, Elements elements, SlotManager slotManager,
+                                  Map<String, VariableSlot> locationSlots,
+                                  Map<Integer, VariableSlot> entryConstantVars) {
+            super(in, new QualifierNameSerializer(elements));
+            this.elements = elements;
+            this.slotManager = slotManager;
+            this.locationSlots = locationSlots;
+            this.entryConstantVars = entryConstantVars;
+        }
+
+        @Override
+        protected VariableSlot createVariableSlot(int id, boolean insertable, AnnotationLocation location) {
+            if (entryConstantVars.containsKey(id)) {
+                return entryConstantVars.get(id);
+            }
+
+            final String key = getLocationKey(location);
+            if (key != null && locationSlots.containsKey(key)) {
+                return locationSlots.get(key);
+            }
+
+            final VariableSlot slot = super.createVariableSlot(slotManager.nextId(), insertable, location);
+            if (key != null) {
+                locationSlots.put(key, slot);
+            }
+            return addVariable(slot);
+        }
+
+        @Override
+        protected Slot createConstantSlot(String value, AnnotationLocation location) {
+            final AnnotationMirror constant = AnnotationUtils.fromName(elements, value);
+            return slotManager.getSlot(constant);
+        }
+
+        @Override
+        protected VariableSlot createRefinementVariableSlot(int id, AnnotationLocation location, Slot refined) {
+            return addVariable(super.createRefinementVariableSlot(slotManager.nextId(), location, refined));
+        }
+
+        @Override
+        protected VariableSlot createCombVariableSlot(int id, AnnotationLocation location, Slot first, Slot second) {
+            return addVariable(super.createCombVariableSlot(slotManager.nextId(), location, first, second));
+        }
+
+        @Override
+        protected VariableSlot createExistentialVariableSlot(int id, VariableSlot potential, VariableSlot alternative) {
+            return addVariable(super.createExistentialVariableSlot(slotManager.nextId(), potential, alternative));
+        }
+
+        private VariableSlot addVariable(VariableSlot slot) {
+            slotManager.addVariable(slot);
+            return slot;
+        }
+    }
+
+    //================================================================================
+    // Entries
+    //================================================================================
+
+    private static class VisitedUnit {
+        private final CompilationUnitTree compilationUnit;
+        private final Map<Class<? extends Annotation>, VariableSlot> constantVars;
+        private final Set<String> declaredClasses = new LinkedHashSet<>();
+        private final List<Constraint> constraints = new ArrayList<>();
+        private final List<VariableSlot> slots = new ArrayList<>();
+
+        private VisitedUnit(CompilationUnitTree compilationUnit,
+                            Map<Class<? extends Annotation>, VariableSlot> constantVars) {
+            this.compilationUnit = compilationUnit;
+            this.constantVars = constantVars;
+        }
+    }
+
+    static class EntryHeader {
+        private final String sourcePath;
+        private final String contentHash;
+        private final Set<String> declaredClasses;
+        private final Set<String> referencedClasses;
+
+        EntryHeader(String sourcePath, String contentHash,
+                            Set<String> declaredClasses, Set<String> referencedClasses) {
+            this.sourcePath = sourcePath;
+            this.contentHash = contentHash;
+            this.declaredClasses = declaredClasses;
+            this.referencedClasses = referencedClasses;
+        }
+    }
+
+    /**
+     * @return the header of entryFile or null if there is no such entry or it was written with a different
+     * format or fingerprint
+     */
+    private EntryHeader readHeader(File entryFile) {
+        if (!entryFile.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(entryFile)))) {
+            return readHeader(in);
+        } catch (IOException exc) {
+            logger.log(Level.FINE, "Ignoring unreadable constraint cache entry " + entryFile, exc);
+            return null;
+        }
+    }
+
+    private EntryHeader readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != FORMAT_VERSION || !in.readUTF().equals(fingerprint)) {
+            return null;
+        }
+
+        final String sourcePath = in.readUTF();
+        final String contentHash = in.readUTF();
+        final Set<String> declaredClasses = readStrings(in);
+        return new EntryHeader(sourcePath, contentHash, declaredClasses, readStrings(in));
+    }
+
+    private static void writeStrings(Set<String> strings, DataOutputStream out) throws IOException {
+        out.writeInt(strings.size());
+        for (String str : strings) {
+            out.writeUTF(str);
+        }
+    }
+
+    private static Set<String> readStrings(DataInputStream in) throws IOException {
+        final int size = in.readInt();
+        final Set<String> strings = new LinkedHashSet<>();
+        for (int i = 0; i < size; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+
+    private File getEntryFile(String sourcePath) {
+        return new File(cacheDir, hash(sourcePath.getBytes()) + ENTRY_SUFFIX);
+    }
+
+    private static String getSourcePath(CompilationUnitTree compilationUnit) {
+        return new File(compilationUnit.getSourceFile().toUri()).getAbsolutePath();
+    }
+
+    private static CompilationUnitTree getCompilationUnit(AnnotationLocation location) {
+        if (location instanceof AstPathLocation) {
+            return ((AstPathLocation) location).getAstRecord().ast;
+        }
+        return null;
+    }
+
+    /**
+     * @return a key identifying the source location of slot or null if slot has no location or is not a
+     * plain VariableSlot.  Unlike AnnotationLocation.equals, the key does not depend on the compilation unit
+     * object, so it matches between the current run and locations read from the cache.
+     */
+    private static String getLocationKey(VariableSlot slot) {
+        if (!slot.getClass().equals(VariableSlot.class)) {
+            return null;
+        }
+        return getLocationKey(slot.getLocation());
+    }
+
+    /**
+     * @return a key that identifies location across javac instances and processes or null if location
+     *         cannot be identified
+     */
+    static String getLocationKey(AnnotationLocation location) {
+        if (location instanceof AstPathLocation) {
+            final ASTRecord record = ((AstPathLocation) location).getAstRecord();
+            return record.className + "#" + record.methodName + "#" + record.varName + "#" + record.astPath;
+        } else if (location instanceof ClassDeclLocation) {
+            final ClassDeclLocation classDecl = (ClassDeclLocation) location;
+            return classDecl.getPackageName() + "." + classDecl.getClassName();
+        }
+        return null;
+    }
+
+    //================================================================================
+    // Hashing
+    //================================================================================
+
+    /**
+     * @return a hash of everything other than the source files that affects the generated constraints
+     */
+    public static String computeFingerprint() {
+        final StringBuilder description = new StringBuilder();
+        description.append(FORMAT_VERSION).append('\n')
+                   .append(InferenceOptions.checker).append('\n')
+                   .append(InferenceOptions.hacks).append('\n');
+
+        if (InferenceOptions.javacOptions != null) {
+            description.append(PluginUtil.join(" ", InferenceOptions.javacOptions)).append('\n');
+
+            for (String javacOption : InferenceOptions.javacOptions) {
+                if (javacOption.startsWith("-Astubs=")) {
+                    for (String stubPath : javacOption.substring("-Astubs=".length()).split(File.pathSeparator)) {
+                        describeFile(new File(stubPath), description);
+                    }
+                }
+            }
+        }
+
+        describeFile(InferenceOptions.pathToThisJar, description);
+        describeFile(InferenceOptions.checkerJar, description);
+        return hash(description.toString().getBytes());
+    }
+
+    private static void describeFile(File file, StringBuilder description) {
+        description.append(file.getAbsolutePath()).append(':');
+        if (file.isDirectory()) {
+            final File [] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    describeFile(child, description);
+                }
+            }
+        } else {
+            description.append(file.length()).append(':').append(file.lastModified()).append('\n');
+        }
+    }
+
+    private static String hashFile(File file) {
+        try {
+            return hash(Files.readAllBytes(file.toPath()));
+        } catch (IOException exc) {
+            // Unreadable files are never cached
+            return "unreadable:" + System.nanoTime();
+        }
+    }
+
+    private static String hash(byte [] bytes) {
+        try {
+            final byte [] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            final StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+
+        } catch (NoSuchAlgorithmException exc) {
+            throw new RuntimeException(exc);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package checkers.inference;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import checkers.inference.model.BinaryConstraint;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.Slot;
+import checkers.inference.model.VariableSlot;
+
+/**
+ * A set of constraints that also indexes them by the VariableSlots they refer to, so the constraints of a slot
+ * can be found in time proportional to their number rather than by scanning every constraint.  The index is
+ * updated as constraints are added and removed, so it never needs to be rebuilt.
+ *
+ * For each slot the index keeps the BinaryConstraints the slot is the first slot of (its outgoing constraints,
+ * e.g. the constraints that make it a subtype of another slot), the BinaryConstraints it is the second slot of
+ * (its incoming constraints) and the other constraints it occurs in.  Like SlotStore, the index is kept in
+ * pages of an array indexed by slot id.
+ *
+ * ConstraintNormalizer returns the normalized constraints as a ConstraintIndex; solvers (e.g. SpartaSolver) use
+ * ConstraintIndex.of to get the index of the constraints they are passed without building it again.  The
+ * constraints are kept as a map from each constraint to itself, so find can return the instance in the set.
+ * A ConstraintIndex is not thread-safe.
+ */
+public class ConstraintIndex extends AbstractSet<Constraint> {
+
+    private static class Adjacency {
+        List<Constraint> outgoing;
+        List<Constraint> incoming;
+        List<Constraint> others;
+    }
+
+    // Each constraint mapped to itself
+    private final Map<Constraint, Constraint> constraints;
+
+    private Adjacency [][] pages = new Adjacency[16][];
+
+    public ConstraintIndex() {
+        constraints = new HashMap<>();
+    }
+
+    public ConstraintIndex(int expectedSize) {
+        constraints = new HashMap<>(expectedSize);
+    }
+
+    public ConstraintIndex(Collection<? extends Constraint> constraints) {
+        this(constraints.size());
+        addAll(constraints);
+    }
+
+    /**
+     * @return constraints if it is a ConstraintIndex, otherwise a new index of them
+     */
+    public static ConstraintIndex of(Collection<Constraint> constraints) {
+        if (constraints instanceof ConstraintIndex) {
+            return (ConstraintIndex) constraints;
+        }
+        return new ConstraintIndex(constraints);
+    }
+
+    @Override
+    public boolean add(Constraint constraint) {
+        if (constraints.containsKey(constraint)) {
+            return false;
+        }
+        constraints.put(constraint, constraint);
+
+        if (constraint instanceof BinaryConstraint) {
+            final BinaryConstraint binary = (BinaryConstraint) constraint;
+            if (binary.getFirst() instanceof VariableSlot) {
+                final Adjacency first = getOrCreate((VariableSlot) binary.getFirst());
+                first.outgoing = append(first.outgoing, constraint);
+            }
+            if (binary.getSecond() instanceof VariableSlot) {
+                final Adjacency second = getOrCreate((VariableSlot) binary.getSecond());
+                second.incoming = append(second.incoming, constraint);
+            }
+        } else {
+            for (VariableSlot slot : variablesOf(constraint)) {
+                final Adjacency adjacency = getOrCreate(slot);
+                adjacency.others = append(adjacency.others, constraint);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (constraints.remove(o) == null) {
+            return false;
+        }
+        unindex((Constraint) o);
+        return true;
+    }
+
+    private void unindex(Constraint constraint) {
+        if (constraint instanceof BinaryConstraint) {
+            final BinaryConstraint binary = (BinaryConstraint) constraint;
+            if (binary.getFirst() instanceof VariableSlot) {
+                get(((VariableSlot) binary.getFirst()).getId()).outgoing.remove(constraint);
+            }
+            if (binary.getSecond() instanceof VariableSlot) {
+                get(((VariableSlot) binary.getSecond()).getId()).incoming.remove(constraint);
+            }
+        } else {
+            for (VariableSlot slot : variablesOf(constraint)) {
+                get(slot.getId()).others.remove(constraint);
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return constraints.containsKey(o);
+    }
+
+    /**
+     * @param key a constraint, or an object that equals the constraints it describes and has their hash code
+     * @return the constraint in this set for which key.equals(constraint), or null if there is none
+     */
+    public Constraint find(Object key) {
+        return constraints.get(key);
+    }
+
+    @Override
+    public int size() {
+        return constraints.size();
+    }
+
+    @Override
+    public void clear() {
+        constraints.clear();
+        pages = new Adjacency[16][];
+    }
+
+    @Override
+    public Iterator<Constraint> iterator() {
+        final Iterator<Constraint> iterator = constraints.keySet().iterator();
+        return new Iterator<Constraint>() {
+            private Constraint last;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Constraint next() {
+                last = iterator.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+                unindex(last);
+            }
+        };
+    }
+
+    /**
+     * @return the BinaryConstraints whose first slot is slot, e.g. the SubtypeConstraints with slot as subtype
+     */
+    public List<Constraint> getOutgoing(VariableSlot slot) {
+        final Adjacency adjacency = get(slot.getId());
+        return adjacency != null ? view(adjacency.outgoing) : Collections.<Constraint>emptyList();
+    }
+
+    /**
+     * @return the BinaryConstraints whose second slot is slot, e.g. the SubtypeConstraints with slot as
+     *         supertype
+     */
+    public List<Constraint> getIncoming(VariableSlot slot) {
+        final Adjacency adjacency = get(slot.getId());
+        return adjacency != null ? view(adjacency.incoming) : Collections.<Constraint>emptyList();
+    }
+
+    /**
+     * @return every constraint slot occurs in, each once: its outgoing constraints, then its incoming
+     *         constraints and then the other constraints
+     */
+    public List<Constraint> getConstraintsOf(VariableSlot slot) {
+        final Adjacency adjacency = get(slot.getId());
+        if (adjacency == null) {
+            return Collections.emptyList();
+        }
+
+        final List<Constraint> result = new ArrayList<>(getDegree(slot));
+        if (adjacency.outgoing != null) {
+            result.addAll(adjacency.outgoing);
+        }
+        if (adjacency.incoming != null) {
+            for (Constraint constraint : adjacency.incoming) {
+                // A constraint between slot and itself is already among the outgoing constraints
+                final Slot first = ((BinaryConstraint) constraint).getFirst();
+                if (!(first instanceof VariableSlot) || ((VariableSlot) first).getId() != slot.getId()) {
+                    result.add(constraint);
+                }
+            }
+        }
+        if (adjacency.others != null) {
+            result.addAll(adjacency.others);
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of constraints slot occurs in, counting a constraint between slot and itself twice
+     */
+    public int getDegree(VariableSlot slot) {
+        final Adjacency adjacency = get(slot.getId());
+        if (adjacency == null) {
+            return 0;
+        }
+        return sizeOf(adjacency.outgoing) + sizeOf(adjacency.incoming) + sizeOf(adjacency.others);
+    }
+
+    private static int sizeOf(List<Constraint> constraints) {
+        return constraints != null ? constraints.size() : 0;
+    }
+
+    private static List<Constraint> view(List<Constraint> constraints) {
+        return constraints != null ? Collections.unmodifiableList(constraints)
+                                   : Collections.<Constraint>emptyList();
+    }
+
+    private static List<Constraint> append(List<Constraint> constraints, Constraint constraint) {
+        final List<Constraint> result = constraints != null ? constraints : new ArrayList<Constraint>(2);
+        result.add(constraint);
+        return result;
+    }
+
+    /**
+     * @return the distinct VariableSlots of constraint
+     */
+    private static List<VariableSlot> variablesOf(Constraint constraint) {
+        final List<VariableSlot> variables = new ArrayList<>(3);
+        for (Slot slot : constraint.getSlots()) {
+            if (slot instanceof VariableSlot && !variables.contains(slot)) {
+                variables.add((VariableSlot) slot);
+            }
+        }
+        return variables;
+    }
+
+    private Adjacency get(int id) {
+        final int pageIndex = id >>> SlotStore.PAGE_BITS;
+        if (pageIndex >= pages.length || pages[pageIndex] == null) {
+            return null;
+        }
+        return pages[pageIndex][id & SlotStore.PAGE_MASK];
+    }
+
+    private Adjacency getOrCreate(VariableSlot slot) {
+        final int id = slot.getId();
+        final int pageIndex = id >>> SlotStore.PAGE_BITS;
+        if (pageIndex >= pages.length) {
+            pages = Arrays.copyOf(pages, Math.max(pageIndex + 1, pages.length * 2));
+        }
+
+        Adjacency [] page = pages[pageIndex];
+        if (page == null) {
+            page = new Adjacency[SlotStore.PAGE_SIZE];
+            pages[pageIndex] = page;
+        }
+
+        final int offset = id & SlotStore.PAGE_MASK;
+        if (page[offset] == null) {
+            page[offset] = new Adjacency();
+        }
+        return page[offset];
+    }
+}
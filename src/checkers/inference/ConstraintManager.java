@@ -1,25 +1,245 @@
 package checkers.inference;
 
+import checkers.inference.model.BinaryConstraint;
+import checkers.inference.model.CombineConstraint;
+import checkers.inference.model.ComparableConstraint;
+import checkers.inference.model.ConstantSlot;
 import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.InequalityConstraint;
+import checkers.inference.model.PreferenceConstraint;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SubtypeConstraint;
+import checkers.inference.model.VariableSlot;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Constraint manager holds constraints that are generated by InferenceVisitor.
  *
+ * The create methods hash-cons constraints: if a structurally equal constraint was already added, they return
+ * it rather than a new object, so duplicate constraints share memory and are found by reference in the
+ * constraint set.  The constraints are kept as a map from each constraint to itself, which is the intern table:
+ * a create method looks a constraint up by its kind and slots (see ConstraintKey) before it allocates one, so a
+ * duplicate is never allocated.  Constraints that were created but not added are not interned.  The add methods
+ * create and add a constraint in one step.  The constraints are not indexed by slot here; the index is built
+ * once, by ConstraintNormalizer, for the constraints that are solved.
+ *
  * @author mcarthur
  *
  */
 public class ConstraintManager {
 
-    private final Set<Constraint> constraints = new HashSet<Constraint>();
+    // Each constraint mapped to itself, or null if a subclass keeps them elsewhere
+    private final Map<Constraint, Constraint> constraints;
+
+    // Every constraint added since startRecording, including ones that were already present, or null
+    private List<Constraint> recorded;
+
+    // The key of the constraint a create method looks up, reused so that lookups do not allocate
+    private ConstraintKey key;
+
+    public ConstraintManager() {
+        this(new HashMap<Constraint, Constraint>());
+    }
+
+    /**
+     * @param constraints the map to keep the constraints in, or null for subclasses that keep them elsewhere
+     *                    (e.g. SpillingConstraintManager), which must override getConstraints, store and find
+     */
+    protected ConstraintManager(Map<Constraint, Constraint> constraints) {
+        this.constraints = constraints;
+    }
 
-    public Set<Constraint> getConstraints() {
-        return constraints;
+    public Collection<Constraint> getConstraints() {
+        return constraints.keySet();
     }
 
     public void add(Constraint constraint) {
-        constraints.add(constraint);
+        store(constraint);
+        final List<Constraint> recording = getRecording();
+        if (recording != null) {
+            recording.add(constraint);
+        }
+    }
+
+    /**
+     * Keep constraint until the constraints are solved.  Subclasses that keep constraints elsewhere
+     * (e.g. SpillingConstraintManager) override this and getConstraints.
+     */
+    protected void store(Constraint constraint) {
+        if (!constraints.containsKey(constraint)) {
+            constraints.put(constraint, constraint);
+        }
+    }
+
+    /**
+     * @return a key for the create methods to look a constraint up with.  The key is only used until find
+     * returns, so the same key is returned each time; subclasses used by several threads must return one per
+     * thread.
+     */
+    protected ConstraintKey getKey() {
+        if (key == null) {
+            key = new ConstraintKey();
+        }
+        return key;
+    }
+
+    /**
+     * @return the added constraint that key describes, or null if there is none and the create method must
+     * allocate a new constraint.  Subclasses that do not keep the constraints as objects (e.g.
+     * SpillingConstraintManager) return null, so their constraints are not hash-consed.
+     */
+    protected Constraint find(ConstraintKey key) {
+        return constraints.get(key);
+    }
+
+    public SubtypeConstraint createSubtypeConstraint(Slot subtype, Slot supertype) {
+        final Constraint existing = find(getKey().set(SubtypeConstraint.class,
+                SubtypeConstraint.hashCodeOf(subtype, supertype), subtype, supertype, null, 0));
+        return existing != null ? (SubtypeConstraint) existing : new SubtypeConstraint(subtype, supertype);
+    }
+
+    public EqualityConstraint createEqualityConstraint(Slot first, Slot second) {
+        final Constraint existing = find(getKey().set(EqualityConstraint.class,
+                EqualityConstraint.hashCodeOf(first, second), first, second, null, 0));
+        return existing != null ? (EqualityConstraint) existing : new EqualityConstraint(first, second);
+    }
+
+    public InequalityConstraint createInequalityConstraint(Slot first, Slot second) {
+        final Constraint existing = find(getKey().set(InequalityConstraint.class,
+                InequalityConstraint.hashCodeOf(first, second), first, second, null, 0));
+        return existing != null ? (InequalityConstraint) existing : new InequalityConstraint(first, second);
+    }
+
+    public ComparableConstraint createComparableConstraint(Slot first, Slot second) {
+        final Constraint existing = find(getKey().set(ComparableConstraint.class,
+                ComparableConstraint.hashCodeOf(first, second), first, second, null, 0));
+        return existing != null ? (ComparableConstraint) existing : new ComparableConstraint(first, second);
+    }
+
+    public CombineConstraint createCombineConstraint(Slot target, Slot decl, Slot result) {
+        final Constraint existing = find(getKey().set(CombineConstraint.class,
+                CombineConstraint.hashCodeOf(target, decl, result), target, decl, result, 0));
+        return existing != null ? (CombineConstraint) existing : new CombineConstraint(target, decl, result);
+    }
+
+    public PreferenceConstraint createPreferenceConstraint(VariableSlot variable, ConstantSlot goal, int weight) {
+        final Constraint existing = find(getKey().set(PreferenceConstraint.class,
+                PreferenceConstraint.hashCodeOf(variable, goal, weight), variable, goal, null, weight));
+        return existing != null ? (PreferenceConstraint) existing : new PreferenceConstraint(variable, goal, weight);
+    }
+
+    public void addSubtypeConstraint(Slot subtype, Slot supertype) {
+        add(createSubtypeConstraint(subtype, supertype));
+    }
+
+    public void addEqualityConstraint(Slot first, Slot second) {
+        add(createEqualityConstraint(first, second));
+    }
+
+    public void addInequalityConstraint(Slot first, Slot second) {
+        add(createInequalityConstraint(first, second));
+    }
+
+    public void addComparableConstraint(Slot first, Slot second) {
+        add(createComparableConstraint(first, second));
+    }
+
+    public void addCombineConstraint(Slot target, Slot decl, Slot result) {
+        add(createCombineConstraint(target, decl, result));
+    }
+
+    /**
+     * Start recording the constraints passed to add, see ConstraintCache.
+     */
+    public void startRecording() {
+        setRecording(new ArrayList<Constraint>());
+    }
+
+    /**
+     * @return the constraints passed to add since the last call to startRecording
+     */
+    public List<Constraint> stopRecording() {
+        final List<Constraint> result = getRecording();
+        setRecording(null);
+        return result;
+    }
+
+    /**
+     * @return the list add records constraints in, or null if they are not recorded.  Subclasses used by
+     * several threads keep one list per thread (see ConcurrentConstraintManager).
+     */
+    protected List<Constraint> getRecording() {
+        return recorded;
+    }
+
+    protected void setRecording(List<Constraint> recording) {
+        this.recorded = recording;
+    }
+
+    /**
+     * Describes a constraint by its class and slots without creating it.  A key has the hash code of the
+     * constraint it describes and equals it, so Map.get, which compares a key to the entries with key.equals,
+     * finds the constraint.  Like the constraints' equals methods, a key matches the slots of an
+     * EqualityConstraint, InequalityConstraint or ComparableConstraint in either order.  The opposite is not
+     * true: a constraint never equals a key, so keys must not be stored in a set of constraints.
+     */
+    protected static final class ConstraintKey {
+        private Class<? extends Constraint> kind;
+        private int hashCode;
+        private Slot first;
+        private Slot second;
+        private Slot third;
+        private int weight;
+
+        ConstraintKey set(Class<? extends Constraint> kind, int hashCode, Slot first, Slot second, Slot third,
+                          int weight) {
+            this.kind = kind;
+            this.hashCode = hashCode;
+            this.first = first;
+            this.second = second;
+            this.third = third;
+            this.weight = weight;
+            return this;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == null || obj.getClass() != kind || obj.hashCode() != hashCode) {
+                return false;
+            }
+
+            if (kind == SubtypeConstraint.class) {
+                final SubtypeConstraint subtype = (SubtypeConstraint) obj;
+                return same(first, subtype.getSubtype()) && same(second, subtype.getSupertype());
+            } else if (kind == CombineConstraint.class) {
+                final CombineConstraint combine = (CombineConstraint) obj;
+                return same(first, combine.getTarget()) && same(second, combine.getDeclared())
+                        && same(third, combine.getResult());
+            } else if (kind == PreferenceConstraint.class) {
+                final PreferenceConstraint preference = (PreferenceConstraint) obj;
+                return same(first, preference.getVariable()) && same(second, preference.getGoal())
+                        && weight == preference.getWeight();
+            }
+
+            // The symmetric constraints
+            final BinaryConstraint binary = (BinaryConstraint) obj;
+            return (same(first, binary.getFirst()) && same(second, binary.getSecond()))
+                    || (same(first, binary.getSecond()) && same(second, binary.getFirst()));
+        }
+
+        private static boolean same(Slot slot, Slot other) {
+            return slot == null ? other == null : slot.equals(other);
+        }
     }
 }
@@ -4,15 +4,24 @@ package checkers.inference;
 import checkers.inference.model.BinaryConstraint;
 import checkers.inference.model.ConstantSlot;
 import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
 import checkers.inference.model.ExistentialConstraint;
 import checkers.inference.model.ExistentialVariableSlot;
 import checkers.inference.model.Slot;
 import checkers.inference.model.VariableSlot;
+import checkers.inference.util.InferenceProfiler;
 import org.checkerframework.javacutil.ErrorReporter;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
@@ -21,68 +30,294 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * This class currently just removes ExistentialVariables from the set of constraints
- * and replaces them with ExistentialConstraints.  In the future, we may want to make
- * this an interface or make it customizable
+ * Normalizes the generated constraints for the solvers: constraints with null slots are dropped (outside of
+ * hack mode they are an error), constraints between ExistentialVariables are replaced by
+ * ExistentialConstraints (see ExistentialVariableNormalizer) and variables that stand for constants are replaced by the constants.  Then the
+ * stages of the type system (see InferrableChecker.createNormalizers) are run.
+ *
+ * The stages are fused: each constraint flows through every stage once, as it is read from the
+ * ConstraintManager, and only the output of the last stage is kept.
  */
 public class ConstraintNormalizer {
 
     public final Logger logger = Logger.getLogger(InferenceCli.class.getName());
 
-    protected interface Normalizer {
-        boolean accept(Constraint constraint);
+    /**
+     * The default of InferenceOptions.existentialExpansionLimit
+     */
+    public static final int DEFAULT_EXISTENTIAL_EXPANSION_LIMIT = 16;
+
+    private final List<Normalizer> stages = new ArrayList<>();
+
+    private final ExistentialVariableNormalizer existentialNormalizer;
+
+    /**
+     * @param slotManager the SlotManager of the constraints, which the selectors of ExistentialVariables are
+     *                    added to (see ExistentialVariableNormalizer)
+     */
+    public ConstraintNormalizer(final SlotManager slotManager, final Map<VariableSlot, ConstantSlot> constantVars) {
+        this(slotManager, constantVars, Collections.<Normalizer>emptyList(), DEFAULT_EXISTENTIAL_EXPANSION_LIMIT);
     }
 
-    private ConstantVarNormalizer constantNormalizer;
+    /**
+     * @param slotManager the SlotManager of the constraints, which the selectors of ExistentialVariables are
+     *                    added to (see ExistentialVariableNormalizer)
+     * @param typeSystemStages stages that are run after the built-in ones, in order
+     * @param existentialExpansionLimit the largest number of constraints a constraint between ExistentialVariables
+     *                                  is expanded to, see ExistentialVariableNormalizer
+     */
+    public ConstraintNormalizer(final SlotManager slotManager,
+                                final Map<VariableSlot, ConstantSlot> constantVars,
+                                final List<? extends Normalizer> typeSystemStages,
+                                final int existentialExpansionLimit) {
+        existentialNormalizer = new ExistentialVariableNormalizer(slotManager, existentialExpansionLimit);
+        stages.add(new NullSlotNormalizer());
+        stages.add(existentialNormalizer);
+        stages.add(new ConstantVarNormalizer(constantVars));
+        stages.addAll(typeSystemStages);
+    }
 
-    public ConstraintNormalizer(final Map<VariableSlot, ConstantSlot> constantVars) {
-        constantNormalizer = new ConstantVarNormalizer(constantVars);
+    /**
+     * @param constraints the generated constraints, only iterated once so they may be streamed (see
+     *                    SpillingConstraintManager) and may contain duplicates
+     * @return the normalized constraints, indexed by slot for the solvers (see ConstraintIndex.of)
+     */
+    public ConstraintIndex normalize(Iterable<Constraint> constraints) {
+        return normalize(constraints, 1);
     }
 
-    public Set<Constraint> normalize(Set<Constraint> constraints) {
-        Set<Constraint> filteredConstraints = new LinkedHashSet<>(constraints);
-        logger.info("-- Normalization : NULL SLOT --");
-        filteredConstraints = filter(filteredConstraints, new NullSlotNormalizer());
+    /**
+     * Normalize constraints with up to threads threads (see Normalizer.forChunk).  The result is the same as
+     * that of normalizing them on one thread.
+     *
+     * @param constraints the generated constraints, only iterated once so they may be streamed (see
+     *                    SpillingConstraintManager) and may contain duplicates
+     * @return the normalized constraints as a ConstraintIndex
+     */
+    public ConstraintIndex normalize(Iterable<Constraint> constraints, int threads) {
+        logger.info("-- Normalization : " + stages.size() + " stages --");
+        final ConstraintIndex normalizedConstraints = constraints instanceof Collection
+                                                    ? new ConstraintIndex(((Collection<?>) constraints).size())
+                                                    : new ConstraintIndex();
+
+        final Normalizer.Output [] inputs = chain(stages, new Normalizer.Output() {
+            @Override
+            public void add(Constraint constraint) {
+                normalizedConstraints.add(constraint);
+            }
+        });
 
-        logger.info("-- Normalization : EXISTENTIAl CONSTRAINT --");
-        ExistentialVariableNormalizer existentialNormalizer = new ExistentialVariableNormalizer();
-        filteredConstraints = filter(filteredConstraints, existentialNormalizer);
-        filteredConstraints.addAll(existentialNormalizer.getConstraints());
+        // The iterator of a SpillingConstraintManager holds the log open until it is exhausted or closed
+        final Iterator<Constraint> iterator = constraints.iterator();
+        try {
+            if (threads > 1) {
+                normalizeInChunks(iterator, threads, inputs);
+            } else {
+                while (iterator.hasNext()) {
+                    inputs[0].add(iterator.next());
+                }
+            }
+        } finally {
+            if (iterator instanceof Closeable) {
+                try {
+                    ((Closeable) iterator).close();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Could not close the constraints", e);
+                }
+            }
+        }
 
-        logger.info("-- Normalization: CONSTANT SLOT --");
-        filteredConstraints = filter(filteredConstraints, constantNormalizer);
-        filteredConstraints.addAll(constantNormalizer.constraints);
+        for (int i = 0; i < stages.size(); i++) {
+            stages.get(i).finish(inputs[i + 1]);
+        }
 
-        return filteredConstraints;
+        logger.info(String.format("Existential constraints: %d expanded, %d over the expansion limit, %d selectors",
+                existentialNormalizer.expanded, existentialNormalizer.overLimit,
+                existentialNormalizer.existentials.size()));
+        InferenceProfiler.count("normalization", "existentialExpanded", existentialNormalizer.expanded);
+        InferenceProfiler.count("normalization", "existentialOverLimit", existentialNormalizer.overLimit);
+        InferenceProfiler.count("normalization", "existentialSelectors", existentialNormalizer.existentials.size());
+
+        return normalizedConstraints;
     }
 
-    private static Set<Constraint> filter(Set<Constraint> constraints, Normalizer normalizer) {
-        final Set<Constraint> normalizedConstraints = new HashSet<>(constraints.size());
-        for(final Constraint constraint : constraints) {
-            if(!normalizer.accept(constraint)) {
-                normalizedConstraints.add(constraint);
+    /**
+     * @return outputs where outputs[i] passes constraints to stages.get(i) and outputs[stages.size()] is last
+     */
+    private static Normalizer.Output [] chain(final List<Normalizer> stages, final Normalizer.Output last) {
+        final Normalizer.Output [] inputs = new Normalizer.Output[stages.size() + 1];
+        inputs[stages.size()] = last;
+        for (int i = stages.size() - 1; i >= 0; i--) {
+            final Normalizer stage = stages.get(i);
+            final Normalizer.Output next = inputs[i + 1];
+            inputs[i] = new Normalizer.Output() {
+                @Override
+                public void add(Constraint constraint) {
+                    stage.normalize(constraint, next);
+                }
+            };
+        }
+        return inputs;
+    }
+
+    /**
+     * Pass chunks of CHUNK_SIZE constraints through the leading stages that support forChunk on a pool of
+     * threads.  The chunks are joined in order, so the stages after them see the constraints in the same
+     * order as they would on one thread.
+     */
+    private void normalizeInChunks(Iterator<Constraint> iterator, int threads, Normalizer.Output [] inputs) {
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        final Deque<Future<Chunk>> pending = new ArrayDeque<>();
+        int parallelStages = -1;
+        try {
+            List<Constraint> chunkConstraints = new ArrayList<>(CHUNK_SIZE);
+            while (iterator.hasNext()) {
+                chunkConstraints.add(iterator.next());
+                if (chunkConstraints.size() < CHUNK_SIZE && iterator.hasNext()) {
+                    continue;
+                }
+
+                final List<Normalizer> chunkStages = new ArrayList<>();
+                for (int i = 0; i < stages.size() && (parallelStages == -1 || i < parallelStages); i++) {
+                    final Normalizer chunkStage = stages.get(i).forChunk();
+                    if (chunkStage == null) {
+                        break;
+                    }
+                    chunkStages.add(chunkStage);
+                }
+                parallelStages = chunkStages.size();
+
+                pending.add(pool.submit(new Chunk(chunkConstraints, chunkStages)));
+                chunkConstraints = new ArrayList<>(CHUNK_SIZE);
+
+                // Bound the number of chunks in memory when the constraints are streamed
+                while (pending.size() > 2 * threads) {
+                    joinChunk(pending.remove(), inputs);
+                }
             }
+
+            while (!pending.isEmpty()) {
+                joinChunk(pending.remove(), inputs);
+            }
+        } finally {
+            pool.shutdownNow();
         }
+    }
 
-        return normalizedConstraints;
+    private void joinChunk(Future<Chunk> future, Normalizer.Output [] inputs) {
+        final Chunk chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while normalizing constraints", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Normalizing constraints failed", e.getCause());
+        }
+
+        for (int i = 0; i < chunk.stages.size(); i++) {
+            final Normalizer stage = stages.get(i);
+            final Normalizer chunkStage = chunk.stages.get(i);
+            if (chunkStage != stage) {
+                stage.join(chunkStage);
+            }
+        }
+
+        final Normalizer.Output next = inputs[chunk.stages.size()];
+        for (final Constraint constraint : chunk.output) {
+            next.add(constraint);
+        }
+    }
+
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    /**
+     * Passes a chunk of the constraints through the stages created for it and keeps their output.
+     */
+    private static class Chunk implements Callable<Chunk> {
+        private final List<Constraint> constraints;
+        private final List<Normalizer> stages;
+        private final List<Constraint> output;
+
+        private Chunk(List<Constraint> constraints, List<Normalizer> stages) {
+            this.constraints = constraints;
+            this.stages = stages;
+            this.output = new ArrayList<>(constraints.size());
+        }
+
+        @Override
+        public Chunk call() {
+            final Normalizer.Output [] inputs = chain(stages, new Normalizer.Output() {
+                @Override
+                public void add(Constraint constraint) {
+                    output.add(constraint);
+                }
+            });
+            for (final Constraint constraint : constraints) {
+                inputs[0].add(constraint);
+            }
+            constraints.clear();
+            return this;
+        }
     }
 
-    private static class ExistentialVariableNormalizer implements Normalizer {
+    /**
+     * A binary constraint between the ExistentialVariables of two chains of potential slots is expanded to
+     * one constraint for each pair of slots from the two chains, each under the conditions that select the
+     * pair (see addToTree).  The number of constraints is the product of the lengths of the chains, so
+     * constraints whose product exceeds the expansion limit are instead rewritten onto selectors: plain
+     * VariableSlots, one for each ExistentialVariable, that are added to the SlotManager.  Each selector is then
+     * tied to the slot its ExistentialVariable stands for by one ExistentialConstraint,
+     * (if (potential exists) { selector == potential } else { selector == alternative }), which is shared by
+     * every constraint on the variable, so the output grows linearly with the length of the chains.  As the
+     * selectors are ordinary variables, the serializers and solvers need no support for them.
+     *
+     * Like the expanded constraints, the constraints over the limit are held back until finish, where the
+     * selectors are created in the order of the ids of their ExistentialVariables, so the selectors get the same
+     * ids however the constraints were chunked.
+     */
+    private static class ExistentialVariableNormalizer extends Normalizer {
+        private final SlotManager slotManager;
+        private final int expansionLimit;
+
         private ExistentialTree existentialTree = new ExistentialTree();
 
-        public Set<Constraint> getConstraints() {
-            return existentialTree.toConstraints();
+        // The ExistentialVariables of constraints over the expansion limit and their alternatives, by id
+        private final TreeMap<Integer, ExistentialVariableSlot> existentials = new TreeMap<>();
+
+        // The constraints over the expansion limit, rewritten onto the selectors in finish
+        private final List<BinaryConstraint> overLimitConstraints = new ArrayList<>();
+
+        // The selector of each ExistentialVariable in existentials, by the id of the ExistentialVariable
+        private final Map<Integer, VariableSlot> selectors = new HashMap<>();
+
+        // The number of constraints that were expanded and that were over the expansion limit
+        private long expanded = 0;
+        private long overLimit = 0;
+
+        public ExistentialVariableNormalizer(SlotManager slotManager, int expansionLimit) {
+            this.slotManager = slotManager;
+            this.expansionLimit = expansionLimit;
         }
+
         /**
-         * Returns true if this constraint contains an ExistentialVariable and
-         * this constraint will be replaced by this normalizer
-         * @param constraint
-         * @return
+         * Constraints that contain an ExistentialVariable are held back and replaced in finish by
+         * ExistentialConstraints, or by constraints on selectors if they are over the expansion limit.
+         * Other constraints are passed on.
          */
-        public boolean accept(final Constraint constraint) {
+        @Override
+        public void normalize(final Constraint constraint, final Output next) {
             boolean hasExistential = false;
             if (constraint instanceof BinaryConstraint) {
                 for (final Slot slot : constraint.getSlots()) {
@@ -93,17 +328,86 @@ public class ConstraintNormalizer {
                 }
 
                 if (hasExistential) {
-                    collectConstraints((BinaryConstraint) constraint);
+                    final BinaryConstraint binaryConstraint = (BinaryConstraint) constraint;
+                    final List<Slot> leftSlots = slotsToConditionals(binaryConstraint.getFirst());
+                    final List<Slot> rightSlots = slotsToConditionals(binaryConstraint.getSecond());
+                    if ((long) leftSlots.size() * rightSlots.size() <= expansionLimit) {
+                        addToTree(leftSlots, rightSlots, binaryConstraint);
+                        ++expanded;
+                    } else {
+                        addExistentials(binaryConstraint.getFirst());
+                        addExistentials(binaryConstraint.getSecond());
+                        ++overLimit;
+                        overLimitConstraints.add(binaryConstraint);
+                    }
+                }
+            }
+
+            if (!hasExistential) {
+                next.add(constraint);
+            }
+        }
+
+        private void addExistentials(Slot slot) {
+            while (slot instanceof ExistentialVariableSlot) {
+                final ExistentialVariableSlot existential = (ExistentialVariableSlot) slot;
+                if (existentials.put(existential.getId(), existential) != null) {
+                    // Its alternatives were added with it
+                    return;
                 }
+                slot = existential.getAlternativeSlot();
+            }
+        }
+
+        /**
+         * @return the selector of slot if it is an ExistentialVariable, otherwise slot
+         */
+        private Slot toSelector(Slot slot) {
+            if (slot instanceof ExistentialVariableSlot) {
+                return selectors.get(((ExistentialVariableSlot) slot).getId());
+            }
+            return slot;
+        }
+
+        @Override
+        public void finish(final Output next) {
+            for (final Constraint constraint : existentialTree.toConstraints()) {
+                next.add(constraint);
+            }
+
+            for (final Integer id : existentials.keySet()) {
+                final VariableSlot selector = new VariableSlot(slotManager.nextId());
+                slotManager.addVariable(selector);
+                selectors.put(id, selector);
+            }
+
+            for (final BinaryConstraint constraint : overLimitConstraints) {
+                next.add(constraint.make(toSelector(constraint.getFirst()), toSelector(constraint.getSecond())));
             }
 
-            return hasExistential;
+            for (final ExistentialVariableSlot existential : existentials.values()) {
+                final Slot selector = toSelector(existential);
+                final VariableSlot potential = existential.getPotentialSlot();
+                final Slot alternative = toSelector(existential.getAlternativeSlot());
+                next.add(new ExistentialConstraint(potential,
+                        Collections.<Constraint>singletonList(new EqualityConstraint(selector, potential)),
+                        Collections.<Constraint>singletonList(new EqualityConstraint(selector, alternative))));
+            }
         }
 
-        protected void collectConstraints(final BinaryConstraint constraint) {
-            final List<Slot> leftSlot = slotsToConditionals(constraint.getFirst());
-            final List<Slot> rightSlot = slotsToConditionals(constraint.getSecond());
-            addToTree(leftSlot, rightSlot, constraint);
+        @Override
+        public Normalizer forChunk() {
+            return new ExistentialVariableNormalizer(slotManager, expansionLimit);
+        }
+
+        @Override
+        public void join(final Normalizer chunk) {
+            final ExistentialVariableNormalizer existentialChunk = (ExistentialVariableNormalizer) chunk;
+            existentialTree.merge(existentialChunk.existentialTree);
+            existentials.putAll(existentialChunk.existentials);
+            overLimitConstraints.addAll(existentialChunk.overLimitConstraints);
+            expanded += existentialChunk.expanded;
+            overLimit += existentialChunk.overLimit;
         }
 
         //TODO: DOCUMENT THAT WE BASICALLY (FOR BINARY CONSTRAINTS) BUILD UP ALL POSSIBLE EXISTS/DOESN'T EXISTS
@@ -136,11 +440,9 @@ public class ConstraintNormalizer {
                               final List<Slot> rightSlots,
                               final BinaryConstraint constraint) {
 
-            final int initialSize = (int) Math.floor((Math.pow(leftSlots.size() * leftSlots.size(), 2) * 3/4));
-
             //a list of values from leftSlots, where exist == false
             //we have already added their positive cases to implications
-            final HashSet<Value> previouslyEncountered = new HashSet<>(initialSize);
+            final HashSet<Value> previouslyEncountered = new HashSet<>(leftSlots.size() * 2);
 
             final List<Slot> currentLeft = new ArrayList<Slot>(leftSlots.size());
             final int lastLeftIndex  = leftSlots.size() - 1;
@@ -201,6 +503,28 @@ public class ConstraintNormalizer {
             current.constraints.add(constraint);
         }
 
+        /**
+         * Add the nodes and constraints of other, which was built from later constraints, to this tree.
+         */
+        public void merge(final ExistentialTree other) {
+            mergeNodes(nodes, other.nodes);
+        }
+
+        private static void mergeNodes(final TreeMap<Slot, ExistentialNode> nodes,
+                                       final TreeMap<Slot, ExistentialNode> otherNodes) {
+            for (final ExistentialNode otherNode : otherNodes.values()) {
+                final ExistentialNode node = nodes.get(otherNode.slot);
+                if (node == null) {
+                    // other is discarded, so its nodes can be reused
+                    nodes.put(otherNode.slot, otherNode);
+                } else {
+                    node.constraints.addAll(otherNode.constraints);
+                    mergeNodes(node.ifExists, otherNode.ifExists);
+                    mergeNodes(node.ifNotExists, otherNode.ifNotExists);
+                }
+            }
+        }
+
         private static ExistentialNode getOrCreateNode(final TreeMap<Slot, ExistentialNode> nodes, Value value) {
             ExistentialNode node;
             if (!nodes.containsKey(value.slot)) {
@@ -338,35 +662,34 @@ public class ConstraintNormalizer {
         }
     }
 
-    private class ConstantVarNormalizer implements Normalizer {
-        private final Set<Constraint> constraints;
-
+    private static class ConstantVarNormalizer extends Normalizer {
         private final Map<VariableSlot, ConstantSlot> constantVars;
 
         public ConstantVarNormalizer(Map<VariableSlot, ConstantSlot> constantVars) {
             this.constantVars = constantVars;
-            this.constraints = new LinkedHashSet<>();
         }
 
-        public boolean accept(Constraint constraint) {
+        @Override
+        public void normalize(Constraint constraint, Output next) {
 
             if (constraint instanceof BinaryConstraint) {
                 BinaryConstraint binaryConstraint = (BinaryConstraint) constraint;
                 if (constantVars.containsKey(binaryConstraint.getFirst()) ||
                     constantVars.containsKey(binaryConstraint.getSecond())) {
-                    constraints.add(
+                    next.add(
                         binaryConstraint.make(getTranslatedSlot(binaryConstraint.getFirst()),
                                               getTranslatedSlot(binaryConstraint.getSecond())));
 
-                    return true;
+                    return;
                 }
             }
 
-            return false;
+            next.add(constraint);
         }
 
-        public Set<Constraint> getConstraints() {
-            return constraints;
+        @Override
+        public Normalizer forChunk() {
+            return this;
         }
 
         public Slot getTranslatedSlot(final Slot slot) {
@@ -375,20 +698,26 @@ public class ConstraintNormalizer {
         }
     }
 
-    private class NullSlotNormalizer implements Normalizer {
+    private static class NullSlotNormalizer extends Normalizer {
 
-        public boolean accept(Constraint constraint) {
+        @Override
+        public void normalize(Constraint constraint, Output next) {
             for( Slot slot : constraint.getSlots() ) {
                 if (slot == null) {
                     if (!InferenceMain.isHackMode()) {
                         ErrorReporter.errorAbort("Null slot in constraint " + constraint.getClass().getName() + "\n"
                                                + constraint);
                     }
-                    return true;
+                    return;
                 }
             }
 
-            return false;
+            next.add(constraint);
+        }
+
+        @Override
+        public Normalizer forChunk() {
+            return this;
         }
     }
 }
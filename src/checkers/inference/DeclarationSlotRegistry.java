@@ -0,0 +1,84 @@
+package checkers.inference;
+
+import checkers.inference.model.AnnotationLocation;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.VariableSlot;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * When constraints are generated by several workers in parallel (see InferenceOptions.workers), each
+ * worker creates its own VariableSlots for every declaration it uses, including declarations that
+ * are in another worker's source files.  DeclarationSlotRegistry ensures these slots are treated as
+ * one slot by the solver.
+ *
+ * Slots are keyed by ConstraintCache.getLocationKey, which is built from the declaring class, method,
+ * and variable and the path to the annotated type.  AnnotationLocation.equals cannot be used, as it also
+ * compares the compilation units, and every worker and batch parses the files with its own javac instance.
+ * The first worker (in worker order) to register a location owns it.  The slots of later workers are read
+ * with getOwner, so a slot at an owned location is read as the owner's slot and the same declaration does
+ * not get one slot per worker.  Slots that are registered rather than read with getOwner are made equal to
+ * the owner's slot by register.  Because registration happens in worker order and each worker creates slots
+ * in the order of its ids, the resulting constraints do not depend on how the workers were scheduled.
+ *
+ * Batches (see InferenceOptions.batchSize) share one SlotManager and are compiled one after another, so
+ * a later batch also reuses the owner's slot rather than creating one, see getOwner.
+ */
+public class DeclarationSlotRegistry {
+
+    private final Map<String, VariableSlot> ownerSlots = new LinkedHashMap<>();
+
+    /**
+     * Register all slots created by one worker.  Must be called once per worker in worker order.
+     * @param workerSlots the VariableSlots of the worker in increasing id order
+     * @return EqualityConstraints between the worker's slots and the slots of earlier workers
+     *         at the same locations
+     */
+    public List<Constraint> register(Collection<VariableSlot> workerSlots) {
+        List<Constraint> equalities = new ArrayList<>();
+        Map<String, VariableSlot> newOwners = new LinkedHashMap<>();
+
+        for (VariableSlot slot : workerSlots) {
+            if (!isDeclarationSlot(slot)) {
+                continue;
+            }
+
+            final String location = ConstraintCache.getLocationKey(slot.getLocation());
+            if (location == null) {
+                continue;
+            }
+
+            final VariableSlot owner = ownerSlots.get(location);
+            if (owner != null) {
+                equalities.add(new EqualityConstraint(owner, slot));
+            } else if (!newOwners.containsKey(location)) {
+                newOwners.put(location, slot);
+            }
+        }
+
+        // Slots at the same location within a single worker are left as they were before parallel generation
+        ownerSlots.putAll(newOwners);
+        return equalities;
+    }
+
+    /**
+     * @return the slot registered for the location key of location or null if there is none
+     */
+    public VariableSlot getOwner(AnnotationLocation location) {
+        final String key = ConstraintCache.getLocationKey(location);
+        return key != null ? ownerSlots.get(key) : null;
+    }
+
+    private static boolean isDeclarationSlot(VariableSlot slot) {
+        // Refinement, combination, and existential variables are local to the worker that created them
+        return slot.getClass().equals(VariableSlot.class)
+            && slot.isInsertable()
+            && slot.getLocation() != null
+            && slot.getLocation() != AnnotationLocation.MISSING_LOCATION;
+    }
+}
@@ -3,15 +3,13 @@ package checkers.inference;
 import checkers.inference.model.ExistentialVariableSlot;
 import org.checkerframework.framework.type.AnnotatedTypeMirror;
 import org.checkerframework.framework.util.AnnotationBuilder;
-import org.checkerframework.javacutil.AnnotationUtils;
 import org.checkerframework.javacutil.ErrorReporter;
 
 import java.lang.annotation.Annotation;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.AnnotationMirror;
@@ -32,26 +30,73 @@ import static checkers.inference.InferenceQualifierHierarchy.isVarAnnot;
  */
 public class DefaultSlotManager implements SlotManager {
 
-    private final AnnotationMirror varAnnot;
+    private AnnotationMirror varAnnot;
     //this id starts at 1 because sin ome serializer's (CnfSerializer) 0 is used as line delimiters
     //monotonically increasing id for all VariableSlots (including subtypes of VariableSlots)
-    private int nextId = 1;
+    //atomic so that ConcurrentSlotManager can hand out ids from several threads
+    private final AtomicInteger nextId;
 
-    //a map of variable id to variable for ALL variables (including subtypes of VariableSlots)
-    private final Map<Integer, VariableSlot> variables;
+    //ids at or above this limit belong to another SlotManager (see InferenceOptions.workers)
+    private final int idLimit;
 
-    private final Set<Class<? extends Annotation>> realQualifiers;
-    private final ProcessingEnvironment processingEnvironment;
+    //all variables (including subtypes of VariableSlots) by id
+    private final SlotStore variables;
+
+    //not final, see setProcessingEnvironment
+    private ProcessingEnvironment processingEnvironment;
+
+    //one ConstantSlot per qualifier value
+    private final ConstantSlotPool constantSlots;
+
+    //which variables have been merged to which CombVariableSlots
+    private final MergeIndex mergeIndex = new MergeIndex();
 
     public DefaultSlotManager( final ProcessingEnvironment processingEnvironment,
                                final Set<Class<? extends Annotation>> realQualifiers ) {
+        this(processingEnvironment, realQualifiers, 1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create a SlotManager that only hands out ids in the range [firstId, idLimit).  SlotManagers with
+     * disjoint ranges can create variables independently and later be merged without id collisions.
+     */
+    public DefaultSlotManager( final ProcessingEnvironment processingEnvironment,
+                               final Set<Class<? extends Annotation>> realQualifiers,
+                               final int firstId, final int idLimit ) {
+        this(processingEnvironment, realQualifiers, firstId, idLimit, new SlotStore());
+    }
+
+    /**
+     * @param variables the store for the variables, a ConcurrentSlotStore if the SlotManager is used by several
+     *                  threads, see ConcurrentSlotManager
+     */
+    protected DefaultSlotManager( final ProcessingEnvironment processingEnvironment,
+                                  final Set<Class<? extends Annotation>> realQualifiers,
+                                  final int firstId, final int idLimit, final SlotStore variables ) {
+        this.nextId = new AtomicInteger(firstId);
+        this.idLimit = idLimit;
         this.processingEnvironment = processingEnvironment;
-        this.realQualifiers = realQualifiers;
-        variables = new LinkedHashMap<>();
+        this.variables = variables;
+        constantSlots = new ConstantSlotPool(realQualifiers);
+        this.varAnnot = buildVarAnnot(processingEnvironment);
+    }
 
+    private static AnnotationMirror buildVarAnnot( final ProcessingEnvironment processingEnvironment ) {
         AnnotationBuilder builder = new AnnotationBuilder(processingEnvironment, VarAnnot.class);
         builder.setValue("value", -1 );
-        this.varAnnot = builder.build();
+        return builder.build();
+    }
+
+    /**
+     * Keep the variables of this SlotManager for another javac instance (see InferenceOptions.batchSize).
+     * Annotations are built with processingEnvironment from now on; the annotations and annotation type
+     * elements of the previous javac instance are dropped, so this SlotManager no longer refers to it.
+     */
+    public void setProcessingEnvironment( final ProcessingEnvironment processingEnvironment ) {
+        this.processingEnvironment = processingEnvironment;
+        this.varAnnot = buildVarAnnot(processingEnvironment);
+        variables.clearAnnotations();
+        constantSlots.forgetElements();
     }
 
     /**
@@ -59,7 +104,13 @@ public class DefaultSlotManager implements SlotManager {
      */
     @Override
     public int nextId() {
-        return nextId++;
+        final int id = nextId.getAndIncrement();
+        if (id >= idLimit || id < 0) {
+            // Keep the counter from wrapping around into ids that were already handed out
+            nextId.set(idLimit);
+            ErrorReporter.errorAbort("Exhausted the variable ids reserved for this SlotManager, next id: " + id);
+        }
+        return id;
     }
 
     /**
@@ -67,7 +118,7 @@ public class DefaultSlotManager implements SlotManager {
      */
     @Override
     public void addVariable( final VariableSlot slot ) {
-        variables.put( slot.getId(), slot );
+        variables.put( slot );
     }
 
     /**
@@ -85,12 +136,18 @@ public class DefaultSlotManager implements SlotManager {
     public AnnotationMirror getAnnotation( final Slot slot ) {
         final Class<?> slotClass = slot.getClass();
 
-        // We need to build the AnntotationBuilder each time because AnnotationBuilders are only allowed to build their annotations once
+        // AnnotationBuilders are only allowed to build their annotations once, so each variable's annotation
+        // is built by a new AnnotationBuilder the first time it is requested and then reused
         if( slotClass.equals( VariableSlot.class )
                 || slotClass.equals(ExistentialVariableSlot.class )
                 || slotClass.equals( RefinementVariableSlot.class )
                 || slotClass.equals( CombVariableSlot.class ) ) {
-            return convertVariable( (VariableSlot) slot, new AnnotationBuilder( processingEnvironment, VarAnnot.class) );
+            final int id = ((VariableSlot) slot).getId();
+            AnnotationMirror annotation = variables.getAnnotation( id );
+            if( annotation == null ) {
+                annotation = buildAnnotation( (VariableSlot) slot );
+            }
+            return annotation;
         }
 
         if( slotClass.equals( ConstantSlot.class ) ) {
@@ -100,6 +157,21 @@ public class DefaultSlotManager implements SlotManager {
         throw new IllegalArgumentException("Slot type unrecognized( " + slot.getClass() + ") Slot=" + slot.toString() );
     }
 
+    /**
+     * Build the VarAnnot of variable and keep it in the store, so it is only built once, or return the one in
+     * the store if another thread built it first.  Building uses javac's Elements, which are not thread-safe,
+     * so ConcurrentSlotManager builds annotations under a lock.
+     * @return the annotation of variable
+     */
+    protected AnnotationMirror buildAnnotation( final VariableSlot variable ) {
+        AnnotationMirror annotation = variables.getAnnotation( variable.getId() );
+        if( annotation == null ) {
+            annotation = convertVariable( variable, new AnnotationBuilder( processingEnvironment, VarAnnot.class) );
+            variables.putAnnotation( variable.getId(), annotation );
+        }
+        return annotation;
+    }
+
     /**
      * Converts the given VariableSlot into an annotation using the given AnnotationBuiklder
      * @param variable VariableSlot to convert
@@ -136,54 +208,87 @@ public class DefaultSlotManager implements SlotManager {
     @Override
     public Slot getSlot( final AnnotationMirror annotationMirror ) {
 
-        final int id;
         if( isVarAnnot(annotationMirror) ) {
             if(annotationMirror.getElementValues().isEmpty() ) {
                 return null; //TODO: should we instead throw an exception?
-            } else {
-                final AnnotationValue annoValue = annotationMirror.getElementValues().values().iterator().next();
-                id = Integer.valueOf( annoValue.toString() );
             }
 
-            return getVariable( id );
+            return getVariable( decodeVarAnnotId( annotationMirror ) );
 
         } else {
-            for( Class<? extends Annotation> realAnno : realQualifiers ) {
-                if( AnnotationUtils.areSameByClass(annotationMirror, realAnno)) {
-                    return new ConstantSlot( annotationMirror );
-                }
+            final ConstantSlot constant = constantSlots.get( annotationMirror );
+            if( constant != null ) {
+                return constant;
             }
         }
 
         if (InferenceMain.isHackMode()) {
             InferenceMain.getInstance().logger.warning("Hack:DefaultSlotManager:146");
-            return new ConstantSlot(InferenceMain.getInstance().getRealTypeFactory().
+            return constantSlots.intern(InferenceMain.getInstance().getRealTypeFactory().
                     getQualifierHierarchy().getTopAnnotations().iterator().next());
         }
         ErrorReporter.errorAbort( annotationMirror + " is a type of AnnotationMirror not handled by getVariableSlot." );
         return null; // Dead
     }
 
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public ConstantSlotPool getConstantSlotPool() {
+        return constantSlots;
+    }
+
+    /**
+     * Return the id stored in a VarAnnot with a value.  The value of the VarAnnots built by AnnotationBuilder
+     * and javac is an Integer, which is read directly; other values are parsed from their string form.
+     */
+    static int decodeVarAnnotId( final AnnotationMirror varAnnot ) {
+        final AnnotationValue annoValue = varAnnot.getElementValues().values().iterator().next();
+        final Object value = annoValue.getValue();
+        if( value instanceof Number ) {
+            return ((Number) value).intValue();
+        }
+
+        return Integer.parseInt( annoValue.toString() );
+    }
+
     /**
      * @inheritDoc
      */
     @Override
     public List<Slot> getSlots() {
-        return new ArrayList<Slot>( this.variables.values() );
+        return new ArrayList<Slot>( this.variables.getAll() );
     }
 
-    // Sometimes, I miss scala.
     /**
      * @inheritDoc
      */
     @Override
     public List<VariableSlot> getVariableSlots() {
-        List<VariableSlot> varSlots = new ArrayList<>();
-        for (Slot slot : variables.values()) {
-            if (slot instanceof VariableSlot) {
-                varSlots.add((VariableSlot) slot);
-            }
-        }
-        return varSlots;
+        return variables.getAll();
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public SlotView getSlotView() {
+        return variables.view();
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public MergeIndex getMergeIndex() {
+        return mergeIndex;
+    }
+
+    /**
+     * @return the variables of the given kind in increasing id order
+     */
+    public List<VariableSlot> getVariableSlots( final SlotStore.Kind kind ) {
+        return variables.getAll(kind);
     }
 }
\ No newline at end of file
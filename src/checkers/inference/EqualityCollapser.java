@@ -0,0 +1,224 @@
+package checkers.inference;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.lang.model.element.AnnotationMirror;
+
+import checkers.inference.model.BinaryConstraint;
+import checkers.inference.model.CombineConstraint;
+import checkers.inference.model.ComparableConstraint;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.ExistentialConstraint;
+import checkers.inference.model.PreferenceConstraint;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SubtypeConstraint;
+import checkers.inference.model.VariableSlot;
+import checkers.inference.util.InferenceProfiler;
+
+/**
+ * A normalization stage that replaces the EqualityConstraints between two VariableSlots by making the slots
+ * one variable (see InferenceOptions.collapseEqualities).  The slots that are equal, directly or through
+ * other slots, are merged with union-find and every other constraint is rewritten onto the slot with the
+ * smallest id of its class, its representative.  Constraints that become trivially true (x <: x, x == x and
+ * x ~ x) are dropped.  The constraints inside ExistentialConstraints are rewritten but, as they only hold
+ * conditionally, their equalities are not merged, and neither are potential variables replaced, as whether
+ * a slot's annotation exists is not shared with the slots it is equal to.
+ *
+ * The equalities can only be merged once every constraint was seen, so this stage holds back all constraints
+ * until finish and should be the last stage.  After solving, expand gives every merged slot the solution of
+ * its representative.
+ */
+public class EqualityCollapser extends Normalizer {
+
+    private static final Logger logger = Logger.getLogger(EqualityCollapser.class.getName());
+
+    private final List<Constraint> constraints = new ArrayList<>();
+
+    // The union-find parent of each slot id that is in an equality between variables and is not a root
+    private final Map<Integer, Integer> parents = new HashMap<>();
+
+    // The slots that are in an equality between variables, by id
+    private final Map<Integer, VariableSlot> slots = new HashMap<>();
+
+    // The representative of each merged slot that is not its own representative, filled in by finish
+    private final Map<Integer, VariableSlot> representatives = new HashMap<>();
+
+    private long collapsedEqualities = 0;
+
+    @Override
+    public void normalize(Constraint constraint, Output next) {
+        if (constraint instanceof EqualityConstraint) {
+            final EqualityConstraint equality = (EqualityConstraint) constraint;
+            if (equality.getFirst() instanceof VariableSlot && equality.getSecond() instanceof VariableSlot) {
+                union((VariableSlot) equality.getFirst(), (VariableSlot) equality.getSecond());
+                ++collapsedEqualities;
+                return;
+            }
+        }
+
+        constraints.add(constraint);
+    }
+
+    @Override
+    public void finish(Output next) {
+        for (Integer id : parents.keySet()) {
+            representatives.put(id, slots.get(find(id)));
+        }
+        parents.clear();
+
+        int dropped = 0;
+        for (Constraint constraint : constraints) {
+            final Constraint rewritten = rewrite(constraint);
+            if (rewritten != null) {
+                next.add(rewritten);
+            } else {
+                ++dropped;
+            }
+        }
+        constraints.clear();
+
+        logger.info(String.format("Collapsed %d equalities: %d slots merged, %d trivial constraints dropped",
+                collapsedEqualities, representatives.size(), dropped));
+        InferenceProfiler.count("normalization", "collapsedEqualities", collapsedEqualities);
+        InferenceProfiler.count("normalization", "collapsedSlots", representatives.size());
+    }
+
+    private void union(VariableSlot first, VariableSlot second) {
+        slots.put(first.getId(), first);
+        slots.put(second.getId(), second);
+
+        final int firstRoot = find(first.getId());
+        final int secondRoot = find(second.getId());
+        // The root of a class is its slot with the smallest id
+        if (firstRoot < secondRoot) {
+            parents.put(secondRoot, firstRoot);
+        } else if (secondRoot < firstRoot) {
+            parents.put(firstRoot, secondRoot);
+        }
+    }
+
+    private int find(int id) {
+        int root = id;
+        Integer parent;
+        while ((parent = parents.get(root)) != null) {
+            root = parent;
+        }
+
+        // Path compression
+        while ((parent = parents.get(id)) != null && parent != root) {
+            parents.put(id, root);
+            id = parent;
+        }
+        return root;
+    }
+
+    /**
+     * @return the representative of slot, slot itself if it was not merged with another slot
+     */
+    public Slot getRepresentative(Slot slot) {
+        if (slot instanceof VariableSlot) {
+            final VariableSlot representative = representatives.get(((VariableSlot) slot).getId());
+            if (representative != null) {
+                return representative;
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * @return constraint on the representatives of its slots, or null if that is trivially true
+     */
+    private Constraint rewrite(Constraint constraint) {
+        if (constraint instanceof BinaryConstraint) {
+            final BinaryConstraint binary = (BinaryConstraint) constraint;
+            final Slot first = getRepresentative(binary.getFirst());
+            final Slot second = getRepresentative(binary.getSecond());
+            if (first == second && (constraint instanceof SubtypeConstraint
+                                    || constraint instanceof EqualityConstraint
+                                    || constraint instanceof ComparableConstraint)) {
+                return null;
+            }
+            if (first == binary.getFirst() && second == binary.getSecond()) {
+                return constraint;
+            }
+            return binary.make(first, second);
+
+        } else if (constraint instanceof CombineConstraint) {
+            final CombineConstraint combine = (CombineConstraint) constraint;
+            return new CombineConstraint(getRepresentative(combine.getTarget()),
+                                         getRepresentative(combine.getDeclared()),
+                                         getRepresentative(combine.getResult()));
+
+        } else if (constraint instanceof PreferenceConstraint) {
+            final PreferenceConstraint preference = (PreferenceConstraint) constraint;
+            return new PreferenceConstraint((VariableSlot) getRepresentative(preference.getVariable()),
+                                            preference.getGoal(), preference.getWeight());
+
+        } else if (constraint instanceof ExistentialConstraint) {
+            final ExistentialConstraint existential = (ExistentialConstraint) constraint;
+            return new ExistentialConstraint(existential.getPotentialVariable(),
+                                             rewriteAll(existential.potentialConstraints()),
+                                             rewriteAll(existential.getAlternateConstraints()));
+        }
+
+        return constraint;
+    }
+
+    private List<Constraint> rewriteAll(List<Constraint> constraints) {
+        final List<Constraint> result = new ArrayList<>(constraints.size());
+        for (Constraint constraint : constraints) {
+            final Constraint rewritten = rewrite(constraint);
+            if (rewritten != null) {
+                result.add(rewritten);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return solution, a solution of the collapsed constraints, with every merged slot given the annotation
+     *         of its representative
+     */
+    public InferenceSolution expand(final InferenceSolution solution) {
+        if (solution == null || representatives.isEmpty()) {
+            return solution;
+        }
+
+        final Map<Integer, AnnotationMirror> annotations = new HashMap<>(solution.getVarIdToAnnotation());
+        for (Map.Entry<Integer, VariableSlot> merged : representatives.entrySet()) {
+            final AnnotationMirror annotation = annotations.get(merged.getValue().getId());
+            if (annotation != null) {
+                annotations.put(merged.getKey(), annotation);
+            } else {
+                annotations.remove(merged.getKey());
+            }
+        }
+
+        return new InferenceSolution() {
+            @Override
+            public Map<Integer, AnnotationMirror> getVarIdToAnnotation() {
+                return annotations;
+            }
+
+            @Override
+            public Map<Integer, Boolean> getIdToExistance() {
+                return solution.getIdToExistance();
+            }
+
+            @Override
+            public boolean doesVariableExist(int varId) {
+                return solution.doesVariableExist(varId);
+            }
+
+            @Override
+            public AnnotationMirror getAnnotation(int varId) {
+                return annotations.get(varId);
+            }
+        };
+    }
+}
@@ -53,7 +53,6 @@ import javax.lang.model.type.TypeVariable;
 
 import checkers.inference.dataflow.InferenceAnalysis;
 import checkers.inference.model.CombVariableSlot;
-import checkers.inference.model.CombineConstraint;
 import checkers.inference.model.Slot;
 import checkers.inference.quals.VarAnnot;
 import checkers.inference.util.InferenceUtil;
@@ -283,7 +282,7 @@ public class InferenceAnnotatedTypeFactory extends BaseAnnotatedTypeFactory {
             final CombVariableSlot combSlot = new CombVariableSlot(null, slotManager.nextId(), recvSlot, declSlot);
             slotManager.addVariable(combSlot);
 
-            constraintManager.add(new CombineConstraint(recvSlot, declSlot, combSlot));
+            constraintManager.addCombineConstraint(recvSlot, declSlot, combSlot);
 
             type.replaceAnnotation(slotManager.getAnnotation(combSlot));
         }
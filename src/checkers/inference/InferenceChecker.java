@@ -4,11 +4,17 @@ import java.lang.annotation.Annotation;
 import java.util.Arrays;
 import java.util.List;
 
+import javax.lang.model.element.TypeElement;
+
 import org.checkerframework.common.basetype.BaseTypeChecker;
 import org.checkerframework.common.basetype.BaseTypeVisitor;
 import org.checkerframework.framework.qual.Unqualified;
 
 import checkers.inference.quals.VarAnnot;
+import checkers.inference.util.InferenceProfiler;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.util.TreePath;
 
 public class InferenceChecker extends BaseTypeChecker {
 
@@ -23,6 +29,43 @@ public class InferenceChecker extends BaseTypeChecker {
         this.visitor = InferenceMain.getInstance().getVisitor();
     }
 
+    /**
+     * When a ConstraintCache is in use, skip the classes of compilation units whose constraints are loaded
+     * from the cache and record the constraints generated for all other classes.
+     */
+    @Override
+    public void typeProcess(TypeElement element, TreePath path) {
+        // getInstance is null when a subclass is run to type check
+        final InferenceMain inferenceMain = InferenceMain.getInstance();
+        final ConstraintCache constraintCache = inferenceMain != null ? inferenceMain.getConstraintCache() : null;
+        if (constraintCache == null) {
+            generateConstraints(element, path);
+            return;
+        }
+
+        final CompilationUnitTree compilationUnit = path.getCompilationUnit();
+        if (constraintCache.isCached(compilationUnit)) {
+            return;
+        }
+
+        final ConstraintManager constraintManager = inferenceMain.getConstraintManager();
+        constraintCache.beginVisit(compilationUnit, element, inferenceMain.getConstantVars(), constraintManager);
+        try {
+            generateConstraints(element, path);
+        } finally {
+            constraintCache.endVisit(compilationUnit, constraintManager);
+        }
+    }
+
+    private void generateConstraints(TypeElement element, TreePath path) {
+        final InferenceProfiler.Timer timer = InferenceProfiler.start("constraint-generation");
+        try {
+            super.typeProcess(element, path);
+        } finally {
+            timer.stop();
+        }
+    }
+
     public static List<Class<? extends Annotation>> getInferenceAnnotations() {
        return INFERENCE_ANNOTATIONS;
     }
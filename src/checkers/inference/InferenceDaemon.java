@@ -0,0 +1,274 @@
+package checkers.inference;
+
+import checkers.inference.InferenceOptions.InitStatus;
+import org.checkerframework.framework.util.PluginUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+import java.util.logging.StreamHandler;
+
+/**
+ * InferenceDaemon is a long-lived process that runs inference and typecheck jobs on behalf of
+ * InferenceLauncher.  Every job run through the daemon reuses the already loaded and JIT compiled
+ * classes of javac, the Checker Framework and Checker-Framework-Inference rather than paying the
+ * JVM start up cost that InferenceLauncher incurs each time it forks InferenceMain or CheckerMain.
+ *
+ * The daemon listens on a port of the loopback interface and handles one job at a time (InferenceMain
+ * and InferenceOptions are singletons).  Between jobs, InferenceOptions is reset to its defaults and
+ * the InferenceMain instance is discarded, so no slots, constraints or type factories leak from one
+ * job into the next.
+ *
+ * Only the loaded classes and the JIT compiled code are shared between jobs.  The checker, its stub
+ * files and its type factories are created again for every job: they hold the Elements, Types and trees
+ * of the job's own javac instance, which cannot be reused for the next set of sources and options.
+ * A job that fails, e.g. because the checker or solver cannot be instantiated, reports its exit status
+ * to the client without ending the daemon.
+ *
+ * The daemon must be started with the same boot classpath that InferenceLauncher uses for the
+ * InferenceMain child process (see scripts/inference-daemon):
+ * {@code
+ *   java -Xbootclasspath/p:<dist jars> checkers.inference.InferenceDaemon 4411
+ * }
+ * InferenceLauncher then submits jobs to it when given --daemonPort=4411.
+ *
+ * Wire format (all values are written with DataOutputStream):
+ * {@code
+ *   request:  UTF command (INFER | TYPECHECK | SHUTDOWN), int argCount, argCount x UTF arg
+ *   response: any number of (byte OUTPUT, int length, length x byte) frames
+ *             followed by exactly one (byte STATUS, int exitCode) frame
+ * }
+ */
+public class InferenceDaemon {
+
+    private static final Logger logger = Logger.getLogger(InferenceDaemon.class.getName());
+
+    public static final String INFER = "INFER";
+    public static final String TYPECHECK = "TYPECHECK";
+    public static final String SHUTDOWN = "SHUTDOWN";
+
+    private static final byte OUTPUT_FRAME = 'O';
+    private static final byte STATUS_FRAME = 'X';
+
+    private final int port;
+    private boolean running = true;
+
+    public InferenceDaemon(int port) {
+        this.port = port;
+    }
+
+    public static void main(String [] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: InferenceDaemon <port>");
+            System.exit(1);
+        }
+
+        new InferenceDaemon(Integer.parseInt(args[0])).serve();
+    }
+
+    /**
+     * Accept and run jobs until a SHUTDOWN request is received.
+     */
+    public void serve() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress())) {
+            logger.info("Inference daemon listening on port " + port);
+
+            while (running) {
+                try (Socket socket = serverSocket.accept()) {
+                    handle(socket);
+                } catch (IOException ioExc) {
+                    logger.log(Level.WARNING, "Lost connection to inference client.", ioExc);
+                }
+            }
+        }
+    }
+
+    private void handle(final Socket socket) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        final String command = in.readUTF();
+        final String [] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = in.readUTF();
+        }
+
+        final PrintStream jobOut = new PrintStream(new FramedOutputStream(out), true);
+        int status;
+        if (command.equals(SHUTDOWN)) {
+            running = false;
+            status = 0;
+        } else {
+            status = runJob(command, args, jobOut);
+        }
+
+        jobOut.flush();
+        out.writeByte(STATUS_FRAME);
+        out.writeInt(status);
+        out.flush();
+    }
+
+    /**
+     * Run a single job with System.out, System.err and the root logger redirected to the client.
+     * @return the exit status the equivalent forked process would have returned
+     */
+    private int runJob(final String command, final String [] args, final PrintStream jobOut) {
+        final PrintStream originalOut = System.out;
+        final PrintStream originalErr = System.err;
+
+        final Logger rootLogger = Logger.getLogger("");
+        final Handler jobHandler = new StreamHandler(jobOut, new SimpleFormatter());
+        jobHandler.setLevel(Level.ALL);
+        rootLogger.addHandler(jobHandler);
+
+        System.setOut(jobOut);
+        System.setErr(jobOut);
+        try {
+            switch (command) {
+                case INFER:
+                    return infer(args, jobOut);
+
+                case TYPECHECK:
+                    return typecheck(args, jobOut);
+
+                default:
+                    jobOut.println("Unrecognized daemon command: " + command);
+                    return 1;
+            }
+
+        } catch (Throwable throwable) {
+            throwable.printStackTrace(jobOut);
+            return 1;
+
+        } finally {
+            jobHandler.flush();
+            rootLogger.removeHandler(jobHandler);
+            System.setOut(originalOut);
+            System.setErr(originalErr);
+
+            InferenceMain.clearInstance();
+            InferenceOptions.reset();
+        }
+    }
+
+    /**
+     * Equivalent to InferenceMain.main(args) without the calls to System.exit.
+     */
+    private int infer(final String [] args, final PrintStream jobOut) {
+        InferenceOptions.reset();
+        InitStatus initStatus = InferenceOptions.init(args, false);
+        if (!initStatus.errors.isEmpty()) {
+            jobOut.println(PluginUtil.join("\n", initStatus.errors));
+            return 1;
+        }
+
+        final InferenceMain inferenceMain = InferenceMain.resetInstance();
+        inferenceMain.setResultHandler(new InferenceMain.ResultHandler() {
+            @Override
+            public void handleCompilerResult(boolean success, String javacOutStr) {
+                if (!success) {
+                    throw new DaemonJobFailure("Error return code from javac!\n" + javacOutStr);
+                }
+            }
+        });
+
+        try {
+            inferenceMain.run();
+        } catch (DaemonJobFailure failure) {
+            jobOut.println(failure.getMessage());
+            return 1;
+        } catch (InferenceMain.ComponentInstantiationException failure) {
+            jobOut.println(failure.getMessage());
+            return InferenceMain.ComponentInstantiationException.EXIT_STATUS;
+        }
+        return 0;
+    }
+
+    /**
+     * Run the checker (rather than InferenceChecker) over the given javac arguments.
+     */
+    private int typecheck(final String [] args, final PrintStream jobOut) {
+        final PrintWriter javacOut = new PrintWriter(jobOut, true);
+        boolean success = CheckerFrameworkUtil.invokeCheckerFramework(args, javacOut);
+        javacOut.flush();
+        return success ? 0 : 1;
+    }
+
+    /**
+     * Send a job to a daemon listening on port and copy its output to outStream.
+     * @return the exit status of the job
+     */
+    public static int submit(int port, String command, String [] args, PrintStream outStream) {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF(command);
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            while (true) {
+                final byte frame = in.readByte();
+                if (frame == STATUS_FRAME) {
+                    outStream.flush();
+                    return in.readInt();
+                }
+
+                final byte [] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                outStream.write(bytes);
+            }
+
+        } catch (IOException ioExc) {
+            throw new RuntimeException("Could not communicate with inference daemon on port " + port, ioExc);
+        }
+    }
+
+    /**
+     * Wraps everything written to it in OUTPUT frames.
+     */
+    private static class FramedOutputStream extends OutputStream {
+        private final DataOutputStream out;
+
+        private FramedOutputStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{ (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.writeByte(OUTPUT_FRAME);
+            out.writeInt(length);
+            out.write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    private static class DaemonJobFailure extends RuntimeException {
+        public DaemonJobFailure(String message) {
+            super(message);
+        }
+    }
+}
@@ -2,21 +2,36 @@ package checkers.inference;
 
 
 import checkers.inference.InferenceOptions.InitStatus;
+import checkers.inference.util.InferenceProfiler;
+import checkers.inference.util.SourcePartitioner;
 import org.checkerframework.framework.test.TestUtilities;
 import org.checkerframework.framework.util.CheckerMain;
 import org.checkerframework.framework.util.ExecUtil;
 import org.checkerframework.framework.util.PluginUtil;
 
+import com.sun.tools.javac.file.JavacFileManager;
+
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.PrintWriter;
 import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -26,6 +41,9 @@ public class InferenceLauncher {
     private final PrintStream outStream;
     private final PrintStream errStream;
 
+    // Shared by all in-process compilations (see InferenceOptions.inProcess), created on first use
+    private JavacFileManager sharedFileManager;
+
     public InferenceLauncher(PrintStream outStream, PrintStream errStream) {
         this.outStream = outStream;
         this.errStream = errStream;
@@ -88,6 +106,11 @@ public class InferenceLauncher {
     public void typecheck(String [] javaFiles) {
         printStep("Typechecking", outStream);
 
+        if (InferenceOptions.daemonPort != null || InferenceOptions.inProcess) {
+            typecheckWithoutFork(javaFiles);
+            return;
+        }
+
         final int initialOptsLength = 2 + (InferenceOptions.debug != null ? 2 : 0);
 
         String [] options;
@@ -120,6 +143,59 @@ public class InferenceLauncher {
 
     public void infer() {
         printStep("Inferring", outStream);
+
+        if (InferenceOptions.inProcess && InferenceOptions.daemonPort == null) {
+            inferInProcess();
+            return;
+        }
+
+        if (InferenceOptions.daemonPort != null) {
+            List<String> inferenceMainArgs = getInferenceMainArgs();
+            if (InferenceOptions.printCommands) {
+                outStream.println("Submitting infer command to daemon on port " + InferenceOptions.daemonPort + ":");
+                outStream.println(PluginUtil.join(" ", inferenceMainArgs));
+            }
+
+            int result = InferenceDaemon.submit(InferenceOptions.daemonPort, InferenceDaemon.INFER,
+                    inferenceMainArgs.toArray(new String[inferenceMainArgs.size()]), outStream);
+            reportStatus("Inference", result, outStream);
+            outStream.flush();
+            exitOnNonZeroStatus(result);
+            return;
+        }
+
+        if (InferenceOptions.shards > 1 && InferenceOptions.javaFiles.length > 1) {
+            final List<String> javaFiles = Arrays.asList(InferenceOptions.javaFiles);
+            final List<String> sourceRoots = SourcePartitioner.findSourceRoots(javaFiles);
+            if (sourceRoots != null) {
+                inferSharded(javaFiles, sourceRoots);
+                return;
+            }
+
+            outStream.println("Could not determine the source root of every file from its package, " +
+                              "inferring without shards.");
+        }
+
+        List<String> argList = getForkedInferenceCommand(getInferenceMainArgs());
+
+        if (InferenceOptions.printCommands) {
+            outStream.println("Running infer command:");
+            outStream.println(PluginUtil.join(" ", argList));
+        }
+
+        int result = ExecUtil.execute(argList.toArray(new String[argList.size()]), outStream, System.err);
+        outStream.flush();
+        errStream.flush();
+
+        reportStatus("Inference", result, outStream);
+        outStream.flush();
+        exitOnNonZeroStatus(result);
+    }
+
+    /**
+     * @return the command that runs InferenceMain in a new JVM with the given arguments
+     */
+    private List<String> getForkedInferenceCommand(List<String> inferenceMainArgs) {
         final String java = PluginUtil.getJavaCommand(System.getProperty("java.home"), outStream);
         List<String> argList = new LinkedList<>();
         argList.add(java);
@@ -133,38 +209,384 @@ public class InferenceLauncher {
         argList.addAll(
                 Arrays.asList(
                         "-ea", "-ea:checkers.inference...",
-                        "checkers.inference.InferenceMain",
-                        "--checker", InferenceOptions.checker)
+                        "checkers.inference.InferenceMain")
         );
+        argList.addAll(inferenceMainArgs);
+        return argList;
+    }
+
+    //================================================================================
+    // Sharded inference, see InferenceOptions.shards and ShardSummary
+    //================================================================================
+
+    /**
+     * Split javaFiles by package into InferenceOptions.shards groups and infer them in separate InferenceMain
+     * processes in three steps: summarize each shard, link the summaries and solve each shard with the linked
+     * solutions of its declarations.  The jaifs of the shards are then merged into InferenceOptions.jaifFile.
+     * Each shard generates its constraints once: summarizing writes them to the shard's state file, which
+     * solving reads (see InferenceOptions.shardState).
+     *
+     * As with parallel workers, each shard only compiles its own files and finds the others through the
+     * source path.
+     */
+    private void inferSharded(List<String> javaFiles, List<String> sourceRoots) {
+        final File shardDir = getShardDir();
+        final List<List<String>> shards = SourcePartitioner.partitionByPackage(javaFiles, InferenceOptions.shards);
+        final List<String> shardJavacOptions = InferenceMain.getWorkerJavacOptions(sourceRoots);
+
+        final List<String> summaryFiles = new ArrayList<>(shards.size());
+        final List<List<String>> summaryCommands = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            final String summaryFile = new File(shardDir, "shard" + i + ".summary").getAbsolutePath();
+            summaryFiles.add(summaryFile);
+            summaryCommands.add(getForkedInferenceCommand(getInferenceMainArgs(
+                    new File(shardDir, "shard" + i + ".jaif").getAbsolutePath(),
+                    Arrays.asList("--shardSummary", summaryFile, "--shardState", getShardStateFile(shardDir, i)),
+                    shardJavacOptions, shards.get(i))));
+        }
+        runShardCommands("Summarizing " + shards.size() + " shards", summaryCommands);
+
+        // The solvers need a javac instance, so linking compiles a stub class
+        final String linkFile = new File(shardDir, "shards.link").getAbsolutePath();
+        final File stubFile = writeShardLinkStub(shardDir);
+        final List<String> linkJavacOptions = new ArrayList<>();
+        final String [] javacOptions = InferenceOptions.javacOptions;
+        for (int i = 0; i < javacOptions.length; i++) {
+            if (javacOptions[i].equals("-d") && i + 1 < javacOptions.length) {
+                ++i;
+            } else {
+                linkJavacOptions.add(javacOptions[i]);
+            }
+        }
+        linkJavacOptions.add("-d");
+        linkJavacOptions.add(shardDir.getAbsolutePath());
+
+        runShardCommands("Linking shard summaries", Collections.singletonList(getForkedInferenceCommand(
+                getInferenceMainArgs(new File(shardDir, "link.jaif").getAbsolutePath(),
+                        Arrays.asList("--shardSummaries", PluginUtil.join(File.pathSeparator, summaryFiles),
+                                      "--shardLinkFile", linkFile),
+                        linkJavacOptions, Collections.singletonList(stubFile.getAbsolutePath())))));
+
+        final List<String> shardJaifs = new ArrayList<>(shards.size());
+        final List<List<String>> solveCommands = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            final String shardJaif = new File(shardDir, "shard" + i + ".jaif").getAbsolutePath();
+            shardJaifs.add(shardJaif);
+            solveCommands.add(getForkedInferenceCommand(getInferenceMainArgs(
+                    shardJaif, Arrays.asList("--shardLinkFile", linkFile, "--shardState", getShardStateFile(shardDir, i)),
+                    shardJavacOptions, shards.get(i))));
+        }
+        runShardCommands("Solving " + shards.size() + " shards", solveCommands);
+
+        mergeJaifs(shardJaifs, new File(InferenceOptions.jaifFile));
+        reportStatus("Inference", 0, outStream);
+        outStream.flush();
+    }
+
+    /**
+     * @return the file in which shard i keeps its slots and constraints between summarizing and solving
+     */
+    private static String getShardStateFile(File shardDir, int i) {
+        return new File(shardDir, "shard" + i + ".state").getAbsolutePath();
+    }
+
+    private static File getShardDir() {
+        try {
+            if (InferenceOptions.shardDir != null) {
+                final File shardDir = new File(InferenceOptions.shardDir);
+                TestUtilities.ensureDirectoryExists(shardDir);
+                return shardDir;
+            }
+            return Files.createTempDirectory("inference-shards").toFile();
+        } catch (IOException e) {
+            throw new RuntimeException("Could not create a directory for the shards", e);
+        }
+    }
+
+    private static File writeShardLinkStub(File shardDir) {
+        final File stubFile = new File(shardDir, "ShardLink.java");
+        try (PrintWriter writer = new PrintWriter(new FileOutputStream(stubFile))) {
+            writer.println("class ShardLink {}");
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write " + stubFile, e);
+        }
+        return stubFile;
+    }
+
+    /**
+     * Run the given commands, at most one per available processor at a time, and exit if any of them fails.
+     * The output of each command is printed once it finishes.
+     */
+    private void runShardCommands(String step, List<List<String>> commands) {
+        printStep(step, outStream);
+
+        final int threads = Math.min(commands.size(), Runtime.getRuntime().availableProcessors());
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        final List<Future<Integer>> results = new ArrayList<>(commands.size());
+        final List<ByteArrayOutputStream> outputs = new ArrayList<>(commands.size());
+
+        for (final List<String> command : commands) {
+            if (InferenceOptions.printCommands) {
+                outStream.println("Running infer command:");
+                outStream.println(PluginUtil.join(" ", command));
+            }
+
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            outputs.add(output);
+            results.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return ExecUtil.execute(command.toArray(new String[command.size()]), output, output);
+                }
+            }));
+        }
+
+        int result = 0;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                final int commandResult = results.get(i).get();
+                if (result == 0) {
+                    result = commandResult;
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                e.printStackTrace(errStream);
+                result = 1;
+            }
+            outStream.print(outputs.get(i).toString());
+        }
+        executor.shutdown();
+
+        reportStatus(step, result, outStream);
+        outStream.flush();
+        exitOnNonZeroStatus(result);
+    }
+
+    /**
+     * Concatenate the class sections of the given jaifs after the annotation definitions of the first one.
+     * Each shard only writes the declarations in its own files, so no class section is repeated.
+     */
+    private static void mergeJaifs(List<String> jaifFiles, File mergedJaif) {
+        final Pattern classSectionPattern = Pattern.compile("(?m)^package [^\\n]*:\\nclass ");
+        final StringBuilder header = new StringBuilder();
+        final StringBuilder classSections = new StringBuilder();
+
+        for (String jaifFile : jaifFiles) {
+            final String jaif;
+            try {
+                jaif = new String(Files.readAllBytes(new File(jaifFile).toPath()), Charset.defaultCharset());
+            } catch (IOException e) {
+                throw new RuntimeException("Could not read shard jaif " + jaifFile, e);
+            }
+
+            final Matcher classSectionMatcher = classSectionPattern.matcher(jaif);
+            final int classSectionsStart = classSectionMatcher.find() ? classSectionMatcher.start() : jaif.length();
+            if (header.length() == 0) {
+                header.append(jaif.substring(0, classSectionsStart));
+            }
+            classSections.append(jaif.substring(classSectionsStart));
+        }
+
+        try (PrintWriter writer = new PrintWriter(new FileOutputStream(mergedJaif))) {
+            writer.print(header);
+            writer.print(classSections);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write jaif " + mergedJaif, e);
+        }
+    }
 
-        addIfNotNull("--jaifFile", InferenceOptions.jaifFile, argList);
+    /**
+     * @return the arguments passed to InferenceMain.main, i.e. the inference options followed by the javac options
+     */
+    private List<String> getInferenceMainArgs() {
+        return getInferenceMainArgs(InferenceOptions.jaifFile, Collections.<String>emptyList(),
+                                    Arrays.asList(InferenceOptions.javacOptions), Arrays.asList(InferenceOptions.javaFiles));
+    }
+
+    /**
+     * @param extraArgs inference options added to the options given to the launcher
+     */
+    private List<String> getInferenceMainArgs(String jaifFile, List<String> extraArgs,
+                                              List<String> javacOptions, List<String> javaFiles) {
+        List<String> argList = new LinkedList<>();
+        argList.add("--checker");
+        argList.add(InferenceOptions.checker);
+
+        addIfNotNull("--jaifFile", jaifFile, argList);
         addIfNotNull("--logLevel", InferenceOptions.logLevel, argList);
         addIfNotNull("--solver", InferenceOptions.solver, argList);
         addIfNotNull("--solverArgs", InferenceOptions.solverArgs, argList);
+        addIfNotNull("--constraintCacheDir", InferenceOptions.constraintCacheDir, argList);
+        addIfNotNull("--constraintSpillDir", InferenceOptions.constraintSpillDir, argList);
+        if (InferenceOptions.constraintSpillDir != null) {
+            addIfNotNull("--constraintSpillFilterSize", String.valueOf(InferenceOptions.constraintSpillFilterSize), argList);
+        }
 
         addIfTrue("--hacks", InferenceOptions.hacks, argList);
+        addIfTrue("--profile", InferenceOptions.profile, argList);
+        addIfTrue("--leanSolve", InferenceOptions.leanSolve, argList);
+        addIfTrue("--concurrentManagers", InferenceOptions.concurrentManagers, argList);
+        addIfTrue("--compactConstraints", InferenceOptions.compactConstraints, argList);
+        addIfTrue("--collapseEqualities", InferenceOptions.collapseEqualities, argList);
+
+        if (InferenceOptions.batchSize > 0) {
+            addIfNotNull("--batchSize", String.valueOf(InferenceOptions.batchSize), argList);
+        }
+
+        if (InferenceOptions.normalizationThreads > 1) {
+            addIfNotNull("--normalizationThreads", String.valueOf(InferenceOptions.normalizationThreads), argList);
+        }
+
+        if (InferenceOptions.existentialExpansionLimit != ConstraintNormalizer.DEFAULT_EXISTENTIAL_EXPANSION_LIMIT) {
+            addIfNotNull("--existentialExpansionLimit", String.valueOf(InferenceOptions.existentialExpansionLimit),
+                         argList);
+        }
+
+        if (InferenceOptions.workers > 1) {
+            addIfNotNull("--workers", String.valueOf(InferenceOptions.workers), argList);
+            addIfNotNull("--workerSlotIdRange", String.valueOf(InferenceOptions.workerSlotIdRange), argList);
+        }
+
+        argList.addAll(extraArgs);
 
         argList.add("--");
         argList.add(getInferenceCompilationBootclassPath());
         int preJavacOptsSize = argList.size();
-        argList.addAll(Arrays.asList(InferenceOptions.javacOptions));
+        argList.addAll(javacOptions);
         removeXmArgs(argList, preJavacOptsSize, argList.size());
 
         //TODO: NEED TO HANDLE JDK
-        argList.addAll(Arrays.asList(InferenceOptions.javaFiles));
+        argList.addAll(javaFiles);
+        return argList;
+    }
 
-        if (InferenceOptions.printCommands) {
-            outStream.println("Running infer command:");
-            outStream.println(PluginUtil.join(" ", argList));
+    /**
+     * Typecheck javaFiles either in this JVM or using the InferenceDaemon on InferenceOptions.daemonPort.
+     * Either way javac runs in an existing JVM, so JVM options (-J...) are dropped.
+     */
+    private void typecheckWithoutFork(String [] javaFiles) {
+        List<String> argList = new ArrayList<>();
+        argList.add("-processor");
+        argList.add(InferenceOptions.checker);
+        argList.addAll(getNonJvmJavacOptions());
+        argList.addAll(Arrays.asList(javaFiles));
+        String [] args = argList.toArray(new String[argList.size()]);
+
+        int result;
+        if (InferenceOptions.daemonPort != null) {
+            if (InferenceOptions.printCommands) {
+                outStream.println("Submitting typecheck command to daemon on port " + InferenceOptions.daemonPort + ":");
+                outStream.println(PluginUtil.join(" ", argList));
+            }
+
+            result = InferenceDaemon.submit(InferenceOptions.daemonPort, InferenceDaemon.TYPECHECK, args, outStream);
+
+        } else {
+            if (InferenceOptions.printCommands) {
+                outStream.println("Running typecheck in process:");
+                outStream.println(PluginUtil.join(" ", argList));
+            }
+
+            PrintWriter javacOut = new PrintWriter(outStream, true);
+            boolean success = CheckerFrameworkUtil.invokeCheckerFramework(args, javacOut, getSharedFileManager());
+            javacOut.flush();
+            result = success ? 0 : 1;
         }
 
-        int result = ExecUtil.execute(argList.toArray(new String[argList.size()]), outStream, System.err);
+        reportStatus("Typechecking", result, outStream);
         outStream.flush();
-        errStream.flush();
+        exitOnNonZeroStatus(result);
+    }
 
-        reportStatus("Inference", result, outStream);
+    /**
+     * Run InferenceMain in this JVM using the shared file manager.  As when InferenceMain is forked, a javac
+     * failure exits with status 1.
+     */
+    private void inferInProcess() {
+        final String [] launcherJavacOptions = InferenceOptions.javacOptions;
+        List<String> javacOptions = getNonJvmJavacOptions();
+
+        if (InferenceOptions.printCommands) {
+            outStream.println("Running inference in process with javac options:");
+            outStream.println(PluginUtil.join(" ", javacOptions));
+        }
+
+        // InferenceMain reads its javac options from InferenceOptions, restore the launcher's afterwards
+        InferenceOptions.javacOptions = javacOptions.toArray(new String[javacOptions.size()]);
+        try {
+            InferenceMain inferenceMain = InferenceMain.resetInstance();
+            inferenceMain.setSharedFileManager(getSharedFileManager());
+            inferenceMain.run();
+        } finally {
+            InferenceOptions.javacOptions = launcherJavacOptions;
+            InferenceMain.clearInstance();
+        }
+
+        reportStatus("Inference", 0, outStream);
         outStream.flush();
-        exitOnNonZeroStatus(result);
+    }
+
+    /**
+     * @return the javac options used to compile with the inference boot classpath when javac runs in an
+     * existing JVM, i.e. InferenceOptions.javacOptions without any JVM options
+     */
+    private static List<String> getNonJvmJavacOptions() {
+        List<String> javacOptions = new ArrayList<>();
+        javacOptions.add(getInferenceCompilationBootclassPath());
+        for (String javacOpt : InferenceOptions.javacOptions) {
+            if (!javacOpt.startsWith("-J") && !javacOpt.startsWith("-Xmx") && !javacOpt.startsWith("-Xms")) {
+                javacOptions.add(javacOpt);
+            }
+        }
+        return javacOptions;
+    }
+
+    private JavacFileManager getSharedFileManager() {
+        if (sharedFileManager == null) {
+            sharedFileManager = CheckerFrameworkUtil.createSharedFileManager();
+        }
+        return sharedFileManager;
+    }
+
+    /**
+     * Run the AFU over the given insert-annotations-to-source command line, in this JVM if
+     * InferenceOptions.inProcess is set and otherwise in a new process.
+     * @return the exit status of the insertion
+     */
+    private int insertAnnotations(String [] options, OutputStream insertOut) {
+        // Inference has already written its report, add the insertion to it
+        InferenceProfiler.reset();
+        InferenceProfiler.setEnabled(InferenceOptions.profile);
+        final InferenceProfiler.Timer insertionTimer = InferenceProfiler.start("afu-insertion");
+        try {
+            return runAnnotator(options, insertOut);
+        } finally {
+            insertionTimer.stop();
+            InferenceProfiler.writeReport(InferenceProfiler.getReportFile(InferenceOptions.jaifFile), true);
+        }
+    }
+
+    private int runAnnotator(String [] options, OutputStream insertOut) {
+        if (!InferenceOptions.inProcess) {
+            return ExecUtil.execute(options, insertOut, errStream);
+        }
+
+        // options[0] is the name of the AFU script, the rest are the arguments to annotator.Main
+        final String [] afuArgs = Arrays.copyOfRange(options, 1, options.length);
+        final PrintStream originalOut = System.out;
+        final PrintStream afuOut = new PrintStream(insertOut, true);
+        System.setOut(afuOut);
+        try {
+            annotator.Main.main(afuArgs);
+            return 0;
+
+        } catch (Exception exc) {
+            exc.printStackTrace(errStream);
+            return 1;
+
+        } finally {
+            afuOut.flush();
+            System.setOut(originalOut);
+        }
     }
 
     private void removeXmArgs(List<String> argList, int preJavacOptsSize, int postJavacOptsSize) {
@@ -206,7 +628,7 @@ public class InferenceLauncher {
             //this can get quite large for large projects and it is not advisable to run
             //roundtripping via the InferenceLauncher for these projects
             ByteArrayOutputStream insertOut = new ByteArrayOutputStream();
-            result = ExecUtil.execute(options, insertOut, errStream);
+            result = insertAnnotations(options, insertOut);
             outStream.println(insertOut.toString());
 
 
@@ -231,7 +653,7 @@ public class InferenceLauncher {
                 outStream.println(PluginUtil.join(" ", options));
             }
 
-            result = ExecUtil.execute(options, outStream, errStream);
+            result = insertAnnotations(options, outStream);
 
             for (String filePath : InferenceOptions.javaFiles) {
                 outputJavaFiles.add(filePath);
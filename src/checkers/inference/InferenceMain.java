@@ -1,31 +1,70 @@
 package checkers.inference;
 
 import checkers.inference.InferenceOptions.InitStatus;
+import annotations.io.ASTRecord;
 import checkers.inference.model.AnnotationLocation;
+import checkers.inference.model.AnnotationLocation.AstPathLocation;
 import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Slot;
+import checkers.inference.model.serialization.BinaryDeserializer;
+import checkers.inference.model.serialization.BinarySerializer;
+import checkers.inference.model.serialization.AnnotationMirrorSerializer;
+import checkers.inference.model.serialization.IndexedAnnotationMirrorSerializer;
+import checkers.inference.model.serialization.QualifierNameSerializer;
+import checkers.inference.model.serialization.QualifierNameSerializer.UnserializableConstantException;
+import checkers.inference.util.InferenceProfiler;
 import checkers.inference.util.JaifBuilder;
+import checkers.inference.util.SourcePartitioner;
 import org.checkerframework.common.basetype.BaseAnnotatedTypeFactory;
+import org.checkerframework.framework.type.QualifierHierarchy;
 
+import com.sun.source.util.JavacTask;
+import com.sun.tools.javac.api.BasicJavacTask;
+import com.sun.tools.javac.file.JavacFileManager;
+import com.sun.tools.javac.processing.JavacProcessingEnvironment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
 import javax.lang.model.element.AnnotationMirror;
+import javax.tools.ToolProvider;
 
 import checkers.inference.model.VariableSlot;
 import checkers.inference.quals.VarAnnot;
 import checkers.inference.model.Constraint;
 import org.checkerframework.framework.util.AnnotationBuilder;
+import org.checkerframework.framework.util.ExecUtil;
+import org.checkerframework.framework.util.PluginUtil;
 
 import static checkers.inference.util.InferenceUtil.setLoggingLevel;
 
@@ -81,11 +120,34 @@ public class InferenceMain {
     private InferenceVisitor<?, ? extends BaseAnnotatedTypeFactory> visitor;
     private InferrableChecker realChecker;
     private BaseAnnotatedTypeFactory realTypeFactory;
+
+    // Set if the checker could not be instantiated, which javac only reports as a failed compilation
+    private ComponentInstantiationException instantiationFailure;
     private InferenceAnnotatedTypeFactory inferenceTypeFactory;
 
-    private final ConstraintManager constraintManager = new ConstraintManager();
+    // Not final, see releaseGenerationState
+    private ConstraintManager constraintManager = createConstraintManager();
     private SlotManager slotManager;
 
+    // The range of ids the slot manager hands out, workers use disjoint ranges
+    private int firstSlotId = 1;
+    private int slotIdLimit = Integer.MAX_VALUE;
+
+    // Non-null if constraints are cached between runs, see InferenceOptions.constraintCacheDir
+    private ConstraintCache constraintCache;
+
+    // The slot manager, declaration slots and constant variables of the batches compiled so far, see
+    // InferenceOptions.batchSize
+    private DefaultSlotManager batchSlotManager;
+    private DeclarationSlotRegistry batchDeclarationSlots;
+    private Map<VariableSlot, ConstantSlot> batchConstantVars;
+
+    // What solving and writing the JAIF need from generation, see captureSolveInputs
+    private ProcessingEnvironment processingEnvironment;
+    private QualifierHierarchy qualifierHierarchy;
+    private Set<Class<? extends Annotation>> supportedQualifiers;
+    private Map<VariableSlot, ConstantSlot> varToConstant;
+
     // Hold the results of solving.
     private InferenceSolution solverResult;
 
@@ -95,16 +157,31 @@ public class InferenceMain {
 
     private ResultHandler resultHandler;
 
+    // If non-null, javac uses this file manager (see CheckerFrameworkUtil.invokeCheckerFramework)
+    private JavacFileManager sharedFileManager;
+
     public void setResultHandler(ResultHandler resultHandler) {
         this.resultHandler = resultHandler;
     }
 
+    /**
+     * Use fileManager for the inference compilation.  Used when inference runs in the same JVM as
+     * other compilations (see InferenceLauncher's --inProcess).
+     */
+    public void setSharedFileManager(JavacFileManager sharedFileManager) {
+        this.sharedFileManager = sharedFileManager;
+    }
+
     public static void main(String [] args) {
         InitStatus status = InferenceOptions.init(args, false);
         status.validateOrExit();
 
         InferenceMain inferenceMain = new InferenceMain();
-        inferenceMain.run();
+        try {
+            inferenceMain.run();
+        } catch (ComponentInstantiationException e) {
+            System.exit(ComponentInstantiationException.EXIT_STATUS);
+        }
     }
 
     /**
@@ -125,22 +202,163 @@ public class InferenceMain {
         return inferenceMainInstance;
     }
 
+    /**
+     * Forget the current instance.  Used by processes that run more than one job (see InferenceDaemon)
+     * so that the slots, constraints, and type factories of a finished job can be collected and so that
+     * a subsequent typecheck job does not see a stale instance.
+     */
+    public static void clearInstance() {
+        inferenceMainInstance = null;
+    }
+
     /**
      * Kick off the inference process.
      */
     public void run() {
         logger.finer("Starting InferenceMain");
+        InferenceProfiler.reset();
+        InferenceProfiler.setEnabled(InferenceOptions.profile);
+
+        // A shard that wrote its state while summarizing is solved from it rather than generated again
+        final File shardState = InferenceOptions.shardState != null && InferenceOptions.shardSummary == null
+                              ? new File(InferenceOptions.shardState)
+                              : null;
+        if (InferenceOptions.solveInput != null) {
+            final InferenceProfiler.Timer stateTimer = InferenceProfiler.start("solve-input");
+            loadSolveInput(new File(InferenceOptions.solveInput));
+            stateTimer.stop();
+
+        } else if (shardState != null && shardState.exists()) {
+            final InferenceProfiler.Timer stateTimer = InferenceProfiler.start("shard-state");
+            loadSolveInput(shardState);
+            stateTimer.stop();
+
+        } else {
+            // Start up javac
+            final InferenceProfiler.Timer javacTimer = InferenceProfiler.start("javac");
+            startCheckerFramework();
+            javacTimer.stop();
+
+            if (constraintCache != null) {
+                final InferenceProfiler.Timer cacheTimer = InferenceProfiler.start("constraint-cache");
+                constraintCache.writeEntries(slotManager.getVariableSlots());
+                constraintCache.loadEntries(slotManager, constraintManager, getConstantVars(),
+                        inferenceChecker.getProcessingEnvironment().getElementUtils());
+                cacheTimer.stop();
+            }
+
+            // Parallel workers hand over their slots and constraints without their generation state
+            if (inferenceChecker != null) {
+                captureSolveInputs();
+            }
+        }
+
+        if (InferenceOptions.workerState != null) {
+            writeWorkerState(new File(InferenceOptions.workerState));
+            InferenceProfiler.writeReport(InferenceProfiler.getReportFile(InferenceOptions.workerState), false);
+            return;
+        }
+
+        if (InferenceOptions.shardSummary != null) {
+            writeShardSummary(new File(InferenceOptions.shardSummary));
+            InferenceProfiler.writeReport(InferenceProfiler.getReportFile(InferenceOptions.shardSummary), false);
+            return;
+        }
+
+        if (InferenceOptions.shardSummaries != null) {
+            linkShards(InferenceOptions.shardSummaries, new File(InferenceOptions.shardLinkFile));
+            InferenceProfiler.writeReport(InferenceProfiler.getReportFile(InferenceOptions.shardLinkFile), false);
+            return;
+        }
+
+        // The process that wrote a solve input applied the link before writing it
+        if (InferenceOptions.shardLinkFile != null && InferenceOptions.solveInput == null) {
+            applyShardLink(new File(InferenceOptions.shardLinkFile));
+        }
+
+        // A shard state or solve input has no generation state
+        if (InferenceOptions.leanSolve && inferenceChecker != null) {
+            if (forkSolve()) {
+                return;
+            }
+
+            final InferenceProfiler.Timer releaseTimer = InferenceProfiler.start("release-generation");
+            releaseGenerationState();
+            releaseTimer.stop();
+        }
 
-        // Start up javac
-        startCheckerFramework();
         solve();
+        closeConstraintLog(constraintManager);
+
+        final InferenceProfiler.Timer jaifTimer = InferenceProfiler.start("jaif");
         writeJaif();
+        jaifTimer.stop();
+
+        // The process that wrote a solve input already wrote the phases of generation to the report
+        InferenceProfiler.writeReport(InferenceProfiler.getReportFile(InferenceOptions.jaifFile),
+                                      InferenceOptions.solveInput != null);
     }
 
     /**
      * Run the Checker-Framework using InferenceChecker
      */
     private void startCheckerFramework() {
+        if (InferenceOptions.logLevel == null) {
+            setLoggingLevel(Level.FINE);
+        } else {
+            setLoggingLevel(Level.parse(InferenceOptions.logLevel));
+        }
+
+        if (InferenceOptions.hacks) {
+            hackMode = true;
+        }
+
+        final List<String> javacOptions = InferenceOptions.javacOptions != null
+                                        ? Arrays.asList(InferenceOptions.javacOptions)
+                                        : new ArrayList<String>();
+        final List<String> javaFiles = InferenceOptions.javaFiles != null
+                                     ? Arrays.asList(InferenceOptions.javaFiles)
+                                     : new ArrayList<String>();
+
+        if (InferenceOptions.constraintCacheDir != null) {
+            constraintCache = new ConstraintCache(new File(InferenceOptions.constraintCacheDir), javaFiles,
+                                                  ConstraintCache.computeFingerprint());
+        }
+
+        if (InferenceOptions.workers > 1 && javaFiles.size() > 1) {
+            List<String> sourceRoots = SourcePartitioner.findSourceRoots(javaFiles);
+            if (sourceRoots != null && InferenceOptions.workerState != null) {
+                generateWorkerPartition(javaFiles, sourceRoots);
+                return;
+            } else if (sourceRoots != null && startParallelWorkers(javaFiles, sourceRoots)) {
+                return;
+            }
+
+            logger.warning("Could not determine the source root of every file from its package, " +
+                           "generating constraints with a single javac instance.");
+        }
+
+        if (InferenceOptions.batchSize > 0 && javaFiles.size() > InferenceOptions.batchSize) {
+            List<String> sourceRoots = SourcePartitioner.findSourceRoots(javaFiles);
+            if (sourceRoots != null) {
+                startBatches(javaFiles, sourceRoots);
+                return;
+            }
+
+            logger.warning("Could not determine the source root of every file from its package, " +
+                           "generating constraints for all files in one batch.");
+        }
+
+        StringWriter javacoutput = new StringWriter();
+        boolean success = invokeInferenceChecker(javacOptions, javaFiles, javacoutput);
+        resultHandler.handleCompilerResult(success, javacoutput.toString());
+    }
+
+    /**
+     * Compile javaFiles with InferenceChecker as the annotation processor.
+     * @return true if javac succeeded
+     */
+    private boolean invokeInferenceChecker(List<String> javacOptions, List<String> javaFiles, StringWriter javacoutput) {
         List<String> checkerFrameworkArgs = new ArrayList<>(Arrays.asList(
                 "-processor", "checkers.inference.InferenceChecker",
                 "-Xmaxwarns", "1000",
@@ -149,33 +367,262 @@ public class InferenceMain {
                 "-AprintErrorStack",
                 "-Awarns"));
 
-        if (InferenceOptions.logLevel == null) {
-            setLoggingLevel(Level.FINE);
+        checkerFrameworkArgs.addAll(javacOptions);
+        checkerFrameworkArgs.addAll(javaFiles);
+
+        logger.fine(String.format("Starting checker framework with options: %s", checkerFrameworkArgs));
+
+        String [] javacArgs = checkerFrameworkArgs.toArray(new String[checkerFrameworkArgs.size()]);
+        final boolean success;
+        if (sharedFileManager != null) {
+            success = CheckerFrameworkUtil.invokeCheckerFramework(javacArgs, new PrintWriter(javacoutput, true), sharedFileManager);
         } else {
-            setLoggingLevel(Level.parse(InferenceOptions.logLevel));
+            success = CheckerFrameworkUtil.invokeCheckerFramework(javacArgs, new PrintWriter(javacoutput, true));
         }
 
-        if (InferenceOptions.hacks) {
-            hackMode = true;
+        // javac reports an exception thrown by the checker as a failed compilation, rethrow it instead
+        if (instantiationFailure != null) {
+            throw instantiationFailure;
         }
+        return success;
+    }
 
-        if (InferenceOptions.javacOptions != null) {
-            checkerFrameworkArgs.addAll(Arrays.asList(InferenceOptions.javacOptions));
+    /**
+     * Split javaFiles into InferenceOptions.workers groups and generate the constraints for each group in its
+     * own InferenceMain process, see InferenceOptions.workerState.  The workers are processes rather than threads
+     * because the javac instances of one JVM share the Checker Framework's static caches, which are not
+     * thread-safe.  The workers' slots and constraints are then read into this instance, along with a javac
+     * instance without sources to solve them in (see readSolveInputs).
+     *
+     * Each worker only compiles its own group; the files of the other groups are found through the source
+     * path, so the worker can resolve and annotate the declarations they contain.
+     *
+     * @return false if a worker wrote no slots and constraints, in which case they are generated by this
+     *         instance instead
+     */
+    private boolean startParallelWorkers(List<String> javaFiles, List<String> sourceRoots) {
+        final int workers = SourcePartitioner.partition(javaFiles, InferenceOptions.workers).size();
+        final File stateDir;
+        try {
+            stateDir = Files.createTempDirectory("inference-workers").toFile();
+        } catch (IOException e) {
+            throw new RuntimeException("Could not create a directory for the worker states", e);
         }
 
-        if (InferenceOptions.javaFiles != null) {
-            checkerFrameworkArgs.addAll(Arrays.asList(InferenceOptions.javaFiles));
+        final List<File> stateFiles = new ArrayList<>(workers);
+        final List<ByteArrayOutputStream> workerOutputs = new ArrayList<>(workers);
+        final List<Future<Integer>> results = new ArrayList<>(workers);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(workers);
+        for (int i = 0; i < workers; i++) {
+            final File stateFile = new File(stateDir, "worker" + i + ".state");
+            final List<String> command = getWorkerCommand(i, stateFile);
+            final ByteArrayOutputStream workerOutput = new ByteArrayOutputStream();
+
+            stateFiles.add(stateFile);
+            workerOutputs.add(workerOutput);
+            results.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return ExecUtil.execute(command.toArray(new String[command.size()]), workerOutput, workerOutput);
+                }
+            }));
         }
 
-        logger.fine(String.format("Starting checker framework with options: %s", checkerFrameworkArgs));
+        boolean success = true;
+        StringBuilder javacoutput = new StringBuilder();
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                final int result = results.get(i).get();
+                if (result == ComponentInstantiationException.EXIT_STATUS) {
+                    logger.severe(workerOutputs.get(i).toString());
+                    executor.shutdownNow();
+                    throw new ComponentInstantiationException("Constraint generation worker " + i + " could not " +
+                                                              "instantiate the checker.", null);
+                }
+                success &= result == 0;
+            } catch (ExecutionException | InterruptedException e) {
+                logger.log(Level.SEVERE, "Constraint generation worker " + i + " failed.", e);
+                success = false;
+            }
+            javacoutput.append(workerOutputs.get(i).toString());
+        }
+        executor.shutdown();
+
+        resultHandler.handleCompilerResult(success, javacoutput.toString());
+
+        try {
+            for (int i = 0; i < stateFiles.size(); i++) {
+                if (!stateFiles.get(i).exists()) {
+                    logger.warning("Constraint generation worker " + i + " wrote no slots and constraints, " +
+                                   "generating constraints with a single javac instance.");
+                    return false;
+                }
+            }
+
+            createSolveEnvironment();
+            readSolveInputs(stateFiles, new QualifierNameSerializer(processingEnvironment.getElementUtils()));
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read the slots and constraints of the workers", e);
+        } finally {
+            for (File stateFile : stateFiles) {
+                stateFile.delete();
+            }
+            stateDir.delete();
+        }
+
+        logger.fine(String.format("Merged %d workers: %d slots, %d constraints",
+                workers, slotManager.getSlotView().size(), constraintManager.getConstraints().size()));
+        return true;
+    }
+
+    /**
+     * @return the command that runs worker workerIndex of startParallelWorkers
+     */
+    private static List<String> getWorkerCommand(int workerIndex, File stateFile) {
+        return getChildCommand(Arrays.asList("--workerIndex", String.valueOf(workerIndex),
+                                             "--workerState", stateFile.getAbsolutePath()));
+    }
+
+    /**
+     * @return the command that runs InferenceMain in a new JVM with the arguments, JVM options and class path of
+     *         this one, and with options before the arguments
+     */
+    private static List<String> getChildCommand(List<String> options) {
+        final List<String> command = new ArrayList<>();
+        command.add(PluginUtil.getJavaCommand(System.getProperty("java.home"), System.out));
+        for (String jvmArgument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            // A debugger agent would try to listen on the same port as this JVM
+            if (!jvmArgument.startsWith("-agentlib:jdwp") && !jvmArgument.startsWith("-Xrunjdwp")) {
+                command.add(jvmArgument);
+            }
+        }
+        command.add("-classpath");
+        command.add(System.getProperty("java.class.path"));
+        command.add(InferenceMain.class.getName());
+
+        // The options come first, as the arguments may end with javac options and source files
+        command.addAll(options);
+        command.addAll(Arrays.asList(InferenceOptions.commandLine));
+        return command;
+    }
 
+    /**
+     * Generate the constraints of this worker's group of javaFiles, see startParallelWorkers.  The groups are
+     * computed as they are by the process that started the worker.
+     */
+    private void generateWorkerPartition(List<String> javaFiles, List<String> sourceRoots) {
+        firstSlotId = 1 + InferenceOptions.workerIndex * InferenceOptions.workerSlotIdRange;
+        slotIdLimit = firstSlotId + InferenceOptions.workerSlotIdRange;
+
+        final List<String> workerFiles =
+                SourcePartitioner.partition(javaFiles, InferenceOptions.workers).get(InferenceOptions.workerIndex);
         StringWriter javacoutput = new StringWriter();
-        boolean success = CheckerFrameworkUtil.invokeCheckerFramework(checkerFrameworkArgs.toArray(new String[checkerFrameworkArgs.size()]),
-                new PrintWriter(javacoutput, true));
+        boolean success = invokeInferenceChecker(getWorkerJavacOptions(sourceRoots), workerFiles, javacoutput);
+        resultHandler.handleCompilerResult(success, javacoutput.toString());
+    }
+
+    /**
+     * Compile javaFiles in batches of InferenceOptions.batchSize files, each with its own javac instance.
+     * Packages are compiled before the packages that import them, so most declarations get their slots in
+     * the batch that contains them.  All batches add to the slots and constraints of this instance.
+     *
+     * Once a batch is compiled, nothing refers to its javac instance any longer: the checker and type factories
+     * are created again for the next batch, the slot manager builds its annotations with the next batch's
+     * javac instance and the slots' locations are replaced by locations without a compilation unit.  A later
+     * batch that annotates a declaration of an earlier batch reuses the declaration's slot, see
+     * DeclarationSlotRegistry.
+     */
+    private void startBatches(List<String> javaFiles, List<String> sourceRoots) {
+        final List<String> batchJavacOptions = getWorkerJavacOptions(sourceRoots);
+        final List<List<String>> batches = SourcePartitioner.batch(
+                SourcePartitioner.orderByDependencies(javaFiles), InferenceOptions.batchSize);
+        batchDeclarationSlots = new DeclarationSlotRegistry();
+
+        boolean success = true;
+        StringBuilder javacoutput = new StringBuilder();
+        int batchFirstSlotId = firstSlotId;
+        for (int i = 0; i < batches.size(); i++) {
+            final StringWriter batchOutput = new StringWriter();
+            success &= invokeInferenceChecker(batchJavacOptions, batches.get(i), batchOutput);
+            javacoutput.append(batchOutput.toString());
+
+            // A batch whose files contain no classes never initializes its components
+            if (slotManager == null) {
+                continue;
+            }
+
+            final SlotView slots = slotManager.getSlotView();
+            final SlotView batchSlots = slots.range(batchFirstSlotId, Integer.MAX_VALUE);
+            for (Constraint equality : batchDeclarationSlots.register(batchSlots)) {
+                constraintManager.add(equality);
+            }
+            for (VariableSlot slot : batchSlots) {
+                batchFirstSlotId = slot.getId() + 1;
+            }
+
+            logger.fine(String.format("Compiled batch %d of %d: %d slots", i + 1, batches.size(), slots.size()));
+            if (i < batches.size() - 1) {
+                releaseBatch();
+            }
+        }
 
         resultHandler.handleCompilerResult(success, javacoutput.toString());
     }
 
+    /**
+     * Release the components of the javac instance that compiled the last batch, keeping its slot manager
+     * and constant variables for the next batch.
+     */
+    private void releaseBatch() {
+        if (batchConstantVars == null) {
+            batchConstantVars = new HashMap<>();
+        }
+        addConstantVars(inferenceTypeFactory, batchConstantVars);
+
+        for (VariableSlot slot : slotManager.getSlotView()) {
+            if (slot.getLocation() instanceof AstPathLocation) {
+                final ASTRecord record = ((AstPathLocation) slot.getLocation()).getAstRecord();
+                if (record.ast != null) {
+                    slot.setLocation(new AstPathLocation(
+                            new ASTRecord(null, record.className, record.methodName, record.varName, record.astPath)));
+                }
+            }
+        }
+
+        batchSlotManager = (DefaultSlotManager) slotManager;
+        slotManager = null;
+        visitor = null;
+        realChecker = null;
+        realTypeFactory = null;
+        inferenceTypeFactory = null;
+        inferenceChecker = null;
+    }
+
+    /**
+     * @return the javac options for parallel workers (and for shards, see InferenceLauncher): the user's
+     * javac options with the source roots of all files added to the source path
+     */
+    static List<String> getWorkerJavacOptions(List<String> sourceRoots) {
+        final List<String> sourcePath = new ArrayList<>(sourceRoots);
+        final List<String> workerOptions = new ArrayList<>();
+
+        final String [] javacOptions = InferenceOptions.javacOptions != null ? InferenceOptions.javacOptions : new String[0];
+        for (int i = 0; i < javacOptions.length; i++) {
+            if (javacOptions[i].equals("-sourcepath") && i + 1 < javacOptions.length) {
+                sourcePath.add(javacOptions[++i]);
+            } else {
+                workerOptions.add(javacOptions[i]);
+            }
+        }
+
+        workerOptions.add("-sourcepath");
+        workerOptions.add(PluginUtil.join(File.pathSeparator, sourcePath));
+
+        // Other workers' files are only read to resolve references; do not write class files for them
+        workerOptions.add("-implicit:none");
+        return workerOptions;
+    }
 
     /**
      * Give the InferenceMain instance a reference to the InferenceChecker
@@ -196,14 +643,14 @@ public class InferenceMain {
         try (PrintWriter writer
                 = new PrintWriter(new FileOutputStream(InferenceOptions.jaifFile))) {
 
-            List<VariableSlot> varSlots = slotManager.getVariableSlots();
+            Collection<VariableSlot> varSlots = slotManager.getSlotView();
             Map<AnnotationLocation, String> values = new HashMap<>();
             Set<Class<? extends Annotation>> annotationClasses = new HashSet<>();
 
             if (solverResult == null) {
                 annotationClasses.add(VarAnnot.class);
             } else {
-                for (Class<? extends Annotation> annotation : realTypeFactory.getSupportedTypeQualifiers()) {
+                for (Class<? extends Annotation> annotation : supportedQualifiers) {
                     annotationClasses.add(annotation);
                 }
             }
@@ -236,20 +683,469 @@ public class InferenceMain {
     }
 
     /**
-     * Solve the generated constraints using the solver specified on the command line.
+     * Record what solving and writing the JAIF need from the components created during generation, so that
+     * solve and writeJaif do not depend on the type factories.
      */
-    private void solve() {
-        //TODO: PERHAPS ALLOW SOLVERS TO DECIDE IF/HOW THEY WANT CONSTRAINTS NORMALIZED
+    private void captureSolveInputs() {
+        processingEnvironment = inferenceChecker.getProcessingEnvironment();
+        qualifierHierarchy = getRealTypeFactory().getQualifierHierarchy();
+        supportedQualifiers = new HashSet<>(realTypeFactory.getSupportedTypeQualifiers());
 
-        final Map<Class<? extends Annotation>, VariableSlot> constantToVar = inferenceTypeFactory.getConstantVars();
-        final Map<VariableSlot, ConstantSlot> varToConstant = new HashMap<>();
+        varToConstant = batchConstantVars != null ? batchConstantVars : new HashMap<VariableSlot, ConstantSlot>();
+        batchConstantVars = null;
+        addConstantVars(inferenceTypeFactory, varToConstant);
+    }
+
+    /**
+     * Add the variables typeFactory created for constants and their ConstantSlots to varToConstant.
+     */
+    private void addConstantVars(InferenceAnnotatedTypeFactory typeFactory, Map<VariableSlot, ConstantSlot> varToConstant) {
+        final Map<Class<? extends Annotation>, VariableSlot> constantToVar = typeFactory.getConstantVars();
         for (Class<? extends Annotation> anno : constantToVar.keySet()) {
-            AnnotationMirror constantAnno = new AnnotationBuilder(inferenceTypeFactory.getProcessingEnv(), anno).build();
+            AnnotationMirror constantAnno = new AnnotationBuilder(typeFactory.getProcessingEnv(), anno).build();
             final ConstantSlot constant = (ConstantSlot) slotManager.getSlot(constantAnno);
             varToConstant.put(constantToVar.get(anno), constant);
         }
-        final ConstraintNormalizer constraintNormalizer = new ConstraintNormalizer(varToConstant);
-        Set<Constraint> normalizedConstraints = constraintNormalizer.normalize(constraintManager.getConstraints());
+    }
+
+    /**
+     * Normalize, solve and write the jaif in a new InferenceMain process (see InferenceOptions.leanSolve).  The
+     * slots and constraints are handed to it in a temporary file written by writeSolveInput, with the constants
+     * by qualifier name, and it reads them into a javac instance that compiles nothing (see InferenceOptions.
+     * solveInput).  So the heap that solves them never held the compilation units, type factories or javac
+     * instance of generation, and the memory generation used is returned to the system when this process exits.
+     *
+     * @return false if a constant has annotation values, which cannot be read back by name, in which case the
+     *         constraints are solved in this process (see releaseGenerationState)
+     */
+    private boolean forkSolve() {
+        final File tempDir = InferenceOptions.constraintSpillDir != null
+                           ? new File(InferenceOptions.constraintSpillDir)
+                           : null;
+
+        File solveInputFile = null;
+        try {
+            solveInputFile = File.createTempFile("solve-input", ".bin", tempDir);
+            try {
+                writeSolveInput(solveInputFile, new QualifierNameSerializer(null), true);
+            } catch (UnserializableConstantException e) {
+                logger.warning("Solving in this process, the constants cannot be read back by name: " +
+                               e.getMessage());
+                return false;
+            }
+            closeConstraintLog(constraintManager);
+
+            // The solve process adds its phases to the report of generation
+            InferenceProfiler.writeReport(InferenceProfiler.getReportFile(InferenceOptions.jaifFile), false);
+
+            final List<String> command =
+                    getChildCommand(Arrays.asList("--solveInput", solveInputFile.getAbsolutePath()));
+            final int result = ExecUtil.execute(command.toArray(new String[command.size()]), System.out, System.err);
+            if (result == ComponentInstantiationException.EXIT_STATUS) {
+                throw new ComponentInstantiationException("The solve process could not instantiate the checker.",
+                                                          null);
+            }
+            if (result != 0) {
+                throw new RuntimeException("The solve process failed with exit status " + result);
+            }
+            return true;
+
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write the slots and constraints for solving", e);
+        } finally {
+            if (solveInputFile != null) {
+                solveInputFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Drop everything generation created that solving does not need, for constraints that forkSolve cannot
+     * hand to another process.
+     *
+     * The slots' AnnotationLocations refer to the compilation units they were created in, so the slots and
+     * constraints are written to a temporary file and read back without them.  The generation's processing
+     * environment and qualifier hierarchy also reach every tree and type factory through the javac Context,
+     * so they are replaced by those of a javac instance that compiles nothing (see createSolveEnvironment)
+     * and the constants are read back by their qualifier names in it.  Only if a constant has annotation
+     * values, which cannot be read back by name, is the generation's environment kept.
+     *
+     * When profiling, the heap used after a collection before and after the release is recorded.
+     */
+    private void releaseGenerationState() {
+        final long usedHeapBefore = measureUsedHeap();
+        final File tempDir = InferenceOptions.constraintSpillDir != null
+                           ? new File(InferenceOptions.constraintSpillDir)
+                           : null;
+
+        File solveInputFile = null;
+        try {
+            solveInputFile = File.createTempFile("solve-input", ".bin", tempDir);
+
+            // A SpillingConstraintManager's constraints are already on disk but resolve their constants in
+            // the generation's environment, so they are only kept if that environment is kept
+            AnnotationMirrorSerializer constants = new QualifierNameSerializer(null);
+            boolean rebuildEnvironment = true;
+            try {
+                writeSolveInput(solveInputFile, constants, true);
+            } catch (UnserializableConstantException e) {
+                logger.warning("Keeping the generation's processing environment for solving, the constants cannot " +
+                               "be read back by name: " + e.getMessage());
+                constants = new IndexedAnnotationMirrorSerializer();
+                rebuildEnvironment = false;
+                writeSolveInput(solveInputFile, constants, !(constraintManager instanceof SpillingConstraintManager));
+            }
+            final boolean readConstraints = rebuildEnvironment || !(constraintManager instanceof SpillingConstraintManager);
+
+            visitor = null;
+            realChecker = null;
+            realTypeFactory = null;
+            inferenceTypeFactory = null;
+            inferenceChecker = null;
+            constraintCache = null;
+            if (rebuildEnvironment) {
+                createSolveEnvironment();
+                constants = new QualifierNameSerializer(processingEnvironment.getElementUtils());
+            }
+            if (readConstraints) {
+                closeConstraintLog(constraintManager);
+                constraintManager = createConstraintManager();
+            }
+            readSolveInput(solveInputFile, constants);
+
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write the slots and constraints for solving", e);
+        } finally {
+            if (solveInputFile != null) {
+                solveInputFile.delete();
+            }
+        }
+
+        final long usedHeapAfter = measureUsedHeap();
+        if (InferenceProfiler.isEnabled()) {
+            InferenceProfiler.count("memory", "usedHeapBeforeRelease", usedHeapBefore);
+            InferenceProfiler.count("memory", "usedHeapAfterRelease", usedHeapAfter);
+            logger.fine(String.format("Releasing the generation state freed %d bytes", usedHeapBefore - usedHeapAfter));
+        }
+    }
+
+    /**
+     * Write the variable slots, the pairs of varToConstant and, if writeConstraints, the constraints to
+     * solveInputFile, replacing its contents.
+     */
+    private void writeSolveInput(File solveInputFile, AnnotationMirrorSerializer constants,
+                                 boolean writeConstraints) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(solveInputFile)))) {
+            out.writeInt(slotManager.nextId());
+            out.writeInt(varToConstant.size());
+
+            final BinarySerializer serializer = new BinarySerializer(out, constants);
+            for (VariableSlot slot : slotManager.getVariableSlots()) {
+                serializer.writeSlot(slot);
+            }
+            for (Map.Entry<VariableSlot, ConstantSlot> entry : varToConstant.entrySet()) {
+                serializer.writeSlot(entry.getKey());
+                serializer.writeSlot(entry.getValue());
+            }
+            if (writeConstraints) {
+                for (Constraint constraint : constraintManager.getConstraints()) {
+                    serializer.writeConstraint(constraint);
+                }
+            }
+            serializer.writeEnd();
+        }
+    }
+
+    /**
+     * Read a file written by writeSolveInput into a new slot manager, varToConstant and constraintManager.
+     */
+    private void readSolveInput(File solveInputFile, AnnotationMirrorSerializer constants) throws IOException {
+        readSolveInputs(Collections.singletonList(solveInputFile), constants);
+    }
+
+    /**
+     * Read files written by writeSolveInput with disjoint ids, such as the states of parallel workers, into a
+     * new slot manager, varToConstant and constraintManager.  A declaration slot at the location of a
+     * declaration slot of an earlier file is read as the earlier slot, so each declaration has one slot,
+     * see DeclarationSlotRegistry.
+     */
+    private void readSolveInputs(List<File> solveInputFiles, AnnotationMirrorSerializer constants) throws IOException {
+        final DeclarationSlotRegistry declarationSlots = new DeclarationSlotRegistry();
+        final List<VariableSlot> variables = new ArrayList<>();
+        final List<Constraint> constraints = new ArrayList<>();
+        varToConstant = new HashMap<>();
+        int nextSlotId = 1;
+
+        for (File solveInputFile : solveInputFiles) {
+            final List<Slot> slots = new ArrayList<>();
+            final int constantVarCount;
+            final DeclarationDeserializer deserializer;
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(solveInputFile)))) {
+                nextSlotId = Math.max(nextSlotId, in.readInt());
+                constantVarCount = in.readInt();
+                deserializer = new DeclarationDeserializer(in, constants, declarationSlots);
+                deserializer.readAll(slots, constraints);
+            }
+
+            // The slot records are the variable slots followed by the pairs of varToConstant
+            final int variableCount = slots.size() - 2 * constantVarCount;
+            for (int i = 0; i < variableCount; i++) {
+                variables.add((VariableSlot) slots.get(i));
+            }
+            for (int i = variableCount; i < slots.size(); i += 2) {
+                varToConstant.put((VariableSlot) slots.get(i), (ConstantSlot) slots.get(i + 1));
+            }
+
+            // Slots at registered locations were read as their owners, so this adds no equalities
+            constraints.addAll(declarationSlots.register(deserializer.createdSlots));
+        }
+
+        slotManager = createSlotManager(processingEnvironment, supportedQualifiers, nextSlotId, Integer.MAX_VALUE);
+        for (VariableSlot variable : variables) {
+            slotManager.addVariable(variable);
+        }
+        for (Constraint constraint : constraints) {
+            constraintManager.add(constraint);
+        }
+    }
+
+    /**
+     * Reads the declaration slots at locations registered in a DeclarationSlotRegistry as the registered slots.
+     */
+    private static class DeclarationDeserializer extends BinaryDeserializer {
+        private final DeclarationSlotRegistry declarationSlots;
+
+        // The slots that were not read as registered slots, in the order they were read
+        private final List<VariableSlot> createdSlots = new ArrayList<>();
+
+        private DeclarationDeserializer(DataInputStream in, AnnotationMirrorSerializer constants,
+                                        DeclarationSlotRegistry declarationSlots) {
+            super(in, constants);
+            this.declarationSlots = declarationSlots;
+        }
+
+        @Override
+        protected VariableSlot createVariableSlot(int id, boolean insertable, AnnotationLocation location) {
+            final VariableSlot owner = insertable ? declarationSlots.getOwner(location) : null;
+            if (owner != null) {
+                return owner;
+            }
+
+            final VariableSlot slot = super.createVariableSlot(id, insertable, location);
+            createdSlots.add(slot);
+            return slot;
+        }
+    }
+
+    /**
+     * Replace the processing environment, qualifier hierarchy and supported qualifiers with those of a javac
+     * instance that is given no sources, so that its Context holds only the symbols of the classes the
+     * checker loads.  The real checker is created again on it, for the normalization stages it adds.
+     */
+    private void createSolveEnvironment() throws IOException {
+        final List<String> options = new ArrayList<>();
+        if (InferenceOptions.javacOptions != null) {
+            options.addAll(Arrays.asList(InferenceOptions.javacOptions));
+        }
+        options.add("-proc:none");
+
+        final JavacTask task = (JavacTask) ToolProvider.getSystemJavaCompiler().getTask(
+                null, null, null, options, null, null);
+        task.parse();
+        processingEnvironment = new JavacProcessingEnvironment(((BasicJavacTask) task).getContext(),
+                                                              Collections.<Processor>emptyList());
+
+        try {
+            realChecker = (InferrableChecker) Class.forName(InferenceOptions.checker).newInstance();
+            realChecker.init(processingEnvironment);
+            realChecker.initChecker();
+        } catch (Throwable e) {
+            logger.log(Level.SEVERE, "Error instantiating checker class \"" + InferenceOptions.checker + "\".", e);
+            throw new ComponentInstantiationException(
+                    "Error instantiating checker class \"" + InferenceOptions.checker + "\".", e);
+        }
+        final BaseAnnotatedTypeFactory solveTypeFactory = realChecker.createRealTypeFactory();
+        qualifierHierarchy = solveTypeFactory.getQualifierHierarchy();
+        supportedQualifiers = new HashSet<>(solveTypeFactory.getSupportedTypeQualifiers());
+    }
+
+    /**
+     * @return the bytes of heap in use after a garbage collection, or 0 if not profiling
+     */
+    private static long measureUsedHeap() {
+        if (!InferenceProfiler.isEnabled()) {
+            return 0;
+        }
+        System.gc();
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    //================================================================================
+    // Sharded inference, see ShardSummary
+    //================================================================================
+
+    /**
+     * Write the summary of this shard's constraints rather than solving them.  If InferenceOptions.shardState
+     * is set, the shard's slots and constraints are also written to it, so that the shard is solved without
+     * generating its constraints again.
+     */
+    private void writeShardSummary(File summaryFile) {
+        final Set<Constraint> normalizedConstraints = normalize();
+        try {
+            ShardSummary.writeSummary(summaryFile, slotManager.getVariableSlots(), normalizedConstraints);
+            if (InferenceOptions.shardState != null) {
+                retainShardInsertions();
+                writeShardState(new File(InferenceOptions.shardState));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write shard summary " + summaryFile, e);
+        } finally {
+            closeConstraintLog(constraintManager);
+        }
+    }
+
+    /**
+     * Write the slots and constraints of this shard with its constants by qualifier name, so that they can be
+     * read into a javac instance without sources (see loadSolveInput).  If a constant has annotation values,
+     * no state is written and the shard is generated again to be solved.
+     */
+    private void writeShardState(File stateFile) throws IOException {
+        try {
+            writeSolveInput(stateFile, new QualifierNameSerializer(null), true);
+        } catch (UnserializableConstantException e) {
+            stateFile.delete();
+            logger.warning("Not writing the shard state, the shard will be generated again to solve it: "
+                           + e.getMessage());
+        }
+    }
+
+    /**
+     * Write the slots and constraints of this parallel worker for the process that started it (see
+     * startParallelWorkers), with its constants by qualifier name.  If a constant has annotation values or the
+     * worker's files contain no classes, no state is written and that process generates the constraints itself.
+     */
+    private void writeWorkerState(File stateFile) {
+        try {
+            if (slotManager != null) {
+                writeSolveInput(stateFile, new QualifierNameSerializer(null), true);
+            }
+        } catch (UnserializableConstantException e) {
+            stateFile.delete();
+            logger.warning("Not writing the worker state: " + e.getMessage());
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write worker state " + stateFile, e);
+        } finally {
+            closeConstraintLog(constraintManager);
+        }
+    }
+
+    /**
+     * Read the slots and constraints written by writeShardState or forkSolve in place of generating them.
+     */
+    private void loadSolveInput(File stateFile) {
+        try {
+            createSolveEnvironment();
+            readSolveInput(stateFile, new QualifierNameSerializer(processingEnvironment.getElementUtils()));
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read the slots and constraints in " + stateFile, e);
+        }
+    }
+
+    /**
+     * Solve the summaries of all shards together and write the solutions of the shards' declarations.
+     * @param summaryFiles the summary files separated by File.pathSeparator
+     */
+    private void linkShards(String summaryFiles, File linkFile) {
+        final List<File> summaries = new ArrayList<>();
+        for (String summaryFile : summaryFiles.split(File.pathSeparator)) {
+            if (!summaryFile.isEmpty()) {
+                summaries.add(new File(summaryFile));
+            }
+        }
+
+        try {
+            final InferenceProfiler.Timer linkTimer = InferenceProfiler.start("shard-link");
+            final List<VariableSlot> signatureSlots = ShardSummary.readSummaries(
+                    summaries, processingEnvironment.getElementUtils(), slotManager, constraintManager);
+            linkTimer.stop();
+
+            solve();
+            closeConstraintLog(constraintManager);
+            ShardSummary.writeLinkedValues(linkFile, signatureSlots, solverResult);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not link shard summaries " + summaryFiles, e);
+        }
+    }
+
+    /**
+     * Make this shard's declarations equal to their linked solutions and only insert annotations
+     * into this shard's own files.
+     */
+    private void applyShardLink(File linkFile) {
+        final List<VariableSlot> variableSlots = slotManager.getVariableSlots();
+        try {
+            ShardSummary.applyLinkedValues(linkFile, processingEnvironment.getElementUtils(),
+                                           variableSlots, constraintManager);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read linked shard solutions " + linkFile, e);
+        }
+
+        retainShardInsertions();
+    }
+
+    /**
+     * Only insert annotations into this shard's own files.  The slots of a shard state already are.
+     */
+    private void retainShardInsertions() {
+        final List<String> javaFiles = InferenceOptions.javaFiles != null
+                                     ? Arrays.asList(InferenceOptions.javaFiles)
+                                     : new ArrayList<String>();
+        final int removed = ShardSummary.retainInsertionsIn(javaFiles, slotManager.getVariableSlots());
+        logger.fine(String.format("%d slots of other shards will not be inserted", removed));
+    }
+
+    /**
+     * @return the normalized constraints, see ConstraintNormalizer
+     */
+    private ConstraintIndex normalize() {
+        return normalize(null);
+    }
+
+    /**
+     * @param equalityCollapser a stage that is run after all other normalization stages, or null
+     * @return the normalized constraints, see ConstraintNormalizer
+     */
+    private ConstraintIndex normalize(EqualityCollapser equalityCollapser) {
+        InferenceProfiler.countByClass("slots", slotManager.getSlotView());
+        InferenceProfiler.countByClass("constraints", constraintManager.getConstraints());
+
+        final InferenceProfiler.Timer normalizationTimer = InferenceProfiler.start("normalization");
+        final List<Normalizer> stages = new ArrayList<>(getRealChecker().createNormalizers());
+        if (equalityCollapser != null) {
+            stages.add(equalityCollapser);
+        }
+        final ConstraintNormalizer constraintNormalizer =
+                new ConstraintNormalizer(slotManager, varToConstant, stages,
+                                         InferenceOptions.existentialExpansionLimit);
+        ConstraintIndex normalizedConstraints = constraintNormalizer.normalize(constraintManager.getConstraints(),
+                                                                              InferenceOptions.normalizationThreads);
+        normalizationTimer.stop();
+        InferenceProfiler.countByClass("normalizedConstraints", normalizedConstraints);
+        return normalizedConstraints;
+    }
+
+    /**
+     * Solve the generated constraints using the solver specified on the command line.
+     */
+    private void solve() {
+        //TODO: PERHAPS ALLOW SOLVERS TO DECIDE IF/HOW THEY WANT CONSTRAINTS NORMALIZED
+
+        final EqualityCollapser equalityCollapser =
+                InferenceOptions.collapseEqualities ? new EqualityCollapser() : null;
+        ConstraintIndex normalizedConstraints = normalize(equalityCollapser);
 
         // TODO: Support multiple solvers or serialize before or after solving
         // TODO: Prune out unneeded variables
@@ -257,12 +1153,18 @@ public class InferenceMain {
 
         if (InferenceOptions.solver != null) {
             InferenceSolver solver = getSolver();
+            final InferenceProfiler.Timer solveTimer = InferenceProfiler.start("solve");
             this.solverResult = solver.solve(
                     parseSolverArgs(),
-                    slotManager.getSlots(),
+                    slotManager.getSlotView().asSlots(),
                     normalizedConstraints,
-                    getRealTypeFactory().getQualifierHierarchy(),
-                    inferenceChecker.getProcessingEnvironment());
+                    qualifierHierarchy,
+                    processingEnvironment);
+            solveTimer.stop();
+
+            if (equalityCollapser != null) {
+                this.solverResult = equalityCollapser.expand(solverResult);
+            }
         }
     }
 
@@ -286,9 +1188,11 @@ public class InferenceMain {
                 realChecker.initChecker();
                 logger.finer(String.format("Created real checker: %s", realChecker));
             } catch (Throwable e) {
-              logger.log(Level.SEVERE, "Error instantiating checker class \"" + InferenceOptions.checker + "\".", e);
-              System.exit(5);
-          }
+                logger.log(Level.SEVERE, "Error instantiating checker class \"" + InferenceOptions.checker + "\".", e);
+                instantiationFailure = new ComponentInstantiationException(
+                        "Error instantiating checker class \"" + InferenceOptions.checker + "\".", e);
+                throw instantiationFailure;
+            }
         }
         return realChecker;
     }
@@ -323,14 +1227,27 @@ public class InferenceMain {
     }
 
     public SlotManager getSlotManager() {
-        if (slotManager == null ) {
-            slotManager = new DefaultSlotManager(inferenceChecker.getProcessingEnvironment(),
-                    realTypeFactory.getSupportedTypeQualifiers() );
+        if (slotManager == null && batchSlotManager != null) {
+            batchSlotManager.setProcessingEnvironment(inferenceChecker.getProcessingEnvironment());
+            slotManager = batchSlotManager;
+            batchSlotManager = null;
+        } else if (slotManager == null ) {
+            slotManager = createSlotManager(inferenceChecker.getProcessingEnvironment(),
+                    realTypeFactory.getSupportedTypeQualifiers(), firstSlotId, slotIdLimit );
             logger.finer("Created slot manager" + slotManager);
         }
         return slotManager;
     }
 
+    private static DefaultSlotManager createSlotManager(ProcessingEnvironment processingEnvironment,
+                                                        Set<Class<? extends Annotation>> supportedQualifiers,
+                                                        int firstId, int idLimit) {
+        if (InferenceOptions.concurrentManagers) {
+            return new ConcurrentSlotManager(processingEnvironment, supportedQualifiers, firstId, idLimit);
+        }
+        return new DefaultSlotManager(processingEnvironment, supportedQualifiers, firstId, idLimit);
+    }
+
     protected InferenceSolver getSolver() {
         try {
             InferenceSolver solver = (InferenceSolver) Class.forName(InferenceOptions.solver).newInstance();
@@ -338,8 +1255,20 @@ public class InferenceMain {
             return solver;
         } catch (Throwable e) {
             logger.log(Level.SEVERE, "Error instantiating solver class \"" + InferenceOptions.solver + "\".", e);
-            System.exit(5);
-            return null; // Dead code
+            throw new ComponentInstantiationException(
+                    "Error instantiating solver class \"" + InferenceOptions.solver + "\".", e);
+        }
+    }
+
+    /**
+     * Thrown when the checker or solver named by InferenceOptions cannot be instantiated.  main exits with
+     * EXIT_STATUS, processes that run several jobs (see InferenceDaemon) fail only the current job.
+     */
+    public static class ComponentInstantiationException extends RuntimeException {
+        public static final int EXIT_STATUS = 5;
+
+        public ComponentInstantiationException(String message, Throwable cause) {
+            super(message, cause);
         }
     }
 
@@ -374,6 +1303,48 @@ public class InferenceMain {
         return constraintManager;
     }
 
+    /**
+     * @return the declaration slots of the batches compiled so far or null if the files are not compiled in
+     *         batches, see InferenceOptions.batchSize
+     */
+    public DeclarationSlotRegistry getBatchDeclarationSlots() {
+        return batchDeclarationSlots;
+    }
+
+    /**
+     * Delete the log of a SpillingConstraintManager once its constraints are no longer needed.
+     */
+    private static void closeConstraintLog(ConstraintManager manager) {
+        if (manager instanceof SpillingConstraintManager) {
+            ((SpillingConstraintManager) manager).close();
+        }
+    }
+
+    private static ConstraintManager createConstraintManager() {
+        if (InferenceOptions.constraintSpillDir != null) {
+            return new SpillingConstraintManager(new File(InferenceOptions.constraintSpillDir),
+                                                 InferenceOptions.constraintSpillFilterSize);
+        }
+        if (InferenceOptions.concurrentManagers) {
+            return new ConcurrentConstraintManager();
+        }
+        if (InferenceOptions.compactConstraints) {
+            return new CompactConstraintManager();
+        }
+        return new ConstraintManager();
+    }
+
+    public ConstraintCache getConstraintCache() {
+        return constraintCache;
+    }
+
+    /**
+     * @return the variables the InferenceAnnotatedTypeFactory uses for constants, keyed by qualifier
+     */
+    Map<Class<? extends Annotation>, VariableSlot> getConstantVars() {
+        return getInferenceTypeFactory().getConstantVars();
+    }
+
     public boolean isPerformingFlow() {
         return performingFlow;
     }
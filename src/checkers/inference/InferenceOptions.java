@@ -11,6 +11,8 @@ import plume.OptionGroup;
 import plume.Options;
 
 import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -56,6 +58,19 @@ public class InferenceOptions {
     @Option("For inference, add debug on the port indicated")
     public static String debug;
 
+    @Option("[port] Run infer and typecheck steps in the InferenceDaemon listening on this local port " +
+            "instead of forking a new JVM for each step")
+    public static Integer daemonPort;
+
+    @Option("Run the infer, insertion and typecheck steps in this JVM, sharing one javac file manager, rather " +
+            "than forking a JVM for each step.  The launcher must then be run with the boot classpath that " +
+            "scripts/inference-daemon uses.")
+    public static boolean inProcess;
+
+    @Option("Record the time and memory used by each phase of inference and write them, along with slot and " +
+            "constraint counts, to a JSON file next to the jaif (e.g. default.profile.json)")
+    public static boolean profile;
+
     //------------------------------------------------------
     @OptionGroup("Compiler Arguments (for typecheck/infer)")
 
@@ -71,6 +86,94 @@ public class InferenceOptions {
     @Option("Args to pass to solver")
     public static String solverArgs;
 
+    @Option("[N] Generate constraints with N javac instances running in parallel in separate processes, each " +
+            "visiting a group of the source files.  All source files must be in directories matching their package.")
+    public static int workers = 1;
+
+    @Option("[N] The number of variable ids reserved for each of the parallel workers")
+    public static int workerSlotIdRange = 1 << 24;
+
+    @Option("[N] Used by parallel workers: the index of the group of source files this worker generates the " +
+            "constraints of")
+    public static int workerIndex = 0;
+
+    @Option("[file] Used by parallel workers: write the worker's slots and constraints to this file rather than " +
+            "solving them")
+    public static String workerState;
+
+    @Option("[N] Generate constraints by compiling the source files in batches of at most N files, ordered so " +
+            "that packages are compiled before the packages that import them.  Slots and constraints are kept " +
+            "across batches while the trees of finished batches can be collected.  All source files must be " +
+            "in directories matching their package.")
+    public static int batchSize = 0;
+
+    @Option("[dir] Cache the constraints generated for each source file in this directory and, on later runs, " +
+            "only generate constraints for the files that changed and the files that depend on them")
+    public static String constraintCacheDir;
+
+    @Option("[dir] Rather than keeping all generated constraints in memory, append them to a log file in this " +
+            "directory as they are generated and stream them from the log when normalizing")
+    public static String constraintSpillDir;
+
+    @Option("[N] The number of recently generated constraints kept in memory to drop duplicates before they " +
+            "are appended to the constraint log (see constraintSpillDir)")
+    public static int constraintSpillFilterSize = 1 << 16;
+
+    @Option("Use the thread-safe ConcurrentSlotManager and ConcurrentConstraintManager so that slots and " +
+            "constraints can be created by several threads at once")
+    public static boolean concurrentManagers;
+
+    @Option("Keep binary constraints in primitive arrays rather than as one object each, see " +
+            "CompactConstraintManager")
+    public static boolean compactConstraints;
+
+    @Option("[N] Normalize the constraints with N threads, each normalizing chunks of the constraints.  The " +
+            "normalized constraints are the same as with one thread")
+    public static int normalizationThreads = 1;
+
+    @Option("[N] Expand a constraint between ExistentialVariables to one constraint per pair of their potential " +
+            "slots only if there are at most N pairs.  Larger ones are kept on the ExistentialVariables, which " +
+            "are each tied to their potential slots once.  The default N is 16")
+    public static int existentialExpansionLimit = ConstraintNormalizer.DEFAULT_EXISTENTIAL_EXPANSION_LIMIT;
+
+    @Option("Before solving, merge the variables that must be equal and solve for one of each group of equal " +
+            "variables, see EqualityCollapser.  The other variables get the solution of their group")
+    public static boolean collapseEqualities;
+
+    @Option("Once constraints are generated, normalize, solve and write the jaif in a new process that reads the " +
+            "slots and constraints into a javac instance without sources, so the memory of the checker, type " +
+            "factories, compilation units and javac instance is released.  If a constant cannot be written by " +
+            "name, they are released and the slots and constraints reloaded in this process instead")
+    public static boolean leanSolve;
+
+    @Option("[file] Used by leanSolve: normalize and solve the slots and constraints in this file, written by " +
+            "the process that generated them, rather than generating them")
+    public static String solveInput;
+
+    @Option("[N] Split the source files by package into N shards that are inferred in separate processes. " +
+            "Each shard summarizes the constraints on its declarations, the summaries are solved together and " +
+            "each shard is then solved with the linked solutions of its declarations")
+    public static int shards = 1;
+
+    @Option("[dir] The directory in which shard summaries, linked solutions and jaifs are written (see shards)")
+    public static String shardDir;
+
+    @Option("[file] Used by sharded inference: generate and normalize constraints, then write the shard's " +
+            "summary to this file rather than solving")
+    public static String shardSummary;
+
+    @Option("[files] Used by sharded inference: solve the shard summaries in this path-separated list of files " +
+            "together and write the linked solutions to shardLinkFile")
+    public static String shardSummaries;
+
+    @Option("[file] Used by sharded inference: the linked solutions of the shards' declarations")
+    public static String shardLinkFile;
+
+    @Option("[file] Used by sharded inference: with shardSummary, also write the shard's slots and constraints " +
+            "to this file; otherwise solve the slots and constraints in this file, if it exists, rather than " +
+            "generating them")
+    public static String shardState;
+
     @Option("The JSON file to which constraints should be dumped.  This field is mutually exclusive with solver.")
     public static String jsonFile;
 
@@ -88,6 +191,9 @@ public class InferenceOptions {
     public static String [] javacOptions;
     public static String [] javaFiles;
 
+    // The arguments init was called with, which parallel workers are started with
+    public static String [] commandLine = new String[0];
+
     public static File pathToThisJar = new File(findPathTo(InferenceOptions.class, false));
     public static File checkersInferenceDir = pathToThisJar.getParentFile().getParentFile();
     public static File distDir = new File(checkersInferenceDir, "dist");
@@ -98,6 +204,7 @@ public class InferenceOptions {
 
         Options options = new Options("inference [options]", InferenceOptions.class);
         String [] otherArgs = options.parse_or_usage(args);
+        commandLine = args;
         int startOfJavaFilesIndex = -1;
         for (int i = 0; i < otherArgs.length; i++) {
             if (isJavaFile(otherArgs[i])) {
@@ -131,6 +238,51 @@ public class InferenceOptions {
             errors.add("You must specify exactly one checker using --checker!");
         }
 
+        if (workers < 1 || workerSlotIdRange < 1 || (long) workers * workerSlotIdRange >= Integer.MAX_VALUE) {
+            errors.add("--workers and --workerSlotIdRange must be positive and workers * workerSlotIdRange " +
+                       "must be less than " + Integer.MAX_VALUE);
+        }
+
+        if (workers > 1 && constraintCacheDir != null) {
+            errors.add("--workers cannot be used with --constraintCacheDir");
+        }
+
+        if (workerIndex < 0 || (workers > 1 && workerIndex >= workers)) {
+            errors.add("--workerIndex must be less than --workers");
+        }
+
+        if (batchSize < 0) {
+            errors.add("--batchSize must not be negative");
+        } else if (batchSize > 0 && (workers > 1 || constraintCacheDir != null)) {
+            errors.add("--batchSize cannot be used with --workers or --constraintCacheDir");
+        }
+
+        if (constraintSpillFilterSize < 0) {
+            errors.add("--constraintSpillFilterSize must not be negative");
+        }
+
+        if (concurrentManagers && constraintSpillDir != null) {
+            errors.add("--concurrentManagers cannot be used with --constraintSpillDir");
+        }
+
+        if (compactConstraints && (concurrentManagers || constraintSpillDir != null)) {
+            errors.add("--compactConstraints cannot be used with --concurrentManagers or --constraintSpillDir");
+        }
+
+        if (normalizationThreads < 1) {
+            errors.add("--normalizationThreads must be positive");
+        }
+
+        if (existentialExpansionLimit < 1) {
+            errors.add("--existentialExpansionLimit must be positive");
+        }
+
+        if (shards < 1) {
+            errors.add("--shards must be positive");
+        } else if (shards > 1 && (inProcess || daemonPort != null)) {
+            errors.add("--shards cannot be used with --inProcess or --daemonPort");
+        }
+
         if (mode == null) {
             if (requireMode) {
                 errors.add("You must specify a mode of operation using -m or --mode");
@@ -144,9 +296,9 @@ public class InferenceOptions {
                 modeEnum = Mode.valueOf(InferenceOptions.mode);
 
             } catch (IllegalArgumentException iexc) {
-                System.out.println("Could not recognize mode: " + InferenceOptions.mode + "\n"
-                        + "valid modes: " + PluginUtil.join(", ", Mode.values()));
-                System.exit(1);
+                errors.add("Could not recognize mode: " + InferenceOptions.mode + "\n"
+                         + "valid modes: " + PluginUtil.join(", ", Mode.values()));
+                return new InitStatus(options, errors, help);
             }
 
             if (modeEnum != Mode.TYPECHECK) {
@@ -323,6 +475,41 @@ public class InferenceOptions {
         }
     }
 
+    /**
+     * Restore all options to the values they had when this class was loaded.  Options are static,
+     * so processes that parse more than one set of arguments (see InferenceDaemon) must reset them
+     * first or values from a previous job (e.g. a solver set by --typesystem) would leak into the next.
+     */
+    public static void reset() {
+        for (Map.Entry<Field, Object> entry : optionDefaults.entrySet()) {
+            try {
+                entry.getKey().set(null, entry.getValue());
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Could not reset option " + entry.getKey().getName(), e);
+            }
+        }
+
+        javacOptions = null;
+        javaFiles = null;
+    }
+
+    private static Map<Field, Object> recordOptionDefaults() {
+        Map<Field, Object> defaults = new LinkedHashMap<>();
+        for (Field field : InferenceOptions.class.getDeclaredFields()) {
+            if (field.isAnnotationPresent(Option.class) && Modifier.isStatic(field.getModifiers())) {
+                try {
+                    defaults.put(field, field.get(null));
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException("Could not record default of option " + field.getName(), e);
+                }
+            }
+        }
+        return defaults;
+    }
+
+    // Must follow the declarations of all options so that it records their initialized values
+    private static final Map<Field, Object> optionDefaults = recordOptionDefaults();
+
     private static boolean isJavaFile(String arg) {
         return arg.endsWith(".java") && new File(arg).exists();
     }
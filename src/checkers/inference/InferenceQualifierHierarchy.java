@@ -23,7 +23,6 @@ import javax.lang.model.element.AnnotationMirror;
 
 import checkers.inference.model.CombVariableSlot;
 import checkers.inference.model.Slot;
-import checkers.inference.model.SubtypeConstraint;
 import checkers.inference.util.InferenceUtil;
 
 /**
@@ -254,7 +253,7 @@ public class InferenceQualifierHierarchy extends MultiGraphQualifierHierarchy {
 
         final Slot subSlot   = slotMgr.getSlot(subtype);
         final Slot superSlot = slotMgr.getSlot(supertype);
-        constraintMgr.add(new SubtypeConstraint(subSlot, superSlot));
+        constraintMgr.addSubtypeConstraint(subSlot, superSlot);
 
         return true;
     }
@@ -289,8 +288,8 @@ public class InferenceQualifierHierarchy extends MultiGraphQualifierHierarchy {
             final CombVariableSlot combVariableSlot = new CombVariableSlot(null, slotMgr.nextId(), slot1, slot2);
             slotMgr.addVariable(combVariableSlot);
 
-            constraintMgr.add(new SubtypeConstraint(slot1, combVariableSlot));
-            constraintMgr.add(new SubtypeConstraint(slot2, combVariableSlot));
+            constraintMgr.addSubtypeConstraint(slot1, combVariableSlot);
+            constraintMgr.addSubtypeConstraint(slot2, combVariableSlot);
 
             return slotMgr.getAnnotation(combVariableSlot);
         } else {
@@ -12,6 +12,12 @@ import checkers.inference.model.Slot;
 
 public interface InferenceSolver {
 
+    /**
+     * The solver arg with the number of milliseconds a solver may run.  Solvers that support it return null
+     * if they find no solution in time.
+     */
+    String TIMEOUT_KEY = "timeout";
+
     /**
      * Solve the constraints and return a mapping of slot id to an resulting
      * AnnotationMirror.
@@ -8,7 +8,6 @@ import javax.lang.model.type.TypeKind;
 import org.checkerframework.common.basetype.BaseTypeChecker;
 import org.checkerframework.framework.type.*;
 
-import checkers.inference.model.EqualityConstraint;
 import checkers.inference.model.Slot;
 import org.checkerframework.javacutil.ErrorReporter;
 
@@ -81,7 +80,7 @@ class InferenceEqualityComparer extends StructuralEqualityComparer {
         if (!inferenceMain.isPerformingFlow()) {
             final Slot leftSlot  = inferenceMain.getSlotManager().getSlot( varAnnot1 );
             final Slot rightSlot = inferenceMain.getSlotManager().getSlot( varAnnot2 );
-            inferenceMain.getConstraintManager().add(new EqualityConstraint(leftSlot, rightSlot));
+            inferenceMain.getConstraintManager().addEqualityConstraint(leftSlot, rightSlot);
         }
 
         return true;
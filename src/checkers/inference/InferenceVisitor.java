@@ -40,14 +40,9 @@ import javax.lang.model.element.AnnotationMirror;
 import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
 
-import checkers.inference.model.ComparableConstraint;
 import checkers.inference.model.ConstantSlot;
-import checkers.inference.model.Constraint;
-import checkers.inference.model.EqualityConstraint;
-import checkers.inference.model.InequalityConstraint;
 import checkers.inference.model.RefinementVariableSlot;
 import checkers.inference.model.Slot;
-import checkers.inference.model.SubtypeConstraint;
 
 import com.sun.source.tree.AssignmentTree;
 import com.sun.source.tree.ExpressionTree;
@@ -83,8 +78,13 @@ public class InferenceVisitor<Checker extends InferenceChecker,
     }
 
     /* Solely sugar */
-    protected void addConstraint(final Constraint constraint) {
-        InferenceMain.getInstance().getConstraintManager().add(constraint);
+    protected ConstraintManager getConstraintManager() {
+        return InferenceMain.getInstance().getConstraintManager();
+    }
+
+    /* The shared ConstantSlot for a qualifier, see ConstantSlotPool */
+    protected ConstantSlot getConstantSlot(final AnnotationMirror qualifier) {
+        return InferenceMain.getInstance().getSlotManager().getConstantSlotPool().intern(qualifier);
     }
 
     @SuppressWarnings("unchecked")
@@ -147,7 +147,7 @@ public class InferenceVisitor<Checker extends InferenceChecker,
 
             for (AnnotationMirror mod : mods) {
                 // TODO: are Constants compared correctly???
-                addConstraint(new InequalityConstraint(el, new ConstantSlot(mod)));
+                getConstraintManager().addInequalityConstraint(el, getConstantSlot(mod));
             }
         }
 
@@ -207,7 +207,7 @@ public class InferenceVisitor<Checker extends InferenceChecker,
             } else {
                 if (!InferenceMain.getInstance().isPerformingFlow()) {
                     logger.fine("InferenceVisitor::mainIs: Subtype constraint constructor invocation(s).");
-                    addConstraint(new SubtypeConstraint(el, new ConstantSlot(mod)));
+                    getConstraintManager().addSubtypeConstraint(el, getConstantSlot(mod));
                 }
             }
         } else {
@@ -233,7 +233,7 @@ public class InferenceVisitor<Checker extends InferenceChecker,
                     logger.fine("InferenceVisitor::mainIsNoneOf: Inequality constraint constructor invocation(s).");
 
                     for (AnnotationMirror mod : mods) {
-                        addConstraint(new InequalityConstraint(el, new ConstantSlot(mod)));
+                        getConstraintManager().addInequalityConstraint(el, getConstantSlot(mod));
                     }
                 }
             }
@@ -256,7 +256,7 @@ public class InferenceVisitor<Checker extends InferenceChecker,
             } else {
                 if (!InferenceMain.getInstance().isPerformingFlow()) {
                     logger.fine("InferenceVisitor::mainIs: Equality constraint constructor invocation(s).");
-                    addConstraint(new EqualityConstraint(el, new ConstantSlot(target)));
+                    getConstraintManager().addEqualityConstraint(el, getConstantSlot(target));
                 }
             }
         } else {
@@ -284,7 +284,7 @@ public class InferenceVisitor<Checker extends InferenceChecker,
                     logger.fine("InferenceVisitor::mainIsNoneOf: Inequality constraint constructor invocation(s).");
 
                     for (AnnotationMirror mod : targets) {
-                        addConstraint(new InequalityConstraint(el, new ConstantSlot(mod)));
+                        getConstraintManager().addInequalityConstraint(el, getConstantSlot(mod));
                     }
                 }
             }
@@ -310,7 +310,7 @@ public class InferenceVisitor<Checker extends InferenceChecker,
             } else {
                 if (!InferenceMain.getInstance().isPerformingFlow()) {
                     logger.fine("InferenceVisitor::areComparable: Comparable constraint constructor invocation.");
-                    addConstraint(new ComparableConstraint(el1, el2));
+                    getConstraintManager().addComparableConstraint(el1, el2);
                 }
             }
         } else {
@@ -332,7 +332,7 @@ public class InferenceVisitor<Checker extends InferenceChecker,
             } else {
                 if (!InferenceMain.getInstance().isPerformingFlow()) {
                     logger.fine("InferenceVisitor::areEqual: Equality constraint constructor invocation.");
-                    addConstraint(new EqualityConstraint(el1, el2));
+                    getConstraintManager().addEqualityConstraint(el1, el2);
                 }
             }
         } else {
@@ -572,10 +572,10 @@ public class InferenceVisitor<Checker extends InferenceChecker,
         logger.fine("InferenceVisitor::commonAssignmentCheck: Equality constraint for qualifiers sub: " + sub + " sup: " + sup);
 
         // Equality between the refvar and the value
-        constraintManager.add(new EqualityConstraint(sup, sub));
+        constraintManager.addEqualityConstraint(sup, sub);
 
         // Refinement variable still needs to be a subtype of its declared type value
-        constraintManager.add(new SubtypeConstraint(sup, ((RefinementVariableSlot) sup).getRefined()));
+        constraintManager.addSubtypeConstraint(sup, ((RefinementVariableSlot) sup).getRefined());
     }
 
     public boolean maybeAddRefinementVariableConstraints(final AnnotatedTypeMirror varType, final AnnotatedTypeMirror valueType) {
@@ -620,8 +620,8 @@ public class InferenceVisitor<Checker extends InferenceChecker,
                     }
                     addRefinementVariableConstraints(varUpperBoundAtm, valUpperBoundAtm, slotManager, constraintManager);
 
-                    constraintManager.add(new EqualityConstraint(lowerBoundSlot, slotManager.getVariableSlot(valLowerBoundAtm)));
-                    constraintManager.add(new SubtypeConstraint(lowerBoundSlot, upperBoundSlot));
+                    constraintManager.addEqualityConstraint(lowerBoundSlot, slotManager.getVariableSlot(valLowerBoundAtm));
+                    constraintManager.addSubtypeConstraint(lowerBoundSlot, upperBoundSlot);
 
                     inferenceRefinementVariable = true;
                 }
@@ -654,10 +654,10 @@ public class InferenceVisitor<Checker extends InferenceChecker,
                     logger.fine("InferenceVisitor::commonAssignmentCheck: Equality constraint for qualifiers sub: " + sub + " sup: " + sup);
 
                     // Equality between the refvar and the value
-                    constraintManager.add(new EqualityConstraint(sup, sub));
+                    constraintManager.addEqualityConstraint(sup, sub);
 
                     // Refinement variable still needs to be a subtype of its declared type value
-                    constraintManager.add(new SubtypeConstraint(sup, ((RefinementVariableSlot) sup).getRefined()));
+                    constraintManager.addSubtypeConstraint(sup, ((RefinementVariableSlot) sup).getRefined());
                 }
             }
         }
@@ -699,39 +699,31 @@ public class InferenceVisitor<Checker extends InferenceChecker,
                 switch (throwType.getKind()) {
                     case NULL:
                     case DECLARED:
-                        constraintManager.add(
-                            new SubtypeConstraint(slotManager.getVariableSlot(throwType),
-                                                  slotManager.getSlot(throwBound))
-                        );
+                        constraintManager.addSubtypeConstraint(slotManager.getVariableSlot(throwType),
+                                                               slotManager.getSlot(throwBound));
                         break;
                     case TYPEVAR:
                     case WILDCARD:
                         AnnotationMirror foundEffective =
                             findEffectiveAnnotationInHierarchy(atypeFactory.getQualifierHierarchy(),
                                     throwType, varAnnot);
-                        constraintManager.add(
-                            new SubtypeConstraint(slotManager.getSlot(foundEffective),
-                                                  slotManager.getSlot(throwBound))
-                        );
+                        constraintManager.addSubtypeConstraint(slotManager.getSlot(foundEffective),
+                                                               slotManager.getSlot(throwBound));
                         break;
 
                     case UNION:
                         AnnotatedUnionType unionType = (AnnotatedUnionType) throwType;
                         AnnotationMirror primary = unionType.getAnnotationInHierarchy(varAnnot);
                         if (primary != null) {
-                            constraintManager.add(
-                                    new SubtypeConstraint(slotManager.getSlot(primary),
-                                            slotManager.getSlot(throwBound))
-                            );
+                            constraintManager.addSubtypeConstraint(slotManager.getSlot(primary),
+                                                                   slotManager.getSlot(throwBound));
                         }
 
                         for (AnnotatedTypeMirror altern : unionType.getAlternatives()) {
                             AnnotationMirror alternAnno = altern.getAnnotationInHierarchy(varAnnot);
                             if (alternAnno != null) {
-                                constraintManager.add(
-                                    new SubtypeConstraint(slotManager.getSlot(alternAnno),
-                                                          slotManager.getSlot(throwBound))
-                                );
+                                constraintManager.addSubtypeConstraint(slotManager.getSlot(alternAnno),
+                                                                       slotManager.getSlot(throwBound));
                             }
                         }
                         break;
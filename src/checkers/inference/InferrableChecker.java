@@ -68,4 +68,12 @@ public interface InferrableChecker {
      */
     boolean isConstant(Tree node);
 
+    /**
+     * Create the type system's stages of constraint normalization, which are run in order after the
+     * built-in stages (see ConstraintNormalizer).
+     *
+     * @return the stages, or an empty list if the type system has none
+     */
+    List<Normalizer> createNormalizers();
+
 }
\ No newline at end of file
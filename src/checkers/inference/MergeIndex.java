@@ -0,0 +1,131 @@
+package checkers.inference;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import checkers.inference.model.CombVariableSlot;
+import checkers.inference.model.VariableSlot;
+
+/**
+ * Answers VariableSlot.isMergedTo queries in logarithmic time.  For each merge variable (the CombVariableSlots
+ * created when dataflow joins two values) the index keeps the ids of the slots that are merged to it directly
+ * or through a chain of other merge variables.  The sets are updated when a merge is added, so there is nothing
+ * to invalidate; adding a merge costs time proportional to the number of merge variables the new merge
+ * variable is itself merged to, which is none when it was just created.
+ *
+ * The sets are sorted arrays of slot ids, so each takes space proportional to the number of slots merged to
+ * its merge variable.  Dataflow only joins the values of one method, so the sets stay small however many
+ * slots the program has.  A set that gains no ids when a merge is added is not copied.
+ *
+ * Merges must be added through addMerge rather than to VariableSlot.getMergedToSlots for the index to see
+ * them.
+ */
+public class MergeIndex {
+
+    private static final int [] NONE = new int[0];
+
+    // The sorted ids of the slots merged to each merge variable, by the id of the merge variable
+    private final Map<Integer, int[]> mergedSlots = new HashMap<>();
+
+    /**
+     * Record that merged has been merged to mergeVar, i.e. that mergeVar is one of merged's mergedToSlots.
+     */
+    public synchronized void addMerge(VariableSlot merged, CombVariableSlot mergeVar) {
+        if (!merged.getMergedToSlots().add(mergeVar)) {
+            return;
+        }
+
+        final int [] added = union(getMergedSlots(merged.getId()), new int [] { merged.getId() });
+
+        // Everything merged to merged is now also merged to mergeVar and to every merge variable it is merged to
+        final Set<Integer> visited = new HashSet<>();
+        final Deque<VariableSlot> worklist = new ArrayDeque<>();
+        worklist.push(mergeVar);
+        while (!worklist.isEmpty()) {
+            final VariableSlot mergeTarget = worklist.pop();
+            if (!visited.add(mergeTarget.getId())) {
+                continue;
+            }
+
+            final int [] targetMerged = getMergedSlots(mergeTarget.getId());
+            final int [] updated = union(targetMerged, added);
+            if (updated != targetMerged) {
+                mergedSlots.put(mergeTarget.getId(), updated);
+            }
+
+            for (CombVariableSlot next : mergeTarget.getMergedToSlots()) {
+                worklist.push(next);
+            }
+        }
+    }
+
+    /**
+     * @return true if slot has been merged to other, directly or through other merge variables
+     */
+    public synchronized boolean isMergedTo(VariableSlot slot, VariableSlot other) {
+        return Arrays.binarySearch(getMergedSlots(other.getId()), slot.getId()) >= 0;
+    }
+
+    /**
+     * @return the number of slot ids kept for all merge variables
+     */
+    synchronized long getMergedSlotCount() {
+        long count = 0;
+        for (int [] ids : mergedSlots.values()) {
+            count += ids.length;
+        }
+        return count;
+    }
+
+    private int [] getMergedSlots(int mergeVarId) {
+        final int [] ids = mergedSlots.get(mergeVarId);
+        return ids != null ? ids : NONE;
+    }
+
+    /**
+     * @return the sorted union of the sorted arrays first and second, first itself if second adds nothing
+     */
+    private static int [] union(int [] first, int [] second) {
+        if (containsAll(first, second)) {
+            return first;
+        }
+
+        final int [] result = new int[first.length + second.length];
+        int i = 0, j = 0, length = 0;
+        while (i < first.length && j < second.length) {
+            if (first[i] < second[j]) {
+                result[length++] = first[i++];
+            } else if (first[i] > second[j]) {
+                result[length++] = second[j++];
+            } else {
+                result[length++] = first[i++];
+                j++;
+            }
+        }
+        while (i < first.length) {
+            result[length++] = first[i++];
+        }
+        while (j < second.length) {
+            result[length++] = second[j++];
+        }
+
+        return Arrays.copyOf(result, length);
+    }
+
+    private static boolean containsAll(int [] sorted, int [] ids) {
+        if (ids.length > sorted.length) {
+            return false;
+        }
+        for (int id : ids) {
+            if (Arrays.binarySearch(sorted, id) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,57 @@
+package checkers.inference;
+
+import checkers.inference.model.Constraint;
+
+/**
+ * A stage of ConstraintNormalizer.  Each constraint flows through the stages in order: a stage is passed one
+ * constraint at a time and passes the constraints that replace it, which is the constraint itself if it needs
+ * no normalization, on to the next stage.  No set of constraints is built between stages.
+ *
+ * A stage may also hold constraints back and pass on constraints built from them in finish, which is called
+ * once every constraint has been passed to the stage.
+ *
+ * Type systems add stages of their own with InferrableChecker.createNormalizers.  A stage is used for one
+ * normalization only.
+ *
+ * When normalizing in parallel (see InferenceOptions.normalizationThreads), the constraints are split into
+ * chunks and each chunk is passed through the stages returned by forChunk on its own thread.  The chunk
+ * stages are then joined into the stages they were created by, in the order of the chunks, before finish is
+ * called.  A stage that does not override forChunk, and every stage after it, is run on one thread.
+ */
+public abstract class Normalizer {
+
+    /**
+     * Where a stage passes the constraints it produces.
+     */
+    public interface Output {
+        void add(Constraint constraint);
+    }
+
+    /**
+     * Normalize constraint, passing the constraints that replace it (if any) to next.
+     */
+    public abstract void normalize(Constraint constraint, Output next);
+
+    /**
+     * Called after every constraint was passed to normalize, before next is finished.  Stages that hold
+     * constraints back pass them on here.
+     */
+    public void finish(Output next) {
+    }
+
+    /**
+     * @return a stage that normalizes one chunk of the constraints, which is later passed to join, or this
+     *         stage if it keeps no state and may be used by several threads at once.  null if the stage
+     *         must see every constraint itself
+     */
+    public Normalizer forChunk() {
+        return null;
+    }
+
+    /**
+     * Add the state of chunk, a stage returned by forChunk, to this stage.  Chunks are joined in the order
+     * of their constraints, so joining every chunk leaves this stage as if it had seen every constraint.
+     */
+    public void join(Normalizer chunk) {
+    }
+}
@@ -0,0 +1,628 @@
+package checkers.inference;
+
+import annotations.io.ASTPath;
+import annotations.io.ASTRecord;
+import checkers.inference.model.AnnotationLocation;
+import checkers.inference.model.AnnotationLocation.AstPathLocation;
+import checkers.inference.model.AnnotationLocation.ClassDeclLocation;
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.ExistentialConstraint;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SubtypeConstraint;
+import checkers.inference.model.VariableSlot;
+import checkers.inference.model.serialization.BinaryDeserializer;
+import checkers.inference.model.serialization.BinarySerializer;
+import checkers.inference.model.serialization.QualifierNameSerializer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import javax.lang.model.util.Elements;
+
+/**
+ * Reads and writes the files exchanged by the stages of sharded inference (see InferenceOptions.shards):
+ *
+ * 1) Each shard generates the constraints of its files and writes a summary: its signature slots (the
+ *    slots of fields, method parameters, receivers and returns, type parameters and class headers) and the
+ *    constraints its other constraints imply between those slots and constants.
+ *
+ * 2) The link stage reads the summaries of all shards, treats slots at the same location as the same slot
+ *    and solves the combined constraints.  It writes the solution of each signature slot as an
+ *    EqualityConstraint between that slot and a constant.
+ *
+ * 3) Each shard adds the linked solutions of its signature slots to its constraints and solves.  The slots
+ *    and constraints it generated in step 1 are read back from its state file (see InferenceOptions.shardState)
+ *    unless it has constants with annotation values, in which case it generates its constraints again.
+ *
+ * A shard creates slots for the declarations of other shards that it uses, so the summaries of the shards
+ * that use a declaration are linked with the summary of the shard that declares it through the slot's location.
+ *
+ * Summaries project the shard's subtype and equality constraints onto its signature slots: a signature slot
+ * or constant is a subtype of every other signature slot or constant it reaches through a chain of subtype
+ * and equality constraints between internal slots.  Every other constraint, including ExistentialConstraints,
+ * is kept as it is and its slots are kept like signature slots, but are not linked with the slots of other
+ * shards.  The projection has the same solutions for the kept slots as the shard's constraints, except that
+ * the subtype constraints the shard implies between two constants are left to the shard to report.  A shard
+ * with constants that have annotation values cannot be written, so it is not summarized.
+ */
+public class ShardSummary {
+
+    private static final Logger logger = Logger.getLogger(ShardSummary.class.getName());
+
+    //================================================================================
+    // Summaries
+    //================================================================================
+
+    /**
+     * Write the summary of one shard.
+     * @param slots all VariableSlots of the shard
+     * @param constraints the shard's normalized constraints
+     * @throws IOException also if a constraint refers to a constant with annotation values, which cannot be
+     *         written, as leaving the constraint out would let the link stage find solutions the shard rejects
+     */
+    public static void writeSummary(File summaryFile, Collection<VariableSlot> slots,
+                                    Collection<Constraint> constraints) throws IOException {
+        final Set<Slot> terminals = new LinkedHashSet<>();
+        final List<VariableSlot> signatureSlots = new ArrayList<>();
+        for (VariableSlot slot : slots) {
+            if (isSignatureSlot(slot)) {
+                terminals.add(slot);
+                signatureSlots.add(slot);
+            }
+        }
+        for (Constraint constraint : constraints) {
+            for (Slot slot : constraint.getSlots()) {
+                if (slot instanceof ConstantSlot) {
+                    if (!isWritableConstant(slot)) {
+                        throw new IOException("Cannot summarize a constraint on a constant with annotation values: "
+                                              + constraint);
+                    }
+                    terminals.add(slot);
+                }
+            }
+        }
+
+        final List<Constraint> summaryConstraints = project(constraints, terminals);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(summaryFile)))) {
+            // The signature slots are written first, the link stage links only them by location
+            out.writeInt(signatureSlots.size());
+            final BinarySerializer serializer = new BinarySerializer(out, new QualifierNameSerializer(null));
+            for (VariableSlot slot : signatureSlots) {
+                serializer.writeSlot(slot);
+            }
+            for (Constraint constraint : summaryConstraints) {
+                serializer.writeConstraint(constraint);
+            }
+            serializer.writeEnd();
+        }
+
+        logger.info(String.format("Wrote shard summary %s: %d signature slots, %d constraints",
+                summaryFile, signatureSlots.size(), summaryConstraints.size()));
+    }
+
+    /**
+     * @return constraints that have the same solutions as constraints for the terminal slots.  Subtype and
+     *         equality constraints are replaced by the subtype constraints between the terminals they imply;
+     *         every other constraint is kept and its variables are kept as terminals
+     */
+    static List<Constraint> project(Collection<Constraint> constraints, Set<Slot> terminals) {
+        final Set<Constraint> projected = new LinkedHashSet<>();
+        final Set<Slot> kept = new LinkedHashSet<>(terminals);
+        for (Constraint constraint : constraints) {
+            if (!(constraint instanceof SubtypeConstraint) && !(constraint instanceof EqualityConstraint)) {
+                projected.add(constraint);
+                for (Slot slot : constraint.getSlots()) {
+                    if (slot != null) {
+                        kept.add(slot);
+                    }
+                }
+            }
+        }
+
+        final SlotGraph graph = new SlotGraph(kept);
+        for (Constraint constraint : constraints) {
+            if (constraint instanceof SubtypeConstraint) {
+                final SubtypeConstraint subtypeConstraint = (SubtypeConstraint) constraint;
+                graph.addEdge(subtypeConstraint.getSubtype(), subtypeConstraint.getSupertype());
+
+            } else if (constraint instanceof EqualityConstraint) {
+                final EqualityConstraint equalityConstraint = (EqualityConstraint) constraint;
+                graph.addEdge(equalityConstraint.getFirst(), equalityConstraint.getSecond());
+                graph.addEdge(equalityConstraint.getSecond(), equalityConstraint.getFirst());
+            }
+        }
+
+        final List<Slot> terminalList = graph.terminals;
+        for (int terminal = 0; terminal < terminalList.size(); terminal++) {
+            final Slot subtype = terminalList.get(terminal);
+            final BitSet supertypes = graph.findReachableTerminals(terminal);
+            for (int supertype = supertypes.nextSetBit(0); supertype >= 0; supertype = supertypes.nextSetBit(supertype + 1)) {
+                if (subtype instanceof VariableSlot || terminalList.get(supertype) instanceof VariableSlot) {
+                    projected.add(new SubtypeConstraint(subtype, terminalList.get(supertype)));
+                }
+            }
+        }
+
+        return new ArrayList<>(projected);
+    }
+
+    /**
+     * The subtype edges between slots.  The terminals each slot reaches without passing through another
+     * terminal are found in one pass over the graph: the internal slots are condensed into their strongly
+     * connected components, which are visited in reverse topological order, so that the terminals reached
+     * from each component are the union of those reached from its successors.  A component's set of
+     * terminals is shared with its successor if it adds none and released once all its predecessors used it.
+     */
+    private static class SlotGraph {
+        // Terminals are nodes 0 .. terminals.size() - 1, internal slots follow
+        private final List<Slot> terminals;
+        private final Map<Slot, Integer> nodes = new HashMap<>();
+        private final List<List<Integer>> edges = new ArrayList<>();
+
+        // Computed by condense
+        private int [] components;
+        private BitSet [] reached;
+        private int [] unvisitedPredecessors;
+
+        private SlotGraph(Set<Slot> terminals) {
+            this.terminals = new ArrayList<>(terminals);
+            for (Slot terminal : terminals) {
+                addNode(terminal);
+            }
+        }
+
+        private int addNode(Slot slot) {
+            Integer node = nodes.get(slot);
+            if (node == null) {
+                node = edges.size();
+                nodes.put(slot, node);
+                edges.add(new ArrayList<Integer>(2));
+            }
+            return node;
+        }
+
+        private boolean isTerminal(int node) {
+            return node < terminals.size();
+        }
+
+        void addEdge(Slot from, Slot to) {
+            // Paths only lead through internal variables
+            if (from == null || to == null || (!nodes.containsKey(to) && !(to instanceof VariableSlot))) {
+                return;
+            }
+            edges.get(addNode(from)).add(addNode(to));
+        }
+
+        /**
+         * @return the indices of the terminals other than terminal that it reaches without passing through
+         *         another terminal
+         */
+        BitSet findReachableTerminals(int terminal) {
+            if (components == null) {
+                condense();
+            }
+
+            final BitSet result = new BitSet(terminals.size());
+            for (int target : edges.get(terminal)) {
+                if (isTerminal(target)) {
+                    result.set(target);
+                } else {
+                    result.or(reached[components[target]]);
+                    release(components[target]);
+                }
+            }
+            result.clear(terminal);
+            return result;
+        }
+
+        private void release(int component) {
+            if (--unvisitedPredecessors[component] == 0) {
+                reached[component] = null;
+            }
+        }
+
+        /**
+         * Find the strongly connected components of the internal nodes with Tarjan's algorithm, without
+         * recursion, and the terminals each component reaches.
+         */
+        private void condense() {
+            final int nodeCount = edges.size();
+            components = new int[nodeCount];
+            Arrays.fill(components, -1);
+            final int [] index = new int[nodeCount];
+            Arrays.fill(index, -1);
+            final int [] lowLink = new int[nodeCount];
+            final int [] edgeCursor = new int[nodeCount];
+            final Deque<Integer> stack = new ArrayDeque<>();
+            final Deque<Integer> callStack = new ArrayDeque<>();
+            final List<BitSet> componentReached = new ArrayList<>();
+            final List<Integer> componentPredecessors = new ArrayList<>();
+            int nextIndex = 0;
+
+            final int [] inDegree = new int[nodeCount];
+            for (List<Integer> targets : edges) {
+                for (int target : targets) {
+                    ++inDegree[target];
+                }
+            }
+
+            for (int root = terminals.size(); root < nodeCount; root++) {
+                if (index[root] != -1) {
+                    continue;
+                }
+
+                index[root] = lowLink[root] = nextIndex++;
+                stack.push(root);
+                callStack.push(root);
+                while (!callStack.isEmpty()) {
+                    final int node = callStack.peek();
+                    final List<Integer> targets = edges.get(node);
+                    if (edgeCursor[node] < targets.size()) {
+                        final int target = targets.get(edgeCursor[node]++);
+                        if (isTerminal(target)) {
+                            continue;
+                        }
+                        if (index[target] == -1) {
+                            index[target] = lowLink[target] = nextIndex++;
+                            stack.push(target);
+                            callStack.push(target);
+                        } else if (components[target] == -1) {
+                            // On the stack, as it has no component yet
+                            lowLink[node] = Math.min(lowLink[node], index[target]);
+                        }
+                        continue;
+                    }
+
+                    callStack.pop();
+                    if (!callStack.isEmpty()) {
+                        final int parent = callStack.peek();
+                        lowLink[parent] = Math.min(lowLink[parent], lowLink[node]);
+                    }
+
+                    if (lowLink[node] == index[node]) {
+                        // node is the root of a component, all of whose successors already have their component
+                        final int component = componentReached.size();
+                        final List<Integer> members = new ArrayList<>();
+                        int member;
+                        do {
+                            member = stack.pop();
+                            components[member] = component;
+                            members.add(member);
+                        } while (member != node);
+
+                        // Its predecessors are the edges into its members from outside of it
+                        int predecessors = 0;
+                        for (int componentMember : members) {
+                            predecessors += inDegree[componentMember];
+                        }
+                        for (int componentMember : members) {
+                            for (int target : edges.get(componentMember)) {
+                                if (components[target] == component) {
+                                    --predecessors;
+                                }
+                            }
+                        }
+
+                        componentReached.add(reachedFrom(members, component, componentReached, componentPredecessors));
+                        componentPredecessors.add(predecessors);
+                        if (predecessors == 0) {
+                            componentReached.set(component, null);
+                        }
+                    }
+                }
+            }
+
+            reached = componentReached.toArray(new BitSet[componentReached.size()]);
+            unvisitedPredecessors = new int[componentPredecessors.size()];
+            for (int component = 0; component < unvisitedPredecessors.length; component++) {
+                unvisitedPredecessors[component] = componentPredecessors.get(component);
+            }
+        }
+
+        /**
+         * @return the terminals reached from the members of component, which may be the set of a successor.
+         *         The sets of the successors that have no other unvisited predecessors are released
+         */
+        private BitSet reachedFrom(List<Integer> members, int component, List<BitSet> componentReached,
+                                   List<Integer> componentPredecessors) {
+            BitSet result = null;
+            boolean shared = false;
+            for (int member : members) {
+                for (int target : edges.get(member)) {
+                    if (isTerminal(target)) {
+                        if (result == null || shared) {
+                            result = result == null ? new BitSet(terminals.size()) : (BitSet) result.clone();
+                            shared = false;
+                        }
+                        result.set(target);
+
+                    } else if (components[target] != component) {
+                        final int successorComponent = components[target];
+                        final BitSet successor = componentReached.get(successorComponent);
+                        if (result == null) {
+                            result = successor;
+                            shared = true;
+                        } else if (result != successor) {
+                            if (shared) {
+                                result = (BitSet) result.clone();
+                                shared = false;
+                            }
+                            result.or(successor);
+                        }
+
+                        final int predecessors = componentPredecessors.get(successorComponent) - 1;
+                        componentPredecessors.set(successorComponent, predecessors);
+                        if (predecessors == 0) {
+                            componentReached.set(successorComponent, null);
+                        }
+                    }
+                }
+            }
+            return result != null ? result : new BitSet(0);
+        }
+    }
+
+    //================================================================================
+    // Linking
+    //================================================================================
+
+    /**
+     * Read the summaries of all shards into slotManager and constraintManager.  Signature slots at the same
+     * location in different summaries are read as one slot with a new id, every other slot of a summary is
+     * read as a slot of its own with a new id.
+     * @return the signature slots read, one per location
+     */
+    public static List<VariableSlot> readSummaries(List<File> summaryFiles, Elements elements,
+                                                   SlotManager slotManager, ConstraintManager constraintManager)
+            throws IOException {
+        final Map<String, VariableSlot> locationSlots = new LinkedHashMap<>();
+        for (File summaryFile : summaryFiles) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(summaryFile)))) {
+                final int signatureSlotCount = in.readInt();
+                final LinkingDeserializer deserializer =
+                        new LinkingDeserializer(in, elements, slotManager, locationSlots);
+                for (int i = 0; i < signatureSlotCount; i++) {
+                    deserializer.readRecord();
+                }
+
+                deserializer.linkByLocation = false;
+                Object record;
+                while ((record = deserializer.readRecord()) != null) {
+                    constraintManager.add((Constraint) record);
+                }
+            }
+        }
+
+        return new ArrayList<>(locationSlots.values());
+    }
+
+    /**
+     * Write the solution of each signature slot.
+     */
+    public static void writeLinkedValues(File linkFile, List<VariableSlot> signatureSlots,
+                                         InferenceSolution solution) throws IOException {
+        int written = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(linkFile)))) {
+            final BinarySerializer serializer = new BinarySerializer(out, new QualifierNameSerializer(null));
+            for (VariableSlot slot : signatureSlots) {
+                if (solution != null && solution.getAnnotation(slot.getId()) != null) {
+                    serializer.writeConstraint(
+                            new EqualityConstraint(slot, new ConstantSlot(solution.getAnnotation(slot.getId()))));
+                    ++written;
+                }
+            }
+            serializer.writeEnd();
+        }
+
+        logger.info(String.format("Linked %d signature slots, %d have solutions", signatureSlots.size(), written));
+    }
+
+    /**
+     * Make each of the shard's slots at the location of a signature slot equal to its linked solution.  The
+     * slots need not be insertable, so that this also applies to a shard state, whose slots of other shards'
+     * declarations are no longer insertable.
+     * @param slots all VariableSlots of the shard
+     */
+    public static void applyLinkedValues(File linkFile, Elements elements, Collection<VariableSlot> slots,
+                                         ConstraintManager constraintManager) throws IOException {
+        final Map<String, List<VariableSlot>> locationSlots = new HashMap<>();
+        for (VariableSlot slot : slots) {
+            final String key = slot.getClass().equals(VariableSlot.class)
+                             ? ConstraintCache.getLocationKey(slot.getLocation())
+                             : null;
+            if (key != null) {
+                List<VariableSlot> keySlots = locationSlots.get(key);
+                if (keySlots == null) {
+                    keySlots = new ArrayList<>(1);
+                    locationSlots.put(key, keySlots);
+                }
+                keySlots.add(slot);
+            }
+        }
+
+        final List<Slot> linkedSlots = new ArrayList<>();
+        final List<Constraint> linkedValues = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(linkFile)))) {
+            new BinaryDeserializer(in, new QualifierNameSerializer(elements)).readAll(linkedSlots, linkedValues);
+        }
+
+        for (Constraint linkedValue : linkedValues) {
+            final EqualityConstraint equality = (EqualityConstraint) linkedValue;
+            final List<VariableSlot> shardSlots =
+                    locationSlots.get(ConstraintCache.getLocationKey(equality.getFirst().getLocation()));
+            if (shardSlots != null) {
+                for (VariableSlot shardSlot : shardSlots) {
+                    constraintManager.addEqualityConstraint(shardSlot, equality.getSecond());
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps the signature slots of all summaries onto one slot per location and gives the other slots ids of
+     * slotManager.
+     */
+    private static class LinkingDeserializer extends BinaryDeserializer {
+        private final SlotManager slotManager;
+        private final Map<String, VariableSlot> locationSlots;
+
+        // True while reading the signature slots at the start of a summary
+        private boolean linkByLocation = true;
+
+        private LinkingDeserializer(DataInputStream in, Elements elements, SlotManager slotManager,
+                                    Map<String, VariableSlot> locationSlots) {
+            super(in, new QualifierNameSerializer(elements));
+            this.slotManager = slotManager;
+            this.locationSlots = locationSlots;
+        }
+
+        @Override
+        protected Slot createConstantSlot(String value, AnnotationLocation location) {
+            return slotManager.getConstantSlotPool().intern((ConstantSlot) super.createConstantSlot(value, location));
+        }
+
+        @Override
+        protected VariableSlot createVariableSlot(int id, boolean insertable, AnnotationLocation location) {
+            if (!linkByLocation) {
+                return add(super.createVariableSlot(slotManager.nextId(), insertable, location));
+            }
+
+            final String key = ConstraintCache.getLocationKey(location);
+            VariableSlot slot = locationSlots.get(key);
+            if (slot == null) {
+                slot = add(super.createVariableSlot(slotManager.nextId(), insertable, location));
+                locationSlots.put(key, slot);
+            }
+            return slot;
+        }
+
+        @Override
+        protected VariableSlot createRefinementVariableSlot(int id, AnnotationLocation location, Slot refined) {
+            return add(super.createRefinementVariableSlot(slotManager.nextId(), location, refined));
+        }
+
+        @Override
+        protected VariableSlot createCombVariableSlot(int id, AnnotationLocation location, Slot first, Slot second) {
+            return add(super.createCombVariableSlot(slotManager.nextId(), location, first, second));
+        }
+
+        @Override
+        protected VariableSlot createExistentialVariableSlot(int id, VariableSlot potential, VariableSlot alternative) {
+            return add(super.createExistentialVariableSlot(slotManager.nextId(), potential, alternative));
+        }
+
+        private VariableSlot add(VariableSlot slot) {
+            slotManager.addVariable(slot);
+            return slot;
+        }
+    }
+
+    //================================================================================
+    // Slots
+    //================================================================================
+
+    /**
+     * @return true if slot is a declaration slot in the signature of a class or member, i.e. a slot
+     *         that other shards may refer to
+     */
+    public static boolean isSignatureSlot(VariableSlot slot) {
+        if (!slot.getClass().equals(VariableSlot.class) || !slot.isInsertable()) {
+            return false;
+        }
+
+        if (slot.getLocation() instanceof ClassDeclLocation) {
+            return true;
+        } else if (!(slot.getLocation() instanceof AstPathLocation)) {
+            return false;
+        }
+
+        final ASTPath astPath = ((AstPathLocation) slot.getLocation()).getAstPath();
+        for (int i = 0; i < astPath.size(); i++) {
+            final String childSelector = astPath.get(i).getChildSelector();
+            if (childSelector.equals("body") || childSelector.equals("initializer")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Make the slots at locations outside of javaFiles not insertable, so that each declaration is only
+     * written to the jaif of the shard that contains it.
+     * @return the number of slots that are no longer insertable
+     */
+    public static int retainInsertionsIn(Collection<String> javaFiles, Collection<VariableSlot> slots) {
+        final Set<String> shardFiles = new HashSet<>();
+        for (String javaFile : javaFiles) {
+            shardFiles.add(new File(javaFile).getAbsolutePath());
+        }
+
+        // Class declaration locations have no compilation unit, they belong to the shard that contains the class
+        final Set<String> shardClasses = new HashSet<>();
+        for (VariableSlot slot : slots) {
+            if (slot.getLocation() instanceof AstPathLocation && isInShard((AstPathLocation) slot.getLocation(), shardFiles)) {
+                shardClasses.add(((AstPathLocation) slot.getLocation()).getAstRecord().className);
+            }
+        }
+
+        int removed = 0;
+        for (VariableSlot slot : slots) {
+            if (!slot.isInsertable()) {
+                continue;
+            }
+
+            final AnnotationLocation location = slot.getLocation();
+            final boolean inShard;
+            if (location instanceof AstPathLocation) {
+                inShard = isInShard((AstPathLocation) location, shardFiles);
+            } else if (location instanceof ClassDeclLocation) {
+                final ClassDeclLocation classDecl = (ClassDeclLocation) location;
+                inShard = shardClasses.contains(classDecl.getClassName())
+                       || shardClasses.contains(classDecl.getPackageName() + "." + classDecl.getClassName());
+            } else {
+                inShard = true;
+            }
+
+            if (!inShard) {
+                slot.setInsertable(false);
+                ++removed;
+            }
+        }
+
+        return removed;
+    }
+
+    private static boolean isInShard(AstPathLocation location, Set<String> shardFiles) {
+        final ASTRecord record = location.getAstRecord();
+        return record.ast == null
+            || shardFiles.contains(new File(record.ast.getSourceFile().toUri()).getAbsolutePath());
+    }
+
+    private static boolean isWritableConstant(Slot slot) {
+        return slot instanceof ConstantSlot
+            && ((ConstantSlot) slot).getValue().getElementValues().isEmpty();
+    }
+}
@@ -0,0 +1,112 @@
+package checkers.inference;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+
+import checkers.inference.model.Constraint;
+import checkers.inference.model.Slot;
+import checkers.inference.model.VariableSlot;
+
+/**
+ * Renumbers the VariableSlots that occur in a set of (normalized) constraints into the dense range
+ * [1, getConstrainedCount()], in increasing order of their slot ids, and maps the dense ids back.  Solvers
+ * and serializers that need one variable per id (e.g. CnfVecIntSerializer) use the dense ids, so slots that
+ * are in no constraint, which are often a large part of all slots, add nothing to the problem.  0 is left
+ * unused because DIMACS CNF uses it to end clauses.
+ *
+ * Solvers may need variables of their own (e.g. for existential constraints), which newVar allocates after
+ * the dense ids of the slots.  Such variables have no original id.
+ */
+public class SlotIdCompactor {
+
+    // compactIds[slotId] is the dense id of slotId or 0 if slotId is in no constraint
+    private final int [] compactIds;
+
+    // originalIds[denseId] is the slot id of denseId, originalIds[0] is unused
+    private final int [] originalIds;
+
+    private int size;
+
+    private SlotIdCompactor(BitSet slotIds) {
+        final int constrained = slotIds.cardinality();
+        compactIds = new int[slotIds.length()];
+        originalIds = new int[constrained + 1];
+
+        int denseId = 0;
+        for (int id = slotIds.nextSetBit(0); id != -1; id = slotIds.nextSetBit(id + 1)) {
+            ++denseId;
+            compactIds[id] = denseId;
+            originalIds[denseId] = id;
+        }
+        size = constrained;
+    }
+
+    /**
+     * @return a compactor for the VariableSlots that occur in constraints
+     */
+    public static SlotIdCompactor of(Iterable<Constraint> constraints) {
+        final BitSet slotIds = new BitSet();
+        for (Constraint constraint : constraints) {
+            addIds(constraint.getSlots(), slotIds);
+        }
+        return new SlotIdCompactor(slotIds);
+    }
+
+    private static void addIds(Collection<Slot> slots, BitSet slotIds) {
+        for (Slot slot : slots) {
+            if (slot instanceof VariableSlot) {
+                slotIds.set(((VariableSlot) slot).getId());
+            }
+        }
+    }
+
+    /**
+     * @return the dense id of slot, which must occur in the constraints this compactor was created for
+     */
+    public int compactId(VariableSlot slot) {
+        final int id = slot.getId();
+        if (id < 0 || id >= compactIds.length || compactIds[id] == 0) {
+            throw new IllegalArgumentException("Slot is not in any of the compacted constraints: " + slot);
+        }
+        return compactIds[id];
+    }
+
+    /**
+     * @return the slot id of denseId or -1 if denseId was allocated by newVar
+     */
+    public int originalId(int denseId) {
+        if (denseId < 1 || denseId > size) {
+            throw new IllegalArgumentException("Unknown dense id: " + denseId);
+        }
+        return denseId < originalIds.length ? originalIds[denseId] : -1;
+    }
+
+    /**
+     * @return a new dense id that is not the id of any slot
+     */
+    public int newVar() {
+        return ++size;
+    }
+
+    /**
+     * @return the number of slots that occur in the constraints
+     */
+    public int getConstrainedCount() {
+        return originalIds.length - 1;
+    }
+
+    /**
+     * @return the number of dense ids, including those allocated by newVar
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the slot ids of the slots that occur in the constraints, in increasing order
+     */
+    public int [] getOriginalIds() {
+        return Arrays.copyOfRange(originalIds, 1, originalIds.length);
+    }
+}
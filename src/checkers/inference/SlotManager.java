@@ -46,6 +46,12 @@ public interface SlotManager {
      */
     Slot getSlot( AnnotationMirror am );
 
+    /**
+     * Return the pool of ConstantSlots used by getSlot.  Code that creates ConstantSlots outside of
+     * getSlot (e.g. deserializers, normalizers, and solvers) can use it to share them.
+     */
+    ConstantSlotPool getConstantSlotPool();
+
     /**
      * Return the VariableSlot in the primary annotation location of annotated type mirror.  If
      * there is no VariableSlot this method throws an exception
@@ -55,13 +61,25 @@ public interface SlotManager {
 
     /**
      * Return all slots collected by this SlotManager
-     * @return a list of slots
+     * @return a new list of slots
      */
     List<Slot> getSlots();
 
     /**
      * Return all VariableSlots collected by this SlotManager
-     * @return a lit of VariableSlots
+     * @return a new list of VariableSlots
      */
     List<VariableSlot> getVariableSlots();
+
+    /**
+     * Return a live, read-only view of the VariableSlots collected by this SlotManager.  Unlike getSlots
+     * and getVariableSlots this does not copy the slots, see SlotView
+     */
+    SlotView getSlotView();
+
+    /**
+     * Return the index of the merges between the VariableSlots of this SlotManager, which answers
+     * isMergedTo queries without walking the merge chains
+     */
+    MergeIndex getMergeIndex();
 }
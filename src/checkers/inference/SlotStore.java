@@ -0,0 +1,251 @@
+package checkers.inference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.lang.model.element.AnnotationMirror;
+
+import checkers.inference.model.CombVariableSlot;
+import checkers.inference.model.ExistentialVariableSlot;
+import checkers.inference.model.RefinementVariableSlot;
+import checkers.inference.model.VariableSlot;
+
+/**
+ * Stores VariableSlots by id.  Ids are dense and increase from the first id of a SlotManager, so slots are
+ * kept in fixed-size pages of an array indexed by id.  Pages are allocated when the first slot in their id
+ * range is added, so the disjoint id ranges of parallel workers (see InferenceOptions.workers) do not
+ * allocate the ids in between.
+ *
+ * Each page records the kind of each of its slots in one bitset per Kind, so the slots of one kind can be
+ * listed or counted without looking at the others.
+ *
+ * Slots are listed in increasing id order, either as copies (getAll) or as a live view (view).
+ *
+ * The store can also keep the AnnotationMirror that represents each id (see DefaultSlotManager.getAnnotation),
+ * in arrays that are only allocated for pages whose annotations are requested.
+ *
+ * SlotStore is not thread-safe, see ConcurrentSlotStore.
+ */
+public class SlotStore {
+
+    public enum Kind {
+        VARIABLE,
+        COMB,
+        REFINEMENT,
+        EXISTENTIAL;
+
+        public static Kind of(VariableSlot slot) {
+            final Class<?> slotClass = slot.getClass();
+            if (slotClass.equals(CombVariableSlot.class)) {
+                return COMB;
+            } else if (slotClass.equals(RefinementVariableSlot.class)) {
+                return REFINEMENT;
+            } else if (slotClass.equals(ExistentialVariableSlot.class)) {
+                return EXISTENTIAL;
+            }
+            return VARIABLE;
+        }
+    }
+
+    static final int PAGE_BITS = 10;
+    static final int PAGE_SIZE = 1 << PAGE_BITS;
+    static final int PAGE_MASK = PAGE_SIZE - 1;
+    static final int WORDS_PER_PAGE = PAGE_SIZE / Long.SIZE;
+    static final Kind [] KINDS = Kind.values();
+
+    private static class Page {
+        final VariableSlot [] slots = new VariableSlot[PAGE_SIZE];
+        final long [][] kindBits = new long[KINDS.length][WORDS_PER_PAGE];
+        AnnotationMirror [] annotations;
+    }
+
+    private Page [] pages = new Page[16];
+    private final int [] kindCounts = new int[KINDS.length];
+    private int size = 0;
+
+    /**
+     * Store slot under its id, replacing any slot with the same id.
+     */
+    public void put(VariableSlot slot) {
+        final int id = slot.getId();
+        if (id < 0) {
+            throw new IllegalArgumentException("Negative slot id: " + slot);
+        }
+
+        final Page page = getOrCreatePage(id);
+        final int offset = id & PAGE_MASK;
+        final VariableSlot previous = page.slots[offset];
+        if (previous != null) {
+            final Kind previousKind = Kind.of(previous);
+            page.kindBits[previousKind.ordinal()][offset >>> 6] &= ~(1L << offset);
+            --kindCounts[previousKind.ordinal()];
+        } else {
+            ++size;
+        }
+
+        final Kind kind = Kind.of(slot);
+        page.slots[offset] = slot;
+        page.kindBits[kind.ordinal()][offset >>> 6] |= 1L << offset;
+        ++kindCounts[kind.ordinal()];
+    }
+
+    private Page getOrCreatePage(int id) {
+        final int pageIndex = id >>> PAGE_BITS;
+        if (pageIndex >= pages.length) {
+            pages = Arrays.copyOf(pages, Math.max(pageIndex + 1, pages.length * 2));
+        }
+
+        Page page = pages[pageIndex];
+        if (page == null) {
+            page = new Page();
+            pages[pageIndex] = page;
+        }
+        return page;
+    }
+
+    /**
+     * @return the annotation stored for id by putAnnotation or null if there is none
+     */
+    public AnnotationMirror getAnnotation(int id) {
+        if (id < 0) {
+            return null;
+        }
+
+        final int pageIndex = id >>> PAGE_BITS;
+        if (pageIndex >= pages.length || pages[pageIndex] == null || pages[pageIndex].annotations == null) {
+            return null;
+        }
+        return pages[pageIndex].annotations[id & PAGE_MASK];
+    }
+
+    public void putAnnotation(int id, AnnotationMirror annotation) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Negative slot id: " + id);
+        }
+
+        final Page page = getOrCreatePage(id);
+        if (page.annotations == null) {
+            page.annotations = new AnnotationMirror[PAGE_SIZE];
+        }
+        page.annotations[id & PAGE_MASK] = annotation;
+    }
+
+    /**
+     * Drop all annotations stored by putAnnotation, e.g. because the javac instance they were built with is
+     * no longer used.
+     */
+    public void clearAnnotations() {
+        for (Page page : pages) {
+            if (page != null) {
+                page.annotations = null;
+            }
+        }
+    }
+
+    /**
+     * @return the slot with the given id or null if there is none
+     */
+    public VariableSlot get(int id) {
+        if (id < 0) {
+            return null;
+        }
+
+        final int pageIndex = id >>> PAGE_BITS;
+        if (pageIndex >= pages.length || pages[pageIndex] == null) {
+            return null;
+        }
+        return pages[pageIndex].slots[id & PAGE_MASK];
+    }
+
+    /**
+     * @return the smallest id at or above fromId that has a slot of the given kind, or of any kind if kind
+     *         is null, or -1 if there is none
+     */
+    int nextOccupiedId(int fromId, Kind kind) {
+        final int from = Math.max(fromId, 0);
+        for (int pageIndex = from >>> PAGE_BITS; pageIndex < pages.length; pageIndex++) {
+            final Page page = pages[pageIndex];
+            if (page == null) {
+                continue;
+            }
+
+            final int start = pageIndex == from >>> PAGE_BITS ? from & PAGE_MASK : 0;
+            for (int word = start >>> 6; word < WORDS_PER_PAGE; word++) {
+                long bits = 0;
+                if (kind != null) {
+                    bits = page.kindBits[kind.ordinal()][word];
+                } else {
+                    for (long [] kindBits : page.kindBits) {
+                        bits |= kindBits[word];
+                    }
+                }
+
+                if (word == start >>> 6) {
+                    bits &= -1L << start;
+                }
+                if (bits != 0) {
+                    return (pageIndex << PAGE_BITS) + (word << 6) + Long.numberOfTrailingZeros(bits);
+                }
+            }
+        }
+        return -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int size(Kind kind) {
+        return kindCounts[kind.ordinal()];
+    }
+
+    /**
+     * @return a live, read-only view of the slots, see SlotView
+     */
+    public SlotView view() {
+        return new SlotView(this);
+    }
+
+    /**
+     * @return a copy of all slots in increasing id order
+     */
+    public List<VariableSlot> getAll() {
+        final List<VariableSlot> result = new ArrayList<>(size);
+        for (Page page : pages) {
+            if (page == null) {
+                continue;
+            }
+
+            for (VariableSlot slot : page.slots) {
+                if (slot != null) {
+                    result.add(slot);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return a copy of the slots of the given kind in increasing id order
+     */
+    public List<VariableSlot> getAll(Kind kind) {
+        final List<VariableSlot> result = new ArrayList<>(kindCounts[kind.ordinal()]);
+        for (Page page : pages) {
+            if (page == null) {
+                continue;
+            }
+
+            final long [] bits = page.kindBits[kind.ordinal()];
+            for (int word = 0; word < WORDS_PER_PAGE; word++) {
+                long remaining = bits[word];
+                while (remaining != 0) {
+                    final int bit = Long.numberOfTrailingZeros(remaining);
+                    result.add(page.slots[(word << 6) + bit]);
+                    remaining &= remaining - 1;
+                }
+            }
+        }
+        return result;
+    }
+}
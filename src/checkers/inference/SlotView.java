@@ -0,0 +1,192 @@
+package checkers.inference;
+
+import java.util.AbstractCollection;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import checkers.inference.model.Slot;
+import checkers.inference.model.VariableSlot;
+
+/**
+ * A live, read-only view of the slots of a SlotStore, optionally restricted to one Kind, to a range of ids
+ * and/or to the ids in a BitSet.  Iterating a view visits the matching slots in increasing id order
+ * directly from the store's pages, so no list of slots is materialized, and slots added to the store
+ * after the view was created are visible through it.
+ *
+ * Solvers are passed the view of all slots (see asSlots), so a solver can test for a SlotView to restrict
+ * it further or to get the ids of its slots as a BitSet (see idsOf) rather than copying the slots.
+ */
+public class SlotView extends AbstractCollection<VariableSlot> {
+
+    private final SlotStore store;
+
+    // null for slots of any kind
+    private final SlotStore.Kind kind;
+
+    // The ids of the slots in this view are in [fromId, toId)
+    private final int fromId;
+    private final int toId;
+
+    // null for any id in range
+    private final BitSet ids;
+
+    SlotView(SlotStore store) {
+        this(store, null, 0, Integer.MAX_VALUE, null);
+    }
+
+    private SlotView(SlotStore store, SlotStore.Kind kind, int fromId, int toId, BitSet ids) {
+        this.store = store;
+        this.kind = kind;
+        this.fromId = fromId;
+        this.toId = toId;
+        this.ids = ids;
+    }
+
+    /**
+     * @return a view of the slots in this view that are of the given kind
+     */
+    public SlotView ofKind(SlotStore.Kind kind) {
+        if (this.kind != null && this.kind != kind) {
+            return new SlotView(store, this.kind, 0, 0, null);
+        }
+        return new SlotView(store, kind, fromId, toId, ids);
+    }
+
+    /**
+     * @return a view of the slots in this view with ids in [fromId, toId)
+     */
+    public SlotView range(int fromId, int toId) {
+        return new SlotView(store, kind, Math.max(this.fromId, fromId), Math.min(this.toId, toId), ids);
+    }
+
+    /**
+     * @return a view of the slots in this view whose ids are set in ids.  ids is copied, so later
+     *         changes to it do not affect the view
+     */
+    public SlotView restrictTo(BitSet ids) {
+        final BitSet restriction = (BitSet) ids.clone();
+        if (this.ids != null) {
+            restriction.and(this.ids);
+        }
+        return new SlotView(store, kind, fromId, toId, restriction);
+    }
+
+    /**
+     * @return the slot in this view with the given id or null if there is none
+     */
+    public VariableSlot get(int id) {
+        if (id < fromId || id >= toId || (ids != null && !ids.get(id))) {
+            return null;
+        }
+
+        final VariableSlot slot = store.get(id);
+        return slot != null && (kind == null || SlotStore.Kind.of(slot) == kind) ? slot : null;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof VariableSlot && get(((VariableSlot) o).getId()) == o;
+    }
+
+    @Override
+    public int size() {
+        if (fromId == 0 && toId == Integer.MAX_VALUE && ids == null) {
+            return kind == null ? store.size() : store.size(kind);
+        }
+
+        int size = 0;
+        for (int id = nextId(fromId); id != -1; id = nextId(id + 1)) {
+            ++size;
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return nextId(fromId) == -1;
+    }
+
+    /**
+     * @return the ids of the slots in this view
+     */
+    public BitSet toBitSet() {
+        final BitSet result = new BitSet();
+        for (int id = nextId(fromId); id != -1; id = nextId(id + 1)) {
+            result.set(id);
+        }
+        return result;
+    }
+
+    /**
+     * @return this view as a collection of Slots for InferenceSolver.solve
+     */
+    @SuppressWarnings("unchecked")
+    public Collection<Slot> asSlots() {
+        // The view is read-only, so it can not be used to add a Slot that is not a VariableSlot
+        return (Collection<Slot>) (Collection<?>) this;
+    }
+
+    /**
+     * @return the ids of the VariableSlots in slots, without iterating the slots if they are a SlotView
+     */
+    public static BitSet idsOf(Collection<? extends Slot> slots) {
+        if (slots instanceof SlotView) {
+            return ((SlotView) slots).toBitSet();
+        }
+
+        final BitSet result = new BitSet();
+        for (Slot slot : slots) {
+            if (slot instanceof VariableSlot) {
+                result.set(((VariableSlot) slot).getId());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the smallest id at or above id of a slot in this view or -1 if there is none
+     */
+    private int nextId(int id) {
+        while (id >= 0 && id < toId) {
+            final int next = ids != null ? ids.nextSetBit(id) : store.nextOccupiedId(id, kind);
+            if (next == -1 || next >= toId) {
+                return -1;
+            }
+            if (get(next) != null) {
+                return next;
+            }
+            id = next + 1;
+        }
+        return -1;
+    }
+
+    @Override
+    public Iterator<VariableSlot> iterator() {
+        return new Iterator<VariableSlot>() {
+            private int next = nextId(fromId);
+
+            @Override
+            public boolean hasNext() {
+                return next != -1;
+            }
+
+            @Override
+            public VariableSlot next() {
+                if (next == -1) {
+                    throw new NoSuchElementException();
+                }
+
+                final VariableSlot slot = store.get(next);
+                next = nextId(next + 1);
+                return slot;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("SlotViews are read-only");
+            }
+        };
+    }
+}
@@ -0,0 +1,269 @@
+package checkers.inference;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import checkers.inference.model.AnnotationLocation;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.Slot;
+import checkers.inference.model.VariableSlot;
+import checkers.inference.model.serialization.AnnotationMirrorSerializer;
+import checkers.inference.model.serialization.BinaryDeserializer;
+import checkers.inference.model.serialization.BinarySerializer;
+import checkers.inference.model.serialization.IndexedAnnotationMirrorSerializer;
+
+/**
+ * A ConstraintManager that does not keep the generated constraints in memory.  Instead, each constraint is
+ * appended to a log file (see BinarySerializer) as soon as it is added, and getConstraints reads the
+ * constraints back from the log each time it is iterated.  This lets the constraints of large programs be
+ * collected while the javac trees are still live without holding both in the heap.
+ *
+ * Duplicates are dropped using a bounded filter of the most recently added constraints, so a constraint that
+ * was added again after it left the filter appears in the log more than once.  Consumers must tolerate
+ * duplicates (ConstraintNormalizer does).
+ *
+ * Constraints read from the log refer to the VariableSlots of the current InferenceMain's SlotManager, so they
+ * should only be read after all of their slots were added to it.  The AnnotationMirrors of ConstantSlots are
+ * kept in an in-memory table rather than in the log.  The table of slots already written to the log is
+ * reset every SLOT_TABLE_SIZE slots, so the writer does not hold on to every slot either.
+ */
+public class SpillingConstraintManager extends ConstraintManager {
+
+    private final File logFile;
+    private final DataOutputStream logOut;
+    private final BinarySerializer serializer;
+
+    private final IndexedAnnotationMirrorSerializer constants = new IndexedAnnotationMirrorSerializer();
+    private final Set<Constraint> recentConstraints;
+
+    // The number of slots the serializer remembers before it is reset, see BinarySerializer.resetSlots
+    private static final int SLOT_TABLE_SIZE = 1 << 16;
+
+    // The number of constraints written to the log
+    private int size = 0;
+
+    // The iterators that have opened the log and not yet closed it
+    private final Set<LogIterator> openIterators = new HashSet<>();
+
+    /**
+     * @param directory the directory in which the log file is created
+     * @param filterSize the number of recent constraints to check for duplicates
+     */
+    public SpillingConstraintManager(File directory, final int filterSize) {
+        super(null);
+        try {
+            directory.mkdirs();
+            logFile = File.createTempFile("constraints", ".log", directory);
+            logFile.deleteOnExit();
+            logOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile)));
+        } catch (IOException e) {
+            throw new RuntimeException("Could not create constraint log in " + directory, e);
+        }
+
+        serializer = new BinarySerializer(logOut, constants);
+        recentConstraints = Collections.newSetFromMap(new LinkedHashMap<Constraint, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Constraint, Boolean> eldest) {
+                return size() > filterSize;
+            }
+        });
+    }
+
+    @Override
+    protected void store(Constraint constraint) {
+        if (!recentConstraints.add(constraint)) {
+            return;
+        }
+
+        if (serializer.getSlotCount() >= SLOT_TABLE_SIZE) {
+            serializer.resetSlots();
+        }
+        serializer.writeConstraint(constraint);
+        ++size;
+    }
+
+    /**
+     * Constraints are not hash-consed, since there is no set of constraints in memory to look them up in.
+     */
+    @Override
+    protected Constraint find(ConstraintKey key) {
+        return null;
+    }
+
+    /**
+     * @return the constraints in the log, read lazily in the order they were added.  Each iterator opens the
+     *         log when it is first read and closes it once it is exhausted.  The iterators are Closeable, so an
+     *         iteration that stops early can close the log itself; otherwise it is closed by close.
+     */
+    @Override
+    public Collection<Constraint> getConstraints() {
+        return new AbstractCollection<Constraint>() {
+            @Override
+            public Iterator<Constraint> iterator() {
+                return new LogIterator(size);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Close and delete the log, closing any iterator that is still reading it.  No constraints can be added
+     * or read afterwards.
+     */
+    public void close() {
+        try {
+            for (LogIterator iterator : new ArrayList<>(openIterators)) {
+                iterator.close();
+            }
+            logOut.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        logFile.delete();
+    }
+
+    /**
+     * @return the number of iterators that hold the log open
+     */
+    int getOpenIteratorCount() {
+        return openIterators.size();
+    }
+
+    /**
+     * Reads the first size constraints of the log.  The log is opened by the first read and closed once the
+     * last of the constraints has been read, if reading fails, or by close.
+     */
+    private class LogIterator implements Iterator<Constraint>, Closeable {
+        private final int size;
+        private DataInputStream logIn;
+        private BinaryDeserializer deserializer;
+        private int read = 0;
+
+        private LogIterator(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return read < size;
+        }
+
+        @Override
+        public Constraint next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            try {
+                if (logIn == null) {
+                    open();
+                }
+                final Constraint constraint = (Constraint) deserializer.readRecord();
+                if (++read == size) {
+                    close();
+                }
+                return constraint;
+            } catch (IOException | RuntimeException e) {
+                closeQuietly();
+                throw new RuntimeException("Could not read constraint log " + logFile, e);
+            }
+        }
+
+        private void open() throws IOException {
+            logOut.flush();
+            logIn = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)));
+            deserializer = new SlotResolvingDeserializer(logIn, constants);
+            openIterators.add(this);
+        }
+
+        /**
+         * Stop reading the log, hasNext is false afterwards.
+         */
+        @Override
+        public void close() throws IOException {
+            read = size;
+            if (logIn != null) {
+                openIterators.remove(this);
+                final DataInputStream in = logIn;
+                logIn = null;
+                deserializer = null;
+                in.close();
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                close();
+            } catch (IOException e) {
+                // The read error is reported instead
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Replaces the VariableSlots read from the log with the slots of the current SlotManager, so that
+     * constraints read from the log refer to the same slots as the rest of inference.
+     */
+    private static class SlotResolvingDeserializer extends BinaryDeserializer {
+        private SlotManager slotManager;
+
+        private SlotResolvingDeserializer(DataInputStream in, AnnotationMirrorSerializer annotationSerializer) {
+            super(in, annotationSerializer);
+        }
+
+        private VariableSlot resolve(VariableSlot slot) {
+            if (slotManager == null) {
+                slotManager = InferenceMain.getInstance().getSlotManager();
+            }
+
+            final VariableSlot existing = slotManager.getVariable(slot.getId());
+            return existing != null ? existing : slot;
+        }
+
+        @Override
+        protected VariableSlot createVariableSlot(int id, boolean insertable, AnnotationLocation location) {
+            return resolve(super.createVariableSlot(id, insertable, location));
+        }
+
+        @Override
+        protected VariableSlot createRefinementVariableSlot(int id, AnnotationLocation location, Slot refined) {
+            return resolve(super.createRefinementVariableSlot(id, location, refined));
+        }
+
+        @Override
+        protected VariableSlot createCombVariableSlot(int id, AnnotationLocation location, Slot first, Slot second) {
+            return resolve(super.createCombVariableSlot(id, location, first, second));
+        }
+
+        @Override
+        protected VariableSlot createExistentialVariableSlot(int id, VariableSlot potential, VariableSlot alternative) {
+            return resolve(super.createExistentialVariableSlot(id, potential, alternative));
+        }
+    }
+}
@@ -6,7 +6,6 @@ import checkers.inference.model.AnnotationLocation;
 import checkers.inference.model.AnnotationLocation.AstPathLocation;
 import checkers.inference.model.AnnotationLocation.ClassDeclLocation;
 import checkers.inference.model.ExistentialVariableSlot;
-import checkers.inference.model.SubtypeConstraint;
 import checkers.inference.quals.VarAnnot;
 import checkers.inference.util.ConstantToVariableAnnotator;
 import checkers.inference.util.CopyUtil;
@@ -132,6 +131,9 @@ public class VariableAnnotator extends AnnotatedTypeScanner<Void,Tree> {
     private final ExistentialVariableInserter existentialInserter;
     private final ConstantToVariableAnnotator constantToVariableAnnotator;
 
+    // The declaration slots of earlier batches or null if the files are not compiled in batches
+    private final DeclarationSlotRegistry declarationSlots;
+
     public VariableAnnotator(final InferenceAnnotatedTypeFactory typeFactory,
                               final AnnotatedTypeFactory realTypeFactory,
                               final InferrableChecker realChecker,
@@ -148,6 +150,7 @@ public class VariableAnnotator extends AnnotatedTypeScanner<Void,Tree> {
         this.classDeclAnnos = new HashMap<>();
         this.realChecker = realChecker;
         this.constraintManager = constraintManager;
+        this.declarationSlots = InferenceMain.getInstance().getBatchDeclarationSlots();
 
         this.unqualified = new AnnotationBuilder(typeFactory.getProcessingEnv(), Unqualified.class).build();
         this.varAnnot = new AnnotationBuilder(typeFactory.getProcessingEnv(), VarAnnot.class).build();
@@ -225,6 +228,12 @@ public class VariableAnnotator extends AnnotatedTypeScanner<Void,Tree> {
      * @return A new VariableSlot corresponding to tree
      */
     private VariableSlot createVariable(final AnnotationLocation location) {
+        // A declaration that an earlier batch already annotated keeps its slot, see InferenceOptions.batchSize
+        final VariableSlot declarationSlot = declarationSlots != null ? declarationSlots.getOwner(location) : null;
+        if (declarationSlot != null) {
+            return declarationSlot;
+        }
+
         final VariableSlot variable = new VariableSlot(location, slotManager.nextId());
         slotManager.addVariable(variable);
         return variable;
@@ -388,7 +397,7 @@ public class VariableAnnotator extends AnnotatedTypeScanner<Void,Tree> {
             treeToVariable.put(typeTree, potentialVariable);
 
             if (explicitPrimary != null) {
-                constraintManager.add(new EqualityConstraint(potentialVariable, slotManager.getSlot(explicitPrimary)));
+                constraintManager.addEqualityConstraint(potentialVariable, slotManager.getSlot(explicitPrimary));
             }
         }
 
@@ -480,13 +489,12 @@ public class VariableAnnotator extends AnnotatedTypeScanner<Void,Tree> {
      * the type.
      */
     public VariableSlot addImpliedPrimaryVariable(AnnotatedTypeMirror atm, final AnnotationLocation location) {
-        VariableSlot variable = new VariableSlot(location, slotManager.nextId());
+        VariableSlot variable = createVariable(location);
         atm.addAnnotation(slotManager.getAnnotation(variable));
-        slotManager.addVariable(variable);
 
         AnnotationMirror realAnno = atm.getAnnotationInHierarchy(unqualified);
         if (realAnno != null && !isUnqualified(realAnno)) {
-            constraintManager.add(new EqualityConstraint(slotManager.getSlot(realAnno), variable));
+            constraintManager.addEqualityConstraint(slotManager.getSlot(realAnno), variable);
         }
 
         logger.fine("Created implied variable for type:\n" + atm + " => " + location);
@@ -1588,7 +1596,6 @@ public class VariableAnnotator extends AnnotatedTypeScanner<Void,Tree> {
     }
 
     private void addDeclarationConstraints(VariableSlot declSlot, VariableSlot instanceSlot) {
-        SubtypeConstraint declConstraint = new SubtypeConstraint(instanceSlot, declSlot);
-        constraintManager.add(declConstraint);
+        constraintManager.addSubtypeConstraint(instanceSlot, declSlot);
     }
 }
@@ -4,6 +4,7 @@ import java.util.Collections;
 import java.util.Set;
 
 import checkers.inference.InferenceMain;
+import checkers.inference.MergeIndex;
 import checkers.inference.SlotManager;
 import checkers.inference.util.InferenceUtil;
 import org.checkerframework.framework.flow.CFValue;
@@ -15,7 +16,6 @@ import checkers.inference.model.CombVariableSlot;
 import checkers.inference.model.ConstantSlot;
 import checkers.inference.model.RefinementVariableSlot;
 import checkers.inference.model.Slot;
-import checkers.inference.model.SubtypeConstraint;
 import checkers.inference.model.VariableSlot;
 import org.checkerframework.javacutil.InternalUtils;
 
@@ -104,8 +104,8 @@ public class InferenceValue extends CFValue {
             getInferenceAnalysis().getSlotManager().addVariable(newMergeVar);
 
             // Lub of the two
-            getInferenceAnalysis().getConstraintManager().add(new SubtypeConstraint(slot1, newMergeVar));
-            getInferenceAnalysis().getConstraintManager().add(new SubtypeConstraint(slot2, newMergeVar));
+            getInferenceAnalysis().getConstraintManager().addSubtypeConstraint(slot1, newMergeVar);
+            getInferenceAnalysis().getConstraintManager().addSubtypeConstraint(slot2, newMergeVar);
 
             return newMergeVar;
         } else {
@@ -120,11 +120,11 @@ public class InferenceValue extends CFValue {
                 // There is a chain that merges var1 and var2
                 return getOneIntersected(var1.getMergedToSlots(), var2.getMergedToSlots());
 
-            } else if (var1.isMergedTo(var2)) {
+            } else if (getMergeIndex().isMergedTo(var1, var2)) {
                 // Var2 is a merge varaible that var1 has been merged to
                 return var2;
 
-            } else if (var2.isMergedTo(var1)) {
+            } else if (getMergeIndex().isMergedTo(var2, var1)) {
                 return var1;
 
             } else {
@@ -133,12 +133,12 @@ public class InferenceValue extends CFValue {
                         getInferenceAnalysis().getSlotManager().nextId(), var1, var2);
 
                 getInferenceAnalysis().getSlotManager().addVariable(newMergeVar);
-                var1.getMergedToSlots().add(newMergeVar);
-                var2.getMergedToSlots().add(newMergeVar);
+                getMergeIndex().addMerge(var1, newMergeVar);
+                getMergeIndex().addMerge(var2, newMergeVar);
 
                 // newMergeVar must be the supertype of var1 and var2.
-                getInferenceAnalysis().getConstraintManager().add(new SubtypeConstraint(var1, newMergeVar));
-                getInferenceAnalysis().getConstraintManager().add(new SubtypeConstraint(var2, newMergeVar));
+                getInferenceAnalysis().getConstraintManager().addSubtypeConstraint(var1, newMergeVar);
+                getInferenceAnalysis().getConstraintManager().addSubtypeConstraint(var2, newMergeVar);
 
                 return newMergeVar;
             }
@@ -146,6 +146,10 @@ public class InferenceValue extends CFValue {
     }
 
 
+    private MergeIndex getMergeIndex() {
+        return getInferenceAnalysis().getSlotManager().getMergeIndex();
+    }
+
     public Slot getEffectiveSlot(final CFValue value) {
         final AnnotatedTypeMirror type = value.getType();
         if (type.getKind() == TypeKind.TYPEVAR) {
@@ -193,9 +197,9 @@ public class InferenceValue extends CFValue {
            if (thisSlot instanceof VariableSlot && otherSlot instanceof VariableSlot) {
                VariableSlot thisVarSlot = (VariableSlot) thisSlot;
                VariableSlot otherVarSlot = (VariableSlot) otherSlot;
-               if (thisVarSlot.isMergedTo(otherVarSlot)) {
+               if (getMergeIndex().isMergedTo(thisVarSlot, otherVarSlot)) {
                    return other;
-               } else if (otherVarSlot.isMergedTo(thisVarSlot)) {
+               } else if (getMergeIndex().isMergedTo(otherVarSlot, thisVarSlot)) {
                    return this;
                } else if (thisVarSlot instanceof RefinementVariableSlot
                        && ((RefinementVariableSlot) thisVarSlot).getRefined().equals(otherVarSlot)) {
@@ -208,12 +212,12 @@ public class InferenceValue extends CFValue {
             } else {
                 // Check if one of these has refinement variables that were merged to the other.
                 for (RefinementVariableSlot slot : thisVarSlot.getRefinedToSlots()) {
-                    if (slot.isMergedTo(otherVarSlot)) {
+                    if (getMergeIndex().isMergedTo(slot, otherVarSlot)) {
                         return other;
                     }
                 }
                 for (RefinementVariableSlot slot : otherVarSlot.getRefinedToSlots()) {
-                    if (slot.isMergedTo(thisVarSlot)) {
+                    if (getMergeIndex().isMergedTo(slot, thisVarSlot)) {
                         return this;
                     }
                 }
@@ -1,7 +1,5 @@
 package checkers.inference.model;
 
-import java.util.Arrays;
-
 /**
  * Represents a constraint that the viewpoint adaptation between
  * target and decl gives result.
@@ -13,12 +11,24 @@ public class CombineConstraint extends Constraint {
     private final Slot target;
     private final Slot decl;
     private final Slot result;
+    private final int hashCode;
 
     public CombineConstraint(Slot target, Slot decl, Slot result) {
-        super(Arrays.asList(target, decl, result));
         this.target = target;
         this.decl = decl;
         this.result = result;
+        this.hashCode = hashCodeOf(target, decl, result);
+    }
+
+    /**
+     * @return the hash code of the CombineConstraint of target, decl and result, without creating it
+     */
+    public static int hashCodeOf(Slot target, Slot decl, Slot result) {
+        int hc = 1;
+        hc += ((target == null) ? 0 : target.hashCode());
+        hc += ((decl == null) ? 0 : decl.hashCode());
+        hc += ((result == null) ? 0 : result.hashCode());
+        return hc;
     }
 
     @Override
@@ -40,11 +50,26 @@ public class CombineConstraint extends Constraint {
 
     @Override
     public int hashCode() {
-        int hc = 1;
-        hc += ((target == null) ? 0 : target.hashCode());
-        hc += ((decl == null) ? 0 : decl.hashCode());
-        hc += ((result == null) ? 0 : result.hashCode());
-        return hc;
+        return hashCode;
+    }
+
+    @Override
+    protected Slot getSlot(int index) {
+        switch (index) {
+            case 0:
+                return target;
+            case 1:
+                return decl;
+            case 2:
+                return result;
+            default:
+                throw new IndexOutOfBoundsException("Index: " + index);
+        }
+    }
+
+    @Override
+    protected int getSlotCount() {
+        return 3;
     }
 
     @Override
@@ -56,6 +81,9 @@ public class CombineConstraint extends Constraint {
         if (getClass() != obj.getClass())
             return false;
         CombineConstraint other = (CombineConstraint) obj;
+        if (hashCode != other.hashCode) {
+            return false;
+        }
         if (target.equals(other.target) &&
                 decl.equals(other.decl) &&
                 result.equals(other.result)) {
@@ -1,21 +1,33 @@
 package checkers.inference.model;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.AbstractList;
 import java.util.List;
 
 /**
  * A Constraint represents a logical relationship between two or more Slots of any type.  ConstraintSolvers
  * assign values to VariableSlots such that the resulting assignments, if possible, satisfy all the given
  * Constraints.
+ *
+ * Constraints are immutable, so subclasses compute their hash code once, when they are created, with a static
+ * hashCodeOf method that ConstraintManager also uses to look constraints up before creating them.  Constraints
+ * created through the ConstraintManager's create methods are hash-consed: a create method returns the
+ * structurally equal constraint that was added to the same ConstraintManager, if there is one.
  */
 public abstract class Constraint {
 
     /**
-     * The slots constrained by this object
+     * The slots constrained by this object if it has a variable number of them (e.g. ExistentialConstraint),
+     * otherwise null and the subclass keeps its slots in fields, see getSlot
      */
     private final List<Slot> slots;
 
+    /**
+     * For constraints that keep their slots in fields and override getSlot and getSlotCount.
+     */
+    protected Constraint() {
+        this.slots = null;
+    }
+
     public Constraint(List<Slot> slots) {
         // Instead of:
         //     List<Slot> newSlots = new ArrayList<Slot>(slots);
@@ -28,14 +40,46 @@ public abstract class Constraint {
     public abstract Object serialize(Serializer serializer);
 
     /**
-     * @return the list of slots referenced by this constraint
+     * @return the list of slots referenced by this constraint.  For constraints that keep their slots
+     * in fields this is a read-only view of them
      */
     public List<Slot> getSlots() {
-        return slots;
+        if (slots != null) {
+            return slots;
+        }
+
+        return new AbstractList<Slot>() {
+            @Override
+            public Slot get(int index) {
+                if (index < 0 || index >= getSlotCount()) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + getSlotCount());
+                }
+                return getSlot(index);
+            }
+
+            @Override
+            public int size() {
+                return getSlotCount();
+            }
+        };
+    }
+
+    /**
+     * @return the slot at index in getSlots
+     */
+    protected Slot getSlot(int index) {
+        return slots.get(index);
+    }
+
+    /**
+     * @return the number of slots in getSlots
+     */
+    protected int getSlotCount() {
+        return slots.size();
     }
 
     @Override
     public String toString() {
-        return this.getClass().getSimpleName() + ": " + slots;
+        return this.getClass().getSimpleName() + ": " + getSlots();
     }
 }
@@ -1,16 +1,22 @@
 package checkers.inference.model;
 
-import java.util.Arrays;
-
 public class InequalityConstraint extends Constraint implements BinaryConstraint {
 
     private final Slot first;
     private final Slot second;
+    private final int hashCode;
 
     public InequalityConstraint(Slot first, Slot second) {
-        super(Arrays.asList(first, second));
         this.first = first;
         this.second = second;
+        this.hashCode = hashCodeOf(first, second);
+    }
+
+    /**
+     * @return the hash code of the InequalityConstraint between first and second, without creating it
+     */
+    public static int hashCodeOf(Slot first, Slot second) {
+        return 1 + ((first == null) ? 0 : first.hashCode()) + ((second == null) ? 0 : second.hashCode());
     }
 
     @Override
@@ -33,10 +39,24 @@ public class InequalityConstraint extends Constraint implements BinaryConstraint
 
     @Override
     public int hashCode() {
-        int result = 1;
-        result = result + ((first == null) ? 0 : first.hashCode());
-        result = result + ((second == null) ? 0 : second.hashCode());
-        return result;
+        return hashCode;
+    }
+
+    @Override
+    protected Slot getSlot(int index) {
+        switch (index) {
+            case 0:
+                return first;
+            case 1:
+                return second;
+            default:
+                throw new IndexOutOfBoundsException("Index: " + index);
+        }
+    }
+
+    @Override
+    protected int getSlotCount() {
+        return 2;
     }
 
     @Override
@@ -48,6 +68,9 @@ public class InequalityConstraint extends Constraint implements BinaryConstraint
         if (getClass() != obj.getClass())
             return false;
         InequalityConstraint other = (InequalityConstraint) obj;
+        if (hashCode != other.hashCode) {
+            return false;
+        }
         if ((first.equals(other.first) && second.equals(other.second))
                 || (first.equals(other.second) && (second.equals(other.first)))) {
             return true;
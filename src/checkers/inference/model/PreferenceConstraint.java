@@ -1,7 +1,5 @@
 package checkers.inference.model;
 
-import java.util.Arrays;
-
 /**
  * Represents a preference for a particular qualifier.
  */
@@ -10,12 +8,26 @@ public class PreferenceConstraint extends Constraint {
     private final VariableSlot variable;
     private final ConstantSlot goal;
     private final int weight;
+    private final int hashCode;
 
     public PreferenceConstraint(VariableSlot variable, ConstantSlot goal, int weight) {
-        super(Arrays.asList(variable, goal));
         this.variable = variable;
         this.goal = goal;
         this.weight = weight;
+        this.hashCode = hashCodeOf(variable, goal, weight);
+    }
+
+    /**
+     * @return the hash code of the PreferenceConstraint for variable, goal and weight, without creating it
+     */
+    public static int hashCodeOf(VariableSlot variable, ConstantSlot goal, int weight) {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((variable == null) ? 0 : variable.hashCode());
+        result = prime * result
+                + ((goal == null) ? 0 : goal.hashCode());
+        result = prime * result + weight;
+        return result;
     }
 
     @Override
@@ -37,13 +49,24 @@ public class PreferenceConstraint extends Constraint {
 
     @Override
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + ((variable == null) ? 0 : variable.hashCode());
-        result = prime * result
-                + ((goal == null) ? 0 : goal.hashCode());
-        result = prime * result + weight;
-        return result;
+        return hashCode;
+    }
+
+    @Override
+    protected Slot getSlot(int index) {
+        switch (index) {
+            case 0:
+                return variable;
+            case 1:
+                return goal;
+            default:
+                throw new IndexOutOfBoundsException("Index: " + index);
+        }
+    }
+
+    @Override
+    protected int getSlotCount() {
+        return 2;
     }
 
     @Override
@@ -55,6 +78,9 @@ public class PreferenceConstraint extends Constraint {
         if (getClass() != obj.getClass())
             return false;
         PreferenceConstraint other = (PreferenceConstraint) obj;
+        if (hashCode != other.hashCode) {
+            return false;
+        }
         if (variable == null) {
             if (other.variable != null) {
                 return false;
@@ -1,7 +1,5 @@
 package checkers.inference.model;
 
-import java.util.Arrays;
-
 /**
  * Represents a subtyping relationship between two slots.
  * E.g.
@@ -29,11 +27,24 @@ public class SubtypeConstraint extends Constraint implements BinaryConstraint {
 
     private final Slot subtype;
     private final Slot supertype;
+    private final int hashCode;
 
     public SubtypeConstraint(Slot subtype, Slot supertype) {
-        super(Arrays.asList(subtype, supertype));
         this.subtype = subtype;
         this.supertype = supertype;
+        this.hashCode = hashCodeOf(subtype, supertype);
+    }
+
+    /**
+     * @return the hash code of the SubtypeConstraint between subtype and supertype, without creating it
+     */
+    public static int hashCodeOf(Slot subtype, Slot supertype) {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((subtype == null) ? 0 : subtype.hashCode());
+        result = prime * result
+                + ((supertype == null) ? 0 : supertype.hashCode());
+        return result;
     }
 
     @Override
@@ -51,12 +62,24 @@ public class SubtypeConstraint extends Constraint implements BinaryConstraint {
 
     @Override
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + ((subtype == null) ? 0 : subtype.hashCode());
-        result = prime * result
-                + ((supertype == null) ? 0 : supertype.hashCode());
-        return result;
+        return hashCode;
+    }
+
+    @Override
+    protected Slot getSlot(int index) {
+        switch (index) {
+            case 0:
+                return subtype;
+            case 1:
+                return supertype;
+            default:
+                throw new IndexOutOfBoundsException("Index: " + index);
+        }
+    }
+
+    @Override
+    protected int getSlotCount() {
+        return 2;
     }
 
     @Override
@@ -68,6 +91,8 @@ public class SubtypeConstraint extends Constraint implements BinaryConstraint {
         if (getClass() != obj.getClass())
             return false;
         SubtypeConstraint other = (SubtypeConstraint) obj;
+        if (hashCode != other.hashCode)
+            return false;
         if (subtype == null) {
             if (other.subtype != null)
                 return false;
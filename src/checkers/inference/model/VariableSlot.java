@@ -1,5 +1,7 @@
 package checkers.inference.model;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -55,14 +57,20 @@ public class VariableSlot extends Slot {
         return serializer.serialize(this);
     }
 
+    /**
+     * Walks the merge chains from this slot.  Code that has a SlotManager should use its MergeIndex, which
+     * answers the same question without walking the chains.
+     */
     public boolean isMergedTo(VariableSlot other) {
-        for (VariableSlot mergedTo: mergedToSlots) {
+        final Set<VariableSlot> visited = new HashSet<VariableSlot>();
+        final Deque<VariableSlot> worklist = new ArrayDeque<VariableSlot>(mergedToSlots);
+        while (!worklist.isEmpty()) {
+            final VariableSlot mergedTo = worklist.pop();
             if (mergedTo.equals(other)) {
                 return true;
-            } else {
-                if (mergedTo.isMergedTo(other)) {
-                    return true;
-                }
+            }
+            if (visited.add(mergedTo)) {
+                worklist.addAll(mergedTo.mergedToSlots);
             }
         }
         return false;
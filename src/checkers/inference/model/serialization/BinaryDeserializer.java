@@ -0,0 +1,276 @@
+package checkers.inference.model.serialization;
+
+import static checkers.inference.model.serialization.BinarySerializer.*;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import annotations.io.ASTPath;
+import annotations.io.ASTRecord;
+import checkers.inference.model.AnnotationLocation;
+import checkers.inference.model.AnnotationLocation.AstPathLocation;
+import checkers.inference.model.AnnotationLocation.ClassDeclLocation;
+import checkers.inference.model.CombVariableSlot;
+import checkers.inference.model.CombineConstraint;
+import checkers.inference.model.ComparableConstraint;
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.ExistentialConstraint;
+import checkers.inference.model.ExistentialVariableSlot;
+import checkers.inference.model.InequalityConstraint;
+import checkers.inference.model.PreferenceConstraint;
+import checkers.inference.model.RefinementVariableSlot;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SubtypeConstraint;
+import checkers.inference.model.VariableSlot;
+
+import com.sun.source.tree.Tree;
+
+/**
+ * Reads the slots and constraints written by a BinarySerializer.
+ *
+ * By default, slots are recreated with the ids and locations they were written with.  Subclasses can
+ * override the create methods to map the stored slots onto other slots, e.g. to give them fresh ids or
+ * to reuse slots that already exist.  The create methods of a slot are called after the slots it refers to
+ * have been created, so they receive the mapped slots.
+ *
+ * The AnnotationLocations read from the stream have no compilation unit (ASTRecord.ast is null).
+ */
+public class BinaryDeserializer {
+
+    private final DataInput in;
+    private final AnnotationMirrorSerializer annotationSerializer;
+
+    // The slots read so far, indexed by the order in which they were first written
+    private final List<Slot> slots = new ArrayList<>();
+
+    public BinaryDeserializer(DataInput in, AnnotationMirrorSerializer annotationSerializer) {
+        this.in = in;
+        this.annotationSerializer = annotationSerializer;
+    }
+
+    /**
+     * @return the next record in the stream, either a Slot or a Constraint, or null if the end of the
+     * stream was reached
+     */
+    public Object readRecord() throws IOException {
+        byte recordTag = in.readByte();
+        while (recordTag == RESET_RECORD) {
+            slots.clear();
+            recordTag = in.readByte();
+        }
+
+        switch (recordTag) {
+            case END_RECORD:
+                return null;
+
+            case SLOT_RECORD:
+                return readSlot();
+
+            case CONSTRAINT_RECORD:
+                return readConstraint();
+
+            default:
+                throw new IOException("Unrecognized record tag: " + recordTag);
+        }
+    }
+
+    /**
+     * Read all records up to the end of the stream into the given lists
+     */
+    public void readAll(List<Slot> slotRecords, List<Constraint> constraintRecords) throws IOException {
+        Object record;
+        while ((record = readRecord()) != null) {
+            if (record instanceof Slot) {
+                slotRecords.add((Slot) record);
+            } else {
+                constraintRecords.add((Constraint) record);
+            }
+        }
+    }
+
+    //================================================================================
+    // Slots
+    //================================================================================
+
+    private Slot readSlot() throws IOException {
+        final byte slotTag = in.readByte();
+        if (slotTag == SLOT_REFERENCE) {
+            return slots.get(in.readInt());
+        } else if (slotTag == NULL_SLOT) {
+            return null;
+        }
+
+        // Reserve this slot's index before reading the slots it refers to, as the serializer did
+        final int index = slots.size();
+        slots.add(null);
+
+        final Slot slot;
+        switch (slotTag) {
+            case VARIABLE_SLOT: {
+                final int id = in.readInt();
+                final boolean insertable = in.readBoolean();
+                slot = createVariableSlot(id, insertable, readLocation());
+                break;
+            }
+
+            case CONSTANT_SLOT: {
+                final String value = in.readUTF();
+                slot = createConstantSlot(value, readLocation());
+                break;
+            }
+
+            case REFINEMENT_SLOT: {
+                final int id = in.readInt();
+                final AnnotationLocation location = readLocation();
+                slot = createRefinementVariableSlot(id, location, readSlot());
+                break;
+            }
+
+            case COMB_SLOT: {
+                final int id = in.readInt();
+                final AnnotationLocation location = readLocation();
+                final Slot first = readSlot();
+                slot = createCombVariableSlot(id, location, first, readSlot());
+                break;
+            }
+
+            case EXISTENTIAL_SLOT: {
+                final int id = in.readInt();
+                final VariableSlot potential = (VariableSlot) readSlot();
+                slot = createExistentialVariableSlot(id, potential, (VariableSlot) readSlot());
+                break;
+            }
+
+            default:
+                throw new IOException("Unrecognized slot tag: " + slotTag);
+        }
+
+        slots.set(index, slot);
+        return slot;
+    }
+
+    protected VariableSlot createVariableSlot(int id, boolean insertable, AnnotationLocation location) {
+        final VariableSlot slot = new VariableSlot(location, id);
+        slot.setInsertable(insertable);
+        return slot;
+    }
+
+    protected Slot createConstantSlot(String value, AnnotationLocation location) {
+        return new ConstantSlot(location, annotationSerializer.deserialize(value));
+    }
+
+    protected VariableSlot createRefinementVariableSlot(int id, AnnotationLocation location, Slot refined) {
+        return new RefinementVariableSlot(location, id, refined);
+    }
+
+    protected VariableSlot createCombVariableSlot(int id, AnnotationLocation location, Slot first, Slot second) {
+        return new CombVariableSlot(location, id, first, second);
+    }
+
+    protected VariableSlot createExistentialVariableSlot(int id, VariableSlot potential, VariableSlot alternative) {
+        return new ExistentialVariableSlot(id, potential, alternative);
+    }
+
+    //================================================================================
+    // Locations
+    //================================================================================
+
+    private AnnotationLocation readLocation() throws IOException {
+        final byte locationTag = in.readByte();
+        switch (locationTag) {
+            case NO_LOCATION:
+                return null;
+
+            case MISSING_LOCATION:
+                return AnnotationLocation.MISSING_LOCATION;
+
+            case AST_PATH_LOCATION:
+                final String className = readNullableUTF();
+                final String methodName = readNullableUTF();
+                final String varName = readNullableUTF();
+
+                ASTRecord record = new ASTRecord(null, className, methodName, varName, ASTPath.empty());
+                final int pathSize = in.readInt();
+                for (int i = 0; i < pathSize; i++) {
+                    final Tree.Kind treeKind = Tree.Kind.valueOf(in.readUTF());
+                    final String childSelector = in.readUTF();
+                    record = record.extend(treeKind, childSelector, in.readInt());
+                }
+                return new AstPathLocation(record);
+
+            case CLASS_DECL_LOCATION:
+                final String packageName = in.readUTF();
+                return new ClassDeclLocation(packageName, in.readUTF());
+
+            default:
+                throw new IOException("Unrecognized location tag: " + locationTag);
+        }
+    }
+
+    private String readNullableUTF() throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    //================================================================================
+    // Constraints
+    //================================================================================
+
+    private Constraint readConstraint() throws IOException {
+        final byte constraintTag = in.readByte();
+        switch (constraintTag) {
+            case SUBTYPE_CONSTRAINT: {
+                final Slot subtype = readSlot();
+                return new SubtypeConstraint(subtype, readSlot());
+            }
+
+            case EQUALITY_CONSTRAINT: {
+                final Slot first = readSlot();
+                return new EqualityConstraint(first, readSlot());
+            }
+
+            case INEQUALITY_CONSTRAINT: {
+                final Slot first = readSlot();
+                return new InequalityConstraint(first, readSlot());
+            }
+
+            case COMPARABLE_CONSTRAINT: {
+                final Slot first = readSlot();
+                return new ComparableConstraint(first, readSlot());
+            }
+
+            case COMBINE_CONSTRAINT: {
+                final Slot target = readSlot();
+                final Slot declared = readSlot();
+                return new CombineConstraint(target, declared, readSlot());
+            }
+
+            case PREFERENCE_CONSTRAINT: {
+                final VariableSlot variable = (VariableSlot) readSlot();
+                final ConstantSlot goal = (ConstantSlot) readSlot();
+                return new PreferenceConstraint(variable, goal, in.readInt());
+            }
+
+            case EXISTENTIAL_CONSTRAINT: {
+                final VariableSlot potential = (VariableSlot) readSlot();
+                final List<Constraint> potentialConstraints = readConstraints();
+                return new ExistentialConstraint(potential, potentialConstraints, readConstraints());
+            }
+
+            default:
+                throw new IOException("Unrecognized constraint tag: " + constraintTag);
+        }
+    }
+
+    private List<Constraint> readConstraints() throws IOException {
+        final int size = in.readInt();
+        final List<Constraint> constraints = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            constraints.add(readConstraint());
+        }
+        return constraints;
+    }
+}
@@ -0,0 +1,350 @@
+package checkers.inference.model.serialization;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import annotations.io.ASTPath;
+import annotations.io.ASTRecord;
+import checkers.inference.model.AnnotationLocation;
+import checkers.inference.model.AnnotationLocation.AstPathLocation;
+import checkers.inference.model.AnnotationLocation.ClassDeclLocation;
+import checkers.inference.model.CombVariableSlot;
+import checkers.inference.model.CombineConstraint;
+import checkers.inference.model.ComparableConstraint;
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.ExistentialConstraint;
+import checkers.inference.model.ExistentialVariableSlot;
+import checkers.inference.model.InequalityConstraint;
+import checkers.inference.model.PreferenceConstraint;
+import checkers.inference.model.RefinementVariableSlot;
+import checkers.inference.model.Serializer;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SubtypeConstraint;
+import checkers.inference.model.VariableSlot;
+
+/**
+ * Writes slots and constraints to a compact binary stream that can be read back with BinaryDeserializer.
+ * Unlike the other serializers, the stream keeps everything needed to recreate the slots, including their
+ * ids and AnnotationLocations, so that constraints can be stored and later reloaded in place of re-running
+ * constraint generation.
+ *
+ * The stream is a sequence of records, each a SLOT_RECORD or CONSTRAINT_RECORD, terminated by an END_RECORD.
+ * A slot is written in full the first time it appears in the stream; later occurrences only write the
+ * index of that first occurrence.  ConstantSlots are written using the given AnnotationMirrorSerializer.
+ * A long-lived stream can bound the table of written slots with resetSlots, after which slots are written in
+ * full again.
+ *
+ * The serialize methods write to the stream and return null.
+ */
+public class BinarySerializer implements Serializer {
+
+    // Record tags
+    public static final byte END_RECORD = 0;
+    public static final byte SLOT_RECORD = 1;
+    public static final byte CONSTRAINT_RECORD = 2;
+    public static final byte RESET_RECORD = 3;
+
+    // Slot tags
+    protected static final byte SLOT_REFERENCE = 0;
+    protected static final byte NULL_SLOT = 1;
+    protected static final byte VARIABLE_SLOT = 2;
+    protected static final byte CONSTANT_SLOT = 3;
+    protected static final byte REFINEMENT_SLOT = 4;
+    protected static final byte COMB_SLOT = 5;
+    protected static final byte EXISTENTIAL_SLOT = 6;
+
+    // Constraint tags
+    protected static final byte SUBTYPE_CONSTRAINT = 1;
+    protected static final byte EQUALITY_CONSTRAINT = 2;
+    protected static final byte INEQUALITY_CONSTRAINT = 3;
+    protected static final byte COMPARABLE_CONSTRAINT = 4;
+    protected static final byte COMBINE_CONSTRAINT = 5;
+    protected static final byte PREFERENCE_CONSTRAINT = 6;
+    protected static final byte EXISTENTIAL_CONSTRAINT = 7;
+
+    // Location tags
+    protected static final byte NO_LOCATION = 0;
+    protected static final byte MISSING_LOCATION = 1;
+    protected static final byte AST_PATH_LOCATION = 2;
+    protected static final byte CLASS_DECL_LOCATION = 3;
+
+    private final DataOutput out;
+    private final AnnotationMirrorSerializer annotationSerializer;
+
+    // The index of each slot already written to the stream, in the order they were first written
+    private final Map<Slot, Integer> slotIndices = new IdentityHashMap<>();
+
+    public BinarySerializer(DataOutput out, AnnotationMirrorSerializer annotationSerializer) {
+        this.out = out;
+        this.annotationSerializer = annotationSerializer;
+    }
+
+    public void writeSlot(Slot slot) {
+        try {
+            out.writeByte(SLOT_RECORD);
+            writeSlotValue(slot);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void writeConstraint(Constraint constraint) {
+        try {
+            out.writeByte(CONSTRAINT_RECORD);
+            constraint.serialize(this);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void writeEnd() {
+        try {
+            out.writeByte(END_RECORD);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Forget the slots written so far, so that later records do not refer to them.
+     */
+    public void resetSlots() {
+        try {
+            out.writeByte(RESET_RECORD);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        slotIndices.clear();
+    }
+
+    /**
+     * @return the number of distinct slots written since the stream started or was last reset
+     */
+    public int getSlotCount() {
+        return slotIndices.size();
+    }
+
+    //================================================================================
+    // Slots
+    //================================================================================
+
+    @Override
+    public Object serialize(VariableSlot slot) {
+        try {
+            if (writeSlotHeader(slot, VARIABLE_SLOT)) {
+                out.writeInt(slot.getId());
+                out.writeBoolean(slot.isInsertable());
+                writeLocation(slot.getLocation());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return null;
+    }
+
+    @Override
+    public Object serialize(ConstantSlot slot) {
+        try {
+            if (writeSlotHeader(slot, CONSTANT_SLOT)) {
+                out.writeUTF(annotationSerializer.serialize(slot.getValue()));
+                writeLocation(slot.getLocation());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return null;
+    }
+
+    @Override
+    public Object serialize(ExistentialVariableSlot slot) {
+        try {
+            if (writeSlotHeader(slot, EXISTENTIAL_SLOT)) {
+                out.writeInt(slot.getId());
+                writeSlotValue(slot.getPotentialSlot());
+                writeSlotValue(slot.getAlternativeSlot());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return null;
+    }
+
+    @Override
+    public Object serialize(RefinementVariableSlot slot) {
+        try {
+            if (writeSlotHeader(slot, REFINEMENT_SLOT)) {
+                out.writeInt(slot.getId());
+                writeLocation(slot.getLocation());
+                writeSlotValue(slot.getRefined());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return null;
+    }
+
+    @Override
+    public Object serialize(CombVariableSlot slot) {
+        try {
+            if (writeSlotHeader(slot, COMB_SLOT)) {
+                out.writeInt(slot.getId());
+                writeLocation(slot.getLocation());
+                writeSlotValue(slot.getFirst());
+                writeSlotValue(slot.getSecond());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return null;
+    }
+
+    private void writeSlotValue(Slot slot) throws IOException {
+        if (slot == null) {
+            out.writeByte(NULL_SLOT);
+        } else {
+            slot.serialize(this);
+        }
+    }
+
+    /**
+     * Write a reference if slot was already written or otherwise assign slot the next index and write tag.
+     * @return true if the caller must write the fields of slot
+     */
+    private boolean writeSlotHeader(Slot slot, byte tag) throws IOException {
+        final Integer index = slotIndices.get(slot);
+        if (index != null) {
+            out.writeByte(SLOT_REFERENCE);
+            out.writeInt(index);
+            return false;
+        }
+
+        slotIndices.put(slot, slotIndices.size());
+        out.writeByte(tag);
+        return true;
+    }
+
+    //================================================================================
+    // Locations
+    //================================================================================
+
+    private void writeLocation(AnnotationLocation location) throws IOException {
+        if (location == null) {
+            out.writeByte(NO_LOCATION);
+            return;
+        }
+
+        switch (location.getKind()) {
+            case AST_PATH:
+                final ASTRecord record = ((AstPathLocation) location).getAstRecord();
+                out.writeByte(AST_PATH_LOCATION);
+                writeNullableUTF(record.className);
+                writeNullableUTF(record.methodName);
+                writeNullableUTF(record.varName);
+
+                final ASTPath astPath = record.astPath;
+                out.writeInt(astPath.size());
+                for (int i = 0; i < astPath.size(); i++) {
+                    final ASTPath.ASTEntry entry = astPath.get(i);
+                    out.writeUTF(entry.getTreeKind().name());
+                    out.writeUTF(entry.getChildSelector());
+                    out.writeInt(entry.hasArgument() ? entry.getArgument() : -1);
+                }
+                break;
+
+            case CLASS_DECL:
+                final ClassDeclLocation classDecl = (ClassDeclLocation) location;
+                out.writeByte(CLASS_DECL_LOCATION);
+                out.writeUTF(classDecl.getPackageName());
+                out.writeUTF(classDecl.getClassName());
+                break;
+
+            default:
+                out.writeByte(MISSING_LOCATION);
+                break;
+        }
+    }
+
+    private void writeNullableUTF(String str) throws IOException {
+        out.writeBoolean(str != null);
+        if (str != null) {
+            out.writeUTF(str);
+        }
+    }
+
+    //================================================================================
+    // Constraints
+    //================================================================================
+
+    @Override
+    public Object serialize(SubtypeConstraint constraint) {
+        return writeConstraintSlots(SUBTYPE_CONSTRAINT, constraint.getSubtype(), constraint.getSupertype());
+    }
+
+    @Override
+    public Object serialize(EqualityConstraint constraint) {
+        return writeConstraintSlots(EQUALITY_CONSTRAINT, constraint.getFirst(), constraint.getSecond());
+    }
+
+    @Override
+    public Object serialize(InequalityConstraint constraint) {
+        return writeConstraintSlots(INEQUALITY_CONSTRAINT, constraint.getFirst(), constraint.getSecond());
+    }
+
+    @Override
+    public Object serialize(ComparableConstraint constraint) {
+        return writeConstraintSlots(COMPARABLE_CONSTRAINT, constraint.getFirst(), constraint.getSecond());
+    }
+
+    @Override
+    public Object serialize(CombineConstraint constraint) {
+        return writeConstraintSlots(COMBINE_CONSTRAINT,
+                constraint.getTarget(), constraint.getDeclared(), constraint.getResult());
+    }
+
+    @Override
+    public Object serialize(PreferenceConstraint constraint) {
+        writeConstraintSlots(PREFERENCE_CONSTRAINT, constraint.getVariable(), constraint.getGoal());
+        try {
+            out.writeInt(constraint.getWeight());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return null;
+    }
+
+    @Override
+    public Object serialize(ExistentialConstraint constraint) {
+        writeConstraintSlots(EXISTENTIAL_CONSTRAINT, constraint.getPotentialVariable());
+        try {
+            writeConstraints(constraint.potentialConstraints());
+            writeConstraints(constraint.getAlternateConstraints());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return null;
+    }
+
+    private void writeConstraints(List<Constraint> constraints) throws IOException {
+        out.writeInt(constraints.size());
+        for (Constraint constraint : constraints) {
+            constraint.serialize(this);
+        }
+    }
+
+    private Object writeConstraintSlots(byte tag, Slot ... slots) {
+        try {
+            out.writeByte(tag);
+            for (Slot slot : slots) {
+                writeSlotValue(slot);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return null;
+    }
+}
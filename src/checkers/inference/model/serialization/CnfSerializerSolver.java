@@ -2,6 +2,7 @@ package checkers.inference.model.serialization;
 
 import checkers.inference.InferenceMain;
 import checkers.inference.InferenceSolver;
+import checkers.inference.SlotIdCompactor;
 import checkers.inference.SlotManager;
 import checkers.inference.InferenceSolution;
 import checkers.inference.model.Constraint;
@@ -19,6 +20,7 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -41,7 +43,8 @@ public class CnfSerializerSolver implements InferenceSolver {
         AnnotationMirror top = qualHierarchy.getTopAnnotations().iterator().next();
         AnnotationMirror bottom = qualHierarchy.getBottomAnnotations().iterator().next();
         this.slotManager = InferenceMain.getInstance().getSlotManager();
-        CnfVecIntSerializer cnfSerializer = new CnfVecIntSerializer(top, bottom, slotManager);
+        CnfVecIntSerializer cnfSerializer = new CnfVecIntSerializer(top, bottom, slotManager,
+                                                                    SlotIdCompactor.of(constraints));
 
         String outFile = configuration.containsKey(FILE_KEY) ? configuration.get(FILE_KEY)
                                                               : DEFAULT_FILE;
@@ -51,8 +54,9 @@ public class CnfSerializerSolver implements InferenceSolver {
 
     protected void printCnf(File outputFile, Collection<Constraint> constraints, CnfVecIntSerializer serializer) {
         try {
-            int totalVars = slotManager.nextId();
-            int totalConstraints = constraints.size();
+            final List<VecInt> clauses = serializer.convertAll(constraints);
+            int totalVars = serializer.getVarCount();
+            int totalConstraints = clauses.size();
 
             final BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
             String header = makeComment(
@@ -67,12 +71,9 @@ public class CnfSerializerSolver implements InferenceSolver {
             writer.write(problem("cnf", totalVars, totalConstraints));
             writer.newLine();
 
-            for (Constraint constraint : constraints) {
-                final VecInt[] clauses = (VecInt[]) constraint.serialize(serializer);
-                for (VecInt clause : clauses) {
-                    writer.write(makeClause(clause));
-                    writer.newLine();
-                }
+            for (VecInt clause : clauses) {
+                writer.write(makeClause(clause));
+                writer.newLine();
             }
 
             writer.flush();
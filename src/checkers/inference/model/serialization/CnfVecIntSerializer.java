@@ -1,5 +1,6 @@
 package checkers.inference.model.serialization;
 
+import checkers.inference.SlotIdCompactor;
 import checkers.inference.SlotManager;
 import checkers.inference.model.CombVariableSlot;
 import checkers.inference.model.CombineConstraint;
@@ -33,19 +34,45 @@ public class CnfVecIntSerializer implements Serializer {
     private final AnnotationMirror bottomAnno;
     private final AnnotationMirror topAnno;
     private final SlotManager slotManager;
+    private final SlotIdCompactor slotIds;
     private final Map<Integer, Integer> existentialToPotentialVar = new HashMap<>();
 
+    /**
+     * @param slotIds the dense ids used as the CNF variables of the slots in the serialized constraints
+     */
     public CnfVecIntSerializer(AnnotationMirror topAnno, AnnotationMirror bottomAnno,
-                               SlotManager slotManager) {
+                               SlotManager slotManager, SlotIdCompactor slotIds) {
         this.topAnno = topAnno;
         this.bottomAnno = bottomAnno;
         this.slotManager = slotManager;
+        this.slotIds = slotIds;
     }
 
+    /**
+     * @return a map from the CNF variable of each existential constraint to the slot id of its potential variable
+     */
     public Map<Integer, Integer> getExistentialToPotentialVar() {
         return existentialToPotentialVar;
     }
 
+    /**
+     * @return the number of CNF variables used so far, see SlotIdCompactor
+     */
+    public int getVarCount() {
+        return slotIds.size();
+    }
+
+    /**
+     * @return the slot id of a CNF variable or -1 if it is the variable of an existential constraint
+     */
+    public int getSlotId(int var) {
+        return slotIds.originalId(var);
+    }
+
+    int var(VariableSlot slot) {
+        return slotIds.compactId(slot);
+    }
+
     @Override
     public VecInt[] serialize(SubtypeConstraint constraint) {
         return new VariableCombos<SubtypeConstraint>() {
@@ -54,7 +81,7 @@ public class CnfVecIntSerializer implements Serializer {
             protected VecInt[] constant_variable(ConstantSlot subtype, VariableSlot supertype, SubtypeConstraint constraint) {
 
                 if (isTop(subtype)) {
-                    return asVecArray(-supertype.getId());
+                    return asVecArray(-var(supertype));
                 }
 
                 return emptyClauses;
@@ -63,7 +90,7 @@ public class CnfVecIntSerializer implements Serializer {
             @Override
             protected VecInt[] variable_constant(VariableSlot subtype, ConstantSlot supertype, SubtypeConstraint constraint) {
                 if (!isTop(supertype)) {
-                    return asVecArray(subtype.getId());
+                    return asVecArray(var(subtype));
                 }
 
                 return emptyClauses;
@@ -73,7 +100,7 @@ public class CnfVecIntSerializer implements Serializer {
             protected VecInt[] variable_variable(VariableSlot subtype, VariableSlot supertype, SubtypeConstraint constraint) {
 
                 //this is supertype => subtype which is the equivalent of (!supertype v subtype)
-                return asVecArray(-supertype.getId(), subtype.getId());
+                return asVecArray(-var(supertype), var(subtype));
             }
 
         }.accept(constraint.getSubtype(), constraint.getSupertype(), constraint);
@@ -88,9 +115,9 @@ public class CnfVecIntSerializer implements Serializer {
             protected VecInt[] constant_variable(ConstantSlot slot1, VariableSlot slot2, EqualityConstraint constraint) {
 
                 if (isTop(slot1)) {
-                    return asVecArray(-slot2.getId());
+                    return asVecArray(-var(slot2));
                 } else {
-                    return asVecArray(slot2.getId());
+                    return asVecArray(var(slot2));
                 }
             }
 
@@ -104,8 +131,8 @@ public class CnfVecIntSerializer implements Serializer {
 
                 // a <=> b which is the same as (!a v b) & (!b v a)
                 return new VecInt[]{
-                    asVec(-slot1.getId(),  slot2.getId()),
-                    asVec( slot1.getId(), -slot2.getId())
+                    asVec(-var(slot1),  var(slot2)),
+                    asVec( var(slot1), -var(slot2))
                 };
             }
 
@@ -121,9 +148,9 @@ public class CnfVecIntSerializer implements Serializer {
             protected VecInt[] constant_variable(ConstantSlot slot1, VariableSlot slot2, InequalityConstraint constraint) {
 
                 if (isTop(slot1)) {
-                    return asVecArray(slot2.getId());
+                    return asVecArray(var(slot2));
                 } else {
-                    return asVecArray(-slot2.getId());
+                    return asVecArray(-var(slot2));
                 }
             }
 
@@ -137,8 +164,8 @@ public class CnfVecIntSerializer implements Serializer {
 
                 // a <=> !b which is the same as (!a v !b) & (b v a)
                 return new VecInt[]{
-                        asVec(-slot1.getId(), -slot2.getId()),
-                        asVec( slot1.getId(),  slot2.getId())
+                        asVec(-var(slot1), -var(slot2)),
+                        asVec( var(slot1),  var(slot2))
                 };
             }
 
@@ -154,9 +181,9 @@ public class CnfVecIntSerializer implements Serializer {
 
         //TODO: THIS ONLY WORKS IF THE CONSTRAINTS ARE NORMALIZED
         //TODO: WE SHOULD INSTEAD PIPE THROUGH THE ExistentialVariable ID
-        Integer existentialId = existentialToPotentialVar.get(constraint.getPotentialVariable().getId());
+        Integer existentialId = existentialToPotentialVar.get(var(constraint.getPotentialVariable()));
         if (existentialId == null) {
-            existentialId = slotManager.nextId();
+            existentialId = slotIds.newVar();
             this.existentialToPotentialVar.put(new Integer(existentialId), new Integer(constraint.getPotentialVariable().getId()));
         }
 
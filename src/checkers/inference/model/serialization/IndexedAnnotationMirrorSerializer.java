@@ -0,0 +1,36 @@
+package checkers.inference.model.serialization;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.lang.model.element.AnnotationMirror;
+
+/**
+ * Serializes each distinct AnnotationMirror as its index in an in-memory table.  The serialized strings
+ * can only be deserialized by the same instance; used to write constants to temporary files that are read
+ * back by the same process (e.g. by SpillingConstraintManager).
+ */
+public class IndexedAnnotationMirrorSerializer implements AnnotationMirrorSerializer {
+
+    private final List<AnnotationMirror> annotations = new ArrayList<>();
+    private final Map<String, Integer> indices = new HashMap<>();
+
+    @Override
+    public synchronized AnnotationMirror deserialize(String index) {
+        return annotations.get(Integer.parseInt(index));
+    }
+
+    @Override
+    public synchronized String serialize(AnnotationMirror annotation) {
+        final String key = annotation.toString();
+        Integer index = indices.get(key);
+        if (index == null) {
+            index = annotations.size();
+            annotations.add(annotation);
+            indices.put(key, index);
+        }
+        return String.valueOf(index);
+    }
+}
@@ -0,0 +1,40 @@
+package checkers.inference.model.serialization;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.util.Elements;
+
+import org.checkerframework.javacutil.AnnotationUtils;
+
+/**
+ * Serializes constants by the fully qualified name of their qualifier, so that they can be read by
+ * another javac instance or process.  Constants with annotation values cannot be serialized.
+ */
+public class QualifierNameSerializer implements AnnotationMirrorSerializer {
+    private final Elements elements;
+
+    /**
+     * @param elements used to deserialize constants, may be null if this is only used for serialization
+     */
+    public QualifierNameSerializer(Elements elements) {
+        this.elements = elements;
+    }
+
+    @Override
+    public AnnotationMirror deserialize(String qualifierName) {
+        return AnnotationUtils.fromName(elements, qualifierName);
+    }
+
+    @Override
+    public String serialize(AnnotationMirror annotation) {
+        if (!annotation.getElementValues().isEmpty()) {
+            throw new UnserializableConstantException(annotation);
+        }
+        return AnnotationUtils.annotationName(annotation);
+    }
+
+    public static class UnserializableConstantException extends RuntimeException {
+        private UnserializableConstantException(AnnotationMirror constant) {
+            super("constant with annotation values " + constant);
+        }
+    }
+}
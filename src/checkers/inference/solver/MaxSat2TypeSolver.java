@@ -3,18 +3,21 @@ package checkers.inference.solver;
 import checkers.inference.DefaultInferenceSolution;
 import checkers.inference.InferenceMain;
 import checkers.inference.InferenceSolver;
+import checkers.inference.SlotIdCompactor;
 import checkers.inference.SlotManager;
 import checkers.inference.InferenceSolution;
 import checkers.inference.model.Constraint;
 import checkers.inference.model.Slot;
 import checkers.inference.model.VariableSlot;
 import checkers.inference.model.serialization.CnfVecIntSerializer;
+import checkers.inference.util.InferenceProfiler;
 import org.checkerframework.framework.type.QualifierHierarchy;
 import org.sat4j.core.VecInt;
 import org.sat4j.maxsat.SolverFactory;
 import org.sat4j.maxsat.WeightedMaxSatDecorator;
 import org.sat4j.opt.MaxSatDecorator;
 import org.sat4j.specs.ISolver;
+import org.sat4j.specs.TimeoutException;
 
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.AnnotationMirror;
@@ -35,6 +38,9 @@ public class MaxSat2TypeSolver implements InferenceSolver {
     private CnfVecIntSerializer serializer;
     private SlotManager slotManager;
 
+    // The solver gives up after this many milliseconds, see InferenceSolver.TIMEOUT_KEY
+    private int timeoutMs = 1000000;
+
     @Override
     public InferenceSolution solve(
             Map<String, String> configuration,
@@ -50,31 +56,44 @@ public class MaxSat2TypeSolver implements InferenceSolver {
         this.top = qualHierarchy.getTopAnnotations().iterator().next();
         this.bottom = qualHierarchy.getBottomAnnotations().iterator().next();
         this.slotManager = InferenceMain.getInstance().getSlotManager();
-        this.serializer = new CnfVecIntSerializer(top, bottom, InferenceMain.getInstance().getSlotManager());
+        this.serializer = new CnfVecIntSerializer(top, bottom, slotManager, SlotIdCompactor.of(constraints));
         // TODO: This needs to be parameterized based on the type system
         this.defaultValue = top;
 
+        final String timeout = configuration.get(TIMEOUT_KEY);
+        if (timeout != null) {
+            this.timeoutMs = (int) Math.min(Integer.MAX_VALUE, Math.max(1, Long.parseLong(timeout)));
+        }
+
         return solve();
     }
 
+    /**
+     * @return the solution, or null if the solver timed out
+     */
     public InferenceSolution solve() {
 
         Map<Integer, Boolean> idToExistence = new HashMap<>();
         Map<Integer, AnnotationMirror> result = new HashMap<>();
 
+        final InferenceProfiler.Timer serializeTimer = InferenceProfiler.start("solve.serialize");
         List<VecInt> clauses = serializer.convertAll(constraints);
+        serializeTimer.stop();
 
-        final int totalVars = slotManager.nextId();
+        // Only the slots in the constraints are SAT variables, see SlotIdCompactor
+        final int totalVars = serializer.getVarCount();
         final int totalClauses =  clauses.size();
+        InferenceProfiler.count("solve", "satVariables", totalVars);
+        InferenceProfiler.count("solve", "allocatedSlotIds", slotManager.nextId() - 1);
 
         final WeightedMaxSatDecorator solver = new WeightedMaxSatDecorator(org.sat4j.pb.SolverFactory.newBoth());
 
-        //TODO: Need to set TIMEOUT
         solver.newVar(totalVars);
         solver.setExpectedNumberOfClauses(totalClauses);
-        solver.setTimeoutMs(1000000);
+        solver.setTimeoutMs(timeoutMs);
 
         VecInt lastClause = null;
+        final InferenceProfiler.Timer satTimer = InferenceProfiler.start("solve.sat");
         try {
             for (VecInt clause : clauses) {
 
@@ -96,7 +115,7 @@ public class MaxSat2TypeSolver implements InferenceSolver {
                     if (potential != null) {
                         idToExistence.put(potential, !isTop);
                     } else {
-                        result.put(var, isTop ? top : bottom );
+                        result.put(serializer.getSlotId(var), isTop ? top : bottom );
                     }
 
                 }
@@ -114,8 +133,14 @@ public class MaxSat2TypeSolver implements InferenceSolver {
                 System.out.println("Not solvable!");
             }
 
+        } catch (TimeoutException e) {
+            System.out.println("MAX-SAT solving timed out after " + timeoutMs + " ms");
+            return null;
+
         } catch(Throwable th) {
            throw new RuntimeException("Error MAX-SAT solving! " + lastClause, th);
+        } finally {
+            satTimer.stop();
         }
 
 
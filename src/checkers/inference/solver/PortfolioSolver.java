@@ -0,0 +1,302 @@
+package checkers.inference.solver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+
+import org.checkerframework.framework.type.QualifierHierarchy;
+import org.checkerframework.javacutil.AnnotationUtils;
+
+import checkers.inference.InferenceSolution;
+import checkers.inference.InferenceSolver;
+import checkers.inference.model.BinaryConstraint;
+import checkers.inference.model.CombineConstraint;
+import checkers.inference.model.ComparableConstraint;
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.ExistentialConstraint;
+import checkers.inference.model.InequalityConstraint;
+import checkers.inference.model.PreferenceConstraint;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SubtypeConstraint;
+import checkers.inference.model.VariableSlot;
+import checkers.inference.util.InferenceProfiler;
+
+/**
+ * PortfolioSolver runs several InferenceSolvers one after another on the same constraints and returns the
+ * solution of one of them.  The solvers are never run in parallel.  It is configured through the solver args:
+ *
+ *   portfolio=solver1:solver2   the fully qualified names of the solvers to run, separated by ':'
+ *                               (default: PropagationSolver and MaxSat2TypeSolver)
+ *   select=first|best           first: return the first solution that satisfies every constraint (default)
+ *                               best: run all solvers (until the deadline) and return the best-scoring solution
+ *   deadline=ms                 stop running solvers after this many milliseconds (default: no deadline)
+ *
+ * All other solver args are passed on to every solver.
+ *
+ * The solvers share the processing environment and qualifier hierarchy, which are not thread-safe, so they
+ * are run one at a time in the order they are listed.  Running them concurrently would need a javac instance
+ * per solver.  Each solver is passed the time left until the deadline as its timeout (see
+ * InferenceSolver.TIMEOUT_KEY); a solver that runs out of time returns no solution, and the solvers after it
+ * are not run once the deadline has passed.  List the solver most likely to succeed quickly first.
+ *
+ * Solutions are scored by the number of constraints they violate, then by the total weight of the
+ * PreferenceConstraints they do not meet.  A constraint on a variable the solution leaves unassigned is
+ * violated, as is an ExistentialConstraint whose potential variable the solution does not say exists or not.
+ * Whether the result of a CombineConstraint is the viewpoint adaptation of its target and declared slots
+ * depends on the type system and is not checked, but its variables must be assigned.  If no solution
+ * satisfies every constraint, the best-scoring one is returned; ties go to the solver listed first.
+ */
+public class PortfolioSolver implements InferenceSolver {
+
+    private static final Logger logger = Logger.getLogger(PortfolioSolver.class.getName());
+
+    public static final String SOLVERS_KEY = "portfolio";
+    public static final String SELECT_KEY = "select";
+    public static final String DEADLINE_KEY = "deadline";
+
+    private static final String DEFAULT_SOLVERS =
+            PropagationSolver.class.getName() + ":" + MaxSat2TypeSolver.class.getName();
+
+    @Override
+    public InferenceSolution solve(
+            Map<String, String> configuration,
+            Collection<Slot> slots,
+            Collection<Constraint> constraints,
+            QualifierHierarchy qualHierarchy,
+            ProcessingEnvironment processingEnvironment) {
+
+        final List<String> solverNames = new ArrayList<>();
+        final String solversArg = configuration.get(SOLVERS_KEY);
+        for (String name : (solversArg != null ? solversArg : DEFAULT_SOLVERS).split(":")) {
+            if (!name.trim().isEmpty()) {
+                solverNames.add(name.trim());
+            }
+        }
+
+        final boolean selectFirst = !"best".equals(configuration.get(SELECT_KEY));
+        final String deadlineArg = configuration.get(DEADLINE_KEY);
+        final long deadline = deadlineArg != null
+                            ? System.currentTimeMillis() + Long.parseLong(deadlineArg)
+                            : Long.MAX_VALUE;
+
+        SolverResult best = null;
+        for (int i = 0; i < solverNames.size(); i++) {
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                logger.info("Portfolio solver: deadline reached with " + (solverNames.size() - i) + " solvers not run");
+                break;
+            }
+
+            final String solverName = solverNames.get(i);
+            final InferenceSolver solver = createSolver(solverName);
+            if (solver == null) {
+                continue;
+            }
+
+            final Map<String, String> solverConfiguration = new HashMap<>(configuration);
+            if (deadline != Long.MAX_VALUE) {
+                final String timeoutArg = configuration.get(TIMEOUT_KEY);
+                final long timeout = timeoutArg != null ? Math.min(remaining, Long.parseLong(timeoutArg)) : remaining;
+                solverConfiguration.put(TIMEOUT_KEY, Long.toString(timeout));
+            }
+
+            final long start = System.currentTimeMillis();
+            final InferenceSolution solution;
+            try {
+                solution = solver.solve(solverConfiguration, slots, constraints, qualHierarchy, processingEnvironment);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Portfolio solver: " + solverName + " failed", e);
+                continue;
+            }
+            final long elapsed = System.currentTimeMillis() - start;
+
+            if (solution == null) {
+                logger.info("Portfolio solver: " + solverName + " returned no solution");
+                continue;
+            }
+
+            final SolverResult result = new SolverResult(solverName, i, solution, elapsed,
+                                                         score(solution, constraints, qualHierarchy));
+            logger.info(String.format("Portfolio solver: %s finished in %d ms, %s",
+                    result.solverName, result.millis, result.score));
+            if (selectFirst && result.score.isValid()) {
+                best = result;
+                break;
+            }
+
+            if (best == null || result.isBetterThan(best)) {
+                best = result;
+            }
+
+            // No other solution can score better
+            if (best.score.isPerfect()) {
+                break;
+            }
+        }
+
+        if (best == null) {
+            logger.warning("Portfolio solver: no solver returned a solution");
+            return null;
+        }
+
+        logger.info(String.format("Portfolio solver: selected the solution of %s (%s)", best.solverName, best.score));
+        InferenceProfiler.count("portfolioWinner", best.solverName, 1);
+        return best.solution;
+    }
+
+    private static InferenceSolver createSolver(String solverName) {
+        try {
+            return (InferenceSolver) Class.forName(solverName).newInstance();
+        } catch (Throwable e) {
+            logger.log(Level.SEVERE, "Error instantiating solver class \"" + solverName + "\".", e);
+            return null;
+        }
+    }
+
+    //================================================================================
+    // Scoring
+    //================================================================================
+
+    /**
+     * @return how well solution satisfies constraints
+     */
+    static Score score(InferenceSolution solution, Collection<Constraint> constraints, QualifierHierarchy qualHierarchy) {
+        int violated = 0;
+        long unmetPreferences = 0;
+
+        for (Constraint constraint : constraints) {
+            if (constraint instanceof PreferenceConstraint) {
+                final PreferenceConstraint preferenceConstraint = (PreferenceConstraint) constraint;
+                final AnnotationMirror value = getValue(solution, preferenceConstraint.getVariable());
+                if (value == null || !AnnotationUtils.areSame(value, preferenceConstraint.getGoal().getValue())) {
+                    unmetPreferences += preferenceConstraint.getWeight();
+                }
+
+            } else if (isViolated(solution, constraint, qualHierarchy)) {
+                ++violated;
+            }
+        }
+
+        return new Score(violated, unmetPreferences);
+    }
+
+    /**
+     * @return true if solution does not satisfy constraint or leaves one of its variables unassigned
+     */
+    private static boolean isViolated(InferenceSolution solution, Constraint constraint, QualifierHierarchy qualHierarchy) {
+        if (constraint instanceof ExistentialConstraint) {
+            final ExistentialConstraint existentialConstraint = (ExistentialConstraint) constraint;
+            final Boolean exists = solution.getIdToExistance().get(existentialConstraint.getPotentialVariable().getId());
+            if (exists == null) {
+                return true;
+            }
+            for (Constraint branch : exists ? existentialConstraint.potentialConstraints()
+                                            : existentialConstraint.getAlternateConstraints()) {
+                if (isViolated(solution, branch, qualHierarchy)) {
+                    return true;
+                }
+            }
+            return false;
+
+        } else if (constraint instanceof CombineConstraint) {
+            final CombineConstraint combineConstraint = (CombineConstraint) constraint;
+            return getValue(solution, combineConstraint.getTarget()) == null
+                || getValue(solution, combineConstraint.getDeclared()) == null
+                || getValue(solution, combineConstraint.getResult()) == null;
+
+        } else if (!(constraint instanceof BinaryConstraint)) {
+            // Preferences are scored separately, see score
+            return false;
+        }
+
+        final BinaryConstraint binaryConstraint = (BinaryConstraint) constraint;
+        final AnnotationMirror first = getValue(solution, binaryConstraint.getFirst());
+        final AnnotationMirror second = getValue(solution, binaryConstraint.getSecond());
+        if (first == null || second == null) {
+            return true;
+        }
+
+        if (constraint instanceof SubtypeConstraint) {
+            return !qualHierarchy.isSubtype(first, second);
+        } else if (constraint instanceof EqualityConstraint) {
+            return !AnnotationUtils.areSame(first, second);
+        } else if (constraint instanceof InequalityConstraint) {
+            return AnnotationUtils.areSame(first, second);
+        } else if (constraint instanceof ComparableConstraint) {
+            return !qualHierarchy.isSubtype(first, second) && !qualHierarchy.isSubtype(second, first);
+        }
+        return false;
+    }
+
+    /**
+     * @return the value of slot in solution, or null if slot is a variable the solution leaves unassigned
+     */
+    private static AnnotationMirror getValue(InferenceSolution solution, Slot slot) {
+        if (slot instanceof ConstantSlot) {
+            return ((ConstantSlot) slot).getValue();
+        } else if (slot instanceof VariableSlot) {
+            return solution.getAnnotation(((VariableSlot) slot).getId());
+        }
+        return null;
+    }
+
+    static class Score {
+        final int violatedConstraints;
+        final long unmetPreferenceWeight;
+
+        Score(int violatedConstraints, long unmetPreferenceWeight) {
+            this.violatedConstraints = violatedConstraints;
+            this.unmetPreferenceWeight = unmetPreferenceWeight;
+        }
+
+        boolean isValid() {
+            return violatedConstraints == 0;
+        }
+
+        boolean isPerfect() {
+            return violatedConstraints == 0 && unmetPreferenceWeight == 0;
+        }
+
+        int compareTo(Score other) {
+            if (violatedConstraints != other.violatedConstraints) {
+                return violatedConstraints < other.violatedConstraints ? -1 : 1;
+            }
+            return Long.compare(unmetPreferenceWeight, other.unmetPreferenceWeight);
+        }
+
+        @Override
+        public String toString() {
+            return violatedConstraints + " violated constraints, unmet preference weight " + unmetPreferenceWeight;
+        }
+    }
+
+    private static class SolverResult {
+        final String solverName;
+        final int order;
+        final InferenceSolution solution;
+        final long millis;
+        final Score score;
+
+        SolverResult(String solverName, int order, InferenceSolution solution, long millis, Score score) {
+            this.solverName = solverName;
+            this.order = order;
+            this.solution = solution;
+            this.millis = millis;
+            this.score = score;
+        }
+
+        boolean isBetterThan(SolverResult other) {
+            final int comparison = score.compareTo(other.score);
+            return comparison < 0 || (comparison == 0 && order < other.order);
+        }
+    }
+}
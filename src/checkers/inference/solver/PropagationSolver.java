@@ -16,13 +16,15 @@ import java.util.Set;
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.AnnotationMirror;
 
+import checkers.inference.CompactConstraintManager;
 import checkers.inference.InferenceSolver;
 import checkers.inference.model.ConstantSlot;
 import checkers.inference.model.Constraint;
-import checkers.inference.model.EqualityConstraint;
 import checkers.inference.model.Slot;
-import checkers.inference.model.SubtypeConstraint;
 import checkers.inference.model.VariableSlot;
+import checkers.inference.util.InferenceProfiler;
+
+import static checkers.inference.CompactConstraintManager.isConstant;
 
 /**
  * InferenceSolver FloodSolver implementation
@@ -42,6 +44,9 @@ public class PropagationSolver implements InferenceSolver {
     private AnnotationMirror top;
     private AnnotationMirror bottom;
 
+    // Propagation stops once this time (see InferenceSolver.TIMEOUT_KEY) has passed
+    private long deadline = Long.MAX_VALUE;
+
     @Override
     public InferenceSolution solve(
             Map<String, String> configuration,
@@ -59,6 +64,11 @@ public class PropagationSolver implements InferenceSolver {
         // TODO: This needs to be parameterized based on the type system
         this.defaultValue = top;
 
+        final String timeout = configuration.get(TIMEOUT_KEY);
+        if (timeout != null) {
+            this.deadline = System.currentTimeMillis() + Long.parseLong(timeout);
+        }
+
         return solve();
     }
 
@@ -69,12 +79,12 @@ public class PropagationSolver implements InferenceSolver {
      *
      * 2) Find all variables that must be bot (Var <: @BOT or VAR == @BOT)
      *
-     * 3) From constraints, create propagation maps.
-     *  These maps one variable to a list of other variables.
+     * 3) Index the constraints by variable (see CompactConstraintManager.getRowsOf).
+     *  The constraints between variables map one variable to a list of other variables.
      *  If the key variable is a certain annotation the variables in the value list must also be that annotation.
-     *  A map is create for subtype propagation and supertype propagation.
+     *  This gives a map for subtype propagation and one for supertype propagation.
      *
-     *  As an example, given a subtype propagation map of:
+     *  As an example, given the subtype propagation:
      *  @1 -> [ @2, @3 ]
      *
      *  If @1 was inferred to be @BOT, then @2 and @3 would also have to be bot.
@@ -85,99 +95,82 @@ public class PropagationSolver implements InferenceSolver {
      *
      * 6) Merge the results to get just one AnnotationMirror for each variable.
      *
-     * @return Map of int variable id to its inferred AnnotationMirror value
+     * @return Map of int variable id to its inferred AnnotationMirror value, or null if the propagation did not
+     *         finish before the deadline
      */
     public InferenceSolution solve() {
 
         Set<VariableSlot> fixedBottom = new HashSet<VariableSlot>();
         Set<VariableSlot> fixedTop = new HashSet<VariableSlot>();
-        Map<VariableSlot, List<VariableSlot>> superTypePropagation = new HashMap<>();
-        Map<VariableSlot, List<VariableSlot>> subTypePropagation = new HashMap<>();
+        CompactConstraintManager rows = CompactConstraintManager.of(constraints);
 
-        preprocessConstraints(fixedBottom, fixedTop, superTypePropagation, subTypePropagation);
+        final InferenceProfiler.Timer preprocessTimer = InferenceProfiler.start("solve.preprocess");
+        preprocessConstraints(rows, fixedBottom, fixedTop);
+        preprocessTimer.stop();
 
+        final InferenceProfiler.Timer propagateTimer = InferenceProfiler.start("solve.propagate");
         // Propagate supertype
-        Set<VariableSlot> inferredTop = propagateValues(fixedTop, superTypePropagation);
+        Set<VariableSlot> inferredTop = propagateValues(fixedTop, rows, true);
 
         // Propagate subtype
-        Set<VariableSlot> inferredBottom = propagateValues(fixedBottom, subTypePropagation);
+        Set<VariableSlot> inferredBottom = inferredTop != null ? propagateValues(fixedBottom, rows, false) : null;
+        propagateTimer.stop();
+        if (inferredBottom == null) {
+            return null;
+        }
         return mergeResults(fixedBottom, fixedTop, inferredTop, inferredBottom);
     }
 
     /**
-     * Perform steps 1-3 of flood solving.
+     * Perform steps 1-2 of flood solving.
      *
      * The parameters are the results of processing.
      *
      * fixedBottom and fixedTop contain relationships between variables and constants
      * (the constant for bottom and the constant for top respectively)
      *
-     * superTypePropagation and subTypePropagation
+     * The propagation maps of step 3 are not built: propagateValues finds the rows of each variable
+     * with CompactConstraintManager.getRowsOf instead.
      *
+     * @param rows The constraints as rows
      * @param fixedBottom Variables that must be bottom
      * @param fixedTop Variables that must be top
-     * @param superTypePropagation Map, where if a key is a supertyp, all variables in the value must also be supertype
-     * @param subTypePropagation Map, where if a key is a subtype, all variables in the value must also be subtypes
      */
-    private void preprocessConstraints(Set<VariableSlot> fixedBottom,
-            Set<VariableSlot> fixedTop,
-            Map<VariableSlot, List<VariableSlot>> superTypePropagation,
-            Map<VariableSlot, List<VariableSlot>> subTypePropagation) {
-
-        for (Constraint constraint: constraints) {
-            // Skip constraints that are just constants
-            if (!checkContainsVariable(constraint)) {
+    private void preprocessConstraints(CompactConstraintManager rows,
+                                       Set<VariableSlot> fixedBottom, Set<VariableSlot> fixedTop) {
+
+        for (int row = 0; row < rows.getRowCount(); row++) {
+            final int first = rows.getFirst(row);
+            final int second = rows.getSecond(row);
+
+            // Skip constraints that are just constants, and constraints between variables
+            if (isConstant(first) == isConstant(second)) {
                 continue;
             }
 
-            if (constraint instanceof EqualityConstraint) {
-                EqualityConstraint equality = (EqualityConstraint) constraint;
-                if (equality.getFirst() instanceof ConstantSlot) {
-                    // Equal to a constant forces a constant
-                    AnnotationMirror value = ((ConstantSlot) equality.getFirst()).getValue();
-                    VariableSlot variable = (VariableSlot) equality.getSecond();
-                    if (AnnotationUtils.areSame(value, top)) {
-                        fixedTop.add(variable);
-                    } else {
-                        fixedBottom.add(variable);
-                    }
-                } else if (equality.getSecond() instanceof ConstantSlot) {
-                    // Equal to a constant forces a constant
-                    AnnotationMirror value = ((ConstantSlot) equality.getSecond()).getValue();
-                    VariableSlot variable = (VariableSlot) equality.getFirst();
-                    if (AnnotationUtils.areSame(value, top)) {
-                        fixedTop.add(variable);
-                    } else {
-                        fixedBottom.add(variable);
-                    }
+            if (rows.getKind(row) == CompactConstraintManager.EQUALITY) {
+                // Equal to a constant forces a constant
+                final int constant = isConstant(first) ? first : second;
+                AnnotationMirror value = ((ConstantSlot) rows.getSlot(constant)).getValue();
+                VariableSlot variable = (VariableSlot) rows.getSlot(constant == first ? second : first);
+                if (AnnotationUtils.areSame(value, top)) {
+                    fixedTop.add(variable);
                 } else {
-                    // Variable equality means values of one propagates to values of the other, for both subtype and supertype
-                    addEntryToMap(superTypePropagation, (VariableSlot) equality.getFirst(), (VariableSlot) equality.getSecond(), constraint);
-                    addEntryToMap(superTypePropagation, (VariableSlot) equality.getSecond(), (VariableSlot) equality.getFirst(), constraint);
-                    addEntryToMap(subTypePropagation, (VariableSlot) equality.getFirst(), (VariableSlot) equality.getSecond(), constraint);
-                    addEntryToMap(subTypePropagation, (VariableSlot) equality.getSecond(), (VariableSlot) equality.getFirst(), constraint);
+                    fixedBottom.add(variable);
                 }
-            } else if (constraint instanceof SubtypeConstraint) {
-                SubtypeConstraint subtype = (SubtypeConstraint) constraint;
-                if (subtype.getSubtype() instanceof ConstantSlot) {
+            } else if (rows.getKind(row) == CompactConstraintManager.SUBTYPE) {
+                if (isConstant(first)) {
                     // If top is a subtype of a variable, that variable is top
-                    AnnotationMirror value = ((ConstantSlot) subtype.getSubtype()).getValue();
-                    VariableSlot variable = (VariableSlot) subtype.getSupertype();
+                    AnnotationMirror value = ((ConstantSlot) rows.getSlot(first)).getValue();
                     if (AnnotationUtils.areSame(value, top)) {
-                        fixedTop.add(variable);
+                        fixedTop.add((VariableSlot) rows.getSlot(second));
                     }
-                } else if (subtype.getSupertype() instanceof ConstantSlot) {
+                } else {
                     // If a variable is a subtype of bottom, that variable is bottom
-                    AnnotationMirror value = ((ConstantSlot) subtype.getSupertype()).getValue();
-                    VariableSlot variable = (VariableSlot) subtype.getSubtype();
+                    AnnotationMirror value = ((ConstantSlot) rows.getSlot(second)).getValue();
                     if (AnnotationUtils.areSame(value, bottom)) {
-                        fixedBottom.add(variable);
+                        fixedBottom.add((VariableSlot) rows.getSlot(first));
                     }
-                } else {
-                    // If the RHS is top, the LHS must be top
-                    addEntryToMap(superTypePropagation, (VariableSlot) subtype.getSubtype(), (VariableSlot) subtype.getSupertype(), constraint);
-                    // If the LHS is bottom, the RHS must be bottom
-                    addEntryToMap(subTypePropagation, (VariableSlot) subtype.getSupertype(), (VariableSlot) subtype.getSubtype(), constraint);
                 }
             }
         }
@@ -222,53 +215,62 @@ public class PropagationSolver implements InferenceSolver {
     }
 
     /**
-     * Given starting fixed values, iterate on the propagation map
+     * Given starting fixed values, iterate on the constraints between variables
      * to propagate the resulting values.
      *
+     * Variable equality means values of one propagates to values of the other, for both subtype and supertype.
+     * For a subtype constraint, if the LHS is top the RHS must be top and if the RHS is bottom the LHS must be bottom.
+     *
      * @param fixed The starting values that will trigger propagation
-     * @param typePropagation Maps of value to list of other values that will be propagated when the key is triggered.
+     * @param rows The constraints as rows, indexed by variable
+     * @param supertype true to propagate top to supertypes, false to propagate bottom to subtypes
      *
-     * @return All values that were fixed flooded/propagated to.
+     * @return All values that were fixed flooded/propagated to, or null if the deadline passed first.
      */
-    private Set<VariableSlot> propagateValues(Set<VariableSlot> fixed,
-            Map<VariableSlot, List<VariableSlot>> typePropagation) {
+    private Set<VariableSlot> propagateValues(Set<VariableSlot> fixed, CompactConstraintManager rows,
+                                              boolean supertype) {
 
         Set<VariableSlot> results = new HashSet<VariableSlot>();
 
         Set<VariableSlot> worklist = new HashSet<VariableSlot>(fixed);
+        int steps = 0;
         while (!worklist.isEmpty()) {
+            if ((++steps & 0x3FF) == 0 && System.currentTimeMillis() > deadline) {
+                return null;
+            }
             VariableSlot variable = worklist.iterator().next();
             worklist.remove(variable);
-            if (typePropagation.containsKey(variable)) {
-                List<VariableSlot> inferred = typePropagation.get(variable);
-                List<VariableSlot> inferredVars = new ArrayList<VariableSlot>();
-                inferredVars.addAll(inferred);
-                inferredVars.removeAll(results);
-                results.addAll(inferredVars);
-                worklist.addAll(inferredVars);
-            }
-        }
-        return results;
-    }
 
-    private boolean checkContainsVariable(Constraint constraint) {
-        boolean containsVariable = false;
-        for (Slot slot : constraint.getSlots()) {
-            if (slot instanceof VariableSlot) {
-                containsVariable = true;
+            final int id = variable.getId();
+            List<VariableSlot> inferredVars = new ArrayList<VariableSlot>();
+            for (int row : rows.getRowsOf(id)) {
+                final byte kind = rows.getKind(row);
+                final int first = rows.getFirst(row);
+                final int second = rows.getSecond(row);
+                if (kind == CompactConstraintManager.EQUALITY
+                        || (supertype && kind == CompactConstraintManager.SUBTYPE)) {
+                    if (first == id) {
+                        addIfVariable(inferredVars, rows, second);
+                    }
+                }
+                if (kind == CompactConstraintManager.EQUALITY
+                        || (!supertype && kind == CompactConstraintManager.SUBTYPE)) {
+                    if (second == id) {
+                        addIfVariable(inferredVars, rows, first);
+                    }
+                }
             }
+
+            inferredVars.removeAll(results);
+            results.addAll(inferredVars);
+            worklist.addAll(inferredVars);
         }
-        return containsVariable;
+        return results;
     }
 
-    void addEntryToMap(Map<VariableSlot, List<VariableSlot>> entries, VariableSlot key, VariableSlot value, Constraint constraint) {
-        List<VariableSlot> valueList;
-        if (entries.get(key) == null) {
-            valueList = new ArrayList<>();
-            entries.put(key, valueList);
-        } else {
-            valueList = entries.get(key);
+    private static void addIfVariable(List<VariableSlot> variables, CompactConstraintManager rows, int code) {
+        if (!isConstant(code)) {
+            variables.add((VariableSlot) rows.getSlot(code));
         }
-        valueList.add(value);
     }
 }
@@ -0,0 +1,324 @@
+package checkers.inference.util;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Records the wall time, CPU time, allocated bytes and peak heap of the phases of inference (e.g. javac,
+ * constraint generation, normalization, solver stages, JAIF building) along with counts such as the number
+ * of slots and constraints of each kind.  The results are written as a JSON report that can be compared
+ * across runs (see InferenceOptions.profile).
+ *
+ * A phase may be entered several times, possibly concurrently by several threads (e.g. constraint
+ * generation for each compilation unit); its figures are the sums over all of its intervals:
+ *   - wall time and CPU time are those of the thread that ran the interval
+ *   - allocated bytes are those allocated by that thread (if the JVM supports measuring them)
+ *   - peak heap is the largest heap usage seen during any interval of the phase
+ *
+ * Constraint generation runs inside javac, so the time javac spends parsing and attributing is that of the
+ * "javac" phase less that of the "constraint-generation" phase.
+ *
+ * Phases that run in a child process (e.g. AFU insertion when not run in process) only have meaningful
+ * wall times.  Recording is a no-op unless enabled.
+ */
+public class InferenceProfiler {
+
+    private static final Logger logger = Logger.getLogger(InferenceProfiler.class.getName());
+
+    public static final String PHASES_KEY = "phases";
+    public static final String COUNTS_KEY = "counts";
+
+    private static volatile boolean enabled = false;
+
+    // Phases by name, in the order they were first entered
+    private static final Map<String, PhaseStats> phases = new LinkedHashMap<>();
+
+    // Count sections (e.g. "slots") to counts by key (e.g. "VariableSlot")
+    private static final Map<String, Map<String, Long>> counts = new LinkedHashMap<>();
+
+    // Intervals that have been started but not stopped
+    private static final List<Timer> openTimers = new ArrayList<>();
+
+    public static void setEnabled(boolean isEnabled) {
+        enabled = isEnabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Discard everything recorded so far.
+     */
+    public static synchronized void reset() {
+        phases.clear();
+        counts.clear();
+        openTimers.clear();
+    }
+
+    /**
+     * Start an interval of the named phase.  The returned timer must be stopped on the same thread.
+     */
+    public static Timer start(String phase) {
+        final Timer timer = new Timer(phase);
+        if (enabled) {
+            timer.begin();
+        }
+        return timer;
+    }
+
+    /**
+     * Add value to the count of key in the given section of the report.
+     */
+    public static synchronized void count(String section, String key, long value) {
+        if (!enabled) {
+            return;
+        }
+
+        Map<String, Long> sectionCounts = counts.get(section);
+        if (sectionCounts == null) {
+            sectionCounts = new LinkedHashMap<>();
+            counts.put(section, sectionCounts);
+        }
+
+        final Long current = sectionCounts.get(key);
+        sectionCounts.put(key, (current == null ? 0 : current) + value);
+    }
+
+    /**
+     * Count each of objects by the simple name of its class.
+     */
+    public static void countByClass(String section, Collection<?> objects) {
+        if (!enabled) {
+            return;
+        }
+
+        final Map<String, Long> classCounts = new LinkedHashMap<>();
+        for (Object object : objects) {
+            final String key = object == null ? "null" : object.getClass().getSimpleName();
+            final Long current = classCounts.get(key);
+            classCounts.put(key, (current == null ? 0 : current) + 1);
+        }
+
+        for (Map.Entry<String, Long> entry : classCounts.entrySet()) {
+            count(section, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Write the report to reportFile.
+     * @param append if true and reportFile already contains a report, e.g. one written by InferenceMain when
+     *               this is the launcher, add the phases and counts recorded here to it rather than replacing it
+     */
+    @SuppressWarnings("unchecked")
+    public static synchronized void writeReport(File reportFile, boolean append) {
+        if (!enabled) {
+            return;
+        }
+
+        JSONObject report = append ? readReport(reportFile) : new JSONObject();
+        JSONArray phaseArray = (JSONArray) report.get(PHASES_KEY);
+        if (phaseArray == null) {
+            phaseArray = new JSONArray();
+            report.put(PHASES_KEY, phaseArray);
+        }
+
+        for (PhaseStats stats : phases.values()) {
+            phaseArray.add(stats.toJson());
+        }
+
+        JSONObject countsObject = (JSONObject) report.get(COUNTS_KEY);
+        if (countsObject == null) {
+            countsObject = new JSONObject();
+            report.put(COUNTS_KEY, countsObject);
+        }
+
+        for (Map.Entry<String, Map<String, Long>> section : counts.entrySet()) {
+            JSONObject sectionObject = new JSONObject();
+            sectionObject.putAll(section.getValue());
+            countsObject.put(section.getKey(), sectionObject);
+        }
+
+        try (Writer writer = new FileWriter(reportFile)) {
+            report.writeJSONString(writer);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not write profile report " + reportFile, e);
+        }
+    }
+
+    private static JSONObject readReport(File reportFile) {
+        if (!reportFile.isFile()) {
+            return new JSONObject();
+        }
+
+        try (Reader reader = new FileReader(reportFile)) {
+            return (JSONObject) new JSONParser().parse(reader);
+        } catch (IOException | ParseException | ClassCastException e) {
+            logger.log(Level.WARNING, "Overwriting unreadable profile report " + reportFile, e);
+            return new JSONObject();
+        }
+    }
+
+    /**
+     * @return the profile report file that accompanies the given JAIF file
+     */
+    public static File getReportFile(String jaifFile) {
+        final String reportPath = jaifFile.endsWith(".jaif")
+                                ? jaifFile.substring(0, jaifFile.length() - ".jaif".length())
+                                : jaifFile;
+        return new File(reportPath + ".profile.json");
+    }
+
+    //================================================================================
+    // Measurement
+    //================================================================================
+
+    /**
+     * One interval of a phase.
+     */
+    public static class Timer {
+        private final String phase;
+        private boolean running = false;
+        private long startWall;
+        private long startCpu;
+        private long startAllocated;
+        private long peakHeap;
+
+        private Timer(String phase) {
+            this.phase = phase;
+        }
+
+        private void begin() {
+            synchronized (InferenceProfiler.class) {
+                // Keep the peaks of the intervals already running before resetting the pools' peaks for this one
+                updatePeakHeap();
+                resetPeakHeap();
+                openTimers.add(this);
+            }
+
+            running = true;
+            startAllocated = allocatedBytes();
+            startCpu = cpuTime();
+            startWall = System.nanoTime();
+        }
+
+        /**
+         * End this interval and add its figures to its phase.
+         */
+        public void stop() {
+            if (!running) {
+                return;
+            }
+
+            final long wall = System.nanoTime() - startWall;
+            final long cpu = cpuTime() - startCpu;
+            final long allocated = allocatedBytes() - startAllocated;
+            running = false;
+
+            synchronized (InferenceProfiler.class) {
+                updatePeakHeap();
+                openTimers.remove(this);
+
+                PhaseStats stats = phases.get(phase);
+                if (stats == null) {
+                    stats = new PhaseStats(phase);
+                    phases.put(phase, stats);
+                }
+                stats.add(wall, cpu, allocated, peakHeap);
+            }
+        }
+    }
+
+    private static class PhaseStats {
+        private final String name;
+        private long intervals;
+        private long wallNanos;
+        private long cpuNanos;
+        private long allocatedBytes;
+        private long peakHeapBytes;
+
+        private PhaseStats(String name) {
+            this.name = name;
+        }
+
+        private void add(long wall, long cpu, long allocated, long peakHeap) {
+            ++intervals;
+            wallNanos += wall;
+            cpuNanos += cpu;
+            allocatedBytes += allocated;
+            peakHeapBytes = Math.max(peakHeapBytes, peakHeap);
+        }
+
+        @SuppressWarnings("unchecked")
+        private JSONObject toJson() {
+            JSONObject obj = new JSONObject();
+            obj.put("name", name);
+            obj.put("intervals", intervals);
+            obj.put("wallMillis", wallNanos / 1000000);
+            obj.put("cpuMillis", cpuNanos / 1000000);
+            obj.put("allocatedBytes", allocatedBytes);
+            obj.put("peakHeapBytes", peakHeapBytes);
+            return obj;
+        }
+    }
+
+    /**
+     * Fold the current peak heap usage into every open interval.
+     */
+    private static void updatePeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid() && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+
+        for (Timer timer : openTimers) {
+            timer.peakHeap = Math.max(timer.peakHeap, peak);
+        }
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long cpuTime() {
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        return threadBean.isCurrentThreadCpuTimeSupported() ? threadBean.getCurrentThreadCpuTime() : 0;
+    }
+
+    private static long allocatedBytes() {
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean sunThreadBean = (com.sun.management.ThreadMXBean) threadBean;
+            if (sunThreadBean.isThreadAllocatedMemorySupported() && sunThreadBean.isThreadAllocatedMemoryEnabled()) {
+                return sunThreadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return 0;
+    }
+}
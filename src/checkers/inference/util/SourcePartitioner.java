@@ -0,0 +1,277 @@
+package checkers.inference.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Helpers for splitting a list of source files into groups that are compiled by separate javac
+ * instances, each of which must still be able to find the sources of the other groups.
+ */
+public class SourcePartitioner {
+
+    private static final Pattern COMMENT_PATTERN = Pattern.compile("(?s)/\\*.*?\\*/|//[^\\n]*");
+    private static final Pattern PACKAGE_PATTERN =
+            Pattern.compile("^\\s*(?:@[\\w.]+(?:\\([^)]*\\))?\\s*)*package\\s+([\\w.\\s]+?)\\s*;");
+    private static final Pattern IMPORT_PATTERN =
+            Pattern.compile("(?m)^\\s*import\\s+(?:static\\s+)?([\\w.\\s]+?)(?:\\s*\\.\\s*\\*)?\\s*;");
+
+    /**
+     * Split javaFiles into at most numPartitions contiguous groups of roughly equal size in bytes.
+     * Contiguous groups keep files that are listed together (usually files of the same package) in the
+     * same group.  The result only depends on the order and sizes of the files.
+     */
+    public static List<List<String>> partition(List<String> javaFiles, int numPartitions) {
+        List<List<String>> units = new ArrayList<>(javaFiles.size());
+        for (String javaFile : javaFiles) {
+            units.add(Collections.singletonList(javaFile));
+        }
+        return partitionUnits(units, numPartitions);
+    }
+
+    /**
+     * Split javaFiles into at most numPartitions groups of roughly equal size in bytes without splitting
+     * the files of a directory (i.e. of a package, if directories match packages) between groups.
+     * Directories are assigned contiguously in the order in which their first file is listed.
+     */
+    public static List<List<String>> partitionByPackage(List<String> javaFiles, int numPartitions) {
+        Map<String, List<String>> directories = new LinkedHashMap<>();
+        for (String javaFile : javaFiles) {
+            String directory = new File(javaFile).getAbsoluteFile().getParent();
+            List<String> directoryFiles = directories.get(directory);
+            if (directoryFiles == null) {
+                directoryFiles = new ArrayList<>();
+                directories.put(directory, directoryFiles);
+            }
+            directoryFiles.add(javaFile);
+        }
+
+        return partitionUnits(new ArrayList<>(directories.values()), numPartitions);
+    }
+
+    /**
+     * Split units into at most numPartitions contiguous groups of roughly equal size in bytes.
+     */
+    private static List<List<String>> partitionUnits(List<List<String>> units, int numPartitions) {
+        long totalSize = 0;
+        for (List<String> unit : units) {
+            totalSize += unitSize(unit);
+        }
+
+        List<List<String>> partitions = new ArrayList<>(numPartitions);
+        List<String> current = new ArrayList<>();
+        long currentSize = 0;
+        int remainingUnits = units.size();
+
+        for (List<String> unit : units) {
+            current.addAll(unit);
+            currentSize += unitSize(unit);
+            --remainingUnits;
+
+            int remainingPartitions = numPartitions - partitions.size() - 1;
+            boolean isFull = currentSize * numPartitions >= totalSize;
+            if (remainingPartitions > 0 && (isFull || remainingUnits == remainingPartitions)) {
+                partitions.add(current);
+                current = new ArrayList<>();
+                currentSize = 0;
+            }
+        }
+
+        if (!current.isEmpty()) {
+            partitions.add(current);
+        }
+
+        return partitions;
+    }
+
+    /**
+     * Order javaFiles so that the files of a package come after the files of the packages it imports, as far
+     * as import cycles allow.  Packages are otherwise kept in the order in which their first file is listed
+     * and the files of a package in the order in which they are listed.  Files that cannot be read are
+     * treated as files of the default package without imports.
+     */
+    public static List<String> orderByDependencies(List<String> javaFiles) {
+        Map<String, List<String>> packageFiles = new LinkedHashMap<>();
+        Map<String, Set<String>> packageImports = new LinkedHashMap<>();
+        for (String javaFile : javaFiles) {
+            String packageName = "";
+            Set<String> imports = new LinkedHashSet<>();
+            try {
+                String source = readSource(new File(javaFile));
+                packageName = readPackageName(source);
+                Matcher importMatcher = IMPORT_PATTERN.matcher(source);
+                while (importMatcher.find()) {
+                    imports.add(importMatcher.group(1).replaceAll("\\s", ""));
+                }
+            } catch (IOException e) {
+                // ordered as a file without dependencies
+            }
+
+            if (!packageFiles.containsKey(packageName)) {
+                packageFiles.put(packageName, new ArrayList<String>());
+                packageImports.put(packageName, new LinkedHashSet<String>());
+            }
+            packageFiles.get(packageName).add(javaFile);
+            packageImports.get(packageName).addAll(imports);
+        }
+
+        // Imports name classes, members, or packages (on demand imports); map each to the package it is in
+        Map<String, List<String>> dependencies = new LinkedHashMap<>();
+        for (Map.Entry<String, Set<String>> entry : packageImports.entrySet()) {
+            Set<String> packageDependencies = new LinkedHashSet<>();
+            for (String imported : entry.getValue()) {
+                String name = imported;
+                while (!packageFiles.containsKey(name) && name.lastIndexOf('.') > 0) {
+                    name = name.substring(0, name.lastIndexOf('.'));
+                }
+                if (packageFiles.containsKey(name) && !name.equals(entry.getKey())) {
+                    packageDependencies.add(name);
+                }
+            }
+            dependencies.put(entry.getKey(), new ArrayList<>(packageDependencies));
+        }
+
+        List<String> orderedPackages = new ArrayList<>(packageFiles.size());
+        Set<String> visited = new HashSet<>();
+        for (String packageName : packageFiles.keySet()) {
+            addInDependencyOrder(packageName, dependencies, visited, orderedPackages);
+        }
+
+        List<String> orderedFiles = new ArrayList<>(javaFiles.size());
+        for (String packageName : orderedPackages) {
+            orderedFiles.addAll(packageFiles.get(packageName));
+        }
+        return orderedFiles;
+    }
+
+    private static void addInDependencyOrder(String packageName, Map<String, List<String>> dependencies,
+                                             Set<String> visited, List<String> orderedPackages) {
+        // Iterative post-order traversal, package graphs can be deep
+        Deque<String> stack = new ArrayDeque<>();
+        Deque<Integer> nextDependency = new ArrayDeque<>();
+        if (!visited.add(packageName)) {
+            return;
+        }
+        stack.push(packageName);
+        nextDependency.push(0);
+
+        while (!stack.isEmpty()) {
+            String current = stack.peek();
+            int next = nextDependency.pop();
+            List<String> currentDependencies = dependencies.get(current);
+            if (next < currentDependencies.size()) {
+                nextDependency.push(next + 1);
+                String dependency = currentDependencies.get(next);
+                if (visited.add(dependency)) {
+                    stack.push(dependency);
+                    nextDependency.push(0);
+                }
+            } else {
+                orderedPackages.add(stack.pop());
+            }
+        }
+    }
+
+    /**
+     * Split javaFiles into consecutive groups of at most batchSize files.
+     */
+    public static List<List<String>> batch(List<String> javaFiles, int batchSize) {
+        List<List<String>> batches = new ArrayList<>();
+        for (int start = 0; start < javaFiles.size(); start += batchSize) {
+            batches.add(new ArrayList<>(javaFiles.subList(start, Math.min(javaFiles.size(), start + batchSize))));
+        }
+        return batches;
+    }
+
+    /**
+     * Determine the source root of each of the given files from its package declaration.
+     * @return the distinct source roots in the order they are first found or null if the directory of some
+     *         file does not match its package
+     */
+    public static List<String> findSourceRoots(List<String> javaFiles) {
+        Set<String> roots = new LinkedHashSet<>();
+        for (String javaFile : javaFiles) {
+            File root = findSourceRoot(new File(javaFile).getAbsoluteFile());
+            if (root == null) {
+                return null;
+            }
+            roots.add(root.getPath());
+        }
+
+        return new ArrayList<>(roots);
+    }
+
+    private static File findSourceRoot(File javaFile) {
+        String packageName;
+        try {
+            packageName = readPackageName(javaFile);
+        } catch (IOException e) {
+            return null;
+        }
+
+        File root = javaFile.getParentFile();
+        if (packageName.isEmpty()) {
+            return root;
+        }
+
+        String [] segments = packageName.split("\\.");
+        for (int i = segments.length - 1; i >= 0; i--) {
+            if (root == null || !root.getName().equals(segments[i])) {
+                return null;
+            }
+            root = root.getParentFile();
+        }
+
+        return root;
+    }
+
+    /**
+     * @return the package declared by javaFile or the empty string for the default package
+     */
+    private static String readPackageName(File javaFile) throws IOException {
+        return readPackageName(readSource(javaFile));
+    }
+
+    private static String readPackageName(String source) {
+        Matcher packageMatcher = PACKAGE_PATTERN.matcher(source);
+        if (!packageMatcher.find()) {
+            return "";
+        }
+
+        return packageMatcher.group(1).replaceAll("\\s", "");
+    }
+
+    /**
+     * @return the contents of javaFile without comments
+     */
+    private static String readSource(File javaFile) throws IOException {
+        String source = new String(Files.readAllBytes(javaFile.toPath()), Charset.defaultCharset());
+        return COMMENT_PATTERN.matcher(source).replaceAll(" ");
+    }
+
+    private static long unitSize(List<String> javaFiles) {
+        long size = 0;
+        for (String javaFile : javaFiles) {
+            size += fileSize(javaFile);
+        }
+        return size;
+    }
+
+    private static long fileSize(String javaFile) {
+        // count missing files as non-empty so that they are still spread across partitions
+        return Math.max(1, new File(javaFile).length());
+    }
+}
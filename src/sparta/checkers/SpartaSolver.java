@@ -6,8 +6,10 @@ import org.checkerframework.framework.type.QualifierHierarchy;
 import org.checkerframework.framework.util.AnnotationBuilder;
 
 import java.lang.annotation.Annotation;
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -23,6 +25,7 @@ import javax.lang.model.element.ExecutableElement;
 
 import sparta.checkers.quals.Sink;
 import sparta.checkers.quals.Source;
+import checkers.inference.ConstraintIndex;
 import checkers.inference.InferenceSolver;
 import checkers.inference.model.ConstantSlot;
 import checkers.inference.model.Constraint;
@@ -51,8 +54,8 @@ import checkers.inference.model.VariableSlot;
  * to be equal and include all Strings from either set.
  *
  * The algorithm processes list of constraints, adding the Strings to the inferredValues
- * map as needed. The entire list of constraints is processed repeatedly until the inferredValues map
- * no longer changes.
+ * map as needed. When the Strings of a Slot change, the constraints of that Slot (see ConstraintIndex)
+ * are processed again, until the inferredValues map no longer changes.
  *
  * @author mcarthur
  */
@@ -84,45 +87,47 @@ public abstract class SpartaSolver implements InferenceSolver {
         this.processingEnvironment = processingEnvironment;
         this.configuration = configuration;
 
-        // Fixed point
-        boolean changed = true;
-        while (changed) {
-            changed = false;
-
-            for (Constraint constraint : constraints) {
-                if (constraint instanceof SubtypeConstraint) {
-                    Slot subtype = ((SubtypeConstraint)constraint).getSubtype();
-                    Slot supertype = ((SubtypeConstraint)constraint).getSupertype();
-
-                    Set<String> subtypePerms = getInferredSlotPermissions(subtype);
-                    Set<String> supertypePerms = getInferredSlotPermissions(supertype);
-
-                    if (isSinkSolver()) {
-                        if (subtype instanceof VariableSlot) {
-                            changed |= subtypePerms.addAll(supertypePerms);
-                        }
-                    } else {
-                        if (supertype instanceof VariableSlot) {
-                            changed |= supertypePerms.addAll(subtypePerms);
-                        }
+        // Fixed point: every constraint is processed once, after that only the constraints of slots whose
+        // Sets changed are processed again
+        ConstraintIndex index = ConstraintIndex.of(constraints);
+        Deque<Constraint> worklist = new ArrayDeque<>(index);
+        Set<Constraint> queued = new HashSet<>(index);
+        while (!worklist.isEmpty()) {
+            Constraint constraint = worklist.poll();
+            queued.remove(constraint);
+
+            if (constraint instanceof SubtypeConstraint) {
+                Slot subtype = ((SubtypeConstraint)constraint).getSubtype();
+                Slot supertype = ((SubtypeConstraint)constraint).getSupertype();
+
+                Set<String> subtypePerms = getInferredSlotPermissions(subtype);
+                Set<String> supertypePerms = getInferredSlotPermissions(supertype);
+
+                if (isSinkSolver()) {
+                    if (subtype instanceof VariableSlot && subtypePerms.addAll(supertypePerms)) {
+                        requeue((VariableSlot) subtype, index, worklist, queued);
                     }
-                } else if (constraint instanceof EqualityConstraint) {
-                    Slot first = ((EqualityConstraint)constraint).getFirst();
-                    Slot second = ((EqualityConstraint)constraint).getSecond();
+                } else {
+                    if (supertype instanceof VariableSlot && supertypePerms.addAll(subtypePerms)) {
+                        requeue((VariableSlot) supertype, index, worklist, queued);
+                    }
+                }
+            } else if (constraint instanceof EqualityConstraint) {
+                Slot first = ((EqualityConstraint)constraint).getFirst();
+                Slot second = ((EqualityConstraint)constraint).getSecond();
 
-                    Set<String> firstPerms = getInferredSlotPermissions(first);
-                    Set<String> secondPerms = getInferredSlotPermissions(second);
+                Set<String> firstPerms = getInferredSlotPermissions(first);
+                Set<String> secondPerms = getInferredSlotPermissions(second);
 
-                    if (first instanceof VariableSlot) {
-                        changed |= firstPerms.addAll(secondPerms);
-                    }
+                if (first instanceof VariableSlot && firstPerms.addAll(secondPerms)) {
+                    requeue((VariableSlot) first, index, worklist, queued);
+                }
 
-                    if (second instanceof VariableSlot) {
-                        changed |= secondPerms.addAll(firstPerms);
-                    }
-                } else {
-                    logger.info("Ignoring constraint type: " + constraint.getClass());
+                if (second instanceof VariableSlot && secondPerms.addAll(firstPerms)) {
+                    requeue((VariableSlot) second, index, worklist, queued);
                 }
+            } else {
+                logger.info("Ignoring constraint type: " + constraint.getClass());
             }
         }
 
@@ -159,6 +164,17 @@ public abstract class SpartaSolver implements InferenceSolver {
 	}
 
 
+    /**
+     * Add the constraints of a slot whose Set of Strings changed to the worklist, unless they are already on it.
+     */
+    private void requeue(VariableSlot slot, ConstraintIndex index, Deque<Constraint> worklist, Set<Constraint> queued) {
+        for (Constraint constraint : index.getConstraintsOf(slot)) {
+            if (queued.add(constraint)) {
+                worklist.add(constraint);
+            }
+        }
+    }
+
     /**
      * Look up the set of inferred Strings for a Slot.
      *
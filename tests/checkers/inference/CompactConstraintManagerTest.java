@@ -0,0 +1,104 @@
+package checkers.inference;
+
+import checkers.inference.model.CombineConstraint;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SubtypeConstraint;
+import checkers.inference.model.VariableSlot;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CompactConstraintManagerTest {
+
+    @Test
+    public void storesDistinctRows() {
+        CompactConstraintManager manager = new CompactConstraintManager();
+        VariableSlot a = new VariableSlot(null, 1);
+        VariableSlot b = new VariableSlot(null, 2);
+        VariableSlot c = new VariableSlot(null, 3);
+
+        manager.add(new SubtypeConstraint(a, b));
+        manager.add(new SubtypeConstraint(a, b));
+        manager.add(new SubtypeConstraint(b, a));
+        manager.add(new EqualityConstraint(b, c));
+        manager.add(new EqualityConstraint(c, b));
+        manager.add(new CombineConstraint(a, b, c));
+
+        Set<Constraint> expected = new HashSet<Constraint>(Arrays.asList(
+                new SubtypeConstraint(a, b), new SubtypeConstraint(b, a),
+                new EqualityConstraint(b, c), new CombineConstraint(a, b, c)));
+        assertEquals(4, manager.getConstraints().size());
+        assertEquals(expected, new HashSet<>(manager.getConstraints()));
+
+        // contains looks the rows up by their codes
+        assertTrue(manager.getConstraints().contains(new EqualityConstraint(c, b)));
+        assertTrue(manager.getConstraints().contains(new CombineConstraint(a, b, c)));
+        assertFalse(manager.getConstraints().contains(new CombineConstraint(b, a, c)));
+        assertFalse(manager.getConstraints().contains(new SubtypeConstraint(a, c)));
+        assertFalse(manager.getConstraints().contains(new SubtypeConstraint(a, new VariableSlot(null, 4))));
+    }
+
+    @Test
+    public void rowsOfAfterInterleavedAdds() {
+        CompactConstraintManager manager = new CompactConstraintManager();
+        VariableSlot a = new VariableSlot(null, 1);
+        VariableSlot b = new VariableSlot(null, 2);
+        VariableSlot c = new VariableSlot(null, 3);
+
+        manager.add(new SubtypeConstraint(a, b));
+        assertEquals(1, manager.getRowsOf(1).length);
+        assertEquals(0, manager.getRowsOf(3).length);
+
+        // A duplicate adds no row, a new row is found by both of its slots
+        manager.add(new SubtypeConstraint(a, b));
+        assertEquals(1, manager.getRowsOf(1).length);
+        manager.add(new SubtypeConstraint(c, a));
+        manager.add(new EqualityConstraint(b, c));
+        int [] rows = manager.getRowsOf(3);
+        assertEquals(2, rows.length);
+        assertEquals(new HashSet<Constraint>(Arrays.asList(new SubtypeConstraint(c, a),
+                                                           new EqualityConstraint(b, c))),
+                     new HashSet<>(Arrays.asList(manager.getConstraint(rows[0]), manager.getConstraint(rows[1]))));
+
+        manager.add(new SubtypeConstraint(b, a));
+        rows = manager.getRowsOf(1);
+        assertEquals(3, rows.length);
+        int incoming = 0;
+        for (int row : rows) {
+            if (manager.getKind(row) == CompactConstraintManager.SUBTYPE && manager.getSecond(row) == 1) {
+                Slot subtype = manager.getSlot(manager.getFirst(row));
+                assertTrue(subtype == b || subtype == c);
+                incoming++;
+            }
+        }
+        assertEquals(2, incoming);
+        assertEquals(4, manager.getRowCount());
+    }
+
+    @Test
+    public void growsPastInitialCapacity() {
+        CompactConstraintManager manager = new CompactConstraintManager();
+        VariableSlot [] slots = new VariableSlot[5001];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new VariableSlot(null, i + 1);
+        }
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < slots.length - 1; i++) {
+                manager.add(new SubtypeConstraint(slots[i], slots[i + 1]));
+            }
+        }
+
+        assertEquals(slots.length - 1, manager.getConstraints().size());
+        assertEquals(2, manager.getRowsOf(slots[100].getId()).length);
+        assertTrue(manager.getConstraints().contains(new SubtypeConstraint(slots[4999], slots[5000])));
+    }
+}
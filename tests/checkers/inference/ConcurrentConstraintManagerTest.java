@@ -0,0 +1,88 @@
+package checkers.inference;
+
+import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.SubtypeConstraint;
+import checkers.inference.model.VariableSlot;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ConcurrentConstraintManagerTest {
+
+    private static final int THREADS = 8;
+    private static final int SLOTS = 2000;
+
+    @Test
+    public void concurrentAddsAreDeduplicated() throws Exception {
+        final VariableSlot [] slots = new VariableSlot[SLOTS];
+        for (int i = 0; i < SLOTS; i++) {
+            slots[i] = new VariableSlot(null, i + 1);
+        }
+
+        final ConcurrentConstraintManager manager = new ConcurrentConstraintManager();
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final List<Future<List<Constraint>>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            results.add(executor.submit(new Callable<List<Constraint>>() {
+                @Override
+                public List<Constraint> call() throws Exception {
+                    start.await();
+                    manager.startRecording();
+                    // Every thread adds every constraint, starting at a different offset
+                    for (int i = 0; i < SLOTS - 1; i++) {
+                        final int from = (i + thread * SLOTS / THREADS) % (SLOTS - 1);
+                        manager.add(new SubtypeConstraint(slots[from], slots[from + 1]));
+                    }
+                    return manager.stopRecording();
+                }
+            }));
+        }
+
+        start.countDown();
+        for (Future<List<Constraint>> result : results) {
+            assertEquals(SLOTS - 1, result.get().size());
+            assertEquals(SLOTS - 1, new HashSet<>(result.get()).size());
+        }
+        executor.shutdown();
+
+        final Set<Constraint> expected = new HashSet<>();
+        for (int i = 0; i < SLOTS - 1; i++) {
+            expected.add(new SubtypeConstraint(slots[i], slots[i + 1]));
+        }
+        assertEquals(SLOTS - 1, manager.getConstraints().size());
+        assertEquals(expected, new HashSet<>(manager.getConstraints()));
+    }
+
+    @Test
+    public void concurrentCreateHashConses() throws InterruptedException {
+        final ConcurrentConstraintManager manager = new ConcurrentConstraintManager();
+        final VariableSlot a = new VariableSlot(null, 1);
+        final VariableSlot b = new VariableSlot(null, 2);
+        manager.addEqualityConstraint(a, b);
+
+        final EqualityConstraint [] created = new EqualityConstraint[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                created[0] = manager.createEqualityConstraint(b, a);
+            }
+        };
+        thread.start();
+        thread.join();
+        assertSame(manager.createEqualityConstraint(a, b), created[0]);
+    }
+}
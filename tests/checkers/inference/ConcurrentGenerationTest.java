@@ -0,0 +1,188 @@
+package checkers.inference;
+
+import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.VariableSlot;
+import org.junit.Test;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.TypeElement;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.ToolProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Generates slots and constraints from several threads at once with a ConcurrentSlotManager and a
+ * ConcurrentConstraintManager, the way the visitors of a parallel generation use them.  The slot manager needs
+ * a ProcessingEnvironment to build VarAnnots, so the generation runs in an annotation processor of a javac
+ * instance that compiles nothing.
+ */
+public class ConcurrentGenerationTest {
+
+    private static final int THREADS = 8;
+    private static final int VARIABLES_PER_THREAD = 2000;
+    private static final int SHARED = 16;
+
+    @Test
+    public void concurrentGenerationKeepsEverySlotAndConstraint() throws Exception {
+        final GenerationProcessor processor = new GenerationProcessor();
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final JavaCompiler.CompilationTask task = compiler.getTask(null, null, null,
+                Arrays.asList("-proc:only", "-classpath", System.getProperty("java.class.path")),
+                Collections.singletonList("java.lang.Object"), Collections.<JavaFileObject>emptyList());
+        task.setProcessors(Collections.singletonList(processor));
+        task.call();
+        if (processor.failure != null) {
+            throw processor.failure;
+        }
+
+        final ConcurrentSlotManager slotManager = processor.slotManager;
+        final ConcurrentConstraintManager constraintManager = processor.constraintManager;
+
+        // Every id was handed out once, and each variable has its own VarAnnot
+        final Set<Integer> ids = new HashSet<>();
+        for (List<VariableSlot> variables : processor.variables) {
+            for (VariableSlot variable : variables) {
+                assertTrue(ids.add(variable.getId()));
+                assertSame(variable, slotManager.getVariable(variable.getId()));
+                final AnnotationMirror annotation = slotManager.getAnnotation(variable);
+                assertEquals(variable.getId(), DefaultSlotManager.decodeVarAnnotId(annotation));
+            }
+        }
+        assertEquals(THREADS * VARIABLES_PER_THREAD + SHARED, slotManager.getVariableSlots().size());
+
+        // The VarAnnots of the shared variables were built once, whichever thread asked first
+        for (List<AnnotationMirror> annotations : processor.sharedAnnotations) {
+            for (int i = 0; i < SHARED; i++) {
+                assertSame(slotManager.getAnnotation(processor.shared[i]), annotations.get(i));
+            }
+        }
+
+        // One subtype constraint per variable, and the equalities between shared variables that every thread
+        // added are kept once and hash-consed
+        assertEquals(THREADS * VARIABLES_PER_THREAD + SHARED - 1, constraintManager.getConstraints().size());
+        for (int i = 1; i < SHARED; i++) {
+            final EqualityConstraint equality =
+                    constraintManager.createEqualityConstraint(processor.shared[i], processor.shared[i - 1]);
+            assertTrue(constraintManager.getConstraints().contains(equality));
+            assertSame(equality, constraintManager.createEqualityConstraint(processor.shared[i - 1],
+                                                                            processor.shared[i]));
+        }
+
+        // Each thread recorded what it added, including the constraints another thread added first
+        for (List<Constraint> recorded : processor.recorded) {
+            assertEquals(VARIABLES_PER_THREAD + SHARED - 1, recorded.size());
+        }
+    }
+
+    private static class GenerationProcessor extends AbstractProcessor {
+        private ConcurrentSlotManager slotManager;
+        private ConcurrentConstraintManager constraintManager;
+        private VariableSlot [] shared;
+
+        private final List<List<VariableSlot>> variables = new ArrayList<>();
+        private final List<List<AnnotationMirror>> sharedAnnotations = new ArrayList<>();
+        private final List<List<Constraint>> recorded = new ArrayList<>();
+
+        private Exception failure;
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return Collections.singleton("*");
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return SourceVersion.latestSupported();
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            if (slotManager == null && !roundEnv.processingOver()) {
+                try {
+                    generate(processingEnv);
+                } catch (Exception e) {
+                    failure = e;
+                }
+            }
+            return false;
+        }
+
+        private void generate(ProcessingEnvironment processingEnvironment) throws Exception {
+            slotManager = new ConcurrentSlotManager(processingEnvironment,
+                                                    Collections.<Class<? extends Annotation>>emptySet());
+            constraintManager = new ConcurrentConstraintManager();
+            shared = new VariableSlot[SHARED];
+            for (int i = 0; i < SHARED; i++) {
+                shared[i] = new VariableSlot(null, slotManager.nextId());
+                slotManager.addVariable(shared[i]);
+            }
+
+            final CountDownLatch start = new CountDownLatch(1);
+            final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+            final List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final List<VariableSlot> threadVariables = new ArrayList<>();
+                final List<AnnotationMirror> threadAnnotations = new ArrayList<>();
+                variables.add(threadVariables);
+                sharedAnnotations.add(threadAnnotations);
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        constraintManager.startRecording();
+                        for (int i = 0; i < VARIABLES_PER_THREAD; i++) {
+                            final VariableSlot variable = new VariableSlot(null, slotManager.nextId());
+                            slotManager.addVariable(variable);
+                            slotManager.getAnnotation(variable);
+                            threadVariables.add(variable);
+
+                            final VariableSlot target = shared[i % SHARED];
+                            constraintManager.add(constraintManager.createSubtypeConstraint(variable, target));
+                            if (i < SHARED) {
+                                threadAnnotations.add(slotManager.getAnnotation(target));
+                                if (i > 0) {
+                                    constraintManager.addEqualityConstraint(shared[i - 1], target);
+                                }
+                            }
+                        }
+                        synchronized (recorded) {
+                            recorded.add(constraintManager.stopRecording());
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            start.countDown();
+            try {
+                for (Future<?> result : results) {
+                    result.get();
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+}
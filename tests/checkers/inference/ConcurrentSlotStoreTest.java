@@ -0,0 +1,65 @@
+package checkers.inference;
+
+import checkers.inference.model.RefinementVariableSlot;
+import checkers.inference.model.VariableSlot;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ConcurrentSlotStoreTest {
+
+    private static final int THREADS = 8;
+    private static final int SLOTS_PER_THREAD = 5000;
+
+    @Test
+    public void concurrentPuts() throws Exception {
+        final ConcurrentSlotStore store = new ConcurrentSlotStore();
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    // Interleave the ids of the threads so that they share pages
+                    for (int i = 0; i < SLOTS_PER_THREAD; i++) {
+                        final int id = i * THREADS + thread + 1;
+                        final VariableSlot variable = new VariableSlot(null, id);
+                        store.put(id % 3 == 0 ? new RefinementVariableSlot(null, id, variable) : variable);
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+
+        final int total = THREADS * SLOTS_PER_THREAD;
+        assertEquals(total, store.size());
+        assertEquals(total / 3, store.size(SlotStore.Kind.REFINEMENT));
+        assertEquals(total - total / 3, store.size(SlotStore.Kind.VARIABLE));
+
+        final List<VariableSlot> all = store.getAll();
+        assertEquals(total, all.size());
+        for (int i = 0; i < total; i++) {
+            assertEquals(i + 1, all.get(i).getId());
+            assertSame(all.get(i), store.get(i + 1));
+        }
+        assertEquals(total / 3, store.getAll(SlotStore.Kind.REFINEMENT).size());
+    }
+}
@@ -0,0 +1,51 @@
+package checkers.inference;
+
+import checkers.inference.ConstraintCache.EntryHeader;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConstraintCacheTest {
+
+    @Test
+    public void invalidatesReferrersTransitively() {
+        // c.C refers to b.B, which refers to the changed a.A, d.D refers to nothing that changed
+        Map<String, EntryHeader> candidates = new LinkedHashMap<>();
+        candidates.put("B.java", header("B.java", set("b.B"), set("a.A")));
+        candidates.put("C.java", header("C.java", set("c.C"), set("b.B", "x.X")));
+        candidates.put("D.java", header("D.java", set("d.D"), set("x.X")));
+        candidates.put("E.java", header("E.java", set("e.E"), set("c.C")));
+
+        assertEquals(set("B.java", "C.java", "E.java"), ConstraintCache.findInvalidated(candidates, set("a.A")));
+        assertEquals(Collections.<String>emptySet(), ConstraintCache.findInvalidated(candidates, set("y.Y")));
+    }
+
+    @Test
+    public void parsesNewDeclarations() throws IOException {
+        File source = File.createTempFile("Moved", ".java");
+        try {
+            Files.write(source.toPath(), "package p; class Moved { class Inner {} } interface Other {}".getBytes());
+            assertEquals(set("p.Moved", "p.Other"), ConstraintCache.parseDeclaredClasses(Arrays.asList(source)));
+        } finally {
+            source.delete();
+        }
+    }
+
+    private static EntryHeader header(String sourcePath, Set<String> declaredClasses, Set<String> referencedClasses) {
+        return new EntryHeader(sourcePath, "hash", declaredClasses, referencedClasses);
+    }
+
+    private static Set<String> set(String ... strings) {
+        return new HashSet<>(Arrays.asList(strings));
+    }
+}
@@ -0,0 +1,65 @@
+package checkers.inference;
+
+import checkers.inference.model.CombineConstraint;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.SubtypeConstraint;
+import checkers.inference.model.VariableSlot;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConstraintIndexTest {
+
+    @Test
+    public void neighborhoods() {
+        VariableSlot a = new VariableSlot(null, 1);
+        VariableSlot b = new VariableSlot(null, 2);
+        VariableSlot c = new VariableSlot(null, 5000);
+        Constraint ab = new SubtypeConstraint(a, b);
+        Constraint aa = new SubtypeConstraint(a, a);
+        Constraint ca = new EqualityConstraint(c, a);
+        Constraint abc = new CombineConstraint(a, b, c);
+
+        ConstraintIndex index = new ConstraintIndex();
+        index.add(ab);
+        index.add(ca);
+        index.add(aa);
+        index.add(abc);
+        assertFalse(index.add(new SubtypeConstraint(a, b)));
+        assertSame(ab, index.find(new SubtypeConstraint(a, b)));
+        assertEquals(Arrays.asList(ab, aa), index.getOutgoing(a));
+        assertEquals(Arrays.asList(ca, aa), index.getIncoming(a));
+        assertEquals(Arrays.asList(ab, aa, ca, abc), index.getConstraintsOf(a));
+        assertEquals(5, index.getDegree(a));
+        assertEquals(Arrays.asList(ca, abc), index.getConstraintsOf(c));
+        assertEquals(Collections.<Constraint>emptyList(), index.getConstraintsOf(new VariableSlot(null, 3)));
+    }
+
+    @Test
+    public void removeUpdatesIndex() {
+        VariableSlot a = new VariableSlot(null, 1);
+        VariableSlot b = new VariableSlot(null, 2);
+        ConstraintIndex index = ConstraintIndex.of(Arrays.<Constraint>asList(
+                new SubtypeConstraint(a, b), new CombineConstraint(a, b, b)));
+        assertSame(index, ConstraintIndex.of(index));
+
+        assertTrue(index.remove(new SubtypeConstraint(a, b)));
+        assertFalse(index.contains(new SubtypeConstraint(a, b)));
+        assertTrue(index.getOutgoing(a).isEmpty());
+        assertTrue(index.getIncoming(b).isEmpty());
+
+        Iterator<Constraint> iterator = index.iterator();
+        iterator.next();
+        iterator.remove();
+        assertTrue(index.isEmpty());
+        assertEquals(0, index.getDegree(b));
+    }
+}
@@ -0,0 +1,60 @@
+package checkers.inference;
+
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SubtypeConstraint;
+import checkers.inference.model.VariableSlot;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class ConstraintManagerTest {
+
+    @Test
+    public void createHashConses() {
+        ConstraintManager manager = new ConstraintManager();
+        VariableSlot a = new VariableSlot(null, 1);
+        VariableSlot b = new VariableSlot(null, 2);
+
+        // Constraints are interned once they are added
+        SubtypeConstraint subtype = manager.createSubtypeConstraint(a, b);
+        assertNotSame(subtype, manager.createSubtypeConstraint(a, b));
+        manager.add(subtype);
+        assertSame(subtype, manager.createSubtypeConstraint(new VariableSlot(null, 1), b));
+        assertNotSame(subtype, manager.createSubtypeConstraint(b, a));
+
+        // Equality is symmetric
+        manager.addEqualityConstraint(a, b);
+        EqualityConstraint equality = manager.createEqualityConstraint(a, b);
+        assertSame(equality, manager.createEqualityConstraint(b, a));
+
+        ConstantSlot goal = new ConstantSlot(null);
+        manager.add(manager.createPreferenceConstraint(a, goal, 2));
+        assertSame(manager.createPreferenceConstraint(a, goal, 2), manager.createPreferenceConstraint(a, goal, 2));
+        assertNotSame(manager.createPreferenceConstraint(a, goal, 2), manager.createPreferenceConstraint(a, goal, 3));
+
+        manager.addCombineConstraint(a, b, goal);
+        assertSame(manager.createCombineConstraint(a, b, goal), manager.createCombineConstraint(a, b, goal));
+        assertNotSame(manager.createCombineConstraint(a, b, goal), manager.createCombineConstraint(b, a, goal));
+
+        manager.addSubtypeConstraint(a, b);
+        manager.add(new SubtypeConstraint(a, b));
+        assertEquals(4, manager.getConstraints().size());
+    }
+
+    @Test
+    public void slotsOfFieldConstraints() {
+        VariableSlot a = new VariableSlot(null, 1);
+        VariableSlot b = new VariableSlot(null, 2);
+        SubtypeConstraint subtype = new SubtypeConstraint(a, b);
+
+        assertEquals(Arrays.<Slot>asList(a, b), subtype.getSlots());
+        assertEquals(new SubtypeConstraint(a, b).hashCode(), subtype.hashCode());
+        assertEquals("SubtypeConstraint: [VariableSlot(1), VariableSlot(2)]", subtype.toString());
+    }
+}
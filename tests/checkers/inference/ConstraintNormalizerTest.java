@@ -0,0 +1,193 @@
+package checkers.inference;
+
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.ExistentialConstraint;
+import checkers.inference.model.ExistentialVariableSlot;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SubtypeConstraint;
+import checkers.inference.model.VariableSlot;
+import checkers.inference.model.serialization.JsonSerializer;
+import org.json.simple.JSONArray;
+import org.junit.Test;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.TypeElement;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.ToolProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConstraintNormalizerTest {
+
+    private static final int FIRST_SELECTOR_ID = 1000000;
+
+    @Test
+    public void parallelNormalizationMatchesSequential() {
+        List<VariableSlot> potentials = new ArrayList<>();
+        for (int i = 1; i <= 50; i++) {
+            potentials.add(new VariableSlot(null, i));
+        }
+
+        // Enough constraints for several chunks, with existential constraints on the same potential slots in each
+        List<Constraint> constraints = new ArrayList<>();
+        int id = 1000;
+        for (int i = 0; i < 140000; i++) {
+            VariableSlot variable = new VariableSlot(null, id++);
+            if (i % 7 == 0) {
+                VariableSlot potential = potentials.get(i % potentials.size());
+                VariableSlot alternative = potentials.get((i / 7) % potentials.size());
+                Slot existential = new ExistentialVariableSlot(id++, potential, alternative);
+                constraints.add(new SubtypeConstraint(existential, variable));
+            } else {
+                constraints.add(new SubtypeConstraint(variable, potentials.get(i % potentials.size())));
+            }
+        }
+
+        // With the default limit the existential constraints are expanded, with 1 they are kept on selectors,
+        // which get the same ids either way
+        for (int expansionLimit : new int[] { ConstraintNormalizer.DEFAULT_EXISTENTIAL_EXPANSION_LIMIT, 1 }) {
+            Set<Constraint> sequential = newNormalizer(expansionLimit).normalize(constraints, 1);
+            Set<Constraint> parallel = newNormalizer(expansionLimit).normalize(constraints, 4);
+
+            // ExistentialConstraints are compared by identity, so compare the constraints by their text
+            assertEquals(sequential.size(), parallel.size());
+            assertEquals(sortedStrings(sequential), sortedStrings(parallel));
+        }
+    }
+
+    @Test
+    public void selectorsOverExpansionLimit() {
+        VariableSlot p1 = new VariableSlot(null, 1);
+        VariableSlot p2 = new VariableSlot(null, 2);
+        VariableSlot alternative = new VariableSlot(null, 3);
+        VariableSlot other = new VariableSlot(null, 4);
+        ExistentialVariableSlot inner = new ExistentialVariableSlot(5, p2, alternative);
+        ExistentialVariableSlot outer = new ExistentialVariableSlot(6, p1, inner);
+
+        // Three pairs, one more than the limit
+        SubtypeConstraint overLimit = new SubtypeConstraint(outer, other);
+        SubtypeConstraint innerOnly = new SubtypeConstraint(other, inner);
+        SlotManager slotManager = newSlotManager();
+        Set<Constraint> normalized = newNormalizer(slotManager, 2).normalize(
+                Arrays.<Constraint>asList(overLimit, innerOnly));
+
+        // The constraint over the limit is rewritten onto the selectors, new variables of the SlotManager created
+        // in the order of the ids of the ExistentialVariables, one ExistentialConstraint ties each selector to its
+        // potential slot and the constraint within the limit is expanded
+        VariableSlot innerSelector = slotManager.getVariable(FIRST_SELECTOR_ID);
+        VariableSlot outerSelector = slotManager.getVariable(FIRST_SELECTOR_ID + 1);
+        assertEquals(FIRST_SELECTOR_ID + 2, slotManager.nextId());
+        assertTrue(normalized.contains(new SubtypeConstraint(outerSelector, other)));
+        assertFalse(normalized.contains(overLimit));
+        assertFalse(normalized.contains(innerOnly));
+        List<ExistentialConstraint> existentials = new ArrayList<>();
+        for (Constraint constraint : normalized) {
+            if (constraint instanceof ExistentialConstraint) {
+                existentials.add((ExistentialConstraint) constraint);
+            }
+        }
+        assertEquals(3, existentials.size());
+
+        ExistentialConstraint selector = null;
+        for (ExistentialConstraint existential : existentials) {
+            if (existential.getPotentialVariable() == p1) {
+                selector = existential;
+            }
+        }
+        assertEquals(Arrays.<Constraint>asList(new EqualityConstraint(outerSelector, p1)),
+                     selector.potentialConstraints());
+        assertEquals(Arrays.<Constraint>asList(new EqualityConstraint(outerSelector, innerSelector)),
+                     selector.getAlternateConstraints());
+
+        // Every use of an ExistentialVariable refers to its one selector
+        assertSame(outerSelector, ((EqualityConstraint) selector.potentialConstraints().get(0)).getFirst());
+        assertSame(outerSelector, ((EqualityConstraint) selector.getAlternateConstraints().get(0)).getFirst());
+    }
+
+    @Test
+    public void overLimitOutputSerializes() {
+        VariableSlot p1 = new VariableSlot(null, 1);
+        VariableSlot p2 = new VariableSlot(null, 2);
+        VariableSlot p3 = new VariableSlot(null, 3);
+        VariableSlot alternative = new VariableSlot(null, 4);
+        ExistentialVariableSlot left = new ExistentialVariableSlot(10, p1, new ExistentialVariableSlot(11, p2, p3));
+        ExistentialVariableSlot right = new ExistentialVariableSlot(12, p3, alternative);
+
+        Set<Constraint> normalized = newNormalizer(1).normalize(Arrays.<Constraint>asList(
+                new SubtypeConstraint(left, right), new EqualityConstraint(right, p1)));
+
+        // No ExistentialVariable is left for the serializers, which reject them
+        JsonSerializer serializer = new JsonSerializer(Collections.<Slot>emptyList(), normalized, null, null);
+        JSONArray serialized = (JSONArray) serializer.generateConstraintFile().get("constraints");
+        assertEquals(normalized.size(), serialized.size());
+    }
+
+    private static ConstraintNormalizer newNormalizer(int expansionLimit) {
+        return newNormalizer(newSlotManager(), expansionLimit);
+    }
+
+    private static ConstraintNormalizer newNormalizer(SlotManager slotManager, int expansionLimit) {
+        return new ConstraintNormalizer(slotManager, Collections.<VariableSlot, ConstantSlot>emptyMap(),
+                                        Collections.<Normalizer>emptyList(), expansionLimit);
+    }
+
+    /**
+     * @return a SlotManager whose ids start above those of the slots of the tests.  A SlotManager needs a
+     * ProcessingEnvironment, so it is created in an annotation processor of a javac instance that compiles
+     * nothing, as in ConcurrentGenerationTest.
+     */
+    private static SlotManager newSlotManager() {
+        final SlotManager [] slotManager = new SlotManager[1];
+        final AbstractProcessor processor = new AbstractProcessor() {
+            @Override
+            public Set<String> getSupportedAnnotationTypes() {
+                return Collections.singleton("*");
+            }
+
+            @Override
+            public SourceVersion getSupportedSourceVersion() {
+                return SourceVersion.latestSupported();
+            }
+
+            @Override
+            public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+                if (slotManager[0] == null) {
+                    slotManager[0] = new DefaultSlotManager(processingEnv,
+                            Collections.<Class<? extends Annotation>>emptySet(), FIRST_SELECTOR_ID, Integer.MAX_VALUE);
+                }
+                return false;
+            }
+        };
+
+        final JavaCompiler.CompilationTask task = ToolProvider.getSystemJavaCompiler().getTask(null, null, null,
+                Arrays.asList("-proc:only", "-classpath", System.getProperty("java.class.path")),
+                Collections.singletonList("java.lang.Object"), Collections.<JavaFileObject>emptyList());
+        task.setProcessors(Collections.singletonList(processor));
+        task.call();
+        return slotManager[0];
+    }
+
+    private static List<String> sortedStrings(Set<Constraint> constraints) {
+        List<String> strings = new ArrayList<>();
+        for (Constraint constraint : constraints) {
+            strings.add(constraint.toString());
+        }
+        Collections.sort(strings);
+        return strings;
+    }
+}
@@ -0,0 +1,78 @@
+package checkers.inference;
+
+import annotations.io.ASTPath;
+import annotations.io.ASTRecord;
+import checkers.inference.model.AnnotationLocation;
+import checkers.inference.model.AnnotationLocation.AstPathLocation;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.VariableSlot;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.Tree;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class DeclarationSlotRegistryTest {
+
+    @Test
+    public void matchesDeclarationsAcrossWorkers() {
+        // Each worker parses the declaring file with its own javac instance
+        CompilationUnitTree firstUnit = newCompilationUnit();
+        CompilationUnitTree secondUnit = newCompilationUnit();
+
+        VariableSlot firstField = new VariableSlot(fieldLocation(firstUnit, "f"), 1);
+        VariableSlot firstOther = new VariableSlot(fieldLocation(firstUnit, "g"), 2);
+        VariableSlot secondField = new VariableSlot(fieldLocation(secondUnit, "f"), 101);
+        VariableSlot secondLocal = new VariableSlot(AnnotationLocation.MISSING_LOCATION, 102);
+
+        DeclarationSlotRegistry registry = new DeclarationSlotRegistry();
+        assertEquals(Collections.<Constraint>emptyList(), registry.register(Arrays.asList(firstField, firstOther)));
+        assertEquals(Arrays.<Constraint>asList(new EqualityConstraint(firstField, secondField)),
+                     registry.register(Arrays.asList(secondField, secondLocal)));
+    }
+
+    @Test
+    public void laterBatchesFindTheOwnerSlot() {
+        CompilationUnitTree firstUnit = newCompilationUnit();
+        CompilationUnitTree secondUnit = newCompilationUnit();
+
+        VariableSlot field = new VariableSlot(fieldLocation(firstUnit, "f"), 1);
+        DeclarationSlotRegistry registry = new DeclarationSlotRegistry();
+        registry.register(Arrays.asList(field));
+
+        assertSame(field, registry.getOwner(fieldLocation(secondUnit, "f")));
+        assertNull(registry.getOwner(fieldLocation(secondUnit, "g")));
+        assertNull(registry.getOwner(AnnotationLocation.MISSING_LOCATION));
+    }
+
+    private static AnnotationLocation fieldLocation(CompilationUnitTree compilationUnit, String field) {
+        ASTRecord record = new ASTRecord(compilationUnit, "p.C", null, field, ASTPath.empty())
+                .extend(Tree.Kind.VARIABLE, "type", -1);
+        return new AstPathLocation(record);
+    }
+
+    private static CompilationUnitTree newCompilationUnit() {
+        return (CompilationUnitTree) Proxy.newProxyInstance(
+                CompilationUnitTree.class.getClassLoader(), new Class<?>[] { CompilationUnitTree.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("equals")) {
+                            return proxy == args[0];
+                        } else if (method.getName().equals("hashCode")) {
+                            return System.identityHashCode(proxy);
+                        }
+                        return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,69 @@
+package checkers.inference;
+
+import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.ExistentialConstraint;
+import checkers.inference.model.InequalityConstraint;
+import checkers.inference.model.SubtypeConstraint;
+import checkers.inference.model.VariableSlot;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class EqualityCollapserTest {
+
+    @Test
+    public void rewritesOntoRepresentatives() {
+        VariableSlot a = new VariableSlot(null, 3);
+        VariableSlot b = new VariableSlot(null, 1);
+        VariableSlot c = new VariableSlot(null, 2);
+        VariableSlot d = new VariableSlot(null, 4);
+        VariableSlot e = new VariableSlot(null, 5);
+
+        EqualityCollapser collapser = new EqualityCollapser();
+        List<Constraint> output = normalize(collapser,
+                new EqualityConstraint(a, b),
+                new SubtypeConstraint(a, d),
+                new EqualityConstraint(d, e),
+                new EqualityConstraint(c, a),
+                new SubtypeConstraint(c, b),
+                new InequalityConstraint(a, c),
+                new ExistentialConstraint(e, Collections.<Constraint>singletonList(new SubtypeConstraint(e, a)),
+                                          Collections.<Constraint>emptyList()));
+
+        // {1, 2, 3} and {4, 5} are merged into 1 and 4, c <: b is dropped as it becomes b <: b
+        assertSame(b, collapser.getRepresentative(a));
+        assertSame(b, collapser.getRepresentative(c));
+        assertSame(d, collapser.getRepresentative(e));
+        assertSame(d, collapser.getRepresentative(d));
+        assertEquals(3, output.size());
+        assertEquals(new SubtypeConstraint(b, d), output.get(0));
+        assertEquals(new InequalityConstraint(b, b), output.get(1));
+
+        // The potential variable of an existential constraint is kept
+        ExistentialConstraint existential = (ExistentialConstraint) output.get(2);
+        assertSame(e, existential.getPotentialVariable());
+        assertEquals(Arrays.<Constraint>asList(new SubtypeConstraint(d, b)), existential.potentialConstraints());
+    }
+
+    private static List<Constraint> normalize(Normalizer stage, Constraint ... constraints) {
+        final List<Constraint> output = new ArrayList<>();
+        Normalizer.Output next = new Normalizer.Output() {
+            @Override
+            public void add(Constraint constraint) {
+                output.add(constraint);
+            }
+        };
+        for (Constraint constraint : constraints) {
+            stage.normalize(constraint, next);
+        }
+        stage.finish(next);
+        return output;
+    }
+}
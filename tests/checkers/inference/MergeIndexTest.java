@@ -0,0 +1,79 @@
+package checkers.inference;
+
+import checkers.inference.model.CombVariableSlot;
+import checkers.inference.model.VariableSlot;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MergeIndexTest {
+
+    @Test
+    public void chainedMerges() {
+        MergeIndex index = new MergeIndex();
+        VariableSlot a = new VariableSlot(null, 1);
+        VariableSlot b = new VariableSlot(null, 2);
+        VariableSlot c = new VariableSlot(null, 3);
+        CombVariableSlot ab = new CombVariableSlot(null, 4, a, b);
+        index.addMerge(a, ab);
+        index.addMerge(b, ab);
+
+        CombVariableSlot abc = new CombVariableSlot(null, 5, ab, c);
+        index.addMerge(ab, abc);
+        index.addMerge(c, abc);
+
+        assertTrue(index.isMergedTo(a, ab));
+        assertTrue(index.isMergedTo(a, abc));
+        assertTrue(index.isMergedTo(c, abc));
+        assertFalse(index.isMergedTo(c, ab));
+        assertFalse(index.isMergedTo(abc, a));
+        assertTrue(a.isMergedTo(abc));
+    }
+
+    @Test
+    public void mergeIntoExistingMergeVariable() {
+        MergeIndex index = new MergeIndex();
+        VariableSlot a = new VariableSlot(null, 1);
+        VariableSlot b = new VariableSlot(null, 2);
+        VariableSlot d = new VariableSlot(null, 3);
+        CombVariableSlot ab = new CombVariableSlot(null, 10, a, b);
+        CombVariableSlot top = new CombVariableSlot(null, 11, ab, b);
+        index.addMerge(ab, top);
+        assertFalse(index.isMergedTo(d, top));
+
+        // Merging d to ab later must also make it reach the merge variables ab is merged to
+        index.addMerge(d, ab);
+        assertTrue(index.isMergedTo(d, ab));
+        assertTrue(index.isMergedTo(d, top));
+    }
+
+    @Test
+    public void spaceIsLinearInMerges() {
+        // Many methods, each joining its own slots in a chain of merge variables
+        MergeIndex index = new MergeIndex();
+        final int methods = 50000;
+        final int joins = 8;
+        int id = 1;
+        long expected = 0;
+        for (int method = 0; method < methods; method++) {
+            VariableSlot first = new VariableSlot(null, id++);
+            VariableSlot previous = first;
+            for (int join = 1; join <= joins; join++) {
+                VariableSlot other = new VariableSlot(null, id++);
+                CombVariableSlot merge = new CombVariableSlot(null, id++, previous, other);
+                index.addMerge(previous, merge);
+                index.addMerge(other, merge);
+                previous = merge;
+                expected += 2 * join;
+            }
+
+            assertTrue(index.isMergedTo(first, previous));
+            assertFalse(index.isMergedTo(previous, first));
+        }
+
+        // Each merge variable keeps the slots of its own method only
+        assertEquals(expected, index.getMergedSlotCount());
+    }
+}
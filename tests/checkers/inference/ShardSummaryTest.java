@@ -0,0 +1,207 @@
+package checkers.inference;
+
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.ExistentialConstraint;
+import checkers.inference.model.InequalityConstraint;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SubtypeConstraint;
+import checkers.inference.model.VariableSlot;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.type.DeclaredType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ShardSummaryTest {
+
+    private static final ConstantSlot TOP = constant("@Top");
+    private static final ConstantSlot BOTTOM = constant("@Bottom");
+
+    @Test
+    public void shardedMatchesUnsharded() {
+        // s1 and s2 are declared in shard A, s3 in shard B, which uses s2
+        VariableSlot s1 = new VariableSlot(null, 1);
+        VariableSlot s2 = new VariableSlot(null, 2);
+        VariableSlot s3 = new VariableSlot(null, 3);
+
+        VariableSlot a1 = new VariableSlot(null, 11);
+        VariableSlot a2 = new VariableSlot(null, 12);
+        VariableSlot a3 = new VariableSlot(null, 13);
+        VariableSlot a4 = new VariableSlot(null, 14);
+        List<Constraint> shardA = Arrays.<Constraint>asList(
+                new SubtypeConstraint(s1, a1),
+                new SubtypeConstraint(a1, a2),
+                new SubtypeConstraint(a2, a1),
+                new SubtypeConstraint(a2, s2),
+                new EqualityConstraint(a3, a1),
+                new ExistentialConstraint(a4,
+                        Arrays.<Constraint>asList(new SubtypeConstraint(a4, a3)),
+                        Arrays.<Constraint>asList(new EqualityConstraint(a4, s1))),
+                new SubtypeConstraint(TOP, a4));
+
+        VariableSlot b1 = new VariableSlot(null, 21);
+        VariableSlot b2 = new VariableSlot(null, 22);
+        List<Constraint> shardB = Arrays.<Constraint>asList(
+                new SubtypeConstraint(s2, b1),
+                new SubtypeConstraint(b1, s3),
+                new InequalityConstraint(b1, b2),
+                new SubtypeConstraint(b2, BOTTOM));
+
+        List<Constraint> unsharded = new ArrayList<>(shardA);
+        unsharded.addAll(shardB);
+
+        List<Constraint> linked = new ArrayList<>();
+        linked.addAll(ShardSummary.project(shardA, terminals(s1, s2)));
+        linked.addAll(ShardSummary.project(shardB, terminals(s2, s3)));
+
+        // Every assignment of the signature slots is a solution of both or of neither
+        List<VariableSlot> signature = Arrays.asList(s1, s2, s3);
+        int solutions = 0;
+        for (int assignment = 0; assignment < 1 << signature.size(); assignment++) {
+            Map<VariableSlot, Boolean> fixed = new HashMap<>();
+            for (int i = 0; i < signature.size(); i++) {
+                fixed.put(signature.get(i), (assignment & 1 << i) != 0);
+            }
+
+            boolean solvesUnsharded = isSatisfiable(unsharded, fixed);
+            assertEquals("assignment " + fixed, solvesUnsharded, isSatisfiable(linked, fixed));
+            if (solvesUnsharded) {
+                ++solutions;
+            }
+        }
+
+        // b1 must be top, so s3 must be; the existential forces s1 or a1, and with it s2, to be top
+        assertTrue(solutions > 0 && solutions < 1 << signature.size());
+    }
+
+    @Test
+    public void projectsLongChainsAndCycles() {
+        VariableSlot first = new VariableSlot(null, 1);
+        VariableSlot last = new VariableSlot(null, 2);
+        List<Constraint> constraints = new ArrayList<>();
+        Slot previous = first;
+        for (int id = 10; id < 200010; id++) {
+            VariableSlot internal = new VariableSlot(null, id);
+            constraints.add(new SubtypeConstraint(previous, internal));
+            if (id % 100 == 0) {
+                constraints.add(new SubtypeConstraint(internal, previous));
+            }
+            previous = internal;
+        }
+        constraints.add(new SubtypeConstraint(previous, last));
+
+        List<Constraint> projected = ShardSummary.project(constraints, terminals(first, last));
+        assertEquals(Collections.<Constraint>singletonList(new SubtypeConstraint(first, last)), projected);
+    }
+
+    private static Set<Slot> terminals(Slot ... signatureSlots) {
+        Set<Slot> terminals = new LinkedHashSet<Slot>(Arrays.asList(signatureSlots));
+        terminals.add(TOP);
+        terminals.add(BOTTOM);
+        return terminals;
+    }
+
+    /**
+     * @return whether some assignment of top (true) or bottom to the variables of constraints that agrees
+     *         with fixed, and of existence to their potential variables, satisfies constraints
+     */
+    private static boolean isSatisfiable(List<Constraint> constraints, Map<VariableSlot, Boolean> fixed) {
+        List<VariableSlot> free = new ArrayList<>();
+        List<VariableSlot> potentials = new ArrayList<>();
+        for (Constraint constraint : constraints) {
+            for (Slot slot : constraint.getSlots()) {
+                if (slot instanceof VariableSlot && !fixed.containsKey(slot) && !free.contains(slot)) {
+                    free.add((VariableSlot) slot);
+                }
+            }
+            if (constraint instanceof ExistentialConstraint) {
+                potentials.add(((ExistentialConstraint) constraint).getPotentialVariable());
+            }
+        }
+
+        final int bits = free.size() + potentials.size();
+        for (long assignment = 0; assignment < 1L << bits; assignment++) {
+            Map<VariableSlot, Boolean> values = new HashMap<>(fixed);
+            for (int i = 0; i < free.size(); i++) {
+                values.put(free.get(i), (assignment & 1L << i) != 0);
+            }
+            Map<VariableSlot, Boolean> exists = new HashMap<>();
+            for (int i = 0; i < potentials.size(); i++) {
+                exists.put(potentials.get(i), (assignment & 1L << (free.size() + i)) != 0);
+            }
+
+            if (satisfiesAll(constraints, values, exists)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean satisfiesAll(List<Constraint> constraints, Map<VariableSlot, Boolean> values,
+                                        Map<VariableSlot, Boolean> exists) {
+        for (Constraint constraint : constraints) {
+            if (!satisfies(constraint, values, exists)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean satisfies(Constraint constraint, Map<VariableSlot, Boolean> values,
+                                     Map<VariableSlot, Boolean> exists) {
+        if (constraint instanceof SubtypeConstraint) {
+            SubtypeConstraint subtype = (SubtypeConstraint) constraint;
+            return !isTop(subtype.getSubtype(), values) || isTop(subtype.getSupertype(), values);
+        } else if (constraint instanceof EqualityConstraint) {
+            EqualityConstraint equality = (EqualityConstraint) constraint;
+            return isTop(equality.getFirst(), values) == isTop(equality.getSecond(), values);
+        } else if (constraint instanceof InequalityConstraint) {
+            InequalityConstraint inequality = (InequalityConstraint) constraint;
+            return isTop(inequality.getFirst(), values) != isTop(inequality.getSecond(), values);
+        } else if (constraint instanceof ExistentialConstraint) {
+            ExistentialConstraint existential = (ExistentialConstraint) constraint;
+            return exists.get(existential.getPotentialVariable())
+                 ? satisfiesAll(existential.potentialConstraints(), values, exists)
+                 : satisfiesAll(existential.getAlternateConstraints(), values, exists);
+        }
+        throw new IllegalArgumentException("Unexpected constraint " + constraint);
+    }
+
+    private static boolean isTop(Slot slot, Map<VariableSlot, Boolean> values) {
+        return slot instanceof ConstantSlot ? slot == TOP : values.get(slot);
+    }
+
+    private static ConstantSlot constant(final String name) {
+        return new ConstantSlot(new AnnotationMirror() {
+            @Override
+            public DeclaredType getAnnotationType() {
+                return null;
+            }
+
+            @Override
+            public Map<? extends ExecutableElement, ? extends AnnotationValue> getElementValues() {
+                return Collections.emptyMap();
+            }
+
+            @Override
+            public String toString() {
+                return name;
+            }
+        });
+    }
+}
@@ -0,0 +1,44 @@
+package checkers.inference;
+
+import checkers.inference.model.Constraint;
+import checkers.inference.model.SubtypeConstraint;
+import checkers.inference.model.VariableSlot;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SlotIdCompactorTest {
+
+    @Test
+    public void renumbersConstrainedSlotsDensely() {
+        VariableSlot a = new VariableSlot(null, 3);
+        VariableSlot b = new VariableSlot(null, 70);
+        VariableSlot c = new VariableSlot(null, 5000);
+        List<Constraint> constraints = Arrays.<Constraint>asList(
+                new SubtypeConstraint(c, a), new SubtypeConstraint(a, b));
+
+        SlotIdCompactor compactor = SlotIdCompactor.of(constraints);
+        assertEquals(3, compactor.getConstrainedCount());
+        assertEquals(1, compactor.compactId(a));
+        assertEquals(2, compactor.compactId(b));
+        assertEquals(3, compactor.compactId(c));
+        assertEquals(5000, compactor.originalId(3));
+        assertArrayEquals(new int [] {3, 70, 5000}, compactor.getOriginalIds());
+
+        assertEquals(4, compactor.newVar());
+        assertEquals(4, compactor.size());
+        assertEquals(-1, compactor.originalId(4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnconstrainedSlots() {
+        VariableSlot a = new VariableSlot(null, 1);
+        VariableSlot b = new VariableSlot(null, 2);
+        SlotIdCompactor.of(Arrays.<Constraint>asList(new SubtypeConstraint(a, b)))
+                       .compactId(new VariableSlot(null, 3));
+    }
+}
@@ -0,0 +1,99 @@
+package checkers.inference;
+
+import checkers.inference.model.CombVariableSlot;
+import checkers.inference.model.RefinementVariableSlot;
+import checkers.inference.model.VariableSlot;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SlotStoreTest {
+
+    @Test
+    public void lookupAcrossPages() {
+        SlotStore store = new SlotStore();
+        VariableSlot first = new VariableSlot(null, 1);
+        VariableSlot far = new VariableSlot(null, 1 << 24);
+        store.put(far);
+        store.put(first);
+
+        assertSame(first, store.get(1));
+        assertSame(far, store.get(1 << 24));
+        assertNull(store.get(2));
+        assertNull(store.get(-1));
+        assertNull(store.get(1 << 25));
+        assertEquals(Arrays.asList(first, far), store.getAll());
+    }
+
+    @Test
+    public void filterByKind() {
+        SlotStore store = new SlotStore();
+        VariableSlot variable = new VariableSlot(null, 1);
+        RefinementVariableSlot refinement = new RefinementVariableSlot(null, 2, variable);
+        CombVariableSlot comb = new CombVariableSlot(null, 70, variable, refinement);
+        store.put(comb);
+        store.put(refinement);
+        store.put(variable);
+
+        assertEquals(3, store.size());
+        assertEquals(Arrays.asList(variable), store.getAll(SlotStore.Kind.VARIABLE));
+        assertEquals(Arrays.asList(refinement), store.getAll(SlotStore.Kind.REFINEMENT));
+        assertEquals(Arrays.asList(comb), store.getAll(SlotStore.Kind.COMB));
+        assertEquals(0, store.size(SlotStore.Kind.EXISTENTIAL));
+    }
+
+    @Test
+    public void replaceSlot() {
+        SlotStore store = new SlotStore();
+        VariableSlot variable = new VariableSlot(null, 5);
+        RefinementVariableSlot refinement = new RefinementVariableSlot(null, 5, variable);
+        store.put(variable);
+        store.put(refinement);
+
+        assertEquals(1, store.size());
+        assertSame(refinement, store.get(5));
+        assertEquals(0, store.size(SlotStore.Kind.VARIABLE));
+        assertEquals(Arrays.asList((VariableSlot) refinement), store.getAll(SlotStore.Kind.REFINEMENT));
+    }
+
+    @Test
+    public void liveViews() {
+        SlotStore store = new SlotStore();
+        SlotView view = store.view();
+        VariableSlot variable = new VariableSlot(null, 1);
+        RefinementVariableSlot refinement = new RefinementVariableSlot(null, 63, variable);
+        VariableSlot far = new VariableSlot(null, 5000);
+        store.put(far);
+        store.put(refinement);
+        store.put(variable);
+
+        assertEquals(3, view.size());
+        assertEquals(Arrays.asList(variable, refinement, far), new ArrayList<>(view));
+        assertEquals(Arrays.asList(variable, far), new ArrayList<>(view.ofKind(SlotStore.Kind.VARIABLE)));
+        assertEquals(Arrays.asList((VariableSlot) refinement), new ArrayList<>(view.range(2, 5000)));
+        assertTrue(view.range(64, 5000).isEmpty());
+        assertTrue(view.range(2, 5000).ofKind(SlotStore.Kind.VARIABLE).isEmpty());
+
+        BitSet ids = new BitSet();
+        ids.set(1);
+        ids.set(2);
+        ids.set(5000);
+        SlotView restricted = view.restrictTo(ids);
+        assertEquals(Arrays.asList(variable, far), new ArrayList<>(restricted));
+        assertTrue(restricted.contains(far));
+        assertFalse(restricted.contains(refinement));
+
+        VariableSlot added = new VariableSlot(null, 2);
+        store.put(added);
+        assertEquals(Arrays.asList(variable, added, far), new ArrayList<>(restricted));
+        assertEquals(ids, SlotView.idsOf(restricted));
+    }
+}
@@ -0,0 +1,105 @@
+package checkers.inference;
+
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.SubtypeConstraint;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.type.DeclaredType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SpillingConstraintManagerTest {
+
+    private static final File SPILL_DIR = new File(System.getProperty("java.io.tmpdir"));
+
+    @Test
+    public void closesLogPerIteration() throws IOException {
+        SpillingConstraintManager manager = new SpillingConstraintManager(SPILL_DIR, 16);
+        try {
+            // An empty log is never opened
+            assertFalse(manager.getConstraints().iterator().hasNext());
+            assertEquals(0, manager.getOpenIteratorCount());
+
+            for (int i = 0; i < 3; i++) {
+                manager.add(new SubtypeConstraint(constant(i), constant(i + 1)));
+            }
+
+            int read = 0;
+            for (Constraint constraint : manager.getConstraints()) {
+                ++read;
+            }
+            assertEquals(3, read);
+            assertEquals(0, manager.getOpenIteratorCount());
+
+            // An iteration that stops early closes the log itself or leaves it to the manager
+            Iterator<Constraint> abandoned = manager.getConstraints().iterator();
+            abandoned.next();
+            Iterator<Constraint> closed = manager.getConstraints().iterator();
+            closed.next();
+            assertEquals(2, manager.getOpenIteratorCount());
+            ((Closeable) closed).close();
+            assertFalse(closed.hasNext());
+            assertEquals(1, manager.getOpenIteratorCount());
+        } finally {
+            manager.close();
+        }
+        assertEquals(0, manager.getOpenIteratorCount());
+    }
+
+    @Test
+    public void readsBackAcrossSlotTableResets() {
+        SpillingConstraintManager manager = new SpillingConstraintManager(SPILL_DIR, 16);
+        try {
+            // More distinct slots than the serializer keeps between resets, each used twice
+            List<Constraint> added = new ArrayList<>();
+            ConstantSlot previous = constant(0);
+            for (int i = 1; i <= 100000; i++) {
+                ConstantSlot next = constant(i);
+                added.add(new SubtypeConstraint(previous, next));
+                previous = next;
+            }
+            for (Constraint constraint : added) {
+                manager.add(constraint);
+            }
+
+            List<Constraint> read = new ArrayList<>(manager.getConstraints());
+            assertEquals(added, read);
+            assertEquals(0, manager.getOpenIteratorCount());
+        } finally {
+            manager.close();
+        }
+    }
+
+    private static ConstantSlot constant(final int index) {
+        return new ConstantSlot(new AnnotationMirror() {
+            @Override
+            public DeclaredType getAnnotationType() {
+                return null;
+            }
+
+            @Override
+            public Map<? extends ExecutableElement, ? extends AnnotationValue> getElementValues() {
+                return Collections.emptyMap();
+            }
+
+            @Override
+            public String toString() {
+                return "@Q" + index;
+            }
+        });
+    }
+}
@@ -4,15 +4,27 @@ import static org.mockito.Mockito.mock;
 
 import org.checkerframework.framework.type.AnnotatedTypeMirror;
 
+import checkers.inference.model.CombVariableSlot;
+import checkers.inference.model.CombineConstraint;
 import checkers.inference.model.ComparableConstraint;
 import checkers.inference.model.ConstantSlot;
 import checkers.inference.model.Constraint;
 import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.ExistentialConstraint;
+import checkers.inference.model.ExistentialVariableSlot;
 import checkers.inference.model.InequalityConstraint;
+import checkers.inference.model.PreferenceConstraint;
+import checkers.inference.model.RefinementVariableSlot;
 import checkers.inference.model.SubtypeConstraint;
 import checkers.inference.model.VariableSlot;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 
@@ -83,6 +95,63 @@ public class TestSerialization {
         Assert.assertEquals(new HashSet<>(constraints), new HashSet<>(results));
     }
 
+    /**
+     * Test that the binary format recreates the same slots and constraints and that a slot used by several
+     * constraints is read back as a single object.
+     */
+    @Test
+    public void testBinarySerialization() throws IOException {
+
+        AnnotationMirrorSerializer annotationSerializer = new SimpleAnnotationMirrorSerializer(top, bottom);
+
+        VariableSlot slot1 = new VariableSlot(null, 1);
+        VariableSlot slot2 = new VariableSlot(null, 2);
+        slot2.setInsertable(false);
+        RefinementVariableSlot refinement = new RefinementVariableSlot(null, 3, slot1);
+        CombVariableSlot comb = new CombVariableSlot(null, 4, slot1, slot2);
+        ExistentialVariableSlot existential = new ExistentialVariableSlot(5, slot1, slot2);
+        ConstantSlot topSlot = new ConstantSlot(top);
+
+        List<Constraint> constraints = new ArrayList<Constraint>();
+        constraints.add(new SubtypeConstraint(slot1, topSlot));
+        constraints.add(new EqualityConstraint(refinement, slot2));
+        constraints.add(new CombineConstraint(slot1, slot2, comb));
+        constraints.add(new SubtypeConstraint(existential, slot2));
+        constraints.add(new PreferenceConstraint(slot2, topSlot, 7));
+        constraints.add(new ExistentialConstraint(slot1,
+                Arrays.<Constraint>asList(new SubtypeConstraint(slot1, slot2)),
+                Arrays.<Constraint>asList(new InequalityConstraint(slot2, topSlot))));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinarySerializer serializer = new BinarySerializer(new DataOutputStream(bytes), annotationSerializer);
+        serializer.writeSlot(slot1);
+        for (Constraint constraint : constraints) {
+            serializer.writeConstraint(constraint);
+        }
+        serializer.writeEnd();
+
+        BinaryDeserializer deserializer = new BinaryDeserializer(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), annotationSerializer);
+        List<checkers.inference.model.Slot> slots = new ArrayList<>();
+        List<Constraint> results = new ArrayList<>();
+        deserializer.readAll(slots, results);
+
+        Assert.assertEquals(Arrays.asList(slot1), slots);
+        Assert.assertEquals(constraints.size(), results.size());
+        // ExistentialConstraint has no equals
+        Assert.assertEquals(constraints.subList(0, 5), results.subList(0, 5));
+
+        SubtypeConstraint first = (SubtypeConstraint) results.get(0);
+        Assert.assertSame(slots.get(0), first.getSubtype());
+        Assert.assertSame(top, ((ConstantSlot) first.getSupertype()).getValue());
+        Assert.assertFalse(((VariableSlot) ((EqualityConstraint) results.get(1)).getSecond()).isInsertable());
+        Assert.assertEquals(7, ((PreferenceConstraint) results.get(4)).getWeight());
+
+        ExistentialConstraint existentialConstraint = (ExistentialConstraint) results.get(5);
+        Assert.assertSame(slots.get(0), existentialConstraint.getPotentialVariable());
+        Assert.assertEquals(constraints.get(5).getSlots(), existentialConstraint.getSlots());
+    }
+
     // Use reference equality to have two distinct annotation mirrors (top and bottom).
     // Mockito allows us to not stub out other abstract methods in AnnotationMirror.
     private abstract class TestAnnotationMirror implements AnnotationMirror {
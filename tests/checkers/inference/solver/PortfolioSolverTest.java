@@ -0,0 +1,141 @@
+package checkers.inference.solver;
+
+import checkers.inference.DefaultInferenceSolution;
+import checkers.inference.InferenceSolution;
+import checkers.inference.InferenceSolver;
+import checkers.inference.model.CombineConstraint;
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.ExistentialConstraint;
+import checkers.inference.model.Slot;
+import checkers.inference.model.VariableSlot;
+import org.checkerframework.framework.type.QualifierHierarchy;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.type.DeclaredType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PortfolioSolverTest {
+
+    private static final ConstantSlot TOP = new ConstantSlot(new AnnotationMirror() {
+        @Override
+        public DeclaredType getAnnotationType() {
+            return null;
+        }
+
+        @Override
+        public Map<? extends ExecutableElement, ? extends AnnotationValue> getElementValues() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public String toString() {
+            return "@Top";
+        }
+    });
+
+    private static final VariableSlot V1 = new VariableSlot(null, 1);
+    private static final VariableSlot V2 = new VariableSlot(null, 2);
+    private static final VariableSlot V3 = new VariableSlot(null, 3);
+
+    @Test
+    public void unassignedVariablesAreViolations() {
+        List<Constraint> constraints = Arrays.<Constraint>asList(new EqualityConstraint(V1, TOP));
+
+        assertEquals(1, PortfolioSolver.score(solution(), constraints, null).violatedConstraints);
+        assertTrue(PortfolioSolver.score(solution(V1), constraints, null).isValid());
+    }
+
+    @Test
+    public void scoresExistentialAndCombineConstraints() {
+        List<Constraint> existential = Arrays.<Constraint>asList(new ExistentialConstraint(V1,
+                Arrays.<Constraint>asList(new EqualityConstraint(V2, TOP)),
+                Arrays.<Constraint>asList(new EqualityConstraint(V3, TOP))));
+
+        // Without the existence of the potential variable the constraint is not handled
+        assertEquals(1, PortfolioSolver.score(solution(V2), existential, null).violatedConstraints);
+
+        // Otherwise only the constraints of the branch it selects must hold
+        InferenceSolution exists = solution(V2);
+        exists.getIdToExistance().put(V1.getId(), true);
+        assertTrue(PortfolioSolver.score(exists, existential, null).isValid());
+
+        InferenceSolution missing = solution(V2);
+        missing.getIdToExistance().put(V1.getId(), false);
+        assertEquals(1, PortfolioSolver.score(missing, existential, null).violatedConstraints);
+
+        List<Constraint> combine = Arrays.<Constraint>asList(new CombineConstraint(V1, V2, V3));
+        assertEquals(1, PortfolioSolver.score(solution(V1, V2), combine, null).violatedConstraints);
+        assertTrue(PortfolioSolver.score(solution(V1, V2, V3), combine, null).isValid());
+    }
+
+    @Test
+    public void runsSolversInTurnWithTimeout() {
+        Map<String, String> configuration = new HashMap<>();
+        configuration.put(PortfolioSolver.SOLVERS_KEY,
+                          UnassigningSolver.class.getName() + ":" + AssigningSolver.class.getName());
+        configuration.put(PortfolioSolver.DEADLINE_KEY, "60000");
+
+        List<Constraint> constraints = Arrays.<Constraint>asList(new EqualityConstraint(V1, TOP));
+        InferenceSolution solution = new PortfolioSolver().solve(configuration, Collections.<Slot>singletonList(V1),
+                                                                 constraints, null, null);
+
+        // The first solver leaves V1 unassigned, so the second one's solution is selected
+        assertSame(TOP.getValue(), solution.getAnnotation(V1.getId()));
+
+        // Both solvers ran on this thread, each given the time left as its timeout
+        assertSame(Thread.currentThread(), UnassigningSolver.thread);
+        assertSame(Thread.currentThread(), AssigningSolver.thread);
+        long timeout = Long.parseLong(AssigningSolver.configuration.get(InferenceSolver.TIMEOUT_KEY));
+        assertTrue(timeout > 0 && timeout <= 60000);
+    }
+
+    private static InferenceSolution solution(VariableSlot ... topVariables) {
+        Map<Integer, AnnotationMirror> annotations = new HashMap<>();
+        for (VariableSlot variable : topVariables) {
+            annotations.put(variable.getId(), TOP.getValue());
+        }
+        return new DefaultInferenceSolution(annotations, new HashMap<Integer, Boolean>());
+    }
+
+    public static class UnassigningSolver implements InferenceSolver {
+        static Thread thread;
+
+        @Override
+        public InferenceSolution solve(Map<String, String> configuration, Collection<Slot> slots,
+                                       Collection<Constraint> constraints, QualifierHierarchy qualHierarchy,
+                                       ProcessingEnvironment processingEnvironment) {
+            thread = Thread.currentThread();
+            return solution();
+        }
+    }
+
+    public static class AssigningSolver implements InferenceSolver {
+        static Thread thread;
+        static Map<String, String> configuration;
+
+        @Override
+        public InferenceSolution solve(Map<String, String> configuration, Collection<Slot> slots,
+                                       Collection<Constraint> constraints, QualifierHierarchy qualHierarchy,
+                                       ProcessingEnvironment processingEnvironment) {
+            thread = Thread.currentThread();
+            AssigningSolver.configuration = configuration;
+            return solution(V1);
+        }
+    }
+}